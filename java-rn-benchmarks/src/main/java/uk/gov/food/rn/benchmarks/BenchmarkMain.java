@@ -0,0 +1,29 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, so that allocation per operation
+ * is reported alongside time. Arguments are passed to JMH, so for example
+ * {@code java -jar target/benchmarks.jar Decode -f 2} runs just the decode
+ * benchmarks in two forks.
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        Options options = new OptionsBuilder()
+            .parent(new CommandLineOptions(args))
+            .addProfiler(GCProfiler.class)
+            .build();
+        new Runner(options).run();
+    }
+}
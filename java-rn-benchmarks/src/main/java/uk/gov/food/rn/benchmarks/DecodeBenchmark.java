@@ -0,0 +1,93 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.gov.food.rn.PackedRN;
+import uk.gov.food.rn.RN;
+import uk.gov.food.rn.RNException;
+
+/**
+ * Decoding and validating encoded RNs, both valid and mistyped.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DecodeBenchmark {
+    private String[] valid;
+    private String[] invalid;
+    private final long[] packed = new long[2];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        valid = Fixtures.encoded(Fixtures.rns());
+        invalid = Fixtures.mistyped(valid);
+    }
+
+    private int next() {
+        return next++ & (Fixtures.SIZE - 1);
+    }
+
+    /** new RN(String) on valid input */
+    @Benchmark
+    public RN valid() {
+        return new RN(valid[next()]);
+    }
+
+    /** As above, with four threads decoding at once */
+    @Benchmark
+    @Threads(4)
+    public RN validThreads4() {
+        return new RN(valid[next()]);
+    }
+
+    /** new RN(String) on input whose check digits fail, as a validator using exceptions would */
+    @Benchmark
+    public RNException invalid() {
+        try {
+            new RN(invalid[next()]);
+            return null;
+        } catch (RNException e) {
+            return e;
+        }
+    }
+
+    /** PackedRN.decode on valid input */
+    @Benchmark
+    public long packedValid() {
+        int status = PackedRN.decode(valid[next()], packed, 0);
+        return packed[0] + packed[1] + status;
+    }
+
+    /** PackedRN.decode on input whose check digits fail */
+    @Benchmark
+    public int packedInvalid() {
+        return PackedRN.decode(invalid[next()], packed, 0);
+    }
+
+    /** PackedRN.isValid on a mix of valid and invalid input */
+    @Benchmark
+    public boolean validate() {
+        int i = next();
+        return PackedRN.isValid((i & 1) == 0 ? valid[i] : invalid[i]);
+    }
+}
@@ -0,0 +1,82 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.gov.food.rn.PackedRN;
+import uk.gov.food.rn.RN;
+
+/**
+ * Encoding an RN to its grouped base 33 form.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EncodeBenchmark {
+    private RN[] rns;
+    private long[] high;
+    private long[] low;
+    private final char[] chars = new char[PackedRN.ENCODED_LENGTH];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        rns = Fixtures.rns();
+        high = new long[rns.length];
+        low = new long[rns.length];
+        for (int i = 0; i < rns.length; i++) {
+            high[i] = PackedRN.high(rns[i]);
+            low[i] = PackedRN.low(rns[i]);
+        }
+    }
+
+    private int next() {
+        return next++ & (Fixtures.SIZE - 1);
+    }
+
+    /** Representation.getEncodedForm, via BigInteger arithmetic */
+    @Benchmark
+    public String representation() {
+        return rns[next()].getEncodedForm();
+    }
+
+    /** As above, with four threads encoding at once */
+    @Benchmark
+    @Threads(4)
+    public String representationThreads4() {
+        return rns[next()].getEncodedForm();
+    }
+
+    /** PackedRN.encode to a String */
+    @Benchmark
+    public String packed() {
+        int i = next();
+        return PackedRN.encode(high[i], low[i]);
+    }
+
+    /** PackedRN.encode into a reused buffer */
+    @Benchmark
+    public char[] packedIntoBuffer() {
+        int i = next();
+        PackedRN.encode(high[i], low[i], chars, 0);
+        return chars;
+    }
+}
@@ -0,0 +1,63 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.benchmarks;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Random;
+
+import uk.gov.food.rn.Authority;
+import uk.gov.food.rn.Instance;
+import uk.gov.food.rn.RN;
+import uk.gov.food.rn.Representation;
+import uk.gov.food.rn.Type;
+import uk.gov.food.rn.Version;
+
+/**
+ * Reproducible inputs shared by the benchmarks.
+ */
+final class Fixtures {
+    /** The number of distinct inputs each benchmark cycles through, a power of two */
+    static final int SIZE = 1024;
+
+    private Fixtures() {
+    }
+
+    /** @return Valid RNs issued at random times since 2018 */
+    static RN[] rns() {
+        Random random = new Random(1087);
+        RN[] rns = new RN[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            long millis = 1514764800000L + (long) (random.nextDouble() * 3.0e11);
+            rns[i] = new RN(new Authority(1000 + random.nextInt(9000)), new Instance(random.nextInt(1000)),
+                            new Type(random.nextInt(1000)),
+                            Instant.ofEpochMilli(millis).atZone(ZoneOffset.UTC), new Version(0));
+        }
+        return rns;
+    }
+
+    /** @return The encoded forms of some RNs */
+    static String[] encoded(RN[] rns) {
+        String[] encoded = new String[rns.length];
+        for (int i = 0; i < rns.length; i++) {
+            encoded[i] = rns[i].getEncodedForm();
+        }
+        return encoded;
+    }
+
+    /** @return The encoded forms with one character changed, so the check digits fail */
+    static String[] mistyped(String[] encoded) {
+        Random random = new Random(33);
+        String[] mistyped = new String[encoded.length];
+        for (int i = 0; i < encoded.length; i++) {
+            char[] chars = encoded[i].toCharArray();
+            int pos = random.nextInt(6);
+            int d = Representation.ALPHABET.indexOf(chars[pos]);
+            chars[pos] = Representation.ALPHABET.charAt((d + 1 + random.nextInt(32)) % 33);
+            mistyped[i] = new String(chars);
+        }
+        return mistyped;
+    }
+}
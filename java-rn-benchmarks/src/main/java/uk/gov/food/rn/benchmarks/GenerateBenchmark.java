@@ -0,0 +1,94 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.gov.food.rn.Authority;
+import uk.gov.food.rn.Instance;
+import uk.gov.food.rn.RN;
+import uk.gov.food.rn.RNFactory;
+import uk.gov.food.rn.Type;
+
+/**
+ * Issuing new RNs. A factory issues at most one RN per millisecond, so the
+ * throughput of a single factory is bounded by the clock, however many threads
+ * share it; factories for distinct instances do not contend.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GenerateBenchmark {
+    private static final Authority AUTHORITY = new Authority(1000);
+    private static final Type TYPE = new Type(1);
+
+    /** One factory shared by every thread */
+    @State(Scope.Benchmark)
+    public static class Shared {
+        RNFactory factory;
+
+        @Setup
+        public void setUp() {
+            factory = RNFactory.getFactory(AUTHORITY, new Instance(0), TYPE);
+        }
+    }
+
+    /** A factory for each thread, each for its own instance */
+    @State(Scope.Thread)
+    public static class PerThread {
+        private static final AtomicInteger INSTANCES = new AtomicInteger(1);
+
+        RNFactory factory;
+
+        @Setup
+        public void setUp() {
+            factory = RNFactory.getFactory(AUTHORITY, new Instance(INSTANCES.getAndIncrement()), TYPE);
+        }
+    }
+
+    /** One thread issuing from one factory */
+    @Benchmark
+    @Threads(1)
+    public RN sharedFactory(Shared state) {
+        return state.factory.generateReferenceNumber();
+    }
+
+    /** Four threads contending for one factory */
+    @Benchmark
+    @Threads(4)
+    public RN sharedFactoryThreads4(Shared state) {
+        return state.factory.generateReferenceNumber();
+    }
+
+    /** Four threads, each issuing from its own factory */
+    @Benchmark
+    @Threads(4)
+    public RN factoryPerThreadThreads4(PerThread state) {
+        return state.factory.generateReferenceNumber();
+    }
+
+    /** Looking up a factory in the registry, without issuing from it */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public RNFactory getFactory() {
+        return RNFactory.getFactory(AUTHORITY, new Instance(0), TYPE);
+    }
+}
@@ -0,0 +1,102 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.benchmarks;
+
+import java.math.BigInteger;
+import java.time.ZonedDateTime;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.gov.food.rn.Authority;
+import uk.gov.food.rn.Instance;
+import uk.gov.food.rn.PackedRN;
+import uk.gov.food.rn.RN;
+import uk.gov.food.rn.Type;
+import uk.gov.food.rn.Version;
+
+/**
+ * Packing the fields of an RN into its decimal form, and parsing them back out.
+ * RN.packElements and RN.parseDecimalForm are protected, so they are measured
+ * through the constructors that call them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ValueBenchmark {
+    private Authority[] authorities;
+    private Instance[] instances;
+    private Type[] types;
+    private ZonedDateTime[] instants;
+    private BigInteger[] values;
+    private long[] high;
+    private long[] low;
+    private final Version version = new Version(0);
+    private int next;
+
+    @Setup
+    public void setUp() {
+        RN[] rns = Fixtures.rns();
+        authorities = new Authority[rns.length];
+        instances = new Instance[rns.length];
+        types = new Type[rns.length];
+        instants = new ZonedDateTime[rns.length];
+        values = new BigInteger[rns.length];
+        high = new long[rns.length];
+        low = new long[rns.length];
+        for (int i = 0; i < rns.length; i++) {
+            authorities[i] = rns[i].getAuthority();
+            instances[i] = rns[i].getInstance();
+            types[i] = rns[i].getType();
+            instants[i] = rns[i].getInstant().getInstant();
+            values[i] = rns[i].getValue();
+            high[i] = PackedRN.high(rns[i]);
+            low[i] = PackedRN.low(rns[i]);
+        }
+    }
+
+    private int next() {
+        return next++ & (Fixtures.SIZE - 1);
+    }
+
+    /** new RN(fields), which calls packElements */
+    @Benchmark
+    public RN packElements() {
+        int i = next();
+        return new RN(authorities[i], instances[i], types[i], instants[i], version);
+    }
+
+    /** new RN(BigInteger), which calls parseDecimalForm */
+    @Benchmark
+    public RN parseDecimalForm() {
+        return new RN(values[next()]);
+    }
+
+    /** PackedRN.toRN, which builds an RN from primitive fields */
+    @Benchmark
+    public RN fromPacked() {
+        int i = next();
+        return PackedRN.toRN(high[i], low[i]);
+    }
+
+    /** The two limbs of the decimal form, computed from primitive fields */
+    @Benchmark
+    public long packedDecimal() {
+        int i = next();
+        return PackedRN.decimalHigh(high[i], low[i]) ^ PackedRN.decimalLow(high[i], low[i]);
+    }
+}
@@ -68,10 +68,11 @@ public class Authority {
     
     /**
      * @param other
-     * @return
+     * @return True if other is an authority with the same identifier
      */
-    public boolean equals(Authority other) {
-    	return getId() == other.getId();
+    @Override
+    public boolean equals(Object other) {
+    	return other instanceof Authority && getId() == ((Authority) other).getId();
     }
     
     @Override
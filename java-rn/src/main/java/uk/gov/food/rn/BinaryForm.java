@@ -0,0 +1,245 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Compact fixed width binary serialisation of reference numbers.
+ *
+ * The 24 digit decimal form of an RN (see {@link RN#getValue()}) is less than
+ * 2^80, so it is written as a 10 byte unsigned big-endian integer. Comparing
+ * two binary forms byte by byte (unsigned) gives the same order as comparing
+ * their decimal values, so the binary form can be used directly as a key in
+ * byte ordered stores.
+ *
+ * The byte order is fixed regardless of the order set on a {@link ByteBuffer}.
+ */
+public final class BinaryForm {
+    /** The number of bytes in the binary form of an RN */
+    public static final int BYTES = 10;
+
+    private static final long MASK_32 = 0xFFFFFFFFL;
+    private static final long MILLION = 1_000_000L;
+
+    private BinaryForm() {
+    }
+
+    /**
+     * Write the binary form of an RN at the buffer's current position.
+     */
+    public static void write(RN rn, ByteBuffer buf) {
+        write(PackedRN.high(rn), PackedRN.low(rn), buf);
+    }
+
+    /**
+     * Write the binary form of a packed RN at the buffer's current position.
+     *
+     * @see PackedRN
+     */
+    public static void write(long high, long low, ByteBuffer buf) {
+        long h = PackedRN.decimalHigh(high, low);
+        long l = PackedRN.decimalLow(high, low);
+
+        // value = h * 10^12 + l, computed in 32 bit limbs as (h * 10^6) * 10^6 + l
+        long a = h * MILLION;
+        long p0 = (a & MASK_32) * MILLION + (l & MASK_32);
+        long p1 = (a >>> 32) * MILLION + (l >>> 32) + (p0 >>> 32);
+
+        short top = (short) (p1 >>> 32);
+        long bottom = (p1 << 32) | (p0 & MASK_32);
+        if (buf.order() == ByteOrder.BIG_ENDIAN) {
+            buf.putShort(top).putLong(bottom);
+        } else {
+            buf.putShort(Short.reverseBytes(top)).putLong(Long.reverseBytes(bottom));
+        }
+    }
+
+    /**
+     * Write the binary form of an RN to a data output.
+     */
+    public static void write(RN rn, DataOutput out) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(BYTES);
+        write(rn, buf);
+        out.write(buf.array());
+    }
+
+    /**
+     * Read an RN from its binary form at the buffer's current position.
+     *
+     * @throws RNException if the bytes do not hold a valid RN
+     */
+    public static RN read(ByteBuffer buf) {
+        long[] packed = new long[2];
+        int status = read(buf, packed, 0);
+        if (status != PackedRN.DECODED) {
+            throw new RNException(String.format("Bad binary form (status %d)", status));
+        }
+        return PackedRN.toRN(packed[0], packed[1]);
+    }
+
+    /**
+     * Read an RN from its binary form on a data input.
+     *
+     * @throws RNException if the bytes do not hold a valid RN
+     */
+    public static RN read(DataInput in) throws IOException {
+        byte[] bytes = new byte[BYTES];
+        in.readFully(bytes);
+        return read(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Read the packed form of an RN from its binary form at the buffer's current position,
+     * without raising exceptions. The outcome is counted by {@link DecodeCounters}.
+     *
+     * @param out Receives the high half at offset and the low half at offset + 1, on success only
+     * @return {@link PackedRN#DECODED}, or the status code of the first check that failed
+     */
+    public static int read(ByteBuffer buf, long[] out, int offset) {
+        int start = buf.position();
+        int status = probe(buf, out, offset);
+        if (status == PackedRN.DECODED) {
+            DecodeCounters.recordDecoded(PackedRN.authority(out[offset]));
+        } else {
+            StringBuilder hex = new StringBuilder(BYTES * 2);
+            for (int k = 0; k < BYTES; k++) {
+                hex.append(String.format("%02x", buf.get(start + k)));
+            }
+            DecodeCounters.recordRejected(status, hex);
+        }
+        return status;
+    }
+
+    /**
+     * Read the packed form of an RN from its binary form at the buffer's current position,
+     * as {@link #read(ByteBuffer, long[], int)} does, but without counting the outcome, for
+     * replaying RNs already stored rather than decoding new inputs.
+     */
+    public static int probe(ByteBuffer buf, long[] out, int offset) {
+        long top;
+        long bottom;
+        if (buf.order() == ByteOrder.BIG_ENDIAN) {
+            top = buf.getShort() & 0xFFFFL;
+            bottom = buf.getLong();
+        } else {
+            top = Short.reverseBytes(buf.getShort()) & 0xFFFFL;
+            bottom = Long.reverseBytes(buf.getLong());
+        }
+
+        // value / 10^6, one 32 bit limb at a time; top < 10^6, so the quotient fits in a long
+        long t = (top << 32) | (bottom >>> 32);
+        long q1 = t / MILLION;
+        t = ((t % MILLION) << 32) | (bottom & MASK_32);
+        long q0 = t / MILLION;
+        long r0 = t % MILLION;
+
+        long q = (q1 << 32) + q0;
+        long h = q / MILLION;
+        long l = q % MILLION * MILLION + r0;
+        if (h >= PackedRN.LIMB) {
+            return PackedRN.BAD_DECIMAL_FORM;
+        }
+        return PackedRN.unpackDecimal(h, l, out, offset);
+    }
+
+    /**
+     * @return The binary form of an RN
+     */
+    public static byte[] toBytes(RN rn) {
+        ByteBuffer buf = ByteBuffer.allocate(BYTES);
+        write(rn, buf);
+        return buf.array();
+    }
+
+    /**
+     * @return The RN held in a binary form
+     * @throws RNException if the bytes do not hold a valid RN
+     */
+    public static RN fromBytes(byte[] bytes) {
+        if (bytes.length != BYTES) {
+            throw new RNException(String.format("Bad binary form (incorrect length): %d bytes", bytes.length));
+        }
+        return read(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Write the binary forms of an array of RNs, consecutively, at the buffer's current position.
+     */
+    public static void writeAll(RN[] rns, ByteBuffer buf) {
+        for (RN rn : rns) {
+            write(rn, buf);
+        }
+    }
+
+    /**
+     * Write the binary forms of an array of packed RNs, held as consecutive
+     * (high, low) pairs, at the buffer's current position.
+     */
+    public static void writeAll(long[] packed, ByteBuffer buf) {
+        for (int i = 0; i < packed.length; i += 2) {
+            write(packed[i], packed[i + 1], buf);
+        }
+    }
+
+    /**
+     * Read the given number of consecutive RNs from their binary forms.
+     *
+     * @throws RNException if any of the entries does not hold a valid RN
+     */
+    public static RN[] readAll(ByteBuffer buf, int count) {
+        RN[] rns = new RN[count];
+        long[] packed = new long[2];
+        for (int i = 0; i < count; i++) {
+            int status = read(buf, packed, 0);
+            if (status != PackedRN.DECODED) {
+                throw new RNException(String.format("Bad binary form (status %d) at entry %d", status, i));
+            }
+            rns[i] = PackedRN.toRN(packed[0], packed[1]);
+        }
+        return rns;
+    }
+
+    /**
+     * Read consecutive binary forms into packed (high, low) pairs, filling the given array.
+     *
+     * @return The number of entries that failed to decode; their pairs are left as zero
+     */
+    public static int readAll(ByteBuffer buf, long[] packed) {
+        int failures = 0;
+        for (int i = 0; i < packed.length; i += 2) {
+            if (read(buf, packed, i) != PackedRN.DECODED) {
+                packed[i] = 0;
+                packed[i + 1] = 0;
+                failures++;
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * @return The binary forms of an array of RNs, concatenated
+     */
+    public static byte[] toBytes(RN[] rns) {
+        ByteBuffer buf = ByteBuffer.allocate(rns.length * BYTES);
+        writeAll(rns, buf);
+        return buf.array();
+    }
+
+    /**
+     * @return The RNs held in concatenated binary forms
+     * @throws RNException if the bytes do not hold a whole number of valid RNs
+     */
+    public static RN[] fromBytesAll(byte[] bytes) {
+        if (bytes.length % BYTES != 0) {
+            throw new RNException(String.format("Bad binary form (incorrect length): %d bytes", bytes.length));
+        }
+        return readAll(ByteBuffer.wrap(bytes), bytes.length / BYTES);
+    }
+}
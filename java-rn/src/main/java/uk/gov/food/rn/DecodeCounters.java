@@ -0,0 +1,167 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import uk.gov.food.rn.metrics.DecodeSnapshot;
+import uk.gov.food.rn.metrics.RejectedSample;
+
+/**
+ * Counts the outcomes of decoding RNs: encoded forms, by {@link PackedRN#decode(CharSequence, int, long[], int)}
+ * and by {@link Representation#Representation(String, int)}; decimal forms, by {@link RN#RN(java.math.BigInteger)};
+ * and binary forms, by {@link BinaryForm#read(java.nio.ByteBuffer, long[], int)}; and therefore by every path
+ * built on them.
+ *
+ * Failures are counted by kind, using the status codes of {@link PackedRN}, and
+ * RNs decoded are counted by authority. Counters are striped {@link LongAdder}s,
+ * so threads decoding at once do not contend on them. Decodes made to test
+ * candidates rather than inputs, such as by {@link PackedRN#probe(CharSequence, long[], int)},
+ * or to replay stored RNs, by {@link BinaryForm#probe(java.nio.ByteBuffer, long[], int)}, are
+ * not counted.
+ *
+ * Rejected inputs can also be sampled into a bounded ring buffer, for a look at
+ * what a failing feed is sending; sampling is off until {@link #sampleRejected(int, int)}
+ * is called.
+ */
+public final class DecodeCounters {
+    /** Longest part of a rejected input that is kept in a sample */
+    public static final int MAX_SAMPLE_LENGTH = 64;
+
+    private static final LongAdder[] OUTCOMES = new LongAdder[PackedRN.BAD_TIMESTAMP + 1];
+
+    /** RNs decoded for each authority, created when an authority is first seen */
+    private static final AtomicReferenceArray<LongAdder> AUTHORITIES =
+        new AtomicReferenceArray<>(Authority.MAX_AUTHORITY_ID - Authority.MIN_AUTHORITY_ID + 1);
+
+    static {
+        for (int k = 0; k < OUTCOMES.length; k++) {
+            OUTCOMES[k] = new LongAdder();
+        }
+    }
+
+    /** A ring buffer of sampled rejections, replaced as a whole when sampling is reconfigured */
+    private static final class Sampler {
+        final int oneIn;
+        final AtomicReferenceArray<RejectedSample> ring;
+        final AtomicLong next = new AtomicLong();
+
+        Sampler(int capacity, int oneIn) {
+            this.oneIn = oneIn;
+            this.ring = new AtomicReferenceArray<>(capacity);
+        }
+    }
+
+    private static volatile Sampler sampler;
+
+    private static final BigInteger DECIMAL_LIMB = BigInteger.valueOf(PackedRN.LIMB);
+
+    private DecodeCounters() {
+    }
+
+    static void recordDecoded(int authority) {
+        OUTCOMES[PackedRN.DECODED].increment();
+        int k = authority - Authority.MIN_AUTHORITY_ID;
+        LongAdder count = AUTHORITIES.get(k);
+        if (count == null) {
+            AUTHORITIES.compareAndSet(k, null, new LongAdder());
+            count = AUTHORITIES.get(k);
+        }
+        count.increment();
+    }
+
+    static void recordRejected(int status, CharSequence input) {
+        OUTCOMES[status].increment();
+        Sampler s = sampler;
+        if (s != null && (s.oneIn == 1 || ThreadLocalRandom.current().nextInt(s.oneIn) == 0)) {
+            String kept = input.subSequence(0, Math.min(input.length(), MAX_SAMPLE_LENGTH)).toString();
+            RejectedSample sample = new RejectedSample(kept, status, System.currentTimeMillis());
+            s.ring.set((int) (s.next.getAndIncrement() % s.ring.length()), sample);
+        }
+    }
+
+    /**
+     * Classify an input rejected by {@link Representation} by the status that {@link PackedRN}
+     * gives the same input.
+     */
+    static int rejectionStatus(CharSequence input, int length) {
+        int status = PackedRN.probe(input, length, new long[2], 0);
+        // The two decoders apply the same rules, so this is only a fallback
+        return status == PackedRN.DECODED ? PackedRN.BAD_DECIMAL_FORM : status;
+    }
+
+    /**
+     * Record the rejection of a decimal form by {@link RN#RN(BigInteger)}, classifying it by
+     * the status that {@link PackedRN} gives the same digits.
+     */
+    static void recordRejected(BigInteger decimal) {
+        int status = PackedRN.BAD_DECIMAL_FORM;
+        if (decimal.signum() >= 0 && decimal.bitLength() < Long.SIZE * 2) {
+            BigInteger[] limbs = decimal.divideAndRemainder(DECIMAL_LIMB);
+            if (limbs[0].compareTo(DECIMAL_LIMB) < 0) {
+                status = PackedRN.unpackDecimal(limbs[0].longValue(), limbs[1].longValue(), new long[2], 0);
+            }
+        }
+        recordRejected(status == PackedRN.DECODED ? PackedRN.BAD_DECIMAL_FORM : status, decimal.toString());
+    }
+
+    /**
+     * Sample rejected inputs into a ring buffer, replacing any earlier samples.
+     *
+     * @param capacity The number of most recent samples kept
+     * @param oneIn    Sample one in this many rejections, at random; 1 samples every one
+     */
+    public static void sampleRejected(int capacity, int oneIn) {
+        if (capacity < 1 || oneIn < 1) {
+            throw new IllegalArgumentException("Sampling needs a capacity and rate of at least 1");
+        }
+        sampler = new Sampler(capacity, oneIn);
+    }
+
+    /** Stop sampling rejected inputs, discarding the samples */
+    public static void stopSampling() {
+        sampler = null;
+    }
+
+    /** @return The sampled rejections, oldest first */
+    public static List<RejectedSample> getRejectedSamples() {
+        List<RejectedSample> samples = new ArrayList<>();
+        Sampler s = sampler;
+        if (s != null) {
+            long end = s.next.get();
+            for (long k = Math.max(0, end - s.ring.length()); k < end; k++) {
+                RejectedSample sample = s.ring.get((int) (k % s.ring.length()));
+                if (sample != null) {
+                    samples.add(sample);
+                }
+            }
+        }
+        return samples;
+    }
+
+    /** @return The outcome counts, from when the class was loaded */
+    public static DecodeSnapshot snapshot() {
+        long[] outcomes = new long[OUTCOMES.length];
+        for (int k = 0; k < outcomes.length; k++) {
+            outcomes[k] = OUTCOMES[k].sum();
+        }
+        Map<Integer, Long> authorities = new TreeMap<>();
+        for (int k = 0; k < AUTHORITIES.length(); k++) {
+            LongAdder count = AUTHORITIES.get(k);
+            if (count != null) {
+                authorities.put(k + Authority.MIN_AUTHORITY_ID, count.sum());
+            }
+        }
+        return new DecodeSnapshot(outcomes, authorities);
+    }
+}
@@ -0,0 +1,66 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import uk.gov.food.rn.metrics.FactorySnapshot;
+
+/**
+ * Live counters for one {@link RNFactory}. Counters are striped
+ * {@link LongAdder}s, so recording costs a few nanoseconds and threads issuing
+ * at once do not contend on them; reading them sums the stripes.
+ */
+final class FactoryMetrics {
+    private final LongAdder issued = new LongAdder();
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder contended = new LongAdder();
+    private final LongAdder clockRegressions = new LongAdder();
+    private final LongAdder guardSkips = new LongAdder();
+    private final LongAdder[] waitHistogram = new LongAdder[FactorySnapshot.WAIT_BUCKETS];
+
+    FactoryMetrics() {
+        for (int k = 0; k < waitHistogram.length; k++) {
+            waitHistogram[k] = new LongAdder();
+        }
+    }
+
+    void recordIssued() {
+        issued.increment();
+    }
+
+    /** Record a call that waited for the clock to pass the time of the previous RN */
+    void recordWait(long nanos) {
+        waits.increment();
+        waitNanos.add(nanos);
+        waitHistogram[FactorySnapshot.bucketOf(nanos)].increment();
+    }
+
+    /** Record a call that found another thread issuing from the factory */
+    void recordContention() {
+        contended.increment();
+    }
+
+    /** Record a reading of the clock earlier than the time of the previous RN */
+    void recordClockRegression() {
+        clockRegressions.increment();
+    }
+
+    /** Record a time passed over because the duplicate guard may already hold an RN for it */
+    void recordGuardSkip() {
+        guardSkips.increment();
+    }
+
+    FactorySnapshot snapshot(RNFactory factory) {
+        long[] histogram = new long[waitHistogram.length];
+        for (int k = 0; k < histogram.length; k++) {
+            histogram[k] = waitHistogram[k].sum();
+        }
+        return new FactorySnapshot(factory.getAuthority().getId(), factory.getInstance().getId(),
+                                   factory.getType().getId(), issued.sum(), waits.sum(), waitNanos.sum(),
+                                   contended.sum(), clockRegressions.sum(), guardSkips.sum(), histogram);
+    }
+}
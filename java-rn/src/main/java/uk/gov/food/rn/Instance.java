@@ -70,10 +70,11 @@ public class Instance {
     
     /**
      * @param other
-     * @return
+     * @return True if other is an instance with the same identifier
      */
-    public boolean equals(Instance other) {
-    	return getId() == other.getId();
+    @Override
+    public boolean equals(Object other) {
+    	return other instanceof Instance && getId() == ((Instance) other).getId();
     }
     
     @Override
@@ -0,0 +1,38 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn;
+
+/**
+ * Told of each RN issued by an {@link RNFactory} it is added to, in its packed
+ * form.
+ *
+ * A factory calls its listeners while it is held, so each listener sees the
+ * RNs of a factory in the order they were issued, and issuance waits for it.
+ * Listeners should be quick and should not block; work such as auditing and
+ * indexing belongs on other threads, for which see
+ * {@link uk.gov.food.rn.issuance.IssuanceRing}. An exception raised by a
+ * listener fails the call to {@link RNFactory#generateReferenceNumber()}.
+ *
+ * @see PackedRN
+ */
+@FunctionalInterface
+public interface IssuanceListener {
+    /**
+     * @param high The high half of the packed form of the RN issued
+     * @param low  The low half of the packed form of the RN issued
+     */
+    void issued(long high, long low);
+
+    /**
+     * Called on the issuing thread once the factory has been released, before the RN is
+     * returned, for listeners that must wait, such as for a journal to reach the disk.
+     * An exception raised here also fails the call to {@link RNFactory#generateReferenceNumber()}.
+     *
+     * @param high The high half of the packed form of the RN issued
+     * @param low  The low half of the packed form of the RN issued
+     */
+    default void afterIssued(long high, long low) {
+    }
+}
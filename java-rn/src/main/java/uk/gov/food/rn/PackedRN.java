@@ -0,0 +1,363 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn;
+
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+
+/**
+ * Primitive form of a reference number, for bulk and high volume processing
+ * where building an {@link RN} object graph for every value would be wasteful.
+ *
+ * An RN is packed into a pair of longs:
+ *
+ *   high = authority << 20 | instance << 10 | type
+ *   low  = epochMilli << 4 | version
+ *
+ * Both halves are always positive, and a valid high half is never zero since
+ * authorities start at {@link Authority#MIN_AUTHORITY_ID}. Ordering packed values
+ * by (high, low >>> 4) gives the same order as {@link RN#compareTo(RN)}.
+ *
+ * The decoder applies the same rules as {@link Representation} followed by
+ * {@link RN#parseDecimalForm(java.math.BigInteger)}, but works on a pair of
+ * long limbs rather than on BigIntegers and regular expressions, and reports
+ * failures as a status code rather than by raising an {@link RNException}.
+ */
+public final class PackedRN {
+    /** Decode status: the encoded form is a valid RN */
+    public static final int DECODED = 0;
+
+    /** Decode status: a character outside the {@link Representation#ALPHABET} */
+    public static final int ILLEGAL_CHARACTER = 1;
+
+    /** Decode status: more digits than the representation length */
+    public static final int TOO_MANY_DIGITS = 2;
+
+    /** Decode status: the value fails the mod {@link Representation#CHECK_DIGITS_PRIME} test */
+    public static final int BAD_CHECK_DIGITS = 3;
+
+    /** Decode status: the value has more than the 24 digits of the decimal form */
+    public static final int BAD_DECIMAL_FORM = 4;
+
+    /** Decode status: the embedded authority is below {@link Authority#MIN_AUTHORITY_ID} */
+    public static final int BAD_AUTHORITY = 5;
+
+    /** Decode status: the embedded timestamp is outside the range permitted by {@link TimeStamp} */
+    public static final int BAD_TIMESTAMP = 6;
+
+    /** Default length of an encoded representation, as used by {@link Representation} */
+    public static final int DEFAULT_LENGTH = 18;
+
+    /** Length of the grouped encoded form of the default length, with separators */
+    public static final int ENCODED_LENGTH = DEFAULT_LENGTH + DEFAULT_LENGTH / Representation.GROUP_SIZE - 1;
+
+    static final int BASE = 33;
+    static final int PRIME = 1087;
+    static final int BASE_SQUARED = BASE * BASE;
+
+    /** Values are held in two limbs of twelve decimal digits each */
+    static final long LIMB = 1_000_000_000_000L;
+
+    /** Any high limb at or above this is far beyond the largest valid checked value */
+    private static final long OVERFLOW = LIMB * 10_000;
+
+    private static final int SEPARATOR = -2;
+    private static final int ILLEGAL = -1;
+
+    /** Digit value for each ASCII character, or SEPARATOR / ILLEGAL */
+    private static final byte[] DIGIT_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(DIGIT_VALUES, (byte) ILLEGAL);
+        for (int d = 0; d < Representation.ALPHABET.length(); d++) {
+            DIGIT_VALUES[Representation.ALPHABET.charAt(d)] = (byte) d;
+        }
+        // The characters removed by Representation before decoding: [\s-]
+        for (char c : " \t\n\u000B\f\r-".toCharArray()) {
+            DIGIT_VALUES[c] = (byte) SEPARATOR;
+        }
+    }
+
+    private PackedRN() {
+    }
+
+    /**
+     * @return The value of a character as a digit of an encoded form, or -1 if it is not one
+     */
+    public static int digitValue(char c) {
+        int d = c < DIGIT_VALUES.length ? DIGIT_VALUES[c] : ILLEGAL;
+        return d < 0 ? ILLEGAL : d;
+    }
+
+    /**
+     * @return True for the characters that {@link Representation} removes from an encoded
+     *         form before decoding it: hyphens and ASCII whitespace, as matched by [\s-]
+     */
+    public static boolean isSeparator(char c) {
+        return c < DIGIT_VALUES.length && DIGIT_VALUES[c] == SEPARATOR;
+    }
+
+    /** @return The high half of the packed form for the given identifiers */
+    public static long high(int authority, int instance, int type) {
+        return ((long) authority << 20) | ((long) instance << 10) | type;
+    }
+
+    /** @return The low half of the packed form for the given instant and version */
+    public static long low(long epochMilli, int version) {
+        return (epochMilli << 4) | version;
+    }
+
+    /** @return The high half of the packed form of an RN */
+    public static long high(RN rn) {
+        return high(rn.getAuthority().getId(), rn.getInstance().getId(), rn.getType().getId());
+    }
+
+    /** @return The low half of the packed form of an RN */
+    public static long low(RN rn) {
+        ZonedDateTime instant = rn.getInstant().getInstant();
+        return low(instant.toEpochSecond() * 1000L + instant.getNano() / 1_000_000, rn.getVersion().getId());
+    }
+
+    /** @return The authority identifier from the high half of a packed RN */
+    public static int authority(long high) {
+        return (int) (high >>> 20);
+    }
+
+    /** @return The instance identifier from the high half of a packed RN */
+    public static int instance(long high) {
+        return (int) (high >>> 10) & 0x3FF;
+    }
+
+    /** @return The type identifier from the high half of a packed RN */
+    public static int type(long high) {
+        return (int) high & 0x3FF;
+    }
+
+    /** @return The issue time, in milliseconds since the epoch, from the low half of a packed RN */
+    public static long epochMilli(long low) {
+        return low >>> 4;
+    }
+
+    /** @return The version from the low half of a packed RN */
+    public static int version(long low) {
+        return (int) low & 0xF;
+    }
+
+    /**
+     * Hash a packed RN consistently with {@link RN#equals(Object)}, which ignores the version.
+     *
+     * @return A well mixed hash of the packed form
+     */
+    public static int hash(long high, long low) {
+        long h = high * 0x9E3779B97F4A7C15L + epochMilli(low);
+        h = (h ^ (h >>> 32)) * 0xD6E8FEB86659FD93L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Compare two packed RNs in the order given by {@link RN#compareTo(RN)}.
+     */
+    public static int compare(long high1, long low1, long high2, long low2) {
+        int comparison = Long.compare(high1, high2);
+        return comparison != 0 ? comparison : Long.compare(epochMilli(low1), epochMilli(low2));
+    }
+
+    /**
+     * @return The upper twelve digits (uuuaaaaiiitt) of the decimal form of a packed RN
+     * @see RN#getValue()
+     */
+    public static long decimalHigh(long high, long low) {
+        long milli = epochMilli(low) % 1000L;
+        return milli * 1_000_000_000L + authority(high) * 100_000L + instance(high) * 100L + type(high) / 10;
+    }
+
+    /**
+     * @return The lower twelve digits (tssssssssssv) of the decimal form of a packed RN
+     * @see RN#getValue()
+     */
+    public static long decimalLow(long high, long low) {
+        long sec = epochMilli(low) / 1000L;
+        return type(high) % 10 * 100_000_000_000L + sec * 10L + version(low);
+    }
+
+    /**
+     * Construct an {@link RN} from its packed form.
+     *
+     * @throws RNException if any of the packed fields are outside their permitted ranges
+     */
+    public static RN toRN(long high, long low) {
+        return new RN(high, low);
+    }
+
+    /** @return The grouped encoded form of a packed RN, as given by {@link RN#getEncodedForm()} */
+    public static String encode(long high, long low) {
+        char[] chars = new char[ENCODED_LENGTH];
+        encode(high, low, chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * Write the grouped encoded form of a packed RN, as given by {@link RN#getEncodedForm()},
+     * into a character array.
+     *
+     * @return The number of characters written, {@link #ENCODED_LENGTH}
+     */
+    public static int encode(long high, long low, char[] out, int offset) {
+        long nnHi = decimalHigh(high, low);
+        long nnLo = decimalLow(high, low);
+
+        // cc = prime - ((residual * NN) mod prime), as in Representation.withCheckDigits
+        long nnMod = ((nnHi % PRIME) * (LIMB % PRIME) + nnLo % PRIME) % PRIME;
+        long cc = PRIME - (nnMod * (BASE_SQUARED - PRIME)) % PRIME;
+
+        long lo = nnLo * BASE_SQUARED + cc;
+        long hi = nnHi * BASE_SQUARED + lo / LIMB;
+        lo %= LIMB;
+
+        for (int k = DEFAULT_LENGTH - 1; k >= 0; k--) {
+            long t = (hi % BASE) * LIMB + lo;
+            hi /= BASE;
+            lo = t / BASE;
+            out[offset + k + k / Representation.GROUP_SIZE] = Representation.ALPHABET.charAt((int) (t % BASE));
+        }
+        for (int g = 1; g < DEFAULT_LENGTH / Representation.GROUP_SIZE; g++) {
+            out[offset + g * (Representation.GROUP_SIZE + 1) - 1] = '-';
+        }
+        return ENCODED_LENGTH;
+    }
+
+    /**
+     * Decode an encoded RN of the default length into its packed form.
+     *
+     * @see #decode(CharSequence, int, long[], int)
+     */
+    public static int decode(CharSequence encoded, long[] out, int offset) {
+        return decode(encoded, DEFAULT_LENGTH, out, offset);
+    }
+
+    /**
+     * Decode an encoded RN into its packed form, without raising exceptions. The
+     * outcome is counted by {@link DecodeCounters}.
+     *
+     * @param encoded An encoded reference number, optionally grouped with '-' or whitespace
+     * @param length  The maximum number of digits in the representation
+     * @param out     Receives the high half at offset and the low half at offset + 1, on success only
+     * @param offset  Position in out for the packed form
+     * @return {@link #DECODED}, or the status code of the first check that failed
+     */
+    public static int decode(CharSequence encoded, int length, long[] out, int offset) {
+        int status = probe(encoded, length, out, offset);
+        if (status == DECODED) {
+            DecodeCounters.recordDecoded(authority(out[offset]));
+        } else {
+            DecodeCounters.recordRejected(status, encoded);
+        }
+        return status;
+    }
+
+    /**
+     * Decode a candidate RN of the default length, such as a possible correction, without
+     * counting the outcome as that of an input.
+     *
+     * @see #probe(CharSequence, int, long[], int)
+     */
+    public static int probe(CharSequence encoded, long[] out, int offset) {
+        return probe(encoded, DEFAULT_LENGTH, out, offset);
+    }
+
+    /**
+     * Decode a candidate RN exactly as {@link #decode(CharSequence, int, long[], int)} does,
+     * without counting the outcome as that of an input.
+     */
+    public static int probe(CharSequence encoded, int length, long[] out, int offset) {
+        int digits = 0;
+        int residue = 0;
+        long hi = 0;
+        long lo = 0;
+
+        for (int k = 0, n = encoded.length(); k < n; k++) {
+            char c = encoded.charAt(k);
+            int d = c < DIGIT_VALUES.length ? DIGIT_VALUES[c] : ILLEGAL;
+            if (d < 0) {
+                if (d == SEPARATOR) {
+                    continue;
+                }
+                return ILLEGAL_CHARACTER;
+            }
+            digits++;
+            residue = (residue * BASE + d) % PRIME;
+            if (hi < OVERFLOW) {
+                lo = lo * BASE + d;
+                hi = hi * BASE + lo / LIMB;
+                lo = lo % LIMB;
+            }
+        }
+
+        if (digits > length) {
+            return TOO_MANY_DIGITS;
+        }
+        if (residue != 0) {
+            return BAD_CHECK_DIGITS;
+        }
+        if (hi >= OVERFLOW) {
+            return BAD_DECIMAL_FORM;
+        }
+
+        // Strip the check digits: nn = cc / base^2
+        long nnHi = hi / BASE_SQUARED;
+        long nnLo = ((hi % BASE_SQUARED) * LIMB + lo) / BASE_SQUARED;
+        if (nnHi >= LIMB) {
+            return BAD_DECIMAL_FORM;
+        }
+        return unpackDecimal(nnHi, nnLo, out, offset);
+    }
+
+    /**
+     * Split a decimal form value, held as two limbs of twelve digits, into its fields
+     * following the layout uuuaaaaiiitttssssssssssv used by {@link RN#parseDecimalForm}.
+     */
+    static int unpackDecimal(long nnHi, long nnLo, long[] out, int offset) {
+        // nnHi = uuu aaaa iii tt, nnLo = t ssssssssss v
+        long milli = nnHi / 1_000_000_000L;
+        int authority = (int) (nnHi / 100_000L % 10_000L);
+        int instance = (int) (nnHi / 100L % 1_000L);
+        int type = (int) (nnHi % 100L * 10L + nnLo / 100_000_000_000L);
+        long sec = nnLo / 10L % 10_000_000_000L;
+        int version = (int) (nnLo % 10L);
+
+        if (!Authority.isValidIdentifier(authority)) {
+            return BAD_AUTHORITY;
+        }
+        if (sec < TimeStamp.MIN_EPOCH_SECONDS || sec > TimeStamp.MAX_EPOCH_SECONDS) {
+            return BAD_TIMESTAMP;
+        }
+
+        out[offset] = high(authority, instance, type);
+        out[offset + 1] = low(sec * 1000L + milli, version);
+        return DECODED;
+    }
+
+    /**
+     * Decode an encoded RN of the default length into its packed form, raising the same
+     * exception as {@link RN#RN(String)} if it is not valid.
+     *
+     * @throws RNException if any validation or integrity checks fail on the encoded value
+     */
+    public static void decodeOrThrow(CharSequence encoded, long[] out, int offset) {
+        int status = decode(encoded, out, offset);
+        if (status != DECODED) {
+            // Take the slow path, which reports the failure in detail, without counting it again
+            new Representation(encoded.toString(), DEFAULT_LENGTH, false);
+            throw new RNException(String.format("'%s' is not a valid reference number (status %d)", encoded, status));
+        }
+    }
+
+    /**
+     * @return True if the encoded form decodes to a valid RN of the default length
+     */
+    public static boolean isValid(CharSequence encoded) {
+        return decode(encoded, new long[2], 0) == DECODED;
+    }
+}
@@ -9,7 +9,6 @@ import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoField;
-import java.util.Arrays;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -54,6 +53,12 @@ public class RN implements Comparable<RN> {
     /** Version of the reference number */
     private Version version;
 
+    /** Cached {@link #hashCode()}, computed on first use; 0 until then */
+    private int hash;
+
+    /** Weight of the upper half of the decimal form when held as two twelve digit limbs */
+    private static final BigInteger DECIMAL_LIMB = BigInteger.valueOf(PackedRN.LIMB);
+
     /**
      * Construct an RN form its constituent parts.
      *
@@ -75,15 +80,52 @@ public class RN implements Comparable<RN> {
     }
 
     /**
-     * Constructs a new RN from an already-decoded number.
+     * Constructs a new RN from an already-decoded number. The outcome is counted by
+     * {@link DecodeCounters}.
      *
      * @param value A decimal form integer
      * @throws RNException if any of the embedded field values are outside their permitted ranges.
      */
     public RN(BigInteger value)  {
-        parseDecimalForm(value);
+        this(value, true);
+    }
+
+    /**
+     * Constructs a new RN from an already-decoded number, counting the outcome with
+     * {@link DecodeCounters} if asked to.
+     */
+    RN(BigInteger value, boolean counted) {
+        try {
+            parseDecimalForm(value);
+        } catch (RNException e) {
+            if (counted) {
+                DecodeCounters.recordRejected(value);
+            }
+            throw e;
+        }
         this.value = value;
         representation = new Representation(this);
+        if (counted) {
+            DecodeCounters.recordDecoded(authority.getId());
+        }
+    }
+
+    /**
+     * Constructs a new RN from its packed primitive form.
+     *
+     * @see PackedRN
+     * @throws RNException if any of the packed field values are outside their permitted ranges.
+     */
+    RN(long high, long low) {
+        authority = new Authority(PackedRN.authority(high));
+        instance = new Instance(PackedRN.instance(high));
+        type = new Type(PackedRN.type(high));
+        version = new Version(PackedRN.version(low));
+        timestamp = new TimeStamp(ZonedDateTime.ofInstant(Instant.ofEpochMilli(PackedRN.epochMilli(low)), ZoneOffset.UTC));
+        value = BigInteger.valueOf(PackedRN.decimalHigh(high, low))
+                          .multiply(DECIMAL_LIMB)
+                          .add(BigInteger.valueOf(PackedRN.decimalLow(high, low)));
+        representation = new Representation(this);
     }
 
     /**
@@ -187,7 +229,13 @@ public class RN implements Comparable<RN> {
 
     @Override
     public int hashCode() {
-        return Arrays.hashCode(new Object[] { timestamp, authority, instance, type });
+        int h = hash;
+        if (h == 0) {
+            // Racy but safe, like String: every thread computes the same value
+            h = PackedRN.hash(PackedRN.high(this), PackedRN.low(this));
+            hash = h;
+        }
+        return h;
     }
 
     /**
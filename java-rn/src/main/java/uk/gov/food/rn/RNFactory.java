@@ -9,17 +9,33 @@ import org.apache.commons.collections.map.LRUMap;
 import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import uk.gov.food.rn.collection.RNBloomFilter;
+import uk.gov.food.rn.jfr.RNEvents;
+import uk.gov.food.rn.metrics.FactorySnapshot;
+import uk.gov.food.rn.metrics.RegistrySnapshot;
 
 public class RNFactory  {
     private final Authority authority  ;
     private final Instance  instance   ;
     private final Type      type       ;
     private long  prev = 0 ;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final FactoryMetrics metrics = new FactoryMetrics();
+    private volatile IssuanceListener[] listeners = new IssuanceListener[0];
+    private volatile RNBloomFilter guard;
     private static int MAX_FACTORY_INSTANCES = 100;
 
+    /** Most times in a row passed over because the duplicate guard may already hold them */
+    static final int MAX_GUARD_SKIPS = 100;
+
     /**
 	 * @return the authority
 	 */
@@ -52,17 +68,44 @@ public class RNFactory  {
       return Arrays.hashCode(new Object[] { authority, instance, type });
     }
 
+    /**
+     * @return The key of this factory in the registry: the high half of the packed form of its RNs,
+     *         which unlike {@link #hashCode()} is distinct for each authority, instance and type
+     */
+    private long key() {
+        return PackedRN.high(authority.getId(), instance.getId(), type.getId());
+    }
+
     /**
      *  Use a Map to ensure there is a single factory instance for each authority,instance and type combination
-     *  within the same JVM.
+     *  within the same JVM, keyed by {@link #key()}.
      */
     private static LRUMap factories = new LRUMap(MAX_FACTORY_INSTANCES) ;
 
+    /**
+     *  Factories whose state must not be lost to eviction from the map above, such as those
+     *  with listeners, keyed in the same way and guarded by the same lock.
+     */
+    private static final HashMap<Long, RNFactory> pinned = new HashMap<>();
+
+    /**
+     *  High-water marks raised by {@link #raiseHighWaterMark(long)}, keyed by the high half of the packed
+     *  form of the factory's RNs and guarded by the same lock, so that a factory made again after eviction
+     *  starts from its restored mark.
+     */
+    private static final HashMap<Long, Long> highWaterMarks = new HashMap<>();
+
+    private static final LongAdder lookups = new LongAdder();
+    private static long created = 0;
+    private static long evictions = 0;
+
     
     /**
      * Get or create an RNFactory for generating RNs for a given Authority, Instance and Type.
      * 
      * Return an (the) existing factory if one exists, otherwise attempt to make one, then register and return that.
+     * A factory with listeners or a duplicate guard is always returned while it keeps them, however many
+     * other factories have been made since.
      *  
      * @param authority
      * @param instance
@@ -72,12 +115,26 @@ public class RNFactory  {
      */
     public static RNFactory getFactory(Authority authority, Instance instance, Type type) {
         RNFactory res = new RNFactory(authority, instance, type);
+        lookups.increment();
 
         synchronized (factories) {
-            if (factories.containsKey(res.hashCode())) {
-                res = (RNFactory) factories.get(res.hashCode());
+            long key = res.key();
+            RNFactory held = pinned.get(key);
+            if (held != null) {
+                res = held;
+            } else if (factories.containsKey(key)) {
+                res = (RNFactory) factories.get(key);
             } else {
-                factories.put(res.hashCode(), res);
+                if (factories.isFull()) {
+                    // The least recently used factory makes way for this one
+                    evictions++;
+                }
+                Long mark = highWaterMarks.get(key);
+                if (mark != null) {
+                    res.prev = mark;
+                }
+                factories.put(key, res);
+                created++;
             }
         }
         return res;
@@ -113,8 +170,77 @@ public class RNFactory  {
     public RN generateReferenceNumber() {
         // Make sure at least one millisecond has elapse since the last reference number was generated
         long time = 0;
-        synchronized(this) {
-            time = System.currentTimeMillis();
+        IssuanceListener[] notified;
+        if (!lock.tryLock()) {
+            metrics.recordContention();
+            lock.lock();
+        }
+        try {
+            time = nextTime();
+            RNBloomFilter filter = guard;
+            if (filter != null) {
+                long high = PackedRN.high(authority.getId(), instance.getId(), type.getId());
+                int skips = 0;
+                while (filter.mightContain(high, PackedRN.low(time, 0))) {
+                    // Possibly issued already, perhaps by another node; take the next millisecond instead
+                    metrics.recordGuardSkip();
+                    prev = time;
+                    if (++skips == MAX_GUARD_SKIPS) {
+                        throw new RNException(String.format(
+                            "The duplicate guard holds every time tried for %d:%03d:%03d; it may be saturated",
+                            authority.getId(), instance.getId(), type.getId()));
+                    }
+                    time = nextTime();
+                }
+                filter.add(high, PackedRN.low(time, 0));
+            }
+            prev = time;
+
+            notified = listeners;
+            if (notified.length > 0) {
+                long high = PackedRN.high(authority.getId(), instance.getId(), type.getId());
+                long low = PackedRN.low(time, 0);
+                for (IssuanceListener listener : notified) {
+                    listener.issued(high, low);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (notified.length > 0) {
+            long high = PackedRN.high(authority.getId(), instance.getId(), type.getId());
+            long low = PackedRN.low(time, 0);
+            for (IssuanceListener listener : notified) {
+                listener.afterIssued(high, low);
+            }
+        }
+
+        ZonedDateTime instant = ZonedDateTime.ofInstant(Instant.ofEpochMilli(time),ZoneOffset.UTC);
+
+        try {
+            RN rn = new RN(authority, instance, type, instant, new Version(0));
+            metrics.recordIssued();
+            return rn;
+        } catch (RNException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Read the clock, waiting until it passes the time of the previous RN. Called with the lock held.
+     *
+     * @return A time in milliseconds later than the previous RN
+     */
+    private long nextTime() {
+        long time = System.currentTimeMillis();
+        if (time <= prev) {
+            if (time < prev) {
+                metrics.recordClockRegression();
+                RNEvents.clockRegression(authority.getId(), instance.getId(), type.getId(), prev, time);
+            }
+            Object waitEvent = RNEvents.beginFactoryWait();
+            long waitStart = System.nanoTime();
             while (time <= prev) {
                 try {
                     TimeUnit.MILLISECONDS.sleep(1);
@@ -123,16 +249,159 @@ public class RNFactory  {
                 }
                 time = System.currentTimeMillis();
             }
-            prev = time;
+            metrics.recordWait(System.nanoTime() - waitStart);
+            RNEvents.endFactoryWait(waitEvent, authority.getId(), instance.getId(), type.getId());
         }
+        return time;
+    }
 
+    /**
+     * Check each RN against a filter of RNs that may already have been issued, such as one
+     * merged from the snapshots of other nodes, before issuing it. A time whose RN the filter
+     * may hold is passed over for the next millisecond, and each RN issued is added to the
+     * filter. Checking takes constant time; a false positive costs a millisecond. After
+     * a hundred times in a row are passed over, {@link #generateReferenceNumber()} raises
+     * an {@link RNException}, as the filter is likely to be saturated.
+     *
+     * @param guard The filter, or null to stop checking
+     */
+    public void setDuplicateGuard(RNBloomFilter guard) {
+        this.guard = guard;
+        repin();
+    }
 
-        ZonedDateTime instant = ZonedDateTime.ofInstant(Instant.ofEpochMilli(time),ZoneOffset.UTC);
+    /** @return The filter RNs are checked against before they are issued, or null */
+    public RNBloomFilter getDuplicateGuard() {
+        return guard;
+    }
 
+    /**
+     * @return The time in milliseconds of the latest RN issued, or restored by
+     * {@link #raiseHighWaterMark(long)}; no RN is issued at or before it
+     */
+    public long getHighWaterMark() {
+        lock.lock();
         try {
-            return new RN(authority, instance, type, instant, new Version(0));
-        } catch (RNException e) {
-            return null;
+            return prev;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Make sure that no RN is issued at or before the given time, such as the time of
+     * the latest RN issued before a restart, as recorded in a journal. The mark is kept
+     * by the registry, so a factory made in place of this one after it has been evicted
+     * starts from it too.
+     *
+     * @param epochMilli A time in milliseconds since the epoch
+     */
+    public void raiseHighWaterMark(long epochMilli) {
+        lock.lock();
+        try {
+            prev = Math.max(prev, epochMilli);
+        } finally {
+            lock.unlock();
+        }
+        synchronized (factories) {
+            highWaterMarks.merge(key(), epochMilli, Math::max);
+        }
+    }
+
+    /**
+     * Add a listener to be told of each RN this factory issues from now on. While it has
+     * listeners, the factory is kept in the registry, so that {@link #getFactory(Authority, Instance, Type)}
+     * never replaces it with one the listeners are not added to.
+     *
+     * @see IssuanceListener
+     */
+    public void addListener(IssuanceListener listener) {
+        lock.lock();
+        try {
+            IssuanceListener[] added = Arrays.copyOf(listeners, listeners.length + 1);
+            added[listeners.length] = listener;
+            listeners = added;
+        } finally {
+            lock.unlock();
+        }
+        repin();
+    }
+
+    /**
+     * Remove a listener, which is not told of any RN issued after this returns.
+     *
+     * @return True if the listener had been added
+     */
+    public boolean removeListener(IssuanceListener listener) {
+        lock.lock();
+        try {
+            for (int k = 0; k < listeners.length; k++) {
+                if (listeners[k] == listener) {
+                    IssuanceListener[] removed = new IssuanceListener[listeners.length - 1];
+                    System.arraycopy(listeners, 0, removed, 0, k);
+                    System.arraycopy(listeners, k + 1, removed, k, removed.length - k);
+                    listeners = removed;
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+            repin();
+        }
+    }
+
+    /**
+     * Keep this factory in the registry while it has state that a factory made in its place
+     * would lack, and let it be evicted as usual once it has none.
+     */
+    private void repin() {
+        boolean keep = listeners.length > 0 || guard != null;
+        synchronized (factories) {
+            if (keep) {
+                pinned.put(key(), this);
+            } else {
+                pinned.remove(key(), this);
+            }
+        }
+    }
+
+    /**
+     * @return The issuance metrics of this factory, counted from its creation
+     */
+    public FactorySnapshot getMetrics() {
+        return metrics.snapshot(this);
+    }
+
+    /**
+     * @return The issuance metrics of every registered factory
+     */
+    public static List<FactorySnapshot> getFactoryMetrics() {
+        List<RNFactory> registered;
+        synchronized (factories) {
+            registered = new ArrayList<>();
+            for (Object factory : factories.values()) {
+                registered.add((RNFactory) factory);
+            }
+            for (RNFactory factory : pinned.values()) {
+                if (factories.get(factory.key()) != factory) {
+                    registered.add(factory);
+                }
+            }
+        }
+        List<FactorySnapshot> snapshots = new ArrayList<>();
+        for (RNFactory factory : registered) {
+            snapshots.add(factory.getMetrics());
+        }
+        return snapshots;
+    }
+
+    /**
+     * @return The metrics of the registry of factories
+     */
+    public static RegistrySnapshot getRegistryMetrics() {
+        synchronized (factories) {
+            return new RegistrySnapshot(factories.size(), MAX_FACTORY_INSTANCES, lookups.sum(), created, evictions);
         }
     }
     
@@ -8,6 +8,8 @@ import java.math.BigInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import uk.gov.food.rn.jfr.RNEvents;
+
 /**
  * Encapsulates the representation of a reference number, which includes
  * the roles of converting a representation to and from serialisations
@@ -66,13 +68,38 @@ public class Representation {
      * @throws RNException If any validation or integrity checks fail on the encoded value
      **/
     public Representation(String encodedRN, int length) {
-        representationLength = length;
+        this(encodedRN, length, true);
+    }
 
-        String cleaned = encodedRN.replaceAll("[\\s-]", "");
-        checkPermittedCharacters(cleaned);
-        checkEncodedValueSize(cleaned);
+    /**
+     * Construct a representation with an encoded form, counting the outcome with
+     * {@link DecodeCounters} if asked to.
+     */
+    Representation(String encodedRN, int length, boolean counted) {
+        representationLength = length;
 
-        rn = decodeValue(cleaned);
+        Object event = RNEvents.beginDecode();
+        try {
+            String cleaned = encodedRN.replaceAll("[\\s-]", "");
+            checkPermittedCharacters(cleaned);
+            checkEncodedValueSize(cleaned);
+
+            rn = decodeValue(cleaned);
+        } catch (RNException e) {
+            if (counted || event != null) {
+                // Classified once, for both the counters and the event
+                int status = DecodeCounters.rejectionStatus(encodedRN, length);
+                if (counted) {
+                    DecodeCounters.recordRejected(status, encodedRN);
+                }
+                RNEvents.endDecode(event, encodedRN, status);
+            }
+            throw e;
+        }
+        if (counted) {
+            DecodeCounters.recordDecoded(rn.getAuthority().getId());
+        }
+        RNEvents.endDecode(event, encodedRN, PackedRN.DECODED);
     }
 
     /** @return The encapsulated reference number */
@@ -200,7 +227,8 @@ public class Representation {
         BigInteger cc = decodeDecimal(encodedForm);
         BigInteger nn = checkCheckDigits(cc);
 
-        return new RN(nn);
+        // Counted as a decode of the encoded form, not again as one of the decimal form
+        return new RN(nn, false);
     }
 
     /**
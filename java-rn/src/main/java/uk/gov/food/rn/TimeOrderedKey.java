@@ -0,0 +1,251 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.ZonedDateTime;
+
+/**
+ * A 128 bit storage key for a reference number that sorts by issuing authority,
+ * then type, then time of issue.
+ *
+ * The decimal form of an RN (see {@link RN#getValue()}) leads with the
+ * milliseconds of the issue time, so neither it nor the encoded form sorts by
+ * time and indexes on them are written to at random. Indexing on this key
+ * instead means RNs from one generator are appended in time order, and that
+ * all RNs of one type from one authority within a period lie in a single
+ * contiguous key range (see {@link #range(Authority, Type, ZonedDateTime, ZonedDateTime)}).
+ *
+ * The key holds every field of the RN, so conversion is reversible. Its 16 byte
+ * big-endian form is:
+ *
+ *   aa tt mmmmmmmm ii v 0
+ *
+ * authority (2 bytes), type (2), epoch milliseconds (8), instance (2), version (1)
+ * and a zero byte. Comparing keys, or their byte forms as unsigned bytes, gives the
+ * same order.
+ */
+public final class TimeOrderedKey implements Comparable<TimeOrderedKey> {
+    /** The number of bytes in the binary form of a key */
+    public static final int BYTES = 16;
+
+    private final long high;
+    private final long low;
+
+    private TimeOrderedKey(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * @return The key for the given fields
+     */
+    public static TimeOrderedKey of(int authority, int type, long epochMilli, int instance, int version) {
+        return new TimeOrderedKey(((long) authority << 48) | ((long) type << 32) | (epochMilli >>> 32),
+                                  (epochMilli << 32) | ((long) instance << 16) | ((long) version << 8));
+    }
+
+    /**
+     * @return The key for a reference number
+     */
+    public static TimeOrderedKey of(RN rn) {
+        return ofPacked(PackedRN.high(rn), PackedRN.low(rn));
+    }
+
+    /**
+     * @return The key for a reference number in its packed form
+     * @see PackedRN
+     */
+    public static TimeOrderedKey ofPacked(long high, long low) {
+        return of(PackedRN.authority(high), PackedRN.type(high), PackedRN.epochMilli(low),
+                  PackedRN.instance(high), PackedRN.version(low));
+    }
+
+    /**
+     * Read a key from its binary form at the buffer's current position.
+     *
+     * @throws RNException if the bytes do not hold a key for a valid RN
+     */
+    public static TimeOrderedKey read(ByteBuffer buf) {
+        long high = buf.getLong();
+        long low = buf.getLong();
+        if (buf.order() == ByteOrder.LITTLE_ENDIAN) {
+            high = Long.reverseBytes(high);
+            low = Long.reverseBytes(low);
+        }
+
+        TimeOrderedKey key = new TimeOrderedKey(high, low);
+        long seconds = Math.floorDiv(key.getEpochMilli(), 1000);
+        if ((low & 0xFF) != 0 ||
+            seconds < TimeStamp.MIN_EPOCH_SECONDS || seconds > TimeStamp.MAX_EPOCH_SECONDS ||
+            !Authority.isValidIdentifier(key.getAuthority()) ||
+            !Type.isValidIdentifier(key.getType()) ||
+            !Instance.isValidIdentifier(key.getInstance()) ||
+            !Version.isValidIdentifier(key.getVersion())) {
+            throw new RNException(String.format("Bad time ordered key: %016x%016x", high, low));
+        }
+        return key;
+    }
+
+    /**
+     * @return The key held in a binary form
+     * @throws RNException if the bytes do not hold a key for a valid RN
+     */
+    public static TimeOrderedKey fromBytes(byte[] bytes) {
+        if (bytes.length != BYTES) {
+            throw new RNException(String.format("Bad time ordered key (incorrect length): %d bytes", bytes.length));
+        }
+        return read(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Write the binary form of the key at the buffer's current position.
+     */
+    public void write(ByteBuffer buf) {
+        if (buf.order() == ByteOrder.BIG_ENDIAN) {
+            buf.putLong(high).putLong(low);
+        } else {
+            buf.putLong(Long.reverseBytes(high)).putLong(Long.reverseBytes(low));
+        }
+    }
+
+    /** @return The binary form of the key */
+    public byte[] toBytes() {
+        ByteBuffer buf = ByteBuffer.allocate(BYTES);
+        write(buf);
+        return buf.array();
+    }
+
+    /**
+     * @return The reference number this key was made from
+     * @throws RNException if the key does not hold a valid RN
+     */
+    public RN toRN() {
+        return PackedRN.toRN(getPackedHigh(), getPackedLow());
+    }
+
+    /** @return The high half of the packed form of the RN for this key */
+    public long getPackedHigh() {
+        return PackedRN.high(getAuthority(), getInstance(), getType());
+    }
+
+    /** @return The low half of the packed form of the RN for this key */
+    public long getPackedLow() {
+        return PackedRN.low(getEpochMilli(), getVersion());
+    }
+
+    /** @return The most significant 64 bits of the key */
+    public long getHigh() {
+        return high;
+    }
+
+    /** @return The least significant 64 bits of the key, to be compared unsigned */
+    public long getLow() {
+        return low;
+    }
+
+    /** @return The authority identifier */
+    public int getAuthority() {
+        return (int) (high >>> 48);
+    }
+
+    /** @return The type identifier */
+    public int getType() {
+        return (int) (high >>> 32) & 0xFFFF;
+    }
+
+    /** @return The issue time, in milliseconds since the epoch */
+    public long getEpochMilli() {
+        return (high << 32) | (low >>> 32);
+    }
+
+    /** @return The instance identifier */
+    public int getInstance() {
+        return (int) (low >>> 16) & 0xFFFF;
+    }
+
+    /** @return The version */
+    public int getVersion() {
+        return (int) (low >>> 8) & 0xFF;
+    }
+
+    @Override
+    public int compareTo(TimeOrderedKey other) {
+        int comparison = Long.compareUnsigned(high, other.high);
+        return comparison != 0 ? comparison : Long.compareUnsigned(low, other.low);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (other instanceof TimeOrderedKey) {
+            TimeOrderedKey o = (TimeOrderedKey) other;
+            return high == o.high && low == o.low;
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(high * 31 + low);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x%016x", high, low);
+    }
+
+    /**
+     * Compute the key range holding every RN of the given type issued by the given
+     * authority in the period [from, to).
+     *
+     * @param from The start of the period, inclusive
+     * @param to   The end of the period, exclusive
+     */
+    public static Range range(Authority authority, Type type, ZonedDateTime from, ZonedDateTime to) {
+        return range(authority.getId(), type.getId(), from.toInstant().toEpochMilli(), to.toInstant().toEpochMilli());
+    }
+
+    /**
+     * Compute the key range holding every RN of the given type issued by the given
+     * authority in the period [fromEpochMilli, toEpochMilli).
+     */
+    public static Range range(int authority, int type, long fromEpochMilli, long toEpochMilli) {
+        return new Range(of(authority, type, fromEpochMilli, 0, 0), of(authority, type, toEpochMilli, 0, 0));
+    }
+
+    /**
+     * A half open range of keys, [lower, upper), suitable for a range scan.
+     */
+    public static final class Range {
+        private final TimeOrderedKey lower;
+        private final TimeOrderedKey upper;
+
+        Range(TimeOrderedKey lower, TimeOrderedKey upper) {
+            this.lower = lower;
+            this.upper = upper;
+        }
+
+        /** @return The lowest key in the range */
+        public TimeOrderedKey getLower() {
+            return lower;
+        }
+
+        /** @return The first key after the range */
+        public TimeOrderedKey getUpper() {
+            return upper;
+        }
+
+        /** @return True if the key is within the range */
+        public boolean contains(TimeOrderedKey key) {
+            return key.compareTo(lower) >= 0 && key.compareTo(upper) < 0;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + lower + ", " + upper + ")";
+        }
+    }
+}
@@ -18,8 +18,8 @@ public class TimeStamp  {
 	private ZonedDateTime instant;
 
 	// Corresponds to 2000-01-01T00:00:00+00:00
-	private static long MIN_EPOCH_SECONDS = 946684800L ;
-	private static long MAX_EPOCH_SECONDS = 9999999999L ;
+	public static final long MIN_EPOCH_SECONDS = 946684800L ;
+	public static final long MAX_EPOCH_SECONDS = 9999999999L ;
 	
 	public TimeStamp(ZonedDateTime instant) {
 		instant = instant.withZoneSameInstant(ZoneOffset.UTC);
@@ -45,12 +45,14 @@ public class TimeStamp  {
 	
 	/**
 	 * @param other
-	 * @return
+	 * @return True if other is a timestamp for the same instant
 	 */
-	public boolean equals(TimeStamp other) {
-		return instant.equals(other.instant);
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof TimeStamp && instant.equals(((TimeStamp) other).instant);
 	}
 	
+	@Override
 	public int hashCode() {	
 		return instant.hashCode();
 	}
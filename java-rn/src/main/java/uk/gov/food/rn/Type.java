@@ -68,10 +68,11 @@ public class Type {
     
 	/**
 	 * @param other
-	 * @return
+	 * @return True if other is a type with the same identifier
 	 */
-	public boolean equals(Type other) {
-		return getId() == other.getId();
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof Type && getId() == ((Type) other).getId();
 	}
 	
 	@Override
@@ -41,4 +41,18 @@ public class Version {
         return (instanceId >= MIN_VERSION_ID && instanceId <= MAX_VERSION_ID);
     }
 
+    /**
+     * @param other
+     * @return True if other is a version with the same identifier
+     */
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Version && id == ((Version) other).id;
+    }
+
+    @Override
+    public int hashCode() {
+        return id;
+    }
+
 }
@@ -0,0 +1,83 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.analysis;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * The parameters of a mod p check digit scheme over base-N digits: the numerical
+ * base, the prime modulus and the number of digits in a representation.
+ *
+ * A value is valid when it is 0 mod p, so a change of (d' - d) in the digit at
+ * position i (counting from the least significant digit) goes undetected exactly
+ * when (d' - d).W_i = 0 mod p, where the position weight W_i = base^i mod p.
+ */
+public final class CheckDigitScheme {
+    /** The scheme used by {@link uk.gov.food.rn.Representation}: base 33, mod 1087, 18 digits */
+    public static final CheckDigitScheme FSA_RN = new CheckDigitScheme(33, 1087, 18);
+
+    private final int base;
+    private final int prime;
+    private final int length;
+    private final int[] weights;
+
+    /**
+     * @param base   The numerical base of each digit
+     * @param prime  The check digit modulus
+     * @param length The number of digits in a representation, including check digits
+     */
+    public CheckDigitScheme(int base, int prime, int length) {
+        if (base < 2 || length < 1 || !BigInteger.valueOf(prime).isProbablePrime(32)) {
+            throw new IllegalArgumentException(String.format("Bad check digit scheme: base %d, prime %d, length %d",
+                                                             base, prime, length));
+        }
+        this.base = base;
+        this.prime = prime;
+        this.length = length;
+
+        weights = new int[length];
+        long w = 1 % prime;
+        for (int i = 0; i < length; i++) {
+            weights[i] = (int) w;
+            w = w * base % prime;
+        }
+    }
+
+    /** @return The numerical base of each digit */
+    public int getBase() {
+        return base;
+    }
+
+    /** @return The check digit modulus */
+    public int getPrime() {
+        return prime;
+    }
+
+    /** @return The number of digits in a representation */
+    public int getLength() {
+        return length;
+    }
+
+    /** @return The weight W_i = base^i mod prime of digit position i, counting from the least significant */
+    public int weight(int i) {
+        return weights[i];
+    }
+
+    /** @return A copy of the position weights */
+    public int[] getWeights() {
+        return weights.clone();
+    }
+
+    /** @return x mod prime, in the range [0, prime) */
+    public int mod(long x) {
+        return (int) Math.floorMod(x, (long) prime);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("base %d, mod %d, %d digits, weights %s", base, prime, length, Arrays.toString(weights));
+    }
+}
@@ -0,0 +1,52 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.analysis;
+
+/**
+ * Counts of detected and undetected errors over some set of trials.
+ */
+public final class DetectionRate {
+    private final long detected;
+    private final long undetected;
+
+    public DetectionRate(long detected, long undetected) {
+        this.detected = detected;
+        this.undetected = undetected;
+    }
+
+    /** @return The sum of two sets of counts */
+    public DetectionRate plus(DetectionRate other) {
+        return new DetectionRate(detected + other.detected, undetected + other.undetected);
+    }
+
+    /** @return The number of errors that the check digits detect */
+    public long getDetected() {
+        return detected;
+    }
+
+    /** @return The number of errors that the check digits do not detect */
+    public long getUndetected() {
+        return undetected;
+    }
+
+    /** @return The number of errors considered */
+    public long getTrials() {
+        return detected + undetected;
+    }
+
+    /** @return The fraction of errors detected, or 1 if there were no trials */
+    public double getDetectedFraction() {
+        long trials = getTrials();
+        return trials == 0 ? 1.0 : (double) detected / trials;
+    }
+
+    @Override
+    public String toString() {
+        long trials = getTrials();
+        return String.format("%.6f%% detected (%d) %.6f%% undetected (%d) of %d trials",
+                             getDetectedFraction() * 100.0, detected,
+                             trials == 0 ? 0.0 : undetected * 100.0 / trials, undetected, trials);
+    }
+}
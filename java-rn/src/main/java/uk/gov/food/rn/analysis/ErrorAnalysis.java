@@ -0,0 +1,361 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.analysis;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Exhaustive analysis of the error detection characteristics of a
+ * {@link CheckDigitScheme}, run as fork-join tasks over primitive weight arrays.
+ */
+public class ErrorAnalysis {
+    /** Each leaf task enumerates 2^LEAF_BITS position sets */
+    private static final int LEAF_BITS = 16;
+
+    /** Position sets are held as bit masks in a long */
+    public static final int MAX_SUBSET_LENGTH = 62;
+
+    private final CheckDigitScheme scheme;
+    private final ForkJoinPool pool;
+
+    /** Construct an analysis that runs on the common fork-join pool */
+    public ErrorAnalysis(CheckDigitScheme scheme) {
+        this(scheme, ForkJoinPool.commonPool());
+    }
+
+    /** Construct an analysis that runs on the given fork-join pool */
+    public ErrorAnalysis(CheckDigitScheme scheme, ForkJoinPool pool) {
+        this.scheme = scheme;
+        this.pool = pool;
+    }
+
+    /** @return The scheme under analysis */
+    public CheckDigitScheme getScheme() {
+        return scheme;
+    }
+
+    /**
+     * Single digit substitution errors, counted over every position and every pair of
+     * original and replacement digits. Such a change goes undetected when
+     *
+     *   (d' - d)W_i = 0 mod p
+     */
+    public DetectionRate singleSubstitutions() {
+        DetectionRate rate = new DetectionRate(0, 0);
+        for (int i = 0; i < scheme.getLength(); i++) {
+            rate = rate.plus(deltaMultiples(scheme.weight(i)));
+        }
+        return rate;
+    }
+
+    /**
+     * Transpositions of adjacent digits ab -> ba, which go undetected when
+     *
+     *   (b - a)(W_i - W_i+1) = 0 mod p
+     */
+    public DetectionRate adjacentTranspositions() {
+        return transpositions(1);
+    }
+
+    /**
+     * Transpositions of digits either side of another, acb -> bca, which go undetected when
+     *
+     *   (b - a)(W_i - W_i+2) = 0 mod p
+     */
+    public DetectionRate jumpTranspositions() {
+        return transpositions(2);
+    }
+
+    private DetectionRate transpositions(int gap) {
+        DetectionRate rate = new DetectionRate(0, 0);
+        for (int i = 0; i + gap < scheme.getLength(); i++) {
+            rate = rate.plus(deltaMultiples(scheme.weight(i) - scheme.weight(i + gap)));
+        }
+        return rate;
+    }
+
+    /**
+     * Count the digit deltas d (with the number of ways of making each) for which d.factor = 0 mod p.
+     */
+    private DetectionRate deltaMultiples(long factor) {
+        int base = scheme.getBase();
+        long detected = 0;
+        long undetected = 0;
+        for (int delta = 1; delta < base; delta++) {
+            // Both +delta and -delta, each made in (base - delta) ways
+            long ways = 2L * (base - delta);
+            if (scheme.mod(delta * factor) == 0) {
+                undetected += ways;
+            } else {
+                detected += ways;
+            }
+        }
+        return new DetectionRate(detected, undetected);
+    }
+
+    /**
+     * Independent double digit transcription errors: changes to the digits in two
+     * distinct positions, counted over every pair of positions and every pair of
+     * original and replacement digits. Such a change goes undetected when
+     *
+     *   (d'_i - d_i)W_i + (d'_j - d_j)W_j = 0 mod p
+     */
+    public DetectionRate independentDoubleTranscriptions() {
+        return Parallel.reduce(pool, 0, scheme.getLength() - 1, 1,
+                               (from, to) -> doubleTranscriptions((int) from, (int) to),
+                               DetectionRate::plus);
+    }
+
+    /**
+     * Count the double transcription errors whose first position is in [from, to), on the calling thread.
+     *
+     * When the deltas are distinct mod p, the second delta that cancels each first delta
+     * is found by a table lookup rather than by trying every second delta.
+     */
+    DetectionRate doubleTranscriptions(int from, int to) {
+        final int base = scheme.getBase();
+        final int prime = scheme.getPrime();
+        final int digits = scheme.getLength();
+
+        // deltaFor[r] is the delta in (-base, base) congruent to r mod p, or 0 if none
+        int[] deltaFor = null;
+        if (prime > 2 * (base - 1)) {
+            deltaFor = new int[prime];
+            for (int delta = 1; delta < base; delta++) {
+                deltaFor[delta] = delta;
+                deltaFor[prime - delta] = -delta;
+            }
+        }
+
+        long allWays = (long) base * (base - 1);
+        long detected = 0;
+        long undetected = 0;
+        for (int iPos = from; iPos < to; iPos++) {
+            int wi = scheme.weight(iPos);
+            for (int jPos = iPos + 1; jPos < digits; jPos++) {
+                int wj = scheme.weight(jPos);
+                long pairUndetected = 0;
+                if (deltaFor != null && wj != 0) {
+                    long wjInverse = inverse(wj, prime);
+                    for (int iDelta = 1 - base; iDelta < base; iDelta++) {
+                        if (iDelta == 0) {
+                            continue;
+                        }
+                        int jDelta = deltaFor[scheme.mod(-iDelta * wi * wjInverse)];
+                        if (jDelta != 0) {
+                            pairUndetected += (long) (base - Math.abs(iDelta)) * (base - Math.abs(jDelta));
+                        }
+                    }
+                } else {
+                    for (int iDelta = 1 - base; iDelta < base; iDelta++) {
+                        for (int jDelta = 1 - base; jDelta < base; jDelta++) {
+                            if (iDelta != 0 && jDelta != 0 && scheme.mod((long) iDelta * wi + (long) jDelta * wj) == 0) {
+                                pairUndetected += (long) (base - Math.abs(iDelta)) * (base - Math.abs(jDelta));
+                            }
+                        }
+                    }
+                }
+                // The number of ways of changing both digits is (base * (base - 1))^2
+                undetected += pairUndetected;
+                detected += allWays * allWays - pairUndetected;
+            }
+        }
+        return new DetectionRate(detected, undetected);
+    }
+
+    /** @return The inverse of w mod the prime p, by Fermat's little theorem */
+    private static long inverse(long w, int p) {
+        long result = 1;
+        long b = w % p;
+        for (int e = p - 2; e > 0; e >>= 1) {
+            if ((e & 1) != 0) {
+                result = result * b % p;
+            }
+            b = b * b % p;
+        }
+        return result;
+    }
+
+    /**
+     * DED->EDE transpositions, which go undetected for some choice of digits when
+     *
+     *   (d_i+1 - d_i)(W_i+1 - W_i + W_i-1) = 0 mod p
+     *
+     * @return True if no such transposition can go undetected
+     */
+    public boolean detectsAllDedEdeTranspositions() {
+        for (int i = 1; i < scheme.getLength() - 1; i++) {
+            if (scheme.mod(scheme.weight(i + 1) - scheme.weight(i) + scheme.weight(i - 1)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Multiple occurrences of the same single digit transcription error. Replacing
+     * d by d' at every position k of a set K goes undetected when
+     *
+     *   (d' - d).sum(W_k) = 0 mod p,  which implies sum(W_k) = 0 mod p
+     *
+     * so this finds every non-empty set of positions whose weights sum to 0 mod p.
+     * The 2^length sets are enumerated in Gray code order within each task, so each
+     * step adds or removes a single weight from a running residue.
+     *
+     * @param sampleLimit The number of example position sets to keep for each set size
+     */
+    public ZeroSumSubsets multiSingleDigitTranscriptions(int sampleLimit) {
+        final int digits = scheme.getLength();
+        if (digits > MAX_SUBSET_LENGTH) {
+            throw new IllegalArgumentException(String.format("Cannot enumerate the subsets of %d positions", digits));
+        }
+        final int lowBits = Math.min(digits, LEAF_BITS);
+        final int prime = scheme.getPrime();
+        final int[] weights = scheme.getWeights();
+
+        return Parallel.reduce(pool, 0, 1L << (digits - lowBits), 1, (from, to) -> {
+            ZeroSumSubsets result = new ZeroSumSubsets(digits, sampleLimit);
+            for (long prefix = from; prefix < to; prefix++) {
+                long base = prefix << lowBits;
+                int residue = 0;
+                for (long bits = base; bits != 0; bits &= bits - 1) {
+                    residue = (residue + weights[Long.numberOfTrailingZeros(bits)]) % prime;
+                }
+                if (residue == 0 && base != 0) {
+                    result.record(base);
+                }
+
+                long gray = 0;
+                for (long g = 1; g < (1L << lowBits); g++) {
+                    int bit = Long.numberOfTrailingZeros(g);
+                    gray ^= 1L << bit;
+                    if ((gray & (1L << bit)) != 0) {
+                        residue += weights[bit];
+                        if (residue >= prime) {
+                            residue -= prime;
+                        }
+                    } else {
+                        residue -= weights[bit];
+                        if (residue < 0) {
+                            residue += prime;
+                        }
+                    }
+                    if (residue == 0) {
+                        result.record(base | gray);
+                    }
+                }
+                result.addTrials(base == 0 ? (1L << lowBits) - 1 : 1L << lowBits);
+            }
+            return result;
+        }, ZeroSumSubsets::merge);
+    }
+
+    /**
+     * The number of non-empty position sets of each size whose weights sum to 0 mod p,
+     * as counted by {@link #multiSingleDigitTranscriptions(int)}, but computed by dynamic
+     * programming over (set size, residue) in O(length^2.p) time rather than by
+     * enumerating the 2^length sets.
+     *
+     * @return The counts, indexed by set size from 0 to length; entry 0 is always 0
+     * @throws ArithmeticException if a count does not fit in a long, which needs a length over 62
+     */
+    public long[] zeroSumSubsetCounts() {
+        final int digits = scheme.getLength();
+        final int prime = scheme.getPrime();
+
+        // ways[k][r] is the number of sets of k of the positions seen so far whose weights sum to r mod p
+        long[][] ways = new long[digits + 1][prime];
+        ways[0][0] = 1;
+        for (int i = 0; i < digits; i++) {
+            int w = scheme.weight(i);
+            for (int k = i + 1; k >= 1; k--) {
+                long[] from = ways[k - 1];
+                long[] to = ways[k];
+                for (int r = 0; r < prime; r++) {
+                    int shifted = r + w < prime ? r + w : r + w - prime;
+                    to[shifted] = Math.addExact(to[shifted], from[r]);
+                }
+            }
+        }
+
+        long[] counts = new long[digits + 1];
+        for (int k = 1; k <= digits; k++) {
+            counts[k] = ways[k][0];
+        }
+        return counts;
+    }
+
+    /**
+     * The probability that a substitution error in exactly k positions goes undetected,
+     * for each k up to maxErrors. The k positions are equally likely to be any k of
+     * the length positions, and each original digit is replaced by a different one,
+     * every (original, replacement) pair being equally likely. Such an error goes
+     * undetected when
+     *
+     *   sum over the positions of (d'_i - d_i)W_i = 0 mod p
+     *
+     * The probabilities are exact, up to floating point rounding. They are computed by
+     * dynamic programming over (number of positions changed, residue mod p), adding one
+     * position at a time, so the cost is O(length.maxErrors.base.p) and any length can
+     * be evaluated in milliseconds.
+     *
+     * @param maxErrors The largest number of substituted positions to consider
+     * @return The probabilities, indexed by the number of substituted positions; entry 0 is 0
+     */
+    public double[] substitutionUndetectedProbabilities(int maxErrors) {
+        final int base = scheme.getBase();
+        final int prime = scheme.getPrime();
+        final int digits = scheme.getLength();
+        final int maxK = Math.min(maxErrors, digits);
+
+        // The distribution of the non-zero delta d' - d: delta occurs in (base - |delta|) of the base.(base - 1) pairs
+        int deltas = 2 * (base - 1);
+        int[] deltaValue = new int[deltas];
+        double[] deltaProbability = new double[deltas];
+        for (int delta = 1, n = 0; delta < base; delta++) {
+            double probability = (double) (base - delta) / ((double) base * (base - 1));
+            deltaValue[n] = delta;
+            deltaProbability[n++] = probability;
+            deltaValue[n] = -delta;
+            deltaProbability[n++] = probability;
+        }
+
+        // mass[k][r] is the sum, over sets of k of the positions seen so far, of the probability
+        // that their deltas bring the residue to r mod p
+        double[][] mass = new double[maxK + 1][prime];
+        mass[0][0] = 1.0;
+        int[] shifts = new int[deltas];
+        for (int i = 0; i < digits; i++) {
+            for (int n = 0; n < deltas; n++) {
+                shifts[n] = scheme.mod((long) deltaValue[n] * scheme.weight(i));
+            }
+            for (int k = Math.min(i + 1, maxK); k >= 1; k--) {
+                double[] from = mass[k - 1];
+                double[] to = mass[k];
+                for (int n = 0; n < deltas; n++) {
+                    int shift = shifts[n];
+                    double probability = deltaProbability[n];
+                    // Split the loop at the wrap around rather than reducing mod p for every residue
+                    int split = prime - shift;
+                    for (int r = 0; r < split; r++) {
+                        to[r + shift] += from[r] * probability;
+                    }
+                    for (int r = split; r < prime; r++) {
+                        to[r - split] += from[r] * probability;
+                    }
+                }
+            }
+        }
+
+        double[] probabilities = new double[maxK + 1];
+        double sets = 1.0;
+        for (int k = 1; k <= maxK; k++) {
+            // sets = C(digits, k)
+            sets = sets * (digits - k + 1) / k;
+            probabilities[k] = mass[k][0] / sets;
+        }
+        return probabilities;
+    }
+}
@@ -0,0 +1,30 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.analysis;
+
+import java.util.SplittableRandom;
+
+/**
+ * A model of the errors made when an encoded RN is transcribed, such as a
+ * typing slip or an OCR misreading, for use by {@link ErrorSimulation}.
+ *
+ * Implementations must be safe to call from several threads at once; each
+ * thread passes in its own random number generator.
+ *
+ * @see ErrorModels
+ */
+@FunctionalInterface
+public interface ErrorModel {
+
+    /**
+     * Apply an error, in place, to the encoded form held in chars[0, length).
+     *
+     * @param chars  The encoded form; has room for at least length + 1 characters
+     * @param length The number of characters in the encoded form
+     * @param random The source of randomness for this thread
+     * @return The length of the encoded form after the error
+     */
+    int corrupt(char[] chars, int length, SplittableRandom random);
+}
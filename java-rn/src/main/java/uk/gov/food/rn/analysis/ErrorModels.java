@@ -0,0 +1,172 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.analysis;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import uk.gov.food.rn.Representation;
+
+/**
+ * Standard {@link ErrorModel}s for the transcription of encoded RNs.
+ */
+public final class ErrorModels {
+    /** Rows of a UK keyboard, including characters outside the alphabet that a slip can produce */
+    private static final String[] KEYBOARD_ROWS = { "1234567890", "QWERTYUIOP", "ASDFGHJKL", "ZXCVBNM" };
+
+    /** Pairs of characters that OCR commonly confuses, in either direction */
+    private static final String[] OCR_PAIRS = {
+        "B8", "S5", "Z2", "G6", "D0", "Q0", "T7", "A4", "E3", "EF", "PR", "MN", "VY", "L1", "J1", "83", "BE", "CG", "HN", "KX",
+        "O0", "I1", "UV"
+    };
+
+    private ErrorModels() {
+    }
+
+    /** @return A model that replaces one alphabet character with a different, uniformly chosen one */
+    public static ErrorModel randomSubstitution() {
+        final String alphabet = Representation.ALPHABET;
+        return (chars, length, random) -> {
+            int pos = randomDigit(chars, length, random);
+            char replacement;
+            do {
+                replacement = alphabet.charAt(random.nextInt(alphabet.length()));
+            } while (replacement == chars[pos]);
+            chars[pos] = replacement;
+            return length;
+        };
+    }
+
+    /** @return A model that replaces one character with a neighbouring key on the keyboard */
+    public static ErrorModel keyboardAdjacency() {
+        return substitution(keyboardNeighbours());
+    }
+
+    /** @return A model that replaces one character with a character that OCR commonly confuses it with */
+    public static ErrorModel ocrConfusion() {
+        return substitution(ocrConfusions());
+    }
+
+    /** @return A model that swaps one pair of adjacent alphabet characters, ignoring separators */
+    public static ErrorModel adjacentTransposition() {
+        return (chars, length, random) -> {
+            int pos = randomDigit(chars, length, random);
+            int next = pos + 1;
+            while (next < length && chars[next] == '-') {
+                next++;
+            }
+            if (next == length) {
+                return length;
+            }
+            char c = chars[pos];
+            chars[pos] = chars[next];
+            chars[next] = c;
+            return length;
+        };
+    }
+
+    /** @return A model that drops one character, which may be a separator */
+    public static ErrorModel droppedCharacter() {
+        return (chars, length, random) -> {
+            int pos = random.nextInt(length);
+            System.arraycopy(chars, pos + 1, chars, pos, length - pos - 1);
+            return length - 1;
+        };
+    }
+
+    /** @return A model that types one character twice, which may be a separator */
+    public static ErrorModel duplicatedCharacter() {
+        return (chars, length, random) -> {
+            int pos = random.nextInt(length);
+            System.arraycopy(chars, pos, chars, pos + 1, length - pos);
+            return length + 1;
+        };
+    }
+
+    /** @return The standard models, by name */
+    public static Map<String, ErrorModel> standardModels() {
+        Map<String, ErrorModel> models = new LinkedHashMap<>();
+        models.put("random substitution", randomSubstitution());
+        models.put("keyboard adjacency", keyboardAdjacency());
+        models.put("OCR confusion", ocrConfusion());
+        models.put("adjacent transposition", adjacentTransposition());
+        models.put("dropped character", droppedCharacter());
+        models.put("duplicated character", duplicatedCharacter());
+        return models;
+    }
+
+    /**
+     * @return A model that replaces a randomly chosen character which has
+     *         alternatives with one of them; if none has, nothing is changed
+     */
+    static ErrorModel substitution(Map<Character, String> alternatives) {
+        final String[] table = new String[128];
+        for (Map.Entry<Character, String> entry : alternatives.entrySet()) {
+            table[entry.getKey()] = entry.getValue();
+        }
+        return (chars, length, random) -> {
+            // Choose uniformly amongst the positions that have alternatives
+            int candidates = 0;
+            int chosen = -1;
+            for (int pos = 0; pos < length; pos++) {
+                if (chars[pos] < 128 && table[chars[pos]] != null && random.nextInt(++candidates) == 0) {
+                    chosen = pos;
+                }
+            }
+            if (chosen >= 0) {
+                String options = table[chars[chosen]];
+                chars[chosen] = options.charAt(random.nextInt(options.length()));
+            }
+            return length;
+        };
+    }
+
+    /** @return For each character that OCR commonly misreads, the characters it may be read as */
+    public static Map<Character, String> ocrConfusions() {
+        Map<Character, String> confusions = new HashMap<>();
+        for (String pair : OCR_PAIRS) {
+            confusions.merge(pair.charAt(0), pair.substring(1), String::concat);
+            confusions.merge(pair.charAt(1), pair.substring(0, 1), String::concat);
+        }
+        return confusions;
+    }
+
+    /** @return For each character on the keyboard, the characters on the keys around it */
+    public static Map<Character, String> keyboardNeighbours() {
+        Map<Character, String> neighbours = new HashMap<>();
+        for (int row = 0; row < KEYBOARD_ROWS.length; row++) {
+            String keys = KEYBOARD_ROWS[row];
+            for (int col = 0; col < keys.length(); col++) {
+                StringBuilder near = new StringBuilder();
+                // Same row either side, and the keys above and below (rows are offset by about half a key)
+                appendKey(near, row, col - 1);
+                appendKey(near, row, col + 1);
+                appendKey(near, row - 1, col);
+                appendKey(near, row - 1, col + 1);
+                appendKey(near, row + 1, col);
+                appendKey(near, row + 1, col - 1);
+                neighbours.put(keys.charAt(col), near.toString());
+            }
+        }
+        return neighbours;
+    }
+
+    private static void appendKey(StringBuilder near, int row, int col) {
+        if (row >= 0 && row < KEYBOARD_ROWS.length && col >= 0 && col < KEYBOARD_ROWS[row].length()) {
+            near.append(KEYBOARD_ROWS[row].charAt(col));
+        }
+    }
+
+    /** @return The position of a randomly chosen character that is not a separator */
+    private static int randomDigit(char[] chars, int length, SplittableRandom random) {
+        int pos;
+        do {
+            pos = random.nextInt(length);
+        } while (chars[pos] == '-');
+        return pos;
+    }
+}
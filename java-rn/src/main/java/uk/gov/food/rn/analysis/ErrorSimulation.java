@@ -0,0 +1,214 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.analysis;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import uk.gov.food.rn.Authority;
+import uk.gov.food.rn.Instance;
+import uk.gov.food.rn.PackedRN;
+import uk.gov.food.rn.Type;
+
+/**
+ * Monte Carlo simulation of transcription errors in encoded RNs.
+ *
+ * Each trial generates a random valid RN, applies an {@link ErrorModel} to its
+ * hyphenated encoded form and decodes the result. The trial is harmless if the
+ * result still decodes to the original RN (for example a dropped separator),
+ * detected if decoding fails, and undetected if it decodes to a different RN.
+ *
+ * Decoding uses {@link PackedRN#probe(CharSequence, long[], int)}, which applies
+ * the same checks, in the same order, as {@link uk.gov.food.rn.Representation}
+ * and {@link uk.gov.food.rn.RN#RN(String)} without creating any objects, so the
+ * simulation measures the production rules at millions of trials per second.
+ *
+ * Trials are split across a fork-join pool. Each leaf has its own
+ * {@link SplittableRandom}, seeded from the simulation seed and the leaf's
+ * first trial, and its own counters, so results are reproducible for a given
+ * seed regardless of the number of threads.
+ */
+public class ErrorSimulation {
+    /** The number of trials in each fork-join leaf */
+    static final long GRAIN = 1 << 16;
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    /** Earliest and latest (exclusive) issue times that an RN can hold */
+    private static final long MIN_EPOCH_MILLI = 946684800000L;
+    private static final long MAX_EPOCH_MILLI = 10000000000000L;
+
+    private final ErrorModel model;
+    private final long seed;
+    private final ForkJoinPool pool;
+
+    /** The outcome of a simulation */
+    public static final class Result {
+        private final long harmless;
+        private final long undetected;
+        private final long[] detected;
+
+        Result(long harmless, long undetected, long[] detected) {
+            this.harmless = harmless;
+            this.undetected = undetected;
+            this.detected = detected;
+        }
+
+        /** @return The sum of two sets of results */
+        public Result plus(Result other) {
+            long[] sum = detected.clone();
+            for (int i = 0; i < sum.length; i++) {
+                sum[i] += other.detected[i];
+            }
+            return new Result(harmless + other.harmless, undetected + other.undetected, sum);
+        }
+
+        /** @return The number of trials in which the error left the RN unchanged */
+        public long getHarmless() {
+            return harmless;
+        }
+
+        /** @return The number of trials in which the error produced a different valid RN */
+        public long getUndetected() {
+            return undetected;
+        }
+
+        /** @return The number of trials in which decoding failed */
+        public long getDetected() {
+            long total = 0;
+            for (long count : detected) {
+                total += count;
+            }
+            return total;
+        }
+
+        /**
+         * @param status A {@link PackedRN} decode status other than {@link PackedRN#DECODED}
+         * @return The number of trials in which decoding failed with the given status
+         */
+        public long getDetected(int status) {
+            return detected[status];
+        }
+
+        /** @return The number of trials */
+        public long getTrials() {
+            return harmless + undetected + getDetected();
+        }
+
+        /** @return Detection of the errors that changed the RN */
+        public DetectionRate getDetectionRate() {
+            return new DetectionRate(getDetected(), undetected);
+        }
+    }
+
+    public ErrorSimulation(ErrorModel model, long seed) {
+        this(model, seed, ForkJoinPool.commonPool());
+    }
+
+    public ErrorSimulation(ErrorModel model, long seed, ForkJoinPool pool) {
+        this.model = model;
+        this.seed = seed;
+        this.pool = pool;
+    }
+
+    /** @return The outcome of the given number of trials */
+    public Result run(long trials) {
+        return Parallel.reduce(pool, 0, trials, GRAIN, this::trials, Result::plus);
+    }
+
+    private Result trials(long from, long to) {
+        SplittableRandom random = new SplittableRandom(seed + from * GOLDEN_GAMMA);
+        char[] chars = new char[PackedRN.ENCODED_LENGTH * 2];
+        long[] decoded = new long[2];
+        long harmless = 0;
+        long undetected = 0;
+        long[] detected = new long[PackedRN.BAD_TIMESTAMP + 1];
+
+        for (long n = from; n < to; n++) {
+            long high = PackedRN.high(random.nextInt(Authority.MIN_AUTHORITY_ID, Authority.MAX_AUTHORITY_ID + 1),
+                                      random.nextInt(Instance.MIN_INSTANCE_ID, Instance.MAX_INSTANCE_ID + 1),
+                                      random.nextInt(Type.MIN_TYPE_ID, Type.MAX_TYPE_ID + 1));
+            long low = PackedRN.low(random.nextLong(MIN_EPOCH_MILLI, MAX_EPOCH_MILLI), 0);
+
+            int length = PackedRN.encode(high, low, chars, 0);
+            length = model.corrupt(chars, length, random);
+
+            int status = PackedRN.probe(new CharArray(chars, length), decoded, 0);
+            if (status != PackedRN.DECODED) {
+                detected[status]++;
+            } else if (decoded[0] == high && decoded[1] == low) {
+                harmless++;
+            } else {
+                undetected++;
+            }
+        }
+        return new Result(harmless, undetected, detected);
+    }
+
+    /** A view of the start of a char array, which avoids creating a String per trial */
+    private static final class CharArray implements CharSequence {
+        private final char[] chars;
+        private final int length;
+
+        CharArray(char[] chars, int length) {
+            this.chars = chars;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return chars[index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(chars, start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(chars, 0, length);
+        }
+    }
+
+    /** @return A table of results, one line per model */
+    public static String toTable(Map<String, Result> results) {
+        StringBuilder buf = new StringBuilder();
+        buf.append(String.format("%-24s %12s %10s %10s %12s %12s%n",
+                                 "model", "trials", "harmless%", "detected%", "undetected%", "undetected"));
+        for (Map.Entry<String, Result> entry : results.entrySet()) {
+            Result r = entry.getValue();
+            double trials = Math.max(1, r.getTrials());
+            buf.append(String.format("%-24s %12d %10.4f %10.4f %12.6f %12d%n", entry.getKey(), r.getTrials(),
+                                     r.getHarmless() * 100.0 / trials, r.getDetected() * 100.0 / trials,
+                                     r.getUndetected() * 100.0 / trials, r.getUndetected()));
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Arguments: [trials per model] [seed]. Runs each of {@link ErrorModels#standardModels()}.
+     */
+    public static void main(String[] args) {
+        long trials = args.length > 0 ? Long.parseLong(args[0]) : 10_000_000L;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1087L;
+
+        long start = System.nanoTime();
+        Map<String, Result> results = new LinkedHashMap<>();
+        for (Map.Entry<String, ErrorModel> entry : ErrorModels.standardModels().entrySet()) {
+            results.put(entry.getKey(), new ErrorSimulation(entry.getValue(), seed).run(trials));
+        }
+        System.out.print(toTable(results));
+        System.out.println("Simulation took " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+    }
+}
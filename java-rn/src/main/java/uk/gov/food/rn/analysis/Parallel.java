@@ -0,0 +1,63 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.analysis;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+
+/**
+ * Fork-join reduction over a range of longs, shared by the analyses in this package.
+ *
+ * The range is split in halves down to a grain size, each leaf is computed
+ * independently and the results are merged left to right, so the outcome does
+ * not depend on how the tasks were scheduled.
+ */
+final class Parallel {
+
+    /** Computes the result for one leaf range [from, to) */
+    @FunctionalInterface
+    interface Leaf<R> {
+        R compute(long from, long to);
+    }
+
+    private Parallel() {
+    }
+
+    static <R> R reduce(ForkJoinPool pool, long from, long to, long grain, Leaf<R> leaf, BinaryOperator<R> merge) {
+        return pool.invoke(new Task<>(from, to, Math.max(1, grain), leaf, merge));
+    }
+
+    private static final class Task<R> extends RecursiveTask<R> {
+        private static final long serialVersionUID = 1L;
+
+        private final long from;
+        private final long to;
+        private final long grain;
+        private final Leaf<R> leaf;
+        private final BinaryOperator<R> merge;
+
+        Task(long from, long to, long grain, Leaf<R> leaf, BinaryOperator<R> merge) {
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.leaf = leaf;
+            this.merge = merge;
+        }
+
+        @Override
+        protected R compute() {
+            if (to - from <= grain) {
+                return leaf.compute(from, to);
+            }
+            long mid = from + (to - from) / 2;
+            Task<R> left = new Task<>(from, mid, grain, leaf, merge);
+            Task<R> right = new Task<>(mid, to, grain, leaf, merge);
+            left.fork();
+            R rightResult = right.compute();
+            return merge.apply(left.join(), rightResult);
+        }
+    }
+}
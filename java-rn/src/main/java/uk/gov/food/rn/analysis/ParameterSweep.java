@@ -0,0 +1,175 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.analysis;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sweeps candidate check digit primes and representation lengths for a given
+ * alphabet size, scoring each {@link CheckDigitScheme} on the errors it fails
+ * to detect, and ranks them.
+ *
+ * The candidate primes are those between the base and base^2, so that the check
+ * value always fits in two digits, as {@link uk.gov.food.rn.Representation#CHECK_DIGITS_PRIME}
+ * does. Schemes are ranked first on undetected single substitutions, then adjacent
+ * and jump transpositions, and then on the fraction of double errors undetected.
+ *
+ * The schemes are scored in parallel, one fork-join task per scheme.
+ */
+public class ParameterSweep {
+    private final int base;
+    private final int minLength;
+    private final int maxLength;
+    private final ForkJoinPool pool;
+
+    /** The score of one candidate scheme */
+    public static final class Score {
+        private final CheckDigitScheme scheme;
+        private final DetectionRate single;
+        private final DetectionRate adjacent;
+        private final DetectionRate jump;
+        private final DetectionRate doubles;
+
+        Score(CheckDigitScheme scheme) {
+            ErrorAnalysis analysis = new ErrorAnalysis(scheme);
+            this.scheme = scheme;
+            single = analysis.singleSubstitutions();
+            adjacent = analysis.adjacentTranspositions();
+            jump = analysis.jumpTranspositions();
+            doubles = analysis.doubleTranscriptions(0, scheme.getLength() - 1);
+        }
+
+        /** @return The scheme scored */
+        public CheckDigitScheme getScheme() {
+            return scheme;
+        }
+
+        /** @return Detection of single digit substitutions */
+        public DetectionRate getSingleSubstitutions() {
+            return single;
+        }
+
+        /** @return Detection of adjacent transpositions */
+        public DetectionRate getAdjacentTranspositions() {
+            return adjacent;
+        }
+
+        /** @return Detection of jump transpositions */
+        public DetectionRate getJumpTranspositions() {
+            return jump;
+        }
+
+        /** @return Detection of independent double digit transcription errors */
+        public DetectionRate getDoubleTranscriptions() {
+            return doubles;
+        }
+    }
+
+    /** Best schemes first */
+    static final Comparator<Score> RANKING =
+        Comparator.<Score>comparingDouble(s -> 1.0 - s.single.getDetectedFraction())
+                  .thenComparingDouble(s -> 1.0 - s.adjacent.getDetectedFraction())
+                  .thenComparingDouble(s -> 1.0 - s.jump.getDetectedFraction())
+                  .thenComparingDouble(s -> 1.0 - s.doubles.getDetectedFraction())
+                  .thenComparingInt(s -> -s.scheme.getPrime())
+                  .thenComparingInt(s -> s.scheme.getLength());
+
+    /**
+     * @param base      The alphabet size
+     * @param minLength The shortest representation length to consider, including check digits
+     * @param maxLength The longest representation length to consider
+     */
+    public ParameterSweep(int base, int minLength, int maxLength) {
+        this(base, minLength, maxLength, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param base      The alphabet size
+     * @param minLength The shortest representation length to consider, including check digits
+     * @param maxLength The longest representation length to consider
+     * @param pool      The pool that scores the candidate schemes in parallel
+     */
+    public ParameterSweep(int base, int minLength, int maxLength, ForkJoinPool pool) {
+        this.base = base;
+        this.minLength = minLength;
+        this.maxLength = maxLength;
+        this.pool = pool;
+    }
+
+    /** @return The primes p with base < p < base^2 */
+    public List<Integer> candidatePrimes() {
+        List<Integer> primes = new ArrayList<>();
+        for (int p = base + 1; p < base * base; p++) {
+            if (BigInteger.valueOf(p).isProbablePrime(32)) {
+                primes.add(p);
+            }
+        }
+        return primes;
+    }
+
+    /** @return The score of every candidate scheme, best first */
+    public List<Score> run() {
+        final List<Integer> primes = candidatePrimes();
+        final int lengths = maxLength - minLength + 1;
+
+        List<Score> scores = Parallel.reduce(pool, 0, (long) primes.size() * lengths, 1, (from, to) -> {
+            List<Score> leaf = new ArrayList<>();
+            for (long k = from; k < to; k++) {
+                int prime = primes.get((int) (k / lengths));
+                int length = minLength + (int) (k % lengths);
+                leaf.add(new Score(new CheckDigitScheme(base, prime, length)));
+            }
+            return leaf;
+        }, (left, right) -> {
+            left.addAll(right);
+            return left;
+        });
+
+        Collections.sort(scores, RANKING);
+        return scores;
+    }
+
+    /** @return A table of scores, one line per scheme, giving the undetected percentage of each kind of error */
+    public static String toTable(List<Score> scores, int limit) {
+        StringBuilder buf = new StringBuilder();
+        buf.append(String.format("%4s %6s %6s %10s %10s %10s %10s%n",
+                                 "rank", "prime", "length", "single%", "adjacent%", "jump%", "double%"));
+        for (int i = 0; i < Math.min(limit, scores.size()); i++) {
+            Score s = scores.get(i);
+            buf.append(String.format("%4d %6d %6d %10.6f %10.6f %10.6f %10.6f%n", i + 1,
+                                     s.scheme.getPrime(), s.scheme.getLength(),
+                                     undetectedPercent(s.single), undetectedPercent(s.adjacent),
+                                     undetectedPercent(s.jump), undetectedPercent(s.doubles)));
+        }
+        return buf.toString();
+    }
+
+    private static double undetectedPercent(DetectionRate rate) {
+        return (1.0 - rate.getDetectedFraction()) * 100.0;
+    }
+
+    /**
+     * Arguments: base minLength maxLength [rows]. Defaults to the FSA-RN alphabet of 33 characters
+     * and lengths 18 to 24.
+     */
+    public static void main(String[] args) {
+        int base = args.length > 0 ? Integer.parseInt(args[0]) : 33;
+        int minLength = args.length > 1 ? Integer.parseInt(args[1]) : 18;
+        int maxLength = args.length > 2 ? Integer.parseInt(args[2]) : 24;
+        int rows = args.length > 3 ? Integer.parseInt(args[3]) : 40;
+
+        long start = System.nanoTime();
+        List<Score> scores = new ParameterSweep(base, minLength, maxLength).run();
+        System.out.print(toTable(scores, rows));
+        System.out.println(scores.size() + " schemes scored in "
+                           + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+    }
+}
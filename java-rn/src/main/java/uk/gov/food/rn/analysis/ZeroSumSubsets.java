@@ -0,0 +1,131 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The sets of digit positions whose weights sum to 0 mod p, which are the
+ * patterns of positions where repeating the same single digit transcription
+ * error goes undetected.
+ *
+ * Rather than every such set, this holds the number found of each size and
+ * a bounded sample of them.
+ */
+public final class ZeroSumSubsets {
+    private final int length;
+    private final int sampleLimit;
+    private long trials;
+    private final long[] countBySize;
+    private final long[][] samples;
+    private final int[] sampleCount;
+    private boolean contiguous;
+
+    ZeroSumSubsets(int length, int sampleLimit) {
+        this.length = length;
+        this.sampleLimit = sampleLimit;
+        countBySize = new long[length + 1];
+        samples = new long[length + 1][sampleLimit];
+        sampleCount = new int[length + 1];
+    }
+
+    /** Record a position set, as a bit mask, whose weights sum to 0 mod p */
+    void record(long mask) {
+        int size = Long.bitCount(mask);
+        countBySize[size]++;
+        if (sampleCount[size] < sampleLimit) {
+            samples[size][sampleCount[size]++] = mask;
+        }
+        long shifted = mask >>> Long.numberOfTrailingZeros(mask);
+        if ((shifted & (shifted + 1)) == 0) {
+            contiguous = true;
+        }
+    }
+
+    void addTrials(long n) {
+        trials += n;
+    }
+
+    /** Merge the results from a later range of position sets into this one */
+    ZeroSumSubsets merge(ZeroSumSubsets other) {
+        trials += other.trials;
+        contiguous |= other.contiguous;
+        for (int size = 0; size <= length; size++) {
+            countBySize[size] += other.countBySize[size];
+            for (int k = 0; k < other.sampleCount[size] && sampleCount[size] < sampleLimit; k++) {
+                samples[size][sampleCount[size]++] = other.samples[size][k];
+            }
+        }
+        return this;
+    }
+
+    /** @return The number of non-empty position sets examined */
+    public long getTrials() {
+        return trials;
+    }
+
+    /** @return The number of position sets whose weights sum to 0 mod p */
+    public long getCount() {
+        long count = 0;
+        for (long c : countBySize) {
+            count += c;
+        }
+        return count;
+    }
+
+    /** @return The number of position sets of the given size whose weights sum to 0 mod p */
+    public long getCount(int size) {
+        return countBySize[size];
+    }
+
+    /** @return The size of the smallest position set whose weights sum to 0 mod p, or -1 if there are none */
+    public int getMinSize() {
+        for (int size = 0; size <= length; size++) {
+            if (countBySize[size] > 0) {
+                return size;
+            }
+        }
+        return -1;
+    }
+
+    /** @return True if some set of adjacent positions has weights summing to 0 mod p */
+    public boolean hasContiguous() {
+        return contiguous;
+    }
+
+    /** @return Up to the sample limit of position sets of the given size, each as ascending positions */
+    public List<int[]> getSamples(int size) {
+        List<int[]> result = new ArrayList<>(sampleCount[size]);
+        for (int k = 0; k < sampleCount[size]; k++) {
+            long mask = samples[size][k];
+            int[] positions = new int[size];
+            for (int j = 0; j < size; j++) {
+                positions[j] = Long.numberOfTrailingZeros(mask);
+                mask &= mask - 1;
+            }
+            result.add(positions);
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder();
+        buf.append(String.format("Found %d in %d trials. Min size of indices: %d Contiguous Index Group: %s%n",
+                                 getCount(), trials, getMinSize(), contiguous));
+        for (int size = 0; size <= length; size++) {
+            if (countBySize[size] > 0) {
+                buf.append(String.format("%d: %d sets, e.g.", size, countBySize[size]));
+                for (int[] positions : getSamples(size)) {
+                    buf.append(' ').append(Arrays.toString(positions));
+                }
+                buf.append(String.format("%n"));
+            }
+        }
+        return buf.toString();
+    }
+}
@@ -0,0 +1,206 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.bulk;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import uk.gov.food.rn.PackedRN;
+import uk.gov.food.rn.RN;
+import uk.gov.food.rn.RNException;
+import uk.gov.food.rn.TimeStamp;
+import uk.gov.food.rn.collection.MillisecondBitmap;
+import uk.gov.food.rn.collection.RNSort;
+
+/**
+ * Assigns backdated RNs to legacy records in bulk, so that each RN carries
+ * the time of the original registration rather than the time of the import,
+ * while no two RNs of the same authority, instance and type share a
+ * millisecond.
+ *
+ * The milliseconds already taken by each authority, instance and type are kept
+ * in a {@link MillisecondBitmap}. Existing RNs, such as those replayed from an
+ * issuance journal, are marked as taken with {@link #reserve(long, long)}. Each
+ * record is then given the free millisecond nearest its registration time,
+ * preferring the later of two equally near, and no earlier than the start of
+ * 2000, the earliest time an RN can hold. Nor is it later than a limit, by
+ * default the time the import was created, so that backdated RNs can never
+ * take a millisecond that a live {@link uk.gov.food.rn.RNFactory} issues later.
+ *
+ * Records are sorted, stably, by authority, instance, type and registration
+ * time, and the records of each authority, instance and type are assigned
+ * in that order by one task, with different ones assigned in parallel. So the
+ * RNs assigned depend only on the records, the reservations and the order of
+ * records registered in the same millisecond, never on how the work is split
+ * between threads.
+ *
+ * An import keeps its bitmaps between calls, so records can be assigned in
+ * several batches. Calls must not overlap.
+ */
+public class HistoricalImport {
+    /** The earliest time an RN can hold, the start of 2000 */
+    public static final long MIN_EPOCH_MILLI = TimeStamp.MIN_EPOCH_SECONDS * 1000L;
+
+    private final long notAfter;
+    private final Map<Long, MillisecondBitmap> taken = new HashMap<>();
+
+    private long assigned;
+    private long displaced;
+    private long maxDisplacement;
+
+    /** Create an import whose RNs are no later than now */
+    public HistoricalImport() {
+        this(System.currentTimeMillis());
+    }
+
+    /**
+     * @param notAfter The latest time, in milliseconds since the epoch, an RN may be given
+     */
+    public HistoricalImport(long notAfter) {
+        if (notAfter < MIN_EPOCH_MILLI) {
+            throw new IllegalArgumentException(String.format("A limit of %d is before the earliest time an RN can hold, %d",
+                                                             notAfter, MIN_EPOCH_MILLI));
+        }
+        this.notAfter = Math.min(notAfter, TimeStamp.MAX_EPOCH_SECONDS * 1000L + 999L);
+    }
+
+    /**
+     * Mark the millisecond of an existing packed RN as taken for its authority, instance and type.
+     *
+     * @return True if it was not already taken
+     */
+    public boolean reserve(long high, long low) {
+        return bitmap(high).add(PackedRN.epochMilli(low));
+    }
+
+    /**
+     * Mark the millisecond of an existing RN as taken for its authority, instance and type.
+     *
+     * @return True if it was not already taken
+     */
+    public boolean reserve(RN rn) {
+        return reserve(PackedRN.high(rn), PackedRN.low(rn));
+    }
+
+    /**
+     * Assign an RN to each of a batch of records.
+     *
+     * @param highs       The high half of the packed form for each record, which gives its
+     *                    authority, instance and type; see {@link PackedRN#high(int, int, int)}
+     * @param epochMillis The registration time of each record, in milliseconds since the epoch
+     * @return The low half of the packed form of the RN assigned to each record, in the order
+     *         of the records, each with version 0
+     * @throws RNException if every millisecond in range is already taken for an authority,
+     *                     instance and type, after which the import should be discarded
+     */
+    public long[] assign(long[] highs, long[] epochMillis) {
+        if (highs.length != epochMillis.length) {
+            throw new IllegalArgumentException(String.format("Mismatched columns: %d highs and %d times",
+                                                             highs.length, epochMillis.length));
+        }
+        int n = highs.length;
+        long[] sortedHighs = highs.clone();
+        long[] sortedMillis = new long[n];
+        for (int i = 0; i < n; i++) {
+            if (highs[i] < 0) {
+                throw new IllegalArgumentException("Not the high half of a packed RN: " + highs[i]);
+            }
+            // Times outside the range RNs can hold are moved to its nearest end anyway
+            sortedMillis[i] = Math.max(MIN_EPOCH_MILLI, Math.min(notAfter, epochMillis[i]));
+        }
+        int[] order = RNSort.parallelOrder(sortedHighs, sortedMillis);
+
+        // Find the run of records for each authority, instance and type, and its bitmap
+        int runs = 0;
+        int[] starts = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || sortedHighs[i] != sortedHighs[i - 1]) {
+                starts[runs++] = i;
+            }
+        }
+        starts[runs] = n;
+        MillisecondBitmap[] bitmaps = new MillisecondBitmap[runs];
+        for (int r = 0; r < runs; r++) {
+            bitmaps[r] = bitmap(sortedHighs[starts[r]]);
+        }
+
+        long[] lows = new long[n];
+        long[][] stats = new long[runs][];
+        IntStream.range(0, runs).parallel().forEach(r -> {
+            MillisecondBitmap bitmap = bitmaps[r];
+            long runDisplaced = 0;
+            long runMaxDisplacement = 0;
+            for (int i = starts[r]; i < starts[r + 1]; i++) {
+                long wanted = sortedMillis[i];
+                long millis = bitmap.nearestAbsent(wanted, MIN_EPOCH_MILLI, notAfter);
+                if (millis < 0) {
+                    throw new RNException(String.format("Every millisecond up to %d is taken for %d:%03d:%03d",
+                                                        notAfter, PackedRN.authority(sortedHighs[i]),
+                                                        PackedRN.instance(sortedHighs[i]),
+                                                        PackedRN.type(sortedHighs[i])));
+                }
+                bitmap.add(millis);
+                lows[order[i]] = PackedRN.low(millis, 0);
+                if (millis != epochMillis[order[i]]) {
+                    runDisplaced++;
+                    runMaxDisplacement = Math.max(runMaxDisplacement, Math.abs(millis - epochMillis[order[i]]));
+                }
+            }
+            stats[r] = new long[] { runDisplaced, runMaxDisplacement };
+        });
+
+        assigned += n;
+        for (long[] runStats : stats) {
+            displaced += runStats[0];
+            maxDisplacement = Math.max(maxDisplacement, runStats[1]);
+        }
+        return lows;
+    }
+
+    /**
+     * Assign an RN to each of a batch of records.
+     *
+     * @see #assign(long[], long[])
+     * @return The RN assigned to each record, in the order of the records
+     */
+    public RN[] assignRNs(long[] highs, long[] epochMillis) {
+        long[] lows = assign(highs, epochMillis);
+        RN[] rns = new RN[lows.length];
+        for (int i = 0; i < lows.length; i++) {
+            rns[i] = PackedRN.toRN(highs[i], lows[i]);
+        }
+        return rns;
+    }
+
+    private MillisecondBitmap bitmap(long high) {
+        return taken.computeIfAbsent(high, h -> new MillisecondBitmap());
+    }
+
+    /** @return The latest time an RN may be given */
+    public long getNotAfter() {
+        return notAfter;
+    }
+
+    /** @return The milliseconds taken for an authority, instance and type, by the high half of their packed RNs */
+    public MillisecondBitmap getTaken(long high) {
+        return taken.get(high);
+    }
+
+    /** @return The number of records assigned an RN */
+    public long getAssigned() {
+        return assigned;
+    }
+
+    /** @return The number of records given a time other than their registration time */
+    public long getDisplaced() {
+        return displaced;
+    }
+
+    /** @return The furthest any record's RN is from its registration time, in milliseconds */
+    public long getMaxDisplacementMillis() {
+        return maxDisplacement;
+    }
+}
@@ -0,0 +1,184 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.bulk;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.stream.IntStream;
+
+import uk.gov.food.rn.PackedRN;
+import uk.gov.food.rn.jfr.RNEvents;
+
+/**
+ * Columnar (struct of arrays) view of a batch of decoded reference numbers.
+ *
+ * Bulk decoding fills one primitive array per field rather than creating an
+ * {@link uk.gov.food.rn.RN} for every input, which suits analytics that only
+ * need to read a few fields across a large batch. Entry i of every column
+ * corresponds to input i; entries that fail to decode are left as zero and
+ * have their bit clear in the validity bitmap.
+ *
+ * Decoding follows the same rules as {@link uk.gov.food.rn.Representation},
+ * via {@link PackedRN#decode(CharSequence, long[], int)}, and runs in
+ * parallel for large batches.
+ */
+public class RNColumns {
+    /** Batches smaller than this are decoded on the calling thread */
+    static final int PARALLEL_THRESHOLD = 8192;
+
+    /** Entries decoded by each parallel task; a multiple of 64 so tasks never share a bitmap word */
+    static final int CHUNK_SIZE = 4096;
+
+    private final int size;
+
+    private final int[] authority;
+    private final short[] instance;
+    private final short[] type;
+    private final long[] epochMillis;
+    private final byte[] version;
+
+    /** Bit i is set when entry i decoded successfully */
+    private final long[] validity;
+
+    /**
+     * Construct empty columns for a batch of the given size.
+     *
+     * @param size The number of entries in the batch
+     */
+    public RNColumns(int size) {
+        this.size = size;
+        authority = new int[size];
+        instance = new short[size];
+        type = new short[size];
+        epochMillis = new long[size];
+        version = new byte[size];
+        validity = new long[(size + 63) >>> 6];
+    }
+
+    /**
+     * Decode a list of encoded RNs into columns.
+     *
+     * @param encoded Encoded reference numbers; null entries are treated as invalid
+     * @return The decoded columns
+     */
+    public static RNColumns decode(List<? extends CharSequence> encoded) {
+        RNColumns columns = new RNColumns(encoded.size());
+        columns.fill(encoded);
+        return columns;
+    }
+
+    /**
+     * Decode an array of encoded RNs into columns.
+     *
+     * @param encoded Encoded reference numbers; null entries are treated as invalid
+     * @return The decoded columns
+     */
+    public static RNColumns decode(String[] encoded) {
+        RNColumns columns = new RNColumns(encoded.length);
+        columns.fill(Arrays.asList(encoded));
+        return columns;
+    }
+
+    /**
+     * Decode a list of encoded RNs into these columns, overwriting any previous content.
+     *
+     * @param encoded Encoded reference numbers, no more than {@link #size()} of them
+     */
+    public void fill(List<? extends CharSequence> encoded) {
+        final List<? extends CharSequence> source = (encoded instanceof RandomAccess) ?
+                encoded : Arrays.asList(encoded.toArray(new CharSequence[0]));
+        final int n = source.size();
+        if (n > size) {
+            throw new IllegalArgumentException(String.format("%d entries will not fit in columns of size %d", n, size));
+        }
+
+        Arrays.fill(validity, 0L);
+        if (n < PARALLEL_THRESHOLD) {
+            decodeRange(source, n, 0, n);
+        } else {
+            int chunks = (n + CHUNK_SIZE - 1) / CHUNK_SIZE;
+            IntStream.range(0, chunks).parallel().forEach(chunk -> {
+                int from = chunk * CHUNK_SIZE;
+                decodeRange(source, n, from, Math.min(from + CHUNK_SIZE, n));
+            });
+        }
+    }
+
+    /** Decode entries [from, to) of a batch of n entries */
+    private void decodeRange(List<? extends CharSequence> source, int n, int from, int to) {
+        Object event = RNEvents.beginBatchDecode();
+        int decoded = 0;
+        long[] packed = new long[2];
+        for (int i = from; i < to; i++) {
+            CharSequence enc = source.get(i);
+            if (enc != null && PackedRN.decode(enc, packed, 0) == PackedRN.DECODED) {
+                decoded++;
+                authority[i] = PackedRN.authority(packed[0]);
+                instance[i] = (short) PackedRN.instance(packed[0]);
+                type[i] = (short) PackedRN.type(packed[0]);
+                epochMillis[i] = PackedRN.epochMilli(packed[1]);
+                version[i] = (byte) PackedRN.version(packed[1]);
+                validity[i >>> 6] |= 1L << i;
+            } else {
+                authority[i] = 0;
+                instance[i] = 0;
+                type[i] = 0;
+                epochMillis[i] = 0;
+                version[i] = 0;
+            }
+        }
+        RNEvents.endBatchDecode(event, n, from, to, decoded);
+    }
+
+    /** @return The number of entries in the batch */
+    public int size() {
+        return size;
+    }
+
+    /** @return True if entry i decoded successfully */
+    public boolean isValid(int i) {
+        return (validity[i >>> 6] & (1L << i)) != 0;
+    }
+
+    /** @return The number of entries that decoded successfully */
+    public int validCount() {
+        int count = 0;
+        for (long word : validity) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /** @return The validity bitmap, where bit i (of word i / 64) is set when entry i is valid */
+    public long[] getValidity() {
+        return validity;
+    }
+
+    /** @return The authority identifier column */
+    public int[] getAuthority() {
+        return authority;
+    }
+
+    /** @return The instance identifier column */
+    public short[] getInstance() {
+        return instance;
+    }
+
+    /** @return The type identifier column */
+    public short[] getType() {
+        return type;
+    }
+
+    /** @return The issue time column, in milliseconds since the epoch */
+    public long[] getEpochMillis() {
+        return epochMillis;
+    }
+
+    /** @return The version column */
+    public byte[] getVersion() {
+        return version;
+    }
+}
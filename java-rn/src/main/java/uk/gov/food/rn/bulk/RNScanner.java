@@ -0,0 +1,423 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.bulk;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import uk.gov.food.rn.PackedRN;
+import uk.gov.food.rn.RN;
+import uk.gov.food.rn.Representation;
+
+/**
+ * Finds encoded RNs embedded in free text, such as emails, text extracted from
+ * PDFs and application logs.
+ *
+ * A hand written state machine reads the text one character at a time, looking
+ * for runs of alphabet characters and single hyphens that stand alone as a word:
+ * neither preceded nor followed by a letter, a digit or an underscore, whether
+ * directly or across a hyphen. Other characters, such as punctuation, symbols and
+ * every kind of space, separate words.
+ * It keeps the residue of the run's value mod 1087 as it goes, so a run of 18
+ * digits is only decoded, with {@link PackedRN#probe(CharSequence, long[], int)},
+ * if its check digits are correct. Nothing is allocated for text that holds no
+ * RNs, and no exceptions are raised.
+ *
+ * Text can be read from a {@link CharSequence}, a {@link Reader} or a
+ * {@link ByteBuffer} of ASCII or UTF-8 bytes. Large files are memory mapped and
+ * scanned in parallel chunks by {@link #findAll(Path)}; a chunk finishes any RN
+ * that starts within it, and replays the run that crosses its start so that
+ * every RN is reported once, by the chunk it starts in.
+ *
+ * A scanner keeps state between characters, so it must only be used by one
+ * thread at a time.
+ */
+public class RNScanner {
+    /** Receives each RN found, without creating objects */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * @param start The offset of the first character of the RN
+         * @param end   The offset just after its last character
+         * @param high  The high half of its packed form
+         * @param low   The low half of its packed form
+         */
+        void found(long start, long end, long high, long low);
+    }
+
+    /** An RN found in some text */
+    public static final class Match {
+        private final long start;
+        private final long end;
+        private final long high;
+        private final long low;
+
+        Match(long start, long end, long high, long low) {
+            this.start = start;
+            this.end = end;
+            this.high = high;
+            this.low = low;
+        }
+
+        /** @return The offset of the first character of the RN */
+        public long getStart() {
+            return start;
+        }
+
+        /** @return The offset just after the last character of the RN */
+        public long getEnd() {
+            return end;
+        }
+
+        /** @return The high half of the packed form of the RN */
+        public long getHigh() {
+            return high;
+        }
+
+        /** @return The low half of the packed form of the RN */
+        public long getLow() {
+            return low;
+        }
+
+        /** @return The RN found */
+        public RN toRN() {
+            return PackedRN.toRN(high, low);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s at [%d, %d)", PackedRN.encode(high, low), start, end);
+        }
+    }
+
+    /** Bytes scanned by each parallel task in {@link #findAll(Path)} */
+    static final int CHUNK_SIZE = 8 << 20;
+
+    /** Largest part of a file mapped at once */
+    private static final long MAX_MAPPING = 1L << 30;
+
+    /** Furthest a chunk looks back for the start of a run that crosses into it */
+    private static final int LOOKBACK = 64;
+
+    private static final int LENGTH = PackedRN.DEFAULT_LENGTH;
+    private static final int BASE = Representation.ALPHABET.length();
+    private static final int PRIME = Representation.CHECK_DIGITS_PRIME.intValue();
+
+    /** Character classes; alphabet characters are classed by their digit value, 0 to 32 */
+    private static final byte HYPHEN = -1;
+    private static final byte WORD = -2;
+    private static final byte OTHER = -3;
+
+    /** The class of each character below 128; others are WORD if letters or digits, else OTHER */
+    private static final byte[] CLASSES = new byte[128];
+
+    static {
+        Arrays.fill(CLASSES, OTHER);
+        for (char c = 'a'; c <= 'z'; c++) {
+            CLASSES[c] = WORD;
+            CLASSES[Character.toUpperCase(c)] = WORD;
+        }
+        CLASSES['_'] = WORD;
+        for (int d = 0; d < BASE; d++) {
+            CLASSES[Representation.ALPHABET.charAt(d)] = (byte) d;
+        }
+        CLASSES['-'] = HYPHEN;
+    }
+
+    /** After a character that cannot precede an RN, such as a letter */
+    private static final int IN_WORD = 0;
+    /** After a character that can precede an RN, such as a space */
+    private static final int AT_BOUNDARY = 1;
+    /** Within a run of digits */
+    private static final int IN_RUN = 2;
+    /** After a hyphen within a run */
+    private static final int AFTER_HYPHEN = 3;
+
+    private final Listener listener;
+    private final long[] packed = new long[2];
+    private final int[] digits = new int[LENGTH];
+    private final char[] chars = new char[LENGTH];
+
+    private int state;
+    private long position;
+    private long runStart;
+    private long runEnd;
+    private int count;
+    private int residue;
+
+    private long candidates;
+    private long found;
+
+    /** Only report RNs that start at or after this offset */
+    private long reportFrom;
+
+    public RNScanner(Listener listener) {
+        this.listener = listener;
+        reset(0, AT_BOUNDARY);
+    }
+
+    /**
+     * Scan some text as a whole document, with offsets counted from its start.
+     */
+    public void scan(CharSequence text) {
+        reset(0, AT_BOUNDARY);
+        for (int k = 0, n = text.length(); k < n; k++) {
+            char c = text.charAt(k);
+            if (c < CLASSES.length) {
+                accept(CLASSES[c]);
+            } else {
+                // Both halves of a surrogate pair take the class of the whole character
+                accept(classOf(Character.isLowSurrogate(c) ? Character.codePointBefore(text, k + 1)
+                                                           : Character.codePointAt(text, k)));
+            }
+        }
+        finish();
+    }
+
+    /**
+     * Scan the text from a reader as a whole document, with offsets counted in chars
+     * from where the reader starts. The reader is read to its end but not closed.
+     */
+    public void scan(Reader reader) throws IOException {
+        reset(0, AT_BOUNDARY);
+        char[] buf = new char[8192];
+        int held = 0;
+        for (int n = reader.read(buf, held, buf.length - held); n >= 0; n = reader.read(buf, held, buf.length - held)) {
+            int end = held + n;
+            // A high surrogate that ends the read is held back, to be classed with the low surrogate after it
+            held = end > 0 && Character.isHighSurrogate(buf[end - 1]) ? 1 : 0;
+            for (int k = 0; k < end - held; k++) {
+                char c = buf[k];
+                if (c < CLASSES.length) {
+                    accept(CLASSES[c]);
+                } else {
+                    accept(classOf(Character.isLowSurrogate(c) ? Character.codePointBefore(buf, k + 1, 0)
+                                                               : Character.codePointAt(buf, k, end)));
+                }
+            }
+            if (held > 0) {
+                buf[0] = buf[end - 1];
+            }
+        }
+        if (held > 0) {
+            accept(classOf(buf[0]));
+        }
+        finish();
+    }
+
+    /**
+     * Scan the remaining bytes of a buffer, of ASCII or UTF-8 text, as a whole document.
+     * Offsets are counted in bytes from the buffer's position, which is not changed.
+     */
+    public void scan(ByteBuffer bytes) {
+        scan(bytes.slice(), 0, bytes.remaining());
+    }
+
+    /**
+     * Scan the bytes in [from, to) of a buffer, reporting just the RNs that start in that
+     * range, but reading on past the end to finish an RN and back before the start to
+     * find where a run crossing it began.
+     */
+    void scan(ByteBuffer bytes, int from, int to) {
+        int start = from;
+        while (start > 0 && from - start < LOOKBACK && isRunClass(classAt(bytes, start - 1))) {
+            start--;
+        }
+        int before = start == 0 ? OTHER : classAt(bytes, start - 1);
+        reset(start, before == WORD || before >= 0 ? IN_WORD : AT_BOUNDARY);
+        reportFrom = from;
+
+        int limit = bytes.limit();
+        int k = start;
+        for (; k < to; k++) {
+            accept(classAt(bytes, k));
+        }
+        for (; k < limit && (state == IN_RUN || state == AFTER_HYPHEN); k++) {
+            accept(classAt(bytes, k));
+        }
+        finish();
+    }
+
+    /** @return The number of runs of 18 digits seen, whether or not they were RNs */
+    public long getCandidates() {
+        return candidates;
+    }
+
+    /** @return The number of RNs found */
+    public long getFound() {
+        return found;
+    }
+
+    private void reset(long offset, int initial) {
+        state = initial;
+        position = offset;
+        reportFrom = 0;
+    }
+
+    private static boolean isRunClass(int cls) {
+        return cls >= 0 || cls == HYPHEN;
+    }
+
+    /** @return The class of a character beyond ASCII: WORD if a letter or digit, otherwise OTHER */
+    private static int classOf(int codePoint) {
+        return Character.isLetterOrDigit(codePoint) ? WORD : OTHER;
+    }
+
+    /**
+     * @return The class of the byte at k of UTF-8 text; each byte of a multi-byte character takes
+     *         the class of the whole character, and the bytes of a malformed sequence are WORD
+     */
+    private static int classAt(ByteBuffer bytes, int k) {
+        byte b = bytes.get(k);
+        if (b >= 0) {
+            return CLASSES[b];
+        }
+        int lead = k;
+        while (lead > 0 && k - lead < 3 && (bytes.get(lead) & 0xC0) == 0x80) {
+            lead--;
+        }
+        int first = bytes.get(lead) & 0xFF;
+        int more = first >= 0xF8 ? -1 : first >= 0xF0 ? 3 : first >= 0xE0 ? 2 : first >= 0xC0 ? 1 : -1;
+        if (more < 0 || lead + more < k || lead + more >= bytes.limit()) {
+            return WORD;
+        }
+        int codePoint = first & (0x3F >> more);
+        for (int j = lead + 1; j <= lead + more; j++) {
+            int next = bytes.get(j) & 0xFF;
+            if ((next & 0xC0) != 0x80) {
+                return WORD;
+            }
+            codePoint = codePoint << 6 | next & 0x3F;
+        }
+        return classOf(codePoint);
+    }
+
+    /** Advance the state machine over one character, of the given class */
+    private void accept(int cls) {
+        switch (state) {
+        case IN_RUN:
+        case AFTER_HYPHEN:
+            if (cls >= 0) {
+                if (count == LENGTH) {
+                    // Too long to be an RN
+                    state = IN_WORD;
+                } else {
+                    append(cls);
+                    state = IN_RUN;
+                }
+            } else if (cls == HYPHEN && state == IN_RUN) {
+                state = AFTER_HYPHEN;
+            } else if (cls == WORD) {
+                // Joined to a word, directly or by a hyphen, so not an RN on its own
+                state = IN_WORD;
+            } else {
+                // A run ends at a boundary or a second hyphen
+                endRun();
+                state = AT_BOUNDARY;
+            }
+            break;
+        case AT_BOUNDARY:
+            if (cls >= 0) {
+                runStart = position;
+                count = 0;
+                residue = 0;
+                append(cls);
+                state = IN_RUN;
+            } else if (cls == WORD) {
+                state = IN_WORD;
+            }
+            break;
+        default:
+            // A hyphen joins the word to whatever follows it
+            if (cls < 0 && cls != WORD && cls != HYPHEN) {
+                state = AT_BOUNDARY;
+            }
+            break;
+        }
+        position++;
+    }
+
+    private void append(int d) {
+        digits[count++] = d;
+        residue = (residue * BASE + d) % PRIME;
+        runEnd = position + 1;
+    }
+
+    private void finish() {
+        if (state == IN_RUN || state == AFTER_HYPHEN) {
+            endRun();
+        }
+        state = AT_BOUNDARY;
+    }
+
+    private void endRun() {
+        if (count != LENGTH || runStart < reportFrom) {
+            return;
+        }
+        candidates++;
+        if (residue != 0) {
+            return;
+        }
+        for (int k = 0; k < LENGTH; k++) {
+            chars[k] = Representation.ALPHABET.charAt(digits[k]);
+        }
+        if (PackedRN.probe(CharBuffer.wrap(chars), packed, 0) == PackedRN.DECODED) {
+            found++;
+            listener.found(runStart, runEnd, packed[0], packed[1]);
+        }
+    }
+
+    /** @return Every RN in some text, in order */
+    public static List<Match> findAll(CharSequence text) {
+        List<Match> matches = new ArrayList<>();
+        new RNScanner((start, end, high, low) -> matches.add(new Match(start, end, high, low))).scan(text);
+        return matches;
+    }
+
+    /**
+     * Find every RN in a file of ASCII or UTF-8 text, scanning memory mapped chunks in parallel.
+     *
+     * @return The RNs, in order, with byte offsets
+     */
+    public static List<Match> findAll(Path file) throws IOException {
+        List<Match> matches = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            // Successive mappings overlap, so that a run crossing their boundary can be replayed
+            // by the second and finished by the first
+            for (long base = 0; base < size; base += MAX_MAPPING) {
+                long mapStart = Math.max(0, base - LOOKBACK);
+                long mapEnd = Math.min(size, base + MAX_MAPPING + LOOKBACK);
+                MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+                int from = (int) (base - mapStart);
+                matches.addAll(findAll(bytes, mapStart, from, from + (int) Math.min(size - base, MAX_MAPPING)));
+            }
+        }
+        return matches;
+    }
+
+    /** Scan bytes [from, to) of a mapping in parallel chunks, offsetting positions by base */
+    private static List<Match> findAll(ByteBuffer bytes, long base, int from, int to) {
+        int chunks = (to - from + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        return IntStream.range(0, chunks).parallel().mapToObj(chunk -> {
+            List<Match> matches = new ArrayList<>();
+            int start = from + chunk * CHUNK_SIZE;
+            new RNScanner((first, end, high, low) -> matches.add(new Match(base + first, base + end, high, low)))
+                .scan(bytes, start, Math.min(to, start + CHUNK_SIZE));
+            return matches;
+        }).flatMap(List::stream).collect(Collectors.toList());
+    }
+}
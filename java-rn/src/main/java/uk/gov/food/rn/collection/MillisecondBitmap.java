@@ -0,0 +1,265 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.collection;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A compressed set of times in milliseconds since the epoch, such as the times
+ * already taken by RNs of one authority, instance and type, which can find the
+ * nearest time not in the set.
+ *
+ * The layout follows roaring bitmaps: a time is split into its upper bits,
+ * which pick a container of 65536 milliseconds (a little over a minute), and
+ * its lower 16 bits, which are held in that container. A container holding at
+ * most {@link #ARRAY_LIMIT} times keeps them as a sorted array of chars, two
+ * bytes each; a fuller one switches to a bitmap of 8KB. So times scattered
+ * over years cost little more than two bytes each, and a minute packed with
+ * times costs at most a bit each. Searches for an absent time skip whole full
+ * containers and whole words of a bitmap at once.
+ *
+ * A bitmap is not safe for use by more than one thread at a time.
+ */
+public class MillisecondBitmap {
+    /** Most times held as an array in one container, beyond which it becomes a bitmap */
+    public static final int ARRAY_LIMIT = 4096;
+
+    private static final int CONTAINER_SIZE = 1 << 16;
+    private static final int BITMAP_WORDS = CONTAINER_SIZE / Long.SIZE;
+
+    /** The times within one container's 65536 milliseconds, as an array or a bitmap */
+    private static final class Container {
+        char[] array = new char[4];
+        long[] bitmap;
+        int cardinality;
+
+        boolean contains(int v) {
+            if (bitmap != null) {
+                return (bitmap[v >>> 6] & (1L << v)) != 0;
+            }
+            return Arrays.binarySearch(array, 0, cardinality, (char) v) >= 0;
+        }
+
+        boolean add(int v) {
+            if (bitmap != null) {
+                long word = bitmap[v >>> 6];
+                if ((word & (1L << v)) != 0) {
+                    return false;
+                }
+                bitmap[v >>> 6] = word | (1L << v);
+                cardinality++;
+                return true;
+            }
+            int i = Arrays.binarySearch(array, 0, cardinality, (char) v);
+            if (i >= 0) {
+                return false;
+            }
+            if (cardinality == ARRAY_LIMIT) {
+                toBitmap();
+                return add(v);
+            }
+            i = -i - 1;
+            if (cardinality == array.length) {
+                array = Arrays.copyOf(array, Math.min(ARRAY_LIMIT, array.length * 2));
+            }
+            System.arraycopy(array, i, array, i + 1, cardinality - i);
+            array[i] = (char) v;
+            cardinality++;
+            return true;
+        }
+
+        private void toBitmap() {
+            bitmap = new long[BITMAP_WORDS];
+            for (int k = 0; k < cardinality; k++) {
+                bitmap[array[k] >>> 6] |= 1L << array[k];
+            }
+            array = null;
+        }
+
+        /** @return The least value at or after v that is absent, or -1 if there is none */
+        int nextAbsent(int v) {
+            if (cardinality == CONTAINER_SIZE) {
+                return -1;
+            }
+            if (bitmap != null) {
+                int w = v >>> 6;
+                long free = ~bitmap[w] & (-1L << v);
+                while (free == 0) {
+                    if (++w == BITMAP_WORDS) {
+                        return -1;
+                    }
+                    free = ~bitmap[w];
+                }
+                return w * Long.SIZE + Long.numberOfTrailingZeros(free);
+            }
+            int i = Arrays.binarySearch(array, 0, cardinality, (char) v);
+            if (i < 0) {
+                return v;
+            }
+            // Walk the run of consecutive values that starts at v
+            while (i < cardinality && array[i] == v) {
+                i++;
+                v++;
+            }
+            return v < CONTAINER_SIZE ? v : -1;
+        }
+
+        /** @return The greatest value at or before v that is absent, or -1 if there is none */
+        int previousAbsent(int v) {
+            if (cardinality == CONTAINER_SIZE) {
+                return -1;
+            }
+            if (bitmap != null) {
+                int w = v >>> 6;
+                long free = ~bitmap[w] & (-1L >>> (63 - (v & 63)));
+                while (free == 0) {
+                    if (--w < 0) {
+                        return -1;
+                    }
+                    free = ~bitmap[w];
+                }
+                return w * Long.SIZE + 63 - Long.numberOfLeadingZeros(free);
+            }
+            int i = Arrays.binarySearch(array, 0, cardinality, (char) v);
+            if (i < 0) {
+                return v;
+            }
+            while (i >= 0 && array[i] == v) {
+                i--;
+                v--;
+            }
+            return v;
+        }
+    }
+
+    private final TreeMap<Long, Container> containers = new TreeMap<>();
+    private long cardinality;
+
+    /**
+     * @return True if the time was not already in the set
+     * @throws IllegalArgumentException if the time is negative
+     */
+    public boolean add(long millis) {
+        check(millis);
+        Container container = containers.get(millis >>> 16);
+        if (container == null) {
+            container = new Container();
+            containers.put(millis >>> 16, container);
+        }
+        if (container.add((int) millis & 0xFFFF)) {
+            cardinality++;
+            return true;
+        }
+        return false;
+    }
+
+    /** @return True if the time is in the set */
+    public boolean contains(long millis) {
+        if (millis < 0) {
+            return false;
+        }
+        Container container = containers.get(millis >>> 16);
+        return container != null && container.contains((int) millis & 0xFFFF);
+    }
+
+    /** @return The number of times in the set */
+    public long cardinality() {
+        return cardinality;
+    }
+
+    /** @return The number of bytes used by the containers' arrays and bitmaps */
+    public long sizeInBytes() {
+        long bytes = 0;
+        for (Container container : containers.values()) {
+            bytes += container.bitmap != null ? (long) BITMAP_WORDS * Long.BYTES : container.array.length * 2L;
+        }
+        return bytes;
+    }
+
+    /** @return The least time at or after the given one that is not in the set */
+    public long nextAbsent(long millis) {
+        check(millis);
+        long key = millis >>> 16;
+        int low = (int) millis & 0xFFFF;
+        while (true) {
+            Container container = containers.get(key);
+            if (container == null) {
+                return key << 16 | low;
+            }
+            int v = container.nextAbsent(low);
+            if (v >= 0) {
+                return key << 16 | v;
+            }
+            key++;
+            low = 0;
+        }
+    }
+
+    /** @return The greatest time at or before the given one that is not in the set, or -1 if there is none */
+    public long previousAbsent(long millis) {
+        check(millis);
+        long key = millis >>> 16;
+        int low = (int) millis & 0xFFFF;
+        while (key >= 0) {
+            Container container = containers.get(key);
+            if (container == null) {
+                return key << 16 | low;
+            }
+            int v = container.previousAbsent(low);
+            if (v >= 0) {
+                return key << 16 | v;
+            }
+            key--;
+            low = CONTAINER_SIZE - 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Find the time nearest to the given one that is not in the set, within a range. Of two
+     * times equally near, the later is chosen.
+     *
+     * @param millis The time wanted, which is moved into the range if it lies outside it
+     * @param min    The earliest time allowed
+     * @param max    The latest time allowed
+     * @return The nearest absent time in [min, max], or -1 if every time in the range is in the set
+     */
+    public long nearestAbsent(long millis, long min, long max) {
+        check(min);
+        if (max < min) {
+            throw new IllegalArgumentException(String.format("An empty range: [%d, %d]", min, max));
+        }
+        long wanted = Math.max(min, Math.min(max, millis));
+        long after = nextAbsent(wanted);
+        long before = previousAbsent(wanted);
+        boolean hasAfter = after <= max;
+        boolean hasBefore = before >= min;
+        if (hasAfter && (!hasBefore || after - wanted <= wanted - before)) {
+            return after;
+        }
+        return hasBefore ? before : -1;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder("MillisecondBitmap(").append(cardinality).append(" times in ");
+        int arrays = 0;
+        for (Map.Entry<Long, Container> entry : containers.entrySet()) {
+            if (entry.getValue().bitmap == null) {
+                arrays++;
+            }
+        }
+        return out.append(arrays).append(" array and ").append(containers.size() - arrays)
+                  .append(" bitmap containers)").toString();
+    }
+
+    private static void check(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Times before the epoch are not supported: " + millis);
+        }
+    }
+}
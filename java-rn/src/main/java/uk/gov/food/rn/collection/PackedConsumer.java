@@ -0,0 +1,15 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.collection;
+
+/**
+ * Receives RNs in their packed primitive form.
+ *
+ * @see uk.gov.food.rn.PackedRN
+ */
+@FunctionalInterface
+public interface PackedConsumer {
+    void accept(long high, long low);
+}
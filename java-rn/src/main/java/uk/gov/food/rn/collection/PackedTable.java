@@ -0,0 +1,329 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.collection;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Open addressing (linear probing) hash table keyed by packed RNs, shared by
+ * {@link RNHashSet} and {@link RNLongMap}.
+ *
+ * Each slot holds the (high, low) pair of a packed RN followed by any payload
+ * longs. An empty slot has a high half of zero, which is never the high half of
+ * a valid packed RN. Slots are held in a {@link LongBuffer}, either on the heap
+ * or off-heap in a direct buffer.
+ *
+ * The table is split into shards by hash, each with its own {@link StampedLock}:
+ * writers take the write lock of one shard, while readers probe optimistically
+ * and only fall back to the read lock if a writer intervened. The number of
+ * shards is fixed by the expected size, and each shard grows to at most
+ * {@link #MAX_SHARD_CAPACITY} slots, so the table holds at least about twice its
+ * expected size, and never less than {@link #MAX_SHARD_ENTRIES} entries.
+ */
+abstract class PackedTable {
+    /** Resize a shard when it becomes fuller than this */
+    static final double LOAD_FACTOR = 0.6;
+
+    /** Largest number of slots in one shard, which keeps a direct buffer within its 2GB limit */
+    static final int MAX_SHARD_CAPACITY = 1 << 26;
+
+    /** The most entries one shard holds, and so the fewest a table holds before it is full */
+    static final long MAX_SHARD_ENTRIES = (long) (MAX_SHARD_CAPACITY * LOAD_FACTOR);
+
+    private static final int MIN_SHARD_CAPACITY = 16;
+
+    private final int stride;
+    private final boolean offHeap;
+    private final Shard[] shards;
+    private final int shardShift;
+
+    /** One independently locked and resized part of the table */
+    final class Shard {
+        final StampedLock lock = new StampedLock();
+        volatile LongBuffer slots;
+        int size;
+
+        Shard(int capacity) {
+            slots = allocate(capacity);
+        }
+    }
+
+    /**
+     * @param expectedSize The number of entries expected, used to size the table
+     * @param stride       The number of longs in each slot, including the two for the key
+     * @param offHeap      True to hold the slots in direct (off-heap) buffers
+     */
+    PackedTable(long expectedSize, int stride, boolean offHeap) {
+        this.stride = stride;
+        this.offHeap = offHeap;
+
+        long slotsNeeded = Math.max(MIN_SHARD_CAPACITY, (long) Math.ceil(expectedSize / LOAD_FACTOR));
+        int shardCount = 1;
+        while (slotsNeeded / shardCount > MAX_SHARD_CAPACITY / 2) {
+            shardCount <<= 1;
+        }
+        int shardCapacity = Integer.highestOneBit((int) Math.max(MIN_SHARD_CAPACITY, slotsNeeded / shardCount - 1)) << 1;
+
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(Math.min(shardCapacity, MAX_SHARD_CAPACITY));
+        }
+        shardShift = 64 - Integer.numberOfTrailingZeros(shardCount);
+    }
+
+    private LongBuffer allocate(int capacity) {
+        if (offHeap) {
+            return ByteBuffer.allocateDirect(capacity * stride * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
+        }
+        return LongBuffer.wrap(new long[capacity * stride]);
+    }
+
+    /** @return A well mixed 64 bit hash of the full packed form, including the version */
+    static long mix(long high, long low) {
+        long h = high * 0x9E3779B97F4A7C15L ^ low;
+        h = (h ^ (h >>> 32)) * 0xD6E8FEB86659FD93L;
+        h = (h ^ (h >>> 29)) * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+
+    final Shard shard(long hash) {
+        return shardShift == 64 ? shards[0] : shards[(int) (hash >>> shardShift)];
+    }
+
+    /**
+     * Find the slot for a key in the given slots.
+     *
+     * @return The slot index if the key is present, otherwise -(empty slot index) - 1
+     */
+    final int indexOf(LongBuffer slots, long hash, long high, long low) {
+        int mask = slots.capacity() / stride - 1;
+        for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+            long h = slots.get(i * stride);
+            if (h == 0) {
+                return -i - 1;
+            }
+            if (h == high && slots.get(i * stride + 1) == low) {
+                return i;
+            }
+        }
+    }
+
+    /** @return True if the key is present */
+    public final boolean containsKey(long high, long low) {
+        long hash = mix(high, low);
+        Shard shard = shard(hash);
+        long stamp = shard.lock.tryOptimisticRead();
+        if (stamp != 0) {
+            boolean found = indexOf(shard.slots, hash, high, low) >= 0;
+            if (shard.lock.validate(stamp)) {
+                return found;
+            }
+        }
+        stamp = shard.lock.readLock();
+        try {
+            return indexOf(shard.slots, hash, high, low) >= 0;
+        } finally {
+            shard.lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Read one payload long for a key.
+     *
+     * @param field   The payload field, counting from zero after the key
+     * @param missing The value returned when the key is absent
+     */
+    final long payload(long high, long low, int field, long missing) {
+        long hash = mix(high, low);
+        Shard shard = shard(hash);
+        long stamp = shard.lock.tryOptimisticRead();
+        if (stamp != 0) {
+            LongBuffer slots = shard.slots;
+            int i = indexOf(slots, hash, high, low);
+            long value = i >= 0 ? slots.get(i * stride + 2 + field) : missing;
+            if (shard.lock.validate(stamp)) {
+                return value;
+            }
+        }
+        stamp = shard.lock.readLock();
+        try {
+            LongBuffer slots = shard.slots;
+            int i = indexOf(slots, hash, high, low);
+            return i >= 0 ? slots.get(i * stride + 2 + field) : missing;
+        } finally {
+            shard.lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Insert or update a key.
+     *
+     * @param payload The payload field to set, or -1 to leave the payload alone
+     * @param value   The payload value
+     * @param missing The value returned when the key was absent
+     * @return The previous payload value (zero when there is no payload), or missing if the key was absent
+     * @throws IllegalArgumentException if the high half is zero, which marks an empty slot
+     */
+    final long insert(long high, long low, int payload, long value, long missing) {
+        if (high == 0) {
+            throw new IllegalArgumentException("Not the high half of a packed RN: 0");
+        }
+        long hash = mix(high, low);
+        Shard shard = shard(hash);
+        long stamp = shard.lock.writeLock();
+        try {
+            LongBuffer slots = shard.slots;
+            int i = indexOf(slots, hash, high, low);
+            if (i >= 0) {
+                long previous = payload >= 0 ? slots.get(i * stride + 2 + payload) : 0;
+                if (payload >= 0) {
+                    slots.put(i * stride + 2 + payload, value);
+                }
+                return previous;
+            }
+
+            if (shard.size + 1 > (slots.capacity() / stride) * LOAD_FACTOR) {
+                slots = resize(shard);
+                i = indexOf(slots, hash, high, low);
+            }
+            i = -i - 1;
+            if (payload >= 0) {
+                slots.put(i * stride + 2 + payload, value);
+            }
+            slots.put(i * stride + 1, low);
+            slots.put(i * stride, high);
+            shard.size++;
+            return missing;
+        } finally {
+            shard.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Remove a key, shifting back any later entries in its probe sequence.
+     *
+     * @return The previous payload value (zero when there is no payload), or missing if the key was absent
+     */
+    final long delete(long high, long low, int payload, long missing) {
+        long hash = mix(high, low);
+        Shard shard = shard(hash);
+        long stamp = shard.lock.writeLock();
+        try {
+            LongBuffer slots = shard.slots;
+            int i = indexOf(slots, hash, high, low);
+            if (i < 0) {
+                return missing;
+            }
+            long previous = payload >= 0 ? slots.get(i * stride + 2 + payload) : 0;
+
+            int mask = slots.capacity() / stride - 1;
+            for (int j = (i + 1) & mask; slots.get(j * stride) != 0; j = (j + 1) & mask) {
+                int home = (int) mix(slots.get(j * stride), slots.get(j * stride + 1)) & mask;
+                if (((j - home) & mask) >= ((j - i) & mask)) {
+                    for (int k = stride - 1; k >= 0; k--) {
+                        slots.put(i * stride + k, slots.get(j * stride + k));
+                    }
+                    i = j;
+                }
+            }
+            for (int k = 0; k < stride; k++) {
+                slots.put(i * stride + k, 0);
+            }
+            shard.size--;
+            return previous;
+        } finally {
+            shard.lock.unlockWrite(stamp);
+        }
+    }
+
+    private LongBuffer resize(Shard shard) {
+        LongBuffer old = shard.slots;
+        int oldCapacity = old.capacity() / stride;
+        if (oldCapacity >= MAX_SHARD_CAPACITY) {
+            throw new IllegalStateException(String.format(
+                "Table shard is full at %d entries; construct the table with an expectedSize of the " +
+                "number of entries it will hold, so that it is split into enough shards", shard.size));
+        }
+
+        LongBuffer slots = allocate(oldCapacity * 2);
+        for (int j = 0; j < oldCapacity; j++) {
+            long high = old.get(j * stride);
+            if (high != 0) {
+                long low = old.get(j * stride + 1);
+                int i = -indexOf(slots, mix(high, low), high, low) - 1;
+                for (int k = 0; k < stride; k++) {
+                    slots.put(i * stride + k, old.get(j * stride + k));
+                }
+            }
+        }
+        shard.slots = slots;
+        return slots;
+    }
+
+    /** @return The number of entries in the table */
+    public long size() {
+        long size = 0;
+        for (Shard shard : shards) {
+            long stamp = shard.lock.readLock();
+            try {
+                size += shard.size;
+            } finally {
+                shard.lock.unlockRead(stamp);
+            }
+        }
+        return size;
+    }
+
+    /** @return True if the table holds no entries */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /** Remove all entries, keeping the current capacity */
+    public void clear() {
+        for (Shard shard : shards) {
+            long stamp = shard.lock.writeLock();
+            try {
+                LongBuffer slots = shard.slots;
+                for (int i = 0; i < slots.capacity(); i++) {
+                    slots.put(i, 0);
+                }
+                shard.size = 0;
+            } finally {
+                shard.lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    /** @return True if the slots are held off-heap */
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /** Visitor over the slots of the table, called with the buffer and the index of the first long of a slot */
+    interface SlotVisitor {
+        void visit(LongBuffer slots, int offset);
+    }
+
+    /** Visit every occupied slot, holding each shard's read lock in turn */
+    final void visit(SlotVisitor visitor) {
+        for (Shard shard : shards) {
+            long stamp = shard.lock.readLock();
+            try {
+                LongBuffer slots = shard.slots;
+                for (int offset = 0; offset < slots.capacity(); offset += stride) {
+                    if (slots.get(offset) != 0) {
+                        visitor.visit(slots, offset);
+                    }
+                }
+            } finally {
+                shard.lock.unlockRead(stamp);
+            }
+        }
+    }
+}
@@ -0,0 +1,310 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.collection;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import uk.gov.food.rn.PackedRN;
+import uk.gov.food.rn.RN;
+
+/**
+ * A blocked Bloom filter of packed RNs, for asking in constant time whether an
+ * RN may already have been issued, such as by another node with the same
+ * instance identifier.
+ *
+ * The filter's bits are split into blocks of {@link #BLOCK_WORDS} longs, 512
+ * bits or one cache line. An RN's hash picks one block, and all of its bits
+ * are set or tested within that block, so each lookup touches one cache line
+ * however many bits it tests. The price is a slightly higher false positive
+ * rate than a standard filter of the same size, which {@link #create(long, double)}
+ * allows for. There are never false negatives: an RN added is always reported
+ * as possibly present.
+ *
+ * Bits are set with a compare and swap on each word, so any number of threads
+ * may add and test at once, without locks. Filters are shared between nodes by
+ * their snapshot files: {@link #writeSnapshot(Path)} writes the bits through a
+ * memory mapping and moves the file into place atomically, and another node
+ * maps the file read only and ORs it into its own filter with
+ * {@link #merge(Path)}. A filter only grows, so to track just recent RNs,
+ * start a new one from time to time.
+ *
+ * The live bits are held on the heap in an {@link AtomicLongArray}, not in the
+ * mapping itself, as Java 8 has no atomic operations on a mapped buffer.
+ */
+public class RNBloomFilter {
+    /** The number of longs in each block */
+    public static final int BLOCK_WORDS = 8;
+
+    /** Most bits set for each RN */
+    public static final int MAX_HASHES = 16;
+
+    /** "RNBF" */
+    private static final int MAGIC = 0x524E4246;
+
+    /** The magic number and number of hashes, then the number of blocks */
+    private static final int HEADER_LONGS = 2;
+
+    private static final int BLOCK_BITS = BLOCK_WORDS * Long.SIZE;
+
+    /** Allowance for the higher false positive rate of a blocked filter */
+    private static final double BLOCKING_ALLOWANCE = 1.2;
+
+    private final AtomicLongArray words;
+    private final int blocks;
+    private final int hashes;
+
+    /**
+     * @param blocks The number of blocks, a power of two
+     * @param hashes The number of bits set for each RN
+     */
+    public RNBloomFilter(int blocks, int hashes) {
+        if (blocks < 1 || Integer.bitCount(blocks) != 1 || blocks > Integer.MAX_VALUE / BLOCK_WORDS) {
+            throw new IllegalArgumentException("The number of blocks must be a power of two, not " + blocks);
+        }
+        if (hashes < 1 || hashes > MAX_HASHES) {
+            throw new IllegalArgumentException("The number of hashes must be between 1 and " + MAX_HASHES
+                                               + ", not " + hashes);
+        }
+        this.blocks = blocks;
+        this.hashes = hashes;
+        words = new AtomicLongArray(blocks * BLOCK_WORDS);
+    }
+
+    /**
+     * Create a filter sized to hold a number of RNs with at most a given false positive rate.
+     *
+     * @param expectedInsertions The number of RNs the filter should hold
+     * @param falsePositiveRate  The largest acceptable chance that an RN not added is reported present
+     */
+    public static RNBloomFilter create(long expectedInsertions, double falsePositiveRate) {
+        if (expectedInsertions < 1) {
+            throw new IllegalArgumentException("A filter holds at least one RN");
+        }
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("The false positive rate must be between 0 and 1, not "
+                                               + falsePositiveRate);
+        }
+        double ln2 = Math.log(2);
+        double bits = -expectedInsertions * Math.log(falsePositiveRate) / (ln2 * ln2) * BLOCKING_ALLOWANCE;
+        int hashes = (int) Math.max(1, Math.min(MAX_HASHES, Math.round(bits / expectedInsertions * ln2)));
+        long blocks = Long.highestOneBit(Math.max(1, (long) Math.ceil(bits / BLOCK_BITS) - 1)) << 1;
+        if (blocks > Integer.MAX_VALUE / BLOCK_WORDS) {
+            throw new IllegalArgumentException("A filter for " + expectedInsertions + " RNs would be too large");
+        }
+        return new RNBloomFilter((int) blocks, hashes);
+    }
+
+    /**
+     * Add a packed RN to the filter.
+     *
+     * @return True if this changed the filter, which is certain to be the case if the RN was not already added
+     */
+    public boolean add(long high, long low) {
+        long h = hash(high, low);
+        int base = blockOf(h);
+        int bit = (int) h;
+        int step = (int) (h >>> 16) | 1;
+        boolean changed = false;
+        for (int k = 0; k < hashes; k++) {
+            int index = base + ((bit >>> 6) & (BLOCK_WORDS - 1));
+            long mask = 1L << bit;
+            long word = words.get(index);
+            while ((word & mask) == 0) {
+                if (words.compareAndSet(index, word, word | mask)) {
+                    changed = true;
+                    break;
+                }
+                word = words.get(index);
+            }
+            bit += step;
+        }
+        return changed;
+    }
+
+    /** @return True if this changed the filter */
+    public boolean add(RN rn) {
+        return add(PackedRN.high(rn), PackedRN.low(rn));
+    }
+
+    /**
+     * @return False if the packed RN has certainly not been added; true if it may have been
+     */
+    public boolean mightContain(long high, long low) {
+        long h = hash(high, low);
+        int base = blockOf(h);
+        int bit = (int) h;
+        int step = (int) (h >>> 16) | 1;
+        for (int k = 0; k < hashes; k++) {
+            if ((words.get(base + ((bit >>> 6) & (BLOCK_WORDS - 1))) & (1L << bit)) == 0) {
+                return false;
+            }
+            bit += step;
+        }
+        return true;
+    }
+
+    /** @return False if the RN has certainly not been added; true if it may have been */
+    public boolean mightContain(RN rn) {
+        return mightContain(PackedRN.high(rn), PackedRN.low(rn));
+    }
+
+    /**
+     * Add every RN in another filter of the same shape to this one.
+     *
+     * @throws IllegalArgumentException if the filters differ in blocks or hashes
+     */
+    public void merge(RNBloomFilter other) {
+        checkShape(other.blocks, other.hashes);
+        for (int k = 0; k < words.length(); k++) {
+            or(k, other.words.get(k));
+        }
+    }
+
+    /**
+     * Add every RN in a snapshot file, such as one written by another node, to this filter.
+     * The file is mapped read only, and its bits ORed into this filter's.
+     *
+     * @throws IOException if the file cannot be read or is not a snapshot
+     * @throws IllegalArgumentException if the snapshot differs from this filter in blocks or hashes
+     */
+    public void merge(Path snapshot) throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            LongBuffer bits = map(channel, FileChannel.MapMode.READ_ONLY, snapshot);
+            checkShape((int) bits.get(1), (int) (bits.get(0) & 0xFFFFFFFFL));
+            for (int k = 0; k < words.length(); k++) {
+                or(k, bits.get(HEADER_LONGS + k));
+            }
+        }
+    }
+
+    /**
+     * Write the filter to a snapshot file, through a memory mapping. The snapshot is
+     * written to a temporary file which then replaces the given one, so that readers
+     * see either the old snapshot or the new one. RNs added while it is written may
+     * or may not be included.
+     */
+    public void writeSnapshot(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Path temporary = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.READ,
+                                                        StandardOpenOption.WRITE)) {
+                long bytes = (long) (HEADER_LONGS + words.length()) * Long.BYTES;
+                MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+                LongBuffer bits = mapping.order(ByteOrder.BIG_ENDIAN).asLongBuffer();
+                bits.put(((long) MAGIC << 32) | hashes);
+                bits.put(blocks);
+                for (int k = 0; k < words.length(); k++) {
+                    bits.put(words.get(k));
+                }
+                mapping.force();
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * @return A filter holding the RNs in a snapshot file
+     * @throws IOException if the file cannot be read or is not a snapshot
+     */
+    public static RNBloomFilter readSnapshot(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            LongBuffer bits = map(channel, FileChannel.MapMode.READ_ONLY, file);
+            RNBloomFilter filter = new RNBloomFilter((int) bits.get(1), (int) (bits.get(0) & 0xFFFFFFFFL));
+            for (int k = 0; k < filter.words.length(); k++) {
+                filter.words.set(k, bits.get(HEADER_LONGS + k));
+            }
+            return filter;
+        }
+    }
+
+    /** Map a snapshot file, checking its header and length */
+    private static LongBuffer map(FileChannel channel, FileChannel.MapMode mode, Path file) throws IOException {
+        long size = channel.size();
+        if (size < HEADER_LONGS * Long.BYTES) {
+            throw new IOException("Not a filter snapshot: " + file);
+        }
+        LongBuffer bits = channel.map(mode, 0, size).order(ByteOrder.BIG_ENDIAN).asLongBuffer();
+        long blocks = bits.get(1);
+        if ((int) (bits.get(0) >>> 32) != MAGIC || blocks < 1 || blocks > Integer.MAX_VALUE / BLOCK_WORDS
+                || size != (HEADER_LONGS + blocks * BLOCK_WORDS) * Long.BYTES) {
+            throw new IOException("Not a filter snapshot: " + file);
+        }
+        return bits;
+    }
+
+    /** @return The number of blocks */
+    public int getBlocks() {
+        return blocks;
+    }
+
+    /** @return The number of bits set for each RN */
+    public int getHashes() {
+        return hashes;
+    }
+
+    /** @return The number of bits set */
+    public long bitCount() {
+        long count = 0;
+        for (int k = 0; k < words.length(); k++) {
+            count += Long.bitCount(words.get(k));
+        }
+        return count;
+    }
+
+    /**
+     * @return An estimate of the current false positive rate, from the share of bits set,
+     * which rises as RNs are added
+     */
+    public double expectedFalsePositiveRate() {
+        return Math.pow((double) bitCount() / ((long) words.length() * Long.SIZE), hashes);
+    }
+
+    /** Remove every RN; RNs added meanwhile may or may not be removed */
+    public void clear() {
+        for (int k = 0; k < words.length(); k++) {
+            words.set(k, 0);
+        }
+    }
+
+    private void checkShape(int otherBlocks, int otherHashes) {
+        if (otherBlocks != blocks || otherHashes != hashes) {
+            throw new IllegalArgumentException(String.format(
+                "Cannot merge a filter of %d blocks and %d hashes into one of %d blocks and %d hashes",
+                otherBlocks, otherHashes, blocks, hashes));
+        }
+    }
+
+    private void or(int index, long bits) {
+        long word = words.get(index);
+        while ((word | bits) != word && !words.compareAndSet(index, word, word | bits)) {
+            word = words.get(index);
+        }
+    }
+
+    private int blockOf(long h) {
+        // The block comes from the top half of the hash, the bits within it from the bottom
+        return ((int) (h >>> 32) & (blocks - 1)) * BLOCK_WORDS;
+    }
+
+    /** A well mixed hash of the full packed form, including the version */
+    private static long hash(long high, long low) {
+        long h = high * 0x9E3779B97F4A7C15L ^ low;
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+}
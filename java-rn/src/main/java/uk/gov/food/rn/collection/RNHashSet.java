@@ -0,0 +1,104 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.collection;
+
+import uk.gov.food.rn.PackedRN;
+import uk.gov.food.rn.RN;
+
+/**
+ * A set of reference numbers held in their packed primitive form, taking 16 bytes
+ * per slot rather than an {@link RN} object graph per member.
+ *
+ * Members are compared by their full packed form, so two RNs that differ only
+ * in version are distinct members. The slots may be held off-heap. Any number
+ * of threads may read and write concurrently; reads do not block unless they
+ * race with a write to the same shard.
+ *
+ * @see PackedRN
+ */
+public class RNHashSet extends PackedTable {
+    private static final int KEY_STRIDE = 2;
+
+    /**
+     * Construct an empty on-heap set, which holds up to about 40 million members; construct
+     * larger sets with an expected size.
+     */
+    public RNHashSet() {
+        this(16, false);
+    }
+
+    /**
+     * Construct an empty set. The set grows as members are added, but its number of shards is
+     * fixed here: it holds at least twice the expected size, and at least 40 million members,
+     * before {@link #add(long, long)} throws {@link IllegalStateException}. Pass a realistic
+     * expected size for large sets.
+     *
+     * @param expectedSize The number of members expected, used to size the set
+     * @param offHeap      True to hold the set in direct (off-heap) buffers
+     */
+    public RNHashSet(long expectedSize, boolean offHeap) {
+        super(expectedSize, KEY_STRIDE, offHeap);
+    }
+
+    /**
+     * @return True if the set did not already contain the packed RN
+     * @throws IllegalArgumentException if the high half is zero, which no packed RN has
+     */
+    public boolean add(long high, long low) {
+        return insert(high, low, -1, 0, -1) == -1;
+    }
+
+    /** @return True if the set did not already contain the RN */
+    public boolean add(RN rn) {
+        return add(PackedRN.high(rn), PackedRN.low(rn));
+    }
+
+    /**
+     * Add an RN by its encoded form, without constructing an {@link RN}.
+     *
+     * @return True if the set did not already contain the RN
+     * @throws uk.gov.food.rn.RNException if the encoded form is not a valid RN
+     */
+    public boolean add(CharSequence encoded) {
+        long[] packed = new long[2];
+        PackedRN.decodeOrThrow(encoded, packed, 0);
+        return add(packed[0], packed[1]);
+    }
+
+    /** @return True if the set contains the packed RN */
+    public boolean contains(long high, long low) {
+        return containsKey(high, low);
+    }
+
+    /** @return True if the set contains the RN */
+    public boolean contains(RN rn) {
+        return contains(PackedRN.high(rn), PackedRN.low(rn));
+    }
+
+    /**
+     * Test for an RN by its encoded form, without constructing an {@link RN}.
+     *
+     * @return True if the encoded form is a valid RN which the set contains
+     */
+    public boolean contains(CharSequence encoded) {
+        long[] packed = new long[2];
+        return PackedRN.decode(encoded, packed, 0) == PackedRN.DECODED && contains(packed[0], packed[1]);
+    }
+
+    /** @return True if the set contained the packed RN */
+    public boolean remove(long high, long low) {
+        return delete(high, low, -1, -1) != -1;
+    }
+
+    /** @return True if the set contained the RN */
+    public boolean remove(RN rn) {
+        return remove(PackedRN.high(rn), PackedRN.low(rn));
+    }
+
+    /** Pass every member of the set, in no particular order, to the consumer */
+    public void forEach(PackedConsumer consumer) {
+        visit((slots, offset) -> consumer.accept(slots.get(offset), slots.get(offset + 1)));
+    }
+}
@@ -0,0 +1,168 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.collection;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import uk.gov.food.rn.PackedRN;
+import uk.gov.food.rn.RN;
+
+/**
+ * A pool of canonical {@link RN} instances, one per packed value, so that a
+ * large dataset that mentions the same RN many times holds one object for it
+ * rather than one per mention.
+ *
+ * The pool is a fixed size table of slots, grouped into buckets of
+ * {@link #WAYS} by the hash of the packed form. Each slot holds an RN with its
+ * packed form and hash alongside, so a lookup compares primitives and
+ * allocates nothing when the RN is already pooled. A new RN takes the first
+ * empty slot of its bucket with a compare and swap; a thread that loses the
+ * race for a slot to the same RN returns the winner's. So every thread gets
+ * the same instance for the same packed value while its bucket has room.
+ *
+ * Memory is bounded by the capacity. When a bucket is full, a new RN replaces
+ * one of its entries, and an RN interned again after being replaced gets a new
+ * canonical instance. With a capacity of four times the number of distinct RNs
+ * in a dataset, fewer than one in a hundred are replaced. RNs that differ only
+ * in version are distinct packed values, and so distinct instances, although
+ * they are equal.
+ *
+ * Any number of threads may use a pool at once.
+ */
+public class RNInterner {
+    /** The number of slots in each bucket */
+    public static final int WAYS = 4;
+
+    /** An RN with its packed form */
+    private static final class Entry {
+        final long high;
+        final long low;
+        final int hash;
+        final RN rn;
+
+        Entry(long high, long low, int hash, RN rn) {
+            this.high = high;
+            this.low = low;
+            this.hash = hash;
+            this.rn = rn;
+        }
+    }
+
+    private final AtomicReferenceArray<Entry> slots;
+    private final int bucketMask;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder replaced = new LongAdder();
+
+    /**
+     * @param capacity The number of RNs the pool can hold, rounded up to a power of two
+     */
+    public RNInterner(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("The capacity must be between 1 and 2^30, not " + capacity);
+        }
+        int slots = Math.max(WAYS, Integer.highestOneBit(capacity - 1) << 1);
+        this.slots = new AtomicReferenceArray<>(slots);
+        this.bucketMask = slots / WAYS - 1;
+    }
+
+    /**
+     * @return The canonical instance of the packed RN, creating it if the pool has none
+     * @throws uk.gov.food.rn.RNException if any of the packed field values are outside their permitted ranges
+     */
+    public RN intern(long high, long low) {
+        return intern(high, low, null);
+    }
+
+    /**
+     * @return The canonical instance equal to the RN and with the same version, which is
+     * the RN itself if the pool has none
+     */
+    public RN intern(RN rn) {
+        return intern(PackedRN.high(rn), PackedRN.low(rn), rn);
+    }
+
+    private RN intern(long high, long low, RN given) {
+        int hash = mix(high, low);
+        int base = (hash & bucketMask) * WAYS;
+        Entry mine = null;
+        while (true) {
+            int empty = -1;
+            for (int k = 0; k < WAYS; k++) {
+                Entry entry = slots.get(base + k);
+                if (entry == null) {
+                    if (empty < 0) {
+                        empty = base + k;
+                    }
+                } else if (entry.hash == hash && entry.high == high && entry.low == low) {
+                    if (mine == null) {
+                        hits.increment();
+                    }
+                    return entry.rn;
+                }
+            }
+
+            if (mine == null) {
+                misses.increment();
+                mine = new Entry(high, low, hash, given != null ? given : PackedRN.toRN(high, low));
+            }
+            if (empty < 0) {
+                // The bucket is full: replace an entry chosen by the hash, so that each is equally likely
+                slots.set(base + ((hash >>> 16) & (WAYS - 1)), mine);
+                replaced.increment();
+                return mine.rn;
+            }
+            if (slots.compareAndSet(empty, null, mine)) {
+                return mine.rn;
+            }
+            // Lost the slot to another thread, perhaps interning the same RN; look again
+        }
+    }
+
+    /** Spread the hash of the full packed form, including the version */
+    private static int mix(long high, long low) {
+        return PackedRN.hash(high, low) * 31 + PackedRN.version(low);
+    }
+
+    /** @return The number of slots, the most RNs the pool can hold */
+    public int capacity() {
+        return slots.length();
+    }
+
+    /** @return The number of RNs in the pool */
+    public int size() {
+        int size = 0;
+        for (int k = 0; k < slots.length(); k++) {
+            if (slots.get(k) != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /** Empty the pool, keeping the statistics */
+    public void clear() {
+        for (int k = 0; k < slots.length(); k++) {
+            slots.set(k, null);
+        }
+    }
+
+    /** @return The number of lookups that found a canonical instance */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /** @return The number of lookups that made a new canonical instance */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /** @return The number of canonical instances replaced because their bucket was full */
+    public long getReplaced() {
+        return replaced.sum();
+    }
+}
@@ -0,0 +1,141 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.collection;
+
+import uk.gov.food.rn.PackedRN;
+import uk.gov.food.rn.RN;
+
+/**
+ * A map from reference numbers, held in their packed primitive form, to long
+ * values, taking 24 bytes per slot.
+ *
+ * Keys are compared by their full packed form, so two RNs that differ only
+ * in version are distinct keys. The slots may be held off-heap. Any number
+ * of threads may read and write concurrently; reads do not block unless they
+ * race with a write to the same shard.
+ *
+ * Lookups of absent keys return a caller-chosen missing value rather than null.
+ *
+ * @see PackedRN
+ */
+public class RNLongMap extends PackedTable {
+    private static final int ENTRY_STRIDE = 3;
+    private static final int VALUE = 0;
+
+    /** The value returned for absent keys */
+    private final long missingValue;
+
+    /**
+     * Construct an empty on-heap map, with Long.MIN_VALUE denoting absent keys, which holds up
+     * to about 40 million entries; construct larger maps with an expected size.
+     */
+    public RNLongMap() {
+        this(16, false, Long.MIN_VALUE);
+    }
+
+    /**
+     * Construct an empty map. The map grows as entries are added, but its number of shards is
+     * fixed here: it holds at least twice the expected size, and at least 40 million entries,
+     * before {@link #put(long, long, long)} throws {@link IllegalStateException}. Pass a
+     * realistic expected size for large maps.
+     *
+     * @param expectedSize The number of entries expected, used to size the map
+     * @param offHeap      True to hold the map in direct (off-heap) buffers
+     * @param missingValue The value returned for absent keys
+     */
+    public RNLongMap(long expectedSize, boolean offHeap, long missingValue) {
+        super(expectedSize, ENTRY_STRIDE, offHeap);
+        this.missingValue = missingValue;
+    }
+
+    /** @return The value returned for absent keys */
+    public long getMissingValue() {
+        return missingValue;
+    }
+
+    /**
+     * @return The previous value for the packed RN, or the missing value
+     * @throws IllegalArgumentException if the high half is zero, which no packed RN has
+     */
+    public long put(long high, long low, long value) {
+        return insert(high, low, VALUE, value, missingValue);
+    }
+
+    /** @return The previous value for the RN, or the missing value */
+    public long put(RN rn, long value) {
+        return put(PackedRN.high(rn), PackedRN.low(rn), value);
+    }
+
+    /**
+     * Map an RN by its encoded form, without constructing an {@link RN}.
+     *
+     * @return The previous value for the RN, or the missing value
+     * @throws uk.gov.food.rn.RNException if the encoded form is not a valid RN
+     */
+    public long put(CharSequence encoded, long value) {
+        long[] packed = new long[2];
+        PackedRN.decodeOrThrow(encoded, packed, 0);
+        return put(packed[0], packed[1], value);
+    }
+
+    /** @return The value for the packed RN, or the missing value */
+    public long get(long high, long low) {
+        return payload(high, low, VALUE, missingValue);
+    }
+
+    /** @return The value for the RN, or the missing value */
+    public long get(RN rn) {
+        return get(PackedRN.high(rn), PackedRN.low(rn));
+    }
+
+    /**
+     * Look up an RN by its encoded form, without constructing an {@link RN}.
+     *
+     * @return The value for the RN, or the missing value if absent or not a valid RN
+     */
+    public long get(CharSequence encoded) {
+        long[] packed = new long[2];
+        if (PackedRN.decode(encoded, packed, 0) != PackedRN.DECODED) {
+            return missingValue;
+        }
+        return get(packed[0], packed[1]);
+    }
+
+    /** @return True if the map contains the packed RN */
+    public boolean containsKey(RN rn) {
+        return containsKey(PackedRN.high(rn), PackedRN.low(rn));
+    }
+
+    /**
+     * Test for an RN by its encoded form, without constructing an {@link RN}.
+     *
+     * @return True if the encoded form is a valid RN which the map contains
+     */
+    public boolean containsKey(CharSequence encoded) {
+        long[] packed = new long[2];
+        return PackedRN.decode(encoded, packed, 0) == PackedRN.DECODED && containsKey(packed[0], packed[1]);
+    }
+
+    /** @return The value previously held for the packed RN, or the missing value */
+    public long remove(long high, long low) {
+        return delete(high, low, VALUE, missingValue);
+    }
+
+    /** @return The value previously held for the RN, or the missing value */
+    public long remove(RN rn) {
+        return remove(PackedRN.high(rn), PackedRN.low(rn));
+    }
+
+    /** Receives the entries of the map */
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(long high, long low, long value);
+    }
+
+    /** Pass every entry of the map, in no particular order, to the consumer */
+    public void forEach(EntryConsumer consumer) {
+        visit((slots, offset) -> consumer.accept(slots.get(offset), slots.get(offset + 1), slots.get(offset + 2)));
+    }
+}
@@ -0,0 +1,260 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.collection;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import uk.gov.food.rn.PackedRN;
+import uk.gov.food.rn.RN;
+
+/**
+ * Sorting of reference numbers in bulk.
+ *
+ * Rather than calling {@link RN#compareTo(RN)}, which walks getter chains and
+ * compares {@link java.time.ZonedDateTime}s, RNs are sorted by their packed
+ * primitive keys (see {@link PackedRN}) using a stable least significant digit
+ * radix sort. Digit positions on which every key agrees, such as the upper bits
+ * of the issue time within a day's RNs, are skipped.
+ *
+ * The resulting order is that of {@link RN#compareTo(RN)} for RNs with
+ * millisecond precision timestamps, which includes every RN that was decoded
+ * or generated. As with {@link Arrays#sort(Object[])}, RNs which compare equal
+ * keep their original relative order.
+ */
+public final class RNSort {
+    /** Orders RNs by their packed keys, matching {@link RN#compareTo(RN)} */
+    public static final Comparator<RN> PACKED_ORDER = (a, b) ->
+        PackedRN.compare(PackedRN.high(a), PackedRN.low(a), PackedRN.high(b), PackedRN.low(b));
+
+    private static final int RADIX_BITS = 11;
+    private static final int BUCKETS = 1 << RADIX_BITS;
+    private static final int DIGIT_MASK = BUCKETS - 1;
+
+    /** Below this size a comparison sort is quicker than building radix histograms */
+    static final int RADIX_THRESHOLD = 256;
+
+    /** Below this size the parallel variants sort on the calling thread */
+    static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    private RNSort() {
+    }
+
+    /** Sort an array of RNs into {@link RN#compareTo(RN)} order */
+    public static void sort(RN[] rns) {
+        sort(rns, false);
+    }
+
+    /** Sort an array of RNs into {@link RN#compareTo(RN)} order, using multiple threads for large arrays */
+    public static void parallelSort(RN[] rns) {
+        sort(rns, rns.length >= PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * Sort packed RNs, held in parallel arrays of high and low halves, by (high, low).
+     * This refines {@link RN#compareTo(RN)} order by also ordering on the version.
+     */
+    public static void sort(long[] high, long[] low) {
+        checkLengths(high, low);
+        radixSort(high, low, null, false);
+    }
+
+    /**
+     * Sort packed RNs, held in parallel arrays of high and low halves, by (high, low),
+     * using multiple threads for large arrays.
+     */
+    public static void parallelSort(long[] high, long[] low) {
+        checkLengths(high, low);
+        radixSort(high, low, null, high.length >= PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * Sort pairs of non-negative keys, such as the high halves and issue times of packed
+     * RNs, by (high, low), using multiple threads for large arrays, and report where each
+     * pair came from. Pairs with equal keys keep their original relative order.
+     *
+     * @return The original position of each pair, in sorted order
+     */
+    public static int[] parallelOrder(long[] high, long[] low) {
+        checkLengths(high, low);
+        int[] order = new int[high.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        radixSort(high, low, order, high.length >= PARALLEL_THRESHOLD);
+        return order;
+    }
+
+    private static void checkLengths(long[] high, long[] low) {
+        if (high.length != low.length) {
+            throw new IllegalArgumentException(String.format("Mismatched key arrays: %d high and %d low", high.length, low.length));
+        }
+    }
+
+    private static void sort(RN[] rns, boolean parallel) {
+        int n = rns.length;
+        if (n < RADIX_THRESHOLD) {
+            Arrays.sort(rns, PACKED_ORDER);
+            return;
+        }
+
+        long[] high = new long[n];
+        long[] millis = new long[n];
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            high[i] = PackedRN.high(rns[i]);
+            millis[i] = PackedRN.epochMilli(PackedRN.low(rns[i]));
+            order[i] = i;
+        }
+
+        radixSort(high, millis, order, parallel);
+
+        RN[] unsorted = rns.clone();
+        for (int i = 0; i < n; i++) {
+            rns[i] = unsorted[order[i]];
+        }
+    }
+
+    /**
+     * Stable LSD radix sort of (a, b) pairs by a then b, carrying an optional payload.
+     * Both keys must be non-negative.
+     */
+    static void radixSort(long[] a, long[] b, int[] payload, boolean parallel) {
+        int n = a.length;
+        if (n < 2) {
+            return;
+        }
+
+        long aBits = 0;
+        long bBits = 0;
+        for (int i = 0; i < n; i++) {
+            aBits |= a[i];
+            bBits |= b[i];
+        }
+
+        long[][] keys = { a, b };
+        long[][] temp = { new long[n], new long[n] };
+        int[][] payloads = { payload, payload == null ? null : new int[n] };
+        int current = 0;
+
+        int[] keyOrder = { 1, 0 };
+        long[] keyBits = { bBits, aBits };
+        for (int k = 0; k < keyOrder.length; k++) {
+            int width = 64 - Long.numberOfLeadingZeros(keyBits[k]);
+            for (int shift = 0; shift < width; shift += RADIX_BITS) {
+                long[] srcA = current == 0 ? keys[0] : temp[0];
+                long[] srcB = current == 0 ? keys[1] : temp[1];
+                long[] dstA = current == 0 ? temp[0] : keys[0];
+                long[] dstB = current == 0 ? temp[1] : keys[1];
+                int[] srcP = payloads[current];
+                int[] dstP = payloads[1 - current];
+                long[] digits = keyOrder[k] == 0 ? srcA : srcB;
+
+                boolean moved = parallel ?
+                    parallelPass(digits, shift, srcA, srcB, srcP, dstA, dstB, dstP) :
+                    pass(digits, shift, srcA, srcB, srcP, dstA, dstB, dstP);
+                if (moved) {
+                    current = 1 - current;
+                }
+            }
+        }
+
+        if (current == 1) {
+            System.arraycopy(temp[0], 0, a, 0, n);
+            System.arraycopy(temp[1], 0, b, 0, n);
+            if (payload != null) {
+                System.arraycopy(payloads[1], 0, payload, 0, n);
+            }
+        }
+    }
+
+    private static int digit(long key, int shift) {
+        return (int) (key >>> shift) & DIGIT_MASK;
+    }
+
+    /** One counting sort pass; returns false, without moving anything, if every key has the same digit */
+    private static boolean pass(long[] digits, int shift,
+                                long[] srcA, long[] srcB, int[] srcP,
+                                long[] dstA, long[] dstB, int[] dstP) {
+        int n = digits.length;
+        int[] offsets = new int[BUCKETS];
+        for (int i = 0; i < n; i++) {
+            offsets[digit(digits[i], shift)]++;
+        }
+        if (offsets[digit(digits[0], shift)] == n) {
+            return false;
+        }
+
+        int sum = 0;
+        for (int d = 0; d < BUCKETS; d++) {
+            int count = offsets[d];
+            offsets[d] = sum;
+            sum += count;
+        }
+
+        for (int i = 0; i < n; i++) {
+            int pos = offsets[digit(digits[i], shift)]++;
+            dstA[pos] = srcA[i];
+            dstB[pos] = srcB[i];
+            if (srcP != null) {
+                dstP[pos] = srcP[i];
+            }
+        }
+        return true;
+    }
+
+    /**
+     * One counting sort pass with the histogram and scatter steps split across
+     * contiguous chunks, which keeps the pass stable.
+     */
+    private static boolean parallelPass(long[] digits, int shift,
+                                        long[] srcA, long[] srcB, int[] srcP,
+                                        long[] dstA, long[] dstB, int[] dstP) {
+        int n = digits.length;
+        int chunks = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism() * 2, n / (PARALLEL_THRESHOLD / 4)));
+        int chunkSize = (n + chunks - 1) / chunks;
+        int[][] offsets = new int[chunks][BUCKETS];
+
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+            int[] counts = offsets[c];
+            for (int i = c * chunkSize, end = Math.min(n, i + chunkSize); i < end; i++) {
+                counts[digit(digits[i], shift)]++;
+            }
+        });
+
+        int first = digit(digits[0], shift);
+        int sameDigit = 0;
+        for (int c = 0; c < chunks; c++) {
+            sameDigit += offsets[c][first];
+        }
+        if (sameDigit == n) {
+            return false;
+        }
+
+        int sum = 0;
+        for (int d = 0; d < BUCKETS; d++) {
+            for (int c = 0; c < chunks; c++) {
+                int count = offsets[c][d];
+                offsets[c][d] = sum;
+                sum += count;
+            }
+        }
+
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+            int[] chunkOffsets = offsets[c];
+            for (int i = c * chunkSize, end = Math.min(n, i + chunkSize); i < end; i++) {
+                int pos = chunkOffsets[digit(digits[i], shift)]++;
+                dstA[pos] = srcA[i];
+                dstB[pos] = srcB[i];
+                if (srcP != null) {
+                    dstP[pos] = srcP[i];
+                }
+            }
+        });
+        return true;
+    }
+}
@@ -0,0 +1,17 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.issuance;
+
+/**
+ * What an {@link IssuanceRing} does with a new RN when its slowest consumer is
+ * a whole ring behind. Neither policy loses an RN that has been issued.
+ */
+public enum BackPressure {
+    /** Wait until the slowest consumer frees a slot, holding up issuance */
+    BLOCK,
+
+    /** Fail the issuance with an {@link uk.gov.food.rn.RNException}, so the RN is never returned */
+    FAIL
+}
@@ -0,0 +1,56 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.issuance;
+
+import uk.gov.food.rn.PackedRN;
+import uk.gov.food.rn.RN;
+
+/**
+ * A batch of consecutive RNs from an {@link IssuanceRing}, in packed form. Each
+ * consumer has one batch, allocated when it is added and refilled for every call.
+ */
+public final class Batch {
+    final long[] high;
+    final long[] low;
+    int size;
+    long firstSequence;
+
+    Batch(int capacity) {
+        high = new long[capacity];
+        low = new long[capacity];
+    }
+
+    /** @return The number of RNs in the batch */
+    public int size() {
+        return size;
+    }
+
+    /** @return The position in the sequence of everything published to the ring of the first RN in the batch */
+    public long getFirstSequence() {
+        return firstSequence;
+    }
+
+    /** @return The high half of the packed form of RN i */
+    public long getHigh(int i) {
+        return high[check(i)];
+    }
+
+    /** @return The low half of the packed form of RN i */
+    public long getLow(int i) {
+        return low[check(i)];
+    }
+
+    /** @return RN i */
+    public RN toRN(int i) {
+        return PackedRN.toRN(high[check(i)], low[i]);
+    }
+
+    private int check(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException(String.format("%d is not in a batch of %d", i, size));
+        }
+        return i;
+    }
+}
@@ -0,0 +1,18 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.issuance;
+
+/**
+ * Receives the RNs published to an {@link IssuanceRing}, in batches, on a
+ * thread of its own.
+ */
+@FunctionalInterface
+public interface BatchConsumer {
+    /**
+     * Handle a batch of RNs, in the order they were published. The batch is reused
+     * for the next call, so it must not be kept.
+     */
+    void accept(Batch batch) throws Exception;
+}
@@ -0,0 +1,37 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.issuance;
+
+/**
+ * Somewhere for an {@link IdempotentIssuer} to keep request keys that no longer
+ * fit in memory, such as a file or a shared store, so that a retry still finds
+ * its RN. Implementations must be safe for use by several threads at once.
+ *
+ * An entry is spilled before it leaves memory, so a retry always finds it in
+ * one or the other. Each entry carries the time its RN was issued, which the
+ * issuer checks against its time to live when the entry is recalled; a store
+ * may drop entries older than that on its own.
+ */
+public interface IdempotencySpill {
+    /**
+     * Keep the RN issued for a request key, which has been evicted from memory.
+     *
+     * @param key      The request key
+     * @param high     The high half of the packed form of the RN
+     * @param low      The low half of the packed form of the RN
+     * @param issuedAt The time the RN was issued for the key, in milliseconds since the epoch
+     */
+    void spill(String key, long high, long low, long issuedAt);
+
+    /**
+     * Find the RN kept for a request key.
+     *
+     * @param key    The request key
+     * @param packed Receives, if found, the high and low halves of the packed form of the RN,
+     *               then the time it was issued for the key, in milliseconds since the epoch
+     * @return True if an RN was found
+     */
+    boolean recall(String key, long[] packed);
+}
@@ -0,0 +1,264 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.issuance;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+import uk.gov.food.rn.PackedRN;
+import uk.gov.food.rn.RN;
+import uk.gov.food.rn.RNException;
+import uk.gov.food.rn.RNFactory;
+
+/**
+ * Issues at most one RN for each request key supplied by a caller, so that a
+ * client that retries a call, after a timeout say, gets the RN issued for its
+ * first attempt rather than a new one.
+ *
+ * The RN issued for each key is kept in a concurrent hash map, so a retry is
+ * answered in constant time without going near the factory. The first call for
+ * a key places a pending entry in the map, and calls made for the same key
+ * while it is issuing wait for its RN rather than issue their own. If issuing
+ * fails the entry is removed, so that a later retry can try again.
+ *
+ * Entries are kept for a fixed time to live after the RN was issued, after
+ * which the key may be used again for a new RN. The map is bounded: once it
+ * holds more than its capacity, the oldest entries are evicted, and passed to
+ * the {@link IdempotencySpill}, if there is one, which is asked for keys not
+ * in the map before a new RN is issued. An entry is spilled, with the time
+ * its RN was issued, before it is removed from the map, so a retry finds it in
+ * one place or the other; an entry recalled after its time to live is ignored.
+ * Entries that expire are not spilled. Entries still issuing are never
+ * evicted, so the map can briefly exceed its capacity by the number of calls
+ * in progress.
+ */
+public class IdempotentIssuer {
+    private static final class Entry {
+        final String key;
+        /** When the RN was issued; set before the RN is completed, and read only once it is */
+        long created;
+        final CompletableFuture<RN> rn = new CompletableFuture<>();
+
+        Entry(String key, long created) {
+            this.key = key;
+            this.created = created;
+        }
+    }
+
+    private final RNFactory factory;
+    private final int capacity;
+    private final long ttlMillis;
+    private final IdempotencySpill spill;
+    private final LongSupplier currentTimeMillis;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /** Entries in the order they were added, which may include some already removed from the map */
+    private final ConcurrentLinkedQueue<Entry> order = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final ReentrantLock evictLock = new ReentrantLock();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder issued = new LongAdder();
+    private final LongAdder recalled = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    /**
+     * @param factory  The factory that issues the RNs
+     * @param capacity The largest number of keys to keep in memory
+     * @param ttl      How long to keep the RN issued for each key
+     */
+    public IdempotentIssuer(RNFactory factory, int capacity, Duration ttl) {
+        this(factory, capacity, ttl, null);
+    }
+
+    /**
+     * @param factory  The factory that issues the RNs
+     * @param capacity The largest number of keys to keep in memory
+     * @param ttl      How long to keep the RN issued for each key
+     * @param spill    Where to keep keys evicted from memory, or null to forget them
+     */
+    public IdempotentIssuer(RNFactory factory, int capacity, Duration ttl, IdempotencySpill spill) {
+        this(factory, capacity, ttl, spill, System::currentTimeMillis);
+    }
+
+    IdempotentIssuer(RNFactory factory, int capacity, Duration ttl, IdempotencySpill spill,
+                     LongSupplier currentTimeMillis) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be at least one, not " + capacity);
+        }
+        if (ttl.toMillis() < 1) {
+            throw new IllegalArgumentException("The time to live must be at least a millisecond, not " + ttl);
+        }
+        this.factory = factory;
+        this.capacity = capacity;
+        this.ttlMillis = ttl.toMillis();
+        this.spill = spill;
+        this.currentTimeMillis = currentTimeMillis;
+    }
+
+    /**
+     * Issue an RN for a request, or return the one already issued for it.
+     *
+     * @param key The caller's key for the request, the same for each retry
+     * @return The RN issued for the key
+     * @throws RNException if the RN could not be issued
+     */
+    public RN issue(String key) {
+        if (key == null) {
+            throw new IllegalArgumentException("A request key is required");
+        }
+        while (true) {
+            long now = currentTimeMillis.getAsLong();
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (!isExpired(entry, now)) {
+                    hits.increment();
+                    return await(entry);
+                }
+                if (remove(entry)) {
+                    expirations.increment();
+                }
+            }
+
+            Entry mine = new Entry(key, now);
+            if (entries.putIfAbsent(key, mine) != null) {
+                // Another call for the same key got there first
+                continue;
+            }
+            size.incrementAndGet();
+            order.add(mine);
+            try {
+                mine.rn.complete(recallOrIssue(mine, now));
+            } catch (RuntimeException | Error e) {
+                remove(mine);
+                mine.rn.completeExceptionally(e);
+                throw e;
+            }
+            evict(now);
+            return mine.rn.join();
+        }
+    }
+
+    /** Find the RN for an entry in the spill, or else issue one, setting the time the entry was created */
+    private RN recallOrIssue(Entry entry, long now) {
+        if (spill != null) {
+            long[] packed = new long[3];
+            if (spill.recall(entry.key, packed)) {
+                if (now - packed[2] < ttlMillis) {
+                    recalled.increment();
+                    entry.created = packed[2];
+                    return PackedRN.toRN(packed[0], packed[1]);
+                }
+                expirations.increment();
+            }
+        }
+        RN rn = factory.generateReferenceNumber();
+        if (rn == null) {
+            throw new RNException("The factory did not issue an RN for request " + entry.key);
+        }
+        issued.increment();
+        return rn;
+    }
+
+    private static RN await(Entry entry) {
+        try {
+            return entry.rn.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RNException("Could not issue an RN", e.getCause());
+        }
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return entry.rn.isDone() && now - entry.created >= ttlMillis;
+    }
+
+    private boolean remove(Entry entry) {
+        if (entries.remove(entry.key, entry)) {
+            size.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /** Remove expired entries, then the oldest while over capacity; one thread at a time does this */
+    private void evict(long now) {
+        if (!evictLock.tryLock()) {
+            return;
+        }
+        try {
+            for (Entry oldest = order.peek(); oldest != null; oldest = order.peek()) {
+                if (isExpired(oldest, now)) {
+                    order.poll();
+                    if (remove(oldest)) {
+                        expirations.increment();
+                    }
+                } else if (entries.get(oldest.key) != oldest) {
+                    // Already removed, by expiry or a failure to issue
+                    order.poll();
+                } else if (size.get() > capacity && oldest.rn.isDone()) {
+                    order.poll();
+                    // Spilled first, so that a retry never finds the key in neither place
+                    spill(oldest);
+                    if (remove(oldest)) {
+                        evictions.increment();
+                    }
+                } else {
+                    break;
+                }
+            }
+        } finally {
+            evictLock.unlock();
+        }
+    }
+
+    private void spill(Entry entry) {
+        if (spill != null && !entry.rn.isCompletedExceptionally()) {
+            RN rn = entry.rn.join();
+            spill.spill(entry.key, PackedRN.high(rn), PackedRN.low(rn), entry.created);
+        }
+    }
+
+    /** @return The number of keys held in memory */
+    public int size() {
+        return size.get();
+    }
+
+    /** @return The number of calls answered with an RN already held in memory */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /** @return The number of new RNs issued */
+    public long getIssued() {
+        return issued.sum();
+    }
+
+    /** @return The number of RNs found in the spill */
+    public long getRecalled() {
+        return recalled.sum();
+    }
+
+    /** @return The number of keys evicted to keep within capacity */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /** @return The number of keys forgotten once their time to live passed */
+    public long getExpirations() {
+        return expirations.sum();
+    }
+}
@@ -0,0 +1,556 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.issuance;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import uk.gov.food.rn.Authority;
+import uk.gov.food.rn.BinaryForm;
+import uk.gov.food.rn.Instance;
+import uk.gov.food.rn.IssuanceListener;
+import uk.gov.food.rn.PackedRN;
+import uk.gov.food.rn.RNException;
+import uk.gov.food.rn.RNFactory;
+import uk.gov.food.rn.Type;
+import uk.gov.food.rn.collection.PackedConsumer;
+
+/**
+ * An append-only journal of issued RNs, which makes each RN durable before it
+ * is returned, sharing the cost of each fsync between every RN issued while the
+ * previous one was in progress (group commit).
+ *
+ * Add the journal to factories with {@link RNFactory#addListener(IssuanceListener)}.
+ * While the factory is held, the RN is appended to an in-memory buffer, in
+ * issuance order. Once the factory is released, the issuing thread waits for
+ * the buffer to reach the disk: the first waiting thread to take the sync lock
+ * writes everything buffered so far, forces it to disk, and releases every
+ * thread whose RN that covered; the threads that arrived meanwhile are covered
+ * by the next sync. So the more threads issue at once, the more RNs each fsync
+ * covers.
+ *
+ * Each record is the {@link BinaryForm} of an RN followed by a CRC32 of those
+ * bytes, {@link #RECORD_BYTES} in all. Records are written to segment files of
+ * a fixed number of records, named after the position of their first record
+ * in the journal, each starting with a four byte magic number. Opening a
+ * journal replays the records already written, checking each one, and cuts
+ * off a record left half written at the end of the last segment by a crash.
+ * It also finds the latest time issued for each authority, instance and type,
+ * which {@link #restoreFactories()} passes on to the factories so that they
+ * never issue an RN the journal already holds, even if the clock has gone
+ * back since.
+ *
+ * A journal that fails to write or sync stops: the first such failure is
+ * raised to every thread waiting on it then or later, no RN appended after the
+ * last successful sync is ever reported durable, and no further RNs are
+ * accepted. The segment is cut back to its last whole record where possible;
+ * otherwise the next open does so.
+ */
+public class IssuanceJournal implements IssuanceListener, Closeable {
+    /** The number of bytes in each record */
+    public static final int RECORD_BYTES = BinaryForm.BYTES + 4;
+
+    /** The number of records in a segment of a journal opened without one */
+    public static final int DEFAULT_SEGMENT_RECORDS = 1 << 20;
+
+    /** Opens a new or existing segment file for writing; replaced in tests to inject failures */
+    interface SegmentOpener {
+        FileChannel open(Path file, StandardOpenOption... options) throws IOException;
+    }
+
+    /** "RNJ1" */
+    private static final int MAGIC = 0x524E4A31;
+    private static final int HEADER_BYTES = 4;
+    private static final String PREFIX = "rn-";
+    private static final String SUFFIX = ".journal";
+
+    private final Path directory;
+    private final int segmentRecords;
+    private final SegmentOpener opener;
+    private final Map<Long, Long> highWaterMarks;
+
+    /** Guards the buffer of records appended but not yet written */
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final CRC32 crc = new CRC32();
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+    private byte[] pending = new byte[RECORD_BYTES * 1024];
+    private int pendingBytes;
+    private long appended;
+    private boolean closed;
+
+    /** Held by the thread writing and syncing, which alone touches the segment files */
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private byte[] spare = new byte[RECORD_BYTES * 1024];
+    private FileChannel segment;
+    private long segmentFirst;
+    private long written;
+    private volatile long durable;
+    private volatile IOException failure;
+    private final LongAdder syncs = new LongAdder();
+
+    private IssuanceJournal(Path directory, int segmentRecords, SegmentOpener opener, Map<Long, Long> highWaterMarks) {
+        this.directory = directory;
+        this.segmentRecords = segmentRecords;
+        this.opener = opener;
+        this.highWaterMarks = highWaterMarks;
+    }
+
+    /**
+     * Open the journal in a directory, with segments of the default size.
+     *
+     * @see #open(Path, int, PackedConsumer)
+     */
+    public static IssuanceJournal open(Path directory) throws IOException {
+        return open(directory, DEFAULT_SEGMENT_RECORDS, (high, low) -> { });
+    }
+
+    /**
+     * Open the journal in a directory, creating the directory if need be, and replay
+     * the RNs it already holds.
+     *
+     * @param segmentRecords The number of records in each new segment
+     * @param replayed       Receives each RN already in the journal, in the order issued
+     * @throws IOException if a segment cannot be read, or holds a damaged record other than
+     *                     at the end of the last segment
+     */
+    public static IssuanceJournal open(Path directory, int segmentRecords, PackedConsumer replayed) throws IOException {
+        return open(directory, segmentRecords, replayed, FileChannel::open);
+    }
+
+    static IssuanceJournal open(Path directory, int segmentRecords, PackedConsumer replayed, SegmentOpener opener)
+            throws IOException {
+        if (segmentRecords < 1) {
+            throw new IllegalArgumentException("A segment holds at least one record");
+        }
+        Files.createDirectories(directory);
+        Map<Long, Long> highWaterMarks = new HashMap<>();
+        IssuanceJournal journal = new IssuanceJournal(directory, segmentRecords, opener, Collections.unmodifiableMap(highWaterMarks));
+
+        List<Path> segments = segments(directory);
+        long count = 0;
+        for (int k = 0; k < segments.size(); k++) {
+            boolean last = k == segments.size() - 1;
+            count += scan(segments.get(k), count, last, true, (high, low) -> {
+                highWaterMarks.merge(high, PackedRN.epochMilli(low), Math::max);
+                replayed.accept(high, low);
+            });
+        }
+        journal.appended = count;
+        journal.written = count;
+        journal.durable = count;
+
+        if (!segments.isEmpty()) {
+            Path last = segments.get(segments.size() - 1);
+            long first = firstSequence(last);
+            if (count - first < segmentRecords) {
+                journal.segment = opener.open(last, StandardOpenOption.WRITE);
+                journal.segment.position(journal.segment.size());
+                journal.segmentFirst = first;
+            }
+        }
+        return journal;
+    }
+
+    /**
+     * Replay the RNs in a journal without opening it for writing. A record left half
+     * written at the end of the last segment is ignored, but not removed.
+     *
+     * @return The number of RNs replayed
+     * @throws IOException if a segment cannot be read, or holds a damaged record
+     */
+    public static long replay(Path directory, PackedConsumer consumer) throws IOException {
+        List<Path> segments = segments(directory);
+        long count = 0;
+        for (int k = 0; k < segments.size(); k++) {
+            count += scan(segments.get(k), count, k == segments.size() - 1, false, consumer);
+        }
+        return count;
+    }
+
+    @Override
+    public void issued(long high, long low) {
+        append(high, low);
+    }
+
+    @Override
+    public void afterIssued(long high, long low) {
+        try {
+            awaitDurable(getAppended());
+        } catch (IOException e) {
+            throw new RNException("Could not write an issued RN to the journal", e);
+        }
+    }
+
+    /**
+     * Append an RN to the journal, without waiting for it to reach the disk.
+     *
+     * @return The number of RNs appended to the journal, including this one
+     * @throws IllegalStateException if the journal has been closed, or has failed
+     */
+    public long append(long high, long low) {
+        appendLock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("The journal has been closed");
+            }
+            if (failure != null) {
+                throw new IllegalStateException("The journal has failed", failure);
+            }
+            record.clear();
+            BinaryForm.write(high, low, record);
+            crc.reset();
+            crc.update(record.array(), 0, BinaryForm.BYTES);
+            record.putInt((int) crc.getValue());
+
+            if (pendingBytes + RECORD_BYTES > pending.length) {
+                pending = Arrays.copyOf(pending, pending.length * 2);
+            }
+            System.arraycopy(record.array(), 0, pending, pendingBytes, RECORD_BYTES);
+            pendingBytes += RECORD_BYTES;
+            return ++appended;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Wait until at least the given number of RNs have reached the disk, writing and
+     * syncing everything appended so far if no other thread is doing so.
+     *
+     * @throws IOException if the journal has failed to write or sync, now or before
+     */
+    public void awaitDurable(long count) throws IOException {
+        while (durable < count) {
+            checkFailure();
+            syncLock.lock();
+            try {
+                // A sync that finished while this thread waited for the lock may have covered it
+                if (durable < count) {
+                    checkFailure();
+                    sync();
+                }
+            } finally {
+                syncLock.unlock();
+            }
+        }
+    }
+
+    /** Write every RN appended so far to the disk, and wait until it is there */
+    public void flush() throws IOException {
+        awaitDurable(getAppended());
+    }
+
+    /** Raise the failure that stopped the journal, if it has stopped */
+    private void checkFailure() throws IOException {
+        IOException failed = failure;
+        if (failed != null) {
+            throw new IOException("The journal has failed; RNs after " + durable + " may not be on the disk", failed);
+        }
+    }
+
+    /**
+     * Write out the buffer and force it to the disk, holding the sync lock. On a failure,
+     * stop the journal, without advancing the count of durable RNs.
+     */
+    private void sync() throws IOException {
+        byte[] batch;
+        int bytes;
+        long upTo;
+        appendLock.lock();
+        try {
+            batch = pending;
+            bytes = pendingBytes;
+            upTo = appended;
+            pending = spare;
+            pendingBytes = 0;
+        } finally {
+            appendLock.unlock();
+        }
+
+        try {
+            int offset = 0;
+            while (offset < bytes) {
+                if (segment == null || written - segmentFirst == segmentRecords) {
+                    roll();
+                }
+                long room = segmentRecords - (written - segmentFirst);
+                int n = (int) Math.min((bytes - offset) / RECORD_BYTES, room);
+                ByteBuffer buf = ByteBuffer.wrap(batch, offset, n * RECORD_BYTES);
+                while (buf.hasRemaining()) {
+                    segment.write(buf);
+                }
+                offset += n * RECORD_BYTES;
+                written += n;
+            }
+            if (segment != null) {
+                segment.force(false);
+            }
+        } catch (IOException e) {
+            fail(e);
+            throw e;
+        }
+        spare = batch;
+        syncs.increment();
+        durable = upTo;
+    }
+
+    /**
+     * Stop the journal after a failed write or sync. The batch being written is dropped
+     * rather than reused, and the segment is cut back to its last whole record, if it can be.
+     */
+    private void fail(IOException e) {
+        appendLock.lock();
+        try {
+            failure = e;
+        } finally {
+            appendLock.unlock();
+        }
+        if (segment != null) {
+            try {
+                segment.truncate(HEADER_BYTES + (written - segmentFirst) * RECORD_BYTES);
+            } catch (IOException | RuntimeException ignored) {
+                // Opening the journal again cuts off a half written record at the end in any case
+            }
+            try {
+                segment.close();
+            } catch (IOException ignored) {
+                // Already failed
+            }
+            segment = null;
+        }
+    }
+
+    /** Finish the current segment, and start a new one with the next record */
+    private void roll() throws IOException {
+        if (segment != null) {
+            segment.force(false);
+            segment.close();
+        }
+        Path file = directory.resolve(String.format("%s%019d%s", PREFIX, written, SUFFIX));
+        segment = opener.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC);
+        header.flip();
+        while (header.hasRemaining()) {
+            segment.write(header);
+        }
+        segmentFirst = written;
+        forceDirectory();
+    }
+
+    /** Make the creation of a segment durable, where the platform allows it */
+    private void forceDirectory() {
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            // Not every platform can open or sync a directory; the segment's own data is synced regardless
+        }
+    }
+
+    /**
+     * @return The latest time, in milliseconds, of an RN in the journal when it was opened,
+     * for each factory, keyed by the high half of the packed form of its RNs
+     */
+    public Map<Long, Long> getHighWaterMarks() {
+        return highWaterMarks;
+    }
+
+    /**
+     * Raise the high-water mark of the factory for each authority, instance and type in the
+     * journal when it was opened to the time of its latest RN there, so that it issues none
+     * of them again. The registry of factories keeps the marks, so they hold however many
+     * factories there are.
+     */
+    public void restoreFactories() {
+        for (Map.Entry<Long, Long> entry : highWaterMarks.entrySet()) {
+            long high = entry.getKey();
+            RNFactory factory = RNFactory.getFactory(new Authority(PackedRN.authority(high)),
+                                                     new Instance(PackedRN.instance(high)),
+                                                     new Type(PackedRN.type(high)));
+            factory.raiseHighWaterMark(entry.getValue());
+        }
+    }
+
+    /** @return The number of RNs appended to the journal, including those replayed */
+    public long getAppended() {
+        appendLock.lock();
+        try {
+            return appended;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /** @return The number of RNs known to be on the disk */
+    public long getDurable() {
+        return durable;
+    }
+
+    /** @return The failure that stopped the journal, or null if it has not failed */
+    public IOException getFailure() {
+        return failure;
+    }
+
+    /** @return The number of times the journal has been synced */
+    public long getSyncs() {
+        return syncs.sum();
+    }
+
+    /**
+     * Refuse any further RNs, write those already appended to the disk, and close the
+     * current segment.
+     *
+     * @throws IOException if the journal has failed, so that some RNs appended may not be on the disk
+     */
+    @Override
+    public void close() throws IOException {
+        appendLock.lock();
+        try {
+            closed = true;
+        } finally {
+            appendLock.unlock();
+        }
+        syncLock.lock();
+        try {
+            checkFailure();
+            if (durable < appended) {
+                sync();
+            }
+            if (segment != null) {
+                segment.close();
+                segment = null;
+            }
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /** @return The segment files in a directory, in order */
+    private static List<Path> segments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                segments.add(file);
+            }
+        }
+        // Names hold zero padded positions, so name order is journal order
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static long firstSequence(Path segment) throws IOException {
+        String name = segment.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            throw new IOException("Not a journal segment: " + segment, e);
+        }
+    }
+
+    /**
+     * Read the records of a segment, passing each to a consumer.
+     *
+     * @param expectedFirst The position in the journal that the segment should start at
+     * @param last          True for the last segment, which may end in a record left half written
+     * @param repair        True to cut such a record off the end of the file
+     * @return The number of records read
+     */
+    private static long scan(Path file, long expectedFirst, boolean last, boolean repair, PackedConsumer consumer)
+            throws IOException {
+        if (firstSequence(file) != expectedFirst) {
+            throw new IOException(String.format("Segment %s should start at record %d", file, expectedFirst));
+        }
+        try (FileChannel channel = FileChannel.open(file, repair ? StandardOpenOption.WRITE : StandardOpenOption.READ,
+                                                    StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer buf = ByteBuffer.allocate(RECORD_BYTES * 4096);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            readFully(channel, header, 0);
+            if (header.position() < HEADER_BYTES || header.getInt(0) != MAGIC) {
+                if (last && size < HEADER_BYTES) {
+                    // Created, but its header never reached the disk
+                    if (repair) {
+                        channel.truncate(0);
+                        header.clear();
+                        header.putInt(MAGIC).flip();
+                        channel.write(header, 0);
+                        channel.force(false);
+                    }
+                    return 0;
+                }
+                throw new IOException("Not a journal segment: " + file);
+            }
+
+            CRC32 crc = new CRC32();
+            long[] packed = new long[2];
+            long position = HEADER_BYTES;
+            long count = 0;
+            while (position < size) {
+                buf.clear();
+                readFully(channel, buf, position);
+                buf.flip();
+                while (buf.remaining() >= RECORD_BYTES) {
+                    crc.reset();
+                    crc.update(buf.array(), buf.position(), BinaryForm.BYTES);
+                    int start = buf.position();
+                    int status = BinaryForm.probe(buf, packed, 0);
+                    if ((int) crc.getValue() != buf.getInt() || status != PackedRN.DECODED) {
+                        return damaged(channel, file, last, repair, position + start, count);
+                    }
+                    consumer.accept(packed[0], packed[1]);
+                    count++;
+                }
+                position += buf.position();
+                if (buf.hasRemaining() && position + buf.remaining() >= size) {
+                    // A partial record at the end of the file
+                    return damaged(channel, file, last, repair, position, count);
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Handle a damaged record, which is only allowed as the final record of the last segment,
+     * where a crash during a write can leave it
+     */
+    private static long damaged(FileChannel channel, Path file, boolean last, boolean repair, long position, long count)
+            throws IOException {
+        if (!last || position + RECORD_BYTES < channel.size()) {
+            throw new IOException(String.format("Damaged record %d in journal segment %s", count, file));
+        }
+        if (repair) {
+            channel.truncate(position);
+            channel.force(false);
+        }
+        return count;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position + buf.position());
+            if (n < 0) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,353 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.issuance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import uk.gov.food.rn.IssuanceListener;
+import uk.gov.food.rn.RNException;
+
+/**
+ * A pre-allocated ring buffer of issued RNs, which hands them to consumer
+ * threads in batches, so that work such as auditing, indexing and publishing
+ * is taken off the issuance path.
+ *
+ * Add the ring to one or more factories with
+ * {@link uk.gov.food.rn.RNFactory#addListener(IssuanceListener)}. Each RN is
+ * written, in packed form, to the next slot of the ring, and every consumer
+ * receives every RN, in the order they were published; RNs from one factory
+ * are published in the order they were issued. Publishing allocates nothing:
+ * a writer claims a sequence number with a compare and swap, writes the slot,
+ * and then marks the slot with its sequence number. Each consumer has its own
+ * thread and position in the sequence, and takes every slot that is marked as
+ * published, up to its batch size, at once. A consumer with nothing to take
+ * yields for a while, then parks until a writer wakes it, so an idle ring
+ * costs no CPU; a writer only pays for the wake up when a consumer is parked.
+ *
+ * A slot is only reused once every consumer has read it. When the slowest
+ * consumer is a whole ring behind, the {@link BackPressure} policy decides
+ * whether a writer waits or fails. A consumer that raises an exception, or an
+ * error such as a failed assertion, loses nothing else: the failure is counted
+ * and it carries on with the next batch, so it never stops the writers.
+ *
+ * Consumers are added before the ring is started. Closing the ring stops new
+ * RNs being published, and waits for the consumers to finish every RN already
+ * published; remove the ring from its factories first. A factory with a
+ * listener is kept in the registry of factories, so the ring is not lost if
+ * the registry would otherwise evict it.
+ */
+public class IssuanceRing implements IssuanceListener, AutoCloseable {
+    /** The batch size of consumers added without one */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    /** Set in the cursor once the ring is closed, so that no further sequence can be claimed */
+    private static final long CLOSED = Long.MIN_VALUE;
+
+    /** Times a waiting thread yields before it starts to park */
+    private static final int SPINS = 100;
+    private static final long PARK_NANOS = 50_000;
+
+    /** The longest a consumer with nothing to take parks before it looks again, in case of a missed wake up */
+    private static final long SLEEP_NANOS = 100_000_000;
+
+    private final int capacity;
+    private final int mask;
+    private final long[] high;
+    private final long[] low;
+
+    /** The sequence number last published in each slot */
+    private final AtomicLongArray published;
+
+    private final BackPressure backPressure;
+
+    /** The next sequence number to claim, with {@link #CLOSED} set once closed */
+    private final AtomicLong cursor = new AtomicLong();
+
+    /** A recent position of the slowest consumer, recomputed when the ring looks full */
+    private volatile long gate;
+
+    private final List<Reader> readers = new ArrayList<>();
+    private volatile boolean started;
+
+    /** The number of consumers parked until an RN is published */
+    private final AtomicInteger sleepers = new AtomicInteger();
+
+    private final LongAdder blocked = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param capacity     The number of slots, a power of two
+     * @param backPressure What to do when the slowest consumer is a whole ring behind
+     */
+    public IssuanceRing(int capacity, BackPressure backPressure) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("The capacity of a ring must be a power of two, not " + capacity);
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.high = new long[capacity];
+        this.low = new long[capacity];
+        this.published = new AtomicLongArray(capacity);
+        for (int k = 0; k < capacity; k++) {
+            published.set(k, -1);
+        }
+        this.backPressure = backPressure;
+    }
+
+    /**
+     * Add a consumer, with the default batch size.
+     *
+     * @see #addConsumer(String, BatchConsumer, int)
+     */
+    public void addConsumer(String name, BatchConsumer consumer) {
+        addConsumer(name, consumer, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Add a consumer, which will receive every RN published once the ring is started.
+     *
+     * @param name         The name of the consumer's thread
+     * @param maxBatchSize The largest number of RNs passed to the consumer at once
+     * @throws IllegalStateException if the ring has been started
+     */
+    public synchronized void addConsumer(String name, BatchConsumer consumer, int maxBatchSize) {
+        if (started) {
+            throw new IllegalStateException("Consumers must be added before the ring is started");
+        }
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("A batch holds at least one RN");
+        }
+        readers.add(new Reader(name, consumer, maxBatchSize));
+    }
+
+    /**
+     * Start a thread for each consumer.
+     *
+     * @throws IllegalStateException if there are no consumers, or the ring has been started
+     */
+    public synchronized void start() {
+        if (started || readers.isEmpty()) {
+            throw new IllegalStateException(started ? "The ring has been started" : "The ring has no consumers");
+        }
+        for (Reader reader : readers) {
+            reader.thread.start();
+        }
+        started = true;
+    }
+
+    @Override
+    public void issued(long high, long low) {
+        publish(high, low);
+    }
+
+    /**
+     * Publish an RN, in packed form, to every consumer.
+     *
+     * @throws RNException           if the ring is full and its policy is {@link BackPressure#FAIL}
+     * @throws IllegalStateException if the ring has not been started, or has been closed
+     */
+    public void publish(long high, long low) {
+        if (!started) {
+            throw new IllegalStateException("The ring has not been started");
+        }
+        long sequence;
+        int idle = 0;
+        while (true) {
+            sequence = cursor.get();
+            if (sequence < 0) {
+                throw new IllegalStateException("The ring has been closed");
+            }
+            if (sequence - gate >= capacity) {
+                gate = slowestReader();
+                if (sequence - gate >= capacity) {
+                    if (backPressure == BackPressure.FAIL) {
+                        rejected.increment();
+                        throw new RNException(String.format("The issuance ring is full: its slowest consumer is %d RNs behind",
+                                                            sequence - gate));
+                    }
+                    if (idle == 0) {
+                        blocked.increment();
+                    }
+                    idle = idle(idle);
+                    continue;
+                }
+            }
+            if (cursor.compareAndSet(sequence, sequence + 1)) {
+                break;
+            }
+        }
+
+        int slot = (int) sequence & mask;
+        this.high[slot] = high;
+        this.low[slot] = low;
+        // A full write, so that either this sees a consumer going to sleep or the consumer sees the slot
+        published.set(slot, sequence);
+        if (sleepers.get() > 0) {
+            wakeReaders();
+        }
+    }
+
+    /**
+     * Stop publishing, and wait for the consumers to finish every RN already published.
+     * If interrupted while waiting, return at once with the interrupt status set, leaving
+     * the consumers to finish on their own.
+     */
+    @Override
+    public void close() {
+        cursor.getAndUpdate(c -> c | CLOSED);
+        synchronized (this) {
+            if (started) {
+                wakeReaders();
+                try {
+                    for (Reader reader : readers) {
+                        reader.thread.join();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private void wakeReaders() {
+        for (Reader reader : readers) {
+            if (reader.sleeping) {
+                LockSupport.unpark(reader.thread);
+            }
+        }
+    }
+
+    /** @return The number of slots */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** @return The number of RNs published */
+    public long getPublished() {
+        return cursor.get() & ~CLOSED;
+    }
+
+    /** @return The number of RNs published that the slowest consumer has yet to take */
+    public long getLag() {
+        return getPublished() - slowestReader();
+    }
+
+    /** @return The number of times a writer has had to wait for a consumer */
+    public long getBlocked() {
+        return blocked.sum();
+    }
+
+    /** @return The number of RNs refused because the ring was full */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /** @return The number of batches for which a consumer raised an exception or error */
+    public long getFailedBatches() {
+        long failed = 0;
+        for (Reader reader : readers) {
+            failed += reader.failures;
+        }
+        return failed;
+    }
+
+    private long slowestReader() {
+        long slowest = Long.MAX_VALUE;
+        for (Reader reader : readers) {
+            slowest = Math.min(slowest, reader.next.get());
+        }
+        return slowest;
+    }
+
+    /** Wait a little, yielding at first and then parking */
+    private static int idle(int idle) {
+        if (idle < SPINS) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        return idle + 1;
+    }
+
+    /** A consumer, its thread and its position in the sequence */
+    private final class Reader implements Runnable {
+        final BatchConsumer consumer;
+        final Batch batch;
+        final Thread thread;
+
+        /** The next sequence number to take */
+        final AtomicLong next = new AtomicLong();
+
+        volatile long failures;
+        volatile boolean sleeping;
+
+        Reader(String name, BatchConsumer consumer, int maxBatchSize) {
+            this.consumer = consumer;
+            this.batch = new Batch(maxBatchSize);
+            this.thread = new Thread(this, name);
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            int idle = 0;
+            while (true) {
+                long first = next.get();
+                int n = 0;
+                while (n < batch.high.length) {
+                    int slot = (int) (first + n) & mask;
+                    if (published.get(slot) != first + n) {
+                        break;
+                    }
+                    batch.high[n] = high[slot];
+                    batch.low[n] = low[slot];
+                    n++;
+                }
+
+                if (n > 0) {
+                    // The batch is a copy, so the slots can be reused while it is consumed
+                    next.lazySet(first + n);
+                    batch.size = n;
+                    batch.firstSequence = first;
+                    try {
+                        consumer.accept(batch);
+                    } catch (Throwable e) {
+                        // Even an error must not stop this thread, or writers would wait on it for ever
+                        failures++;
+                    }
+                    idle = 0;
+                } else if (cursor.get() == (first | CLOSED)) {
+                    // Closed, and everything claimed has been taken
+                    return;
+                } else if (idle < SPINS) {
+                    idle = idle(idle);
+                } else {
+                    sleep(first);
+                }
+            }
+        }
+
+        /** Park until a writer publishes the next slot or the ring is closed */
+        private void sleep(long first) {
+            sleeping = true;
+            sleepers.incrementAndGet();
+            try {
+                // Look again, now that writers can see this consumer is going to sleep
+                if (published.get((int) first & mask) != first && cursor.get() >= 0) {
+                    LockSupport.parkNanos(this, SLEEP_NANOS);
+                }
+            } finally {
+                sleepers.decrementAndGet();
+                sleeping = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.jfr;
+
+/**
+ * Where {@link RNEvents} sends its events: the JFR emitter, compiled separately
+ * for Java 11 and loaded by name, or a sink that does nothing when it is absent.
+ */
+interface EventSink {
+    Object beginFactoryWait();
+
+    void endFactoryWait(Object started, int authority, int instance, int type);
+
+    void clockRegression(int authority, int instance, int type, long previousMillis, long clockMillis);
+
+    Object beginDecode();
+
+    void endDecode(Object started, CharSequence input, int status);
+
+    Object beginBatchDecode();
+
+    void endBatchDecode(Object started, int batchSize, int from, int to, int decoded);
+}
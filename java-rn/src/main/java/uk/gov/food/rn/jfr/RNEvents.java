@@ -0,0 +1,146 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.jfr;
+
+/**
+ * Emits Java Flight Recorder events from the library, when JFR is available.
+ *
+ * The event classes use the {@code jdk.jfr} API, so they are kept in
+ * {@code src/main/java11} and compiled for Java 11 by the {@code jfr} build
+ * profile, which is active when building on Java 11 or later; the rest of the
+ * library still targets Java 8. They are loaded by name, so on a runtime
+ * without the JFR API, or from a build without them, every method does
+ * nothing and they are never loaded. Otherwise each method checks that a
+ * recording wants the event, which is a single field read when none does, so
+ * the events can be left in place in production. Events that measure a
+ * duration are begun with a {@code begin} method, which returns null when the
+ * event is not wanted, and ended with the matching {@code end} method.
+ *
+ * The events are:
+ * <ul>
+ * <li>{@code uk.gov.food.rn.FactoryWait}: an RNFactory waiting for its clock to
+ *     pass the time of its previous RN, over a threshold of 2ms</li>
+ * <li>{@code uk.gov.food.rn.ClockRegression}: an RNFactory reading its clock as
+ *     earlier than its previous RN</li>
+ * <li>{@code uk.gov.food.rn.Decode}: decoding an encoded RN into an object, over
+ *     a threshold of 1ms</li>
+ * <li>{@code uk.gov.food.rn.BatchDecode}: decoding a chunk of a batch into columns</li>
+ * </ul>
+ * Thresholds can be changed, and events disabled, in the recording settings.
+ */
+public final class RNEvents {
+    private static final String EMITTER = "uk.gov.food.rn.jfr.Emitter";
+
+    /** Does nothing, for runtimes or builds without JFR */
+    private static final class NoEvents implements EventSink {
+        @Override
+        public Object beginFactoryWait() {
+            return null;
+        }
+
+        @Override
+        public void endFactoryWait(Object started, int authority, int instance, int type) {
+        }
+
+        @Override
+        public void clockRegression(int authority, int instance, int type, long previousMillis, long clockMillis) {
+        }
+
+        @Override
+        public Object beginDecode() {
+            return null;
+        }
+
+        @Override
+        public void endDecode(Object started, CharSequence input, int status) {
+        }
+
+        @Override
+        public Object beginBatchDecode() {
+            return null;
+        }
+
+        @Override
+        public void endBatchDecode(Object started, int batchSize, int from, int to, int decoded) {
+        }
+    }
+
+    private static final EventSink SINK = loadSink();
+
+    private RNEvents() {
+    }
+
+    private static EventSink loadSink() {
+        try {
+            Class.forName("jdk.jfr.Event", false, RNEvents.class.getClassLoader());
+            return (EventSink) Class.forName(EMITTER, true, RNEvents.class.getClassLoader())
+                                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            return new NoEvents();
+        }
+    }
+
+    /** @return True if the runtime has the JFR API and the library was built with its events */
+    public static boolean isAvailable() {
+        return !(SINK instanceof NoEvents);
+    }
+
+    /** @return A started factory wait event, or null if it is not wanted */
+    public static Object beginFactoryWait() {
+        return SINK.beginFactoryWait();
+    }
+
+    /** End a factory wait event begun by {@link #beginFactoryWait()} */
+    public static void endFactoryWait(Object event, int authority, int instance, int type) {
+        if (event != null) {
+            SINK.endFactoryWait(event, authority, instance, type);
+        }
+    }
+
+    /**
+     * Emit a clock regression event.
+     *
+     * @param previousMillis The time of the factory's previous RN
+     * @param clockMillis    The earlier time read from the clock
+     */
+    public static void clockRegression(int authority, int instance, int type, long previousMillis, long clockMillis) {
+        SINK.clockRegression(authority, instance, type, previousMillis, clockMillis);
+    }
+
+    /** @return A started decode event, or null if it is not wanted */
+    public static Object beginDecode() {
+        return SINK.beginDecode();
+    }
+
+    /**
+     * End a decode event begun by {@link #beginDecode()}.
+     *
+     * @param status The {@link uk.gov.food.rn.PackedRN} status code of the outcome
+     */
+    public static void endDecode(Object event, CharSequence input, int status) {
+        if (event != null) {
+            SINK.endDecode(event, input, status);
+        }
+    }
+
+    /** @return A started batch decode event, or null if it is not wanted */
+    public static Object beginBatchDecode() {
+        return SINK.beginBatchDecode();
+    }
+
+    /**
+     * End a batch decode event begun by {@link #beginBatchDecode()}.
+     *
+     * @param batchSize The number of entries in the whole batch
+     * @param from      The first entry in the chunk
+     * @param to        The entry after the last in the chunk
+     * @param decoded   The number of entries in the chunk that decoded
+     */
+    public static void endBatchDecode(Object event, int batchSize, int from, int to, int decoded) {
+        if (event != null) {
+            SINK.endBatchDecode(event, batchSize, from, to, decoded);
+        }
+    }
+}
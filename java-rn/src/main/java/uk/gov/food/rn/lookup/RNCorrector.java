@@ -0,0 +1,304 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.lookup;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import uk.gov.food.rn.PackedRN;
+import uk.gov.food.rn.RN;
+import uk.gov.food.rn.Representation;
+import uk.gov.food.rn.analysis.CheckDigitScheme;
+import uk.gov.food.rn.analysis.ErrorModels;
+
+/**
+ * Suggests corrections for an encoded RN that fails its check digits.
+ *
+ * Every single character substitution and every transposition of adjacent
+ * characters of the input is considered: 18 x 32 + 17 = 593 candidates for an
+ * input of the default length. A change of (d' - d) at a position with weight W
+ * fixes the check digits exactly when it cancels the input's residue r,
+ *
+ *   (d' - d)W = -r mod 1087
+ *
+ * so with the position weights and their inverses precomputed, each position
+ * needs one table lookup to find the only substitution that can pass, and each
+ * transposition one multiplication. Only the candidates that pass are decoded.
+ *
+ * Candidates must decode to valid fields and have a plausible issue time, no
+ * earlier than a given date and no later than shortly after now. They are ranked
+ * with the likeliest slips first: transpositions and substitutions between
+ * characters that OCR confuses or that neighbour each other on a keyboard, then
+ * other substitutions. Ties go to the more recent issue time.
+ *
+ * Instances are immutable and may be shared between threads.
+ */
+public class RNCorrector {
+    /** The kinds of slip a suggestion corrects */
+    public enum Kind {
+        SUBSTITUTION,
+        TRANSPOSITION
+    }
+
+    /** Cost of a transposition, or a substitution of a confusable character */
+    static final int LIKELY_COST = 1;
+
+    /** Cost of any other substitution */
+    static final int UNLIKELY_COST = 3;
+
+    /** The default earliest plausible issue time: 2018-01-01T00:00:00Z, when the scheme came into use */
+    public static final long DEFAULT_NOT_BEFORE = 1514764800000L;
+
+    /** The default allowance for clock skew in issue times after now */
+    public static final long DEFAULT_FUTURE_TOLERANCE = TimeUnit.DAYS.toMillis(1);
+
+    private static final int BASE = Representation.ALPHABET.length();
+    private static final int PRIME = Representation.CHECK_DIGITS_PRIME.intValue();
+    private static final int LENGTH = PackedRN.DEFAULT_LENGTH;
+
+    /** WEIGHTS[j] is the weight of the j'th digit from the left, and INVERSE_WEIGHTS[j] its inverse mod p */
+    private static final int[] WEIGHTS = new int[LENGTH];
+    private static final int[] INVERSE_WEIGHTS = new int[LENGTH];
+
+    /** DELTA_FOR[r] is the digit delta in (-base, base) congruent to r mod p, or 0 if none */
+    private static final int[] DELTA_FOR = new int[PRIME];
+
+    /** CONFUSABLE[a][b] is true when a typed or read as b is a likely slip */
+    private static final boolean[][] CONFUSABLE = new boolean[128][128];
+
+    static {
+        CheckDigitScheme scheme = new CheckDigitScheme(BASE, PRIME, LENGTH);
+        for (int j = 0; j < LENGTH; j++) {
+            WEIGHTS[j] = scheme.weight(LENGTH - 1 - j);
+            INVERSE_WEIGHTS[j] = (int) inverse(WEIGHTS[j]);
+        }
+
+        for (int delta = 1; delta < BASE; delta++) {
+            DELTA_FOR[delta] = delta;
+            DELTA_FOR[PRIME - delta] = -delta;
+        }
+
+        markConfusable(ErrorModels.ocrConfusions());
+        markConfusable(ErrorModels.keyboardNeighbours());
+    }
+
+    private final long notBefore;
+    private final long futureTolerance;
+    private final Clock clock;
+
+    /** A suggested correction */
+    public static final class Suggestion {
+        private final long high;
+        private final long low;
+        private final Kind kind;
+        private final int position;
+        private final int cost;
+
+        Suggestion(long high, long low, Kind kind, int position, int cost) {
+            this.high = high;
+            this.low = low;
+            this.kind = kind;
+            this.position = position;
+            this.cost = cost;
+        }
+
+        /** @return The high half of the packed form of the suggested RN */
+        public long getHigh() {
+            return high;
+        }
+
+        /** @return The low half of the packed form of the suggested RN */
+        public long getLow() {
+            return low;
+        }
+
+        /** @return The suggested RN */
+        public RN toRN() {
+            return PackedRN.toRN(high, low);
+        }
+
+        /** @return The grouped encoded form of the suggested RN */
+        public String getEncodedForm() {
+            return PackedRN.encode(high, low);
+        }
+
+        /** @return The kind of slip corrected */
+        public Kind getKind() {
+            return kind;
+        }
+
+        /** @return The index of the (first) changed character, counting digits only from the left */
+        public int getPosition() {
+            return position;
+        }
+
+        /** @return The cost of the slip; lower is likelier */
+        public int getCost() {
+            return cost;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s (%s at %d, cost %d)", getEncodedForm(), kind, position, cost);
+        }
+    }
+
+    /** Best suggestions first */
+    static final Comparator<Suggestion> RANKING =
+        Comparator.comparingInt(Suggestion::getCost)
+                  .thenComparing(Comparator.comparingLong((Suggestion s) -> PackedRN.epochMilli(s.low)).reversed())
+                  .thenComparingInt(Suggestion::getPosition);
+
+    /**
+     * Construct a corrector that accepts issue times from {@link #DEFAULT_NOT_BEFORE}
+     * until {@link #DEFAULT_FUTURE_TOLERANCE} after now.
+     */
+    public RNCorrector() {
+        this(DEFAULT_NOT_BEFORE, DEFAULT_FUTURE_TOLERANCE, Clock.systemUTC());
+    }
+
+    /**
+     * @param notBefore       The earliest plausible issue time, in milliseconds since the epoch
+     * @param futureTolerance How far after the clock's current time an issue time may be, in milliseconds
+     * @param clock           The clock giving the current time
+     */
+    public RNCorrector(long notBefore, long futureTolerance, Clock clock) {
+        this.notBefore = notBefore;
+        this.futureTolerance = futureTolerance;
+        this.clock = clock;
+    }
+
+    /**
+     * Suggest corrections for an encoded RN.
+     *
+     * The input may be grouped with '-' or ASCII whitespace, the characters that
+     * {@link Representation} ignores, and may contain one other character outside the
+     * alphabet, which is then the only one considered for substitution.
+     *
+     * @return The suggestions, best first; empty if the input is already valid, or
+     *         does not have the default number of digits, or no correction is plausible
+     */
+    public List<Suggestion> suggest(CharSequence encoded) {
+        int[] digits = new int[LENGTH];
+        char[] chars = new char[LENGTH];
+        int count = 0;
+        int illegal = -1;
+        for (int k = 0, n = encoded.length(); k < n; k++) {
+            char c = encoded.charAt(k);
+            if (PackedRN.isSeparator(c)) {
+                continue;
+            }
+            if (count == LENGTH) {
+                return Collections.emptyList();
+            }
+            int d = PackedRN.digitValue(c);
+            if (d < 0) {
+                if (illegal >= 0) {
+                    return Collections.emptyList();
+                }
+                illegal = count;
+                d = 0;
+            }
+            chars[count] = c;
+            digits[count++] = d;
+        }
+        if (count != LENGTH) {
+            return Collections.emptyList();
+        }
+
+        int residue = 0;
+        for (int j = 0; j < LENGTH; j++) {
+            residue = (residue + digits[j] * WEIGHTS[j]) % PRIME;
+        }
+
+        long latest = clock.millis() + futureTolerance;
+        long[] packed = new long[2];
+        List<Suggestion> suggestions = new ArrayList<>();
+
+        for (int j = 0; j < LENGTH; j++) {
+            if (illegal >= 0 && j != illegal) {
+                continue;
+            }
+            // The delta (d' - d) with (d' - d)W = -r mod p; an illegal character counts as 0
+            int delta = DELTA_FOR[(int) ((long) (PRIME - residue) * INVERSE_WEIGHTS[j] % PRIME)];
+            int replacement = digits[j] + delta;
+            if (residue == 0 && j == illegal) {
+                replacement = 0;
+            } else if (delta == 0 || replacement < 0 || replacement >= BASE) {
+                continue;
+            }
+
+            int original = digits[j];
+            digits[j] = replacement;
+            if (decode(digits, packed, latest)) {
+                char to = Representation.ALPHABET.charAt(replacement);
+                int cost = chars[j] < 128 && CONFUSABLE[chars[j]][to] ? LIKELY_COST : UNLIKELY_COST;
+                suggestions.add(new Suggestion(packed[0], packed[1], Kind.SUBSTITUTION, j, cost));
+            }
+            digits[j] = original;
+        }
+
+        if (illegal < 0) {
+            for (int j = 0; j + 1 < LENGTH; j++) {
+                int a = digits[j];
+                int b = digits[j + 1];
+                if (a == b || (residue + (b - a) * (WEIGHTS[j] - WEIGHTS[j + 1])) % PRIME != 0) {
+                    continue;
+                }
+                digits[j] = b;
+                digits[j + 1] = a;
+                if (decode(digits, packed, latest)) {
+                    suggestions.add(new Suggestion(packed[0], packed[1], Kind.TRANSPOSITION, j, LIKELY_COST));
+                }
+                digits[j] = a;
+                digits[j + 1] = b;
+            }
+        }
+
+        Collections.sort(suggestions, RANKING);
+        return suggestions;
+    }
+
+    /** Decode candidate digits, which have valid check digits, and check the issue time is plausible */
+    private boolean decode(int[] digits, long[] packed, long latest) {
+        char[] candidate = new char[LENGTH];
+        for (int j = 0; j < LENGTH; j++) {
+            candidate[j] = Representation.ALPHABET.charAt(digits[j]);
+        }
+        if (PackedRN.probe(new String(candidate), packed, 0) != PackedRN.DECODED) {
+            return false;
+        }
+        long epochMilli = PackedRN.epochMilli(packed[1]);
+        return epochMilli >= notBefore && epochMilli <= latest;
+    }
+
+    private static void markConfusable(Map<Character, String> alternatives) {
+        for (Map.Entry<Character, String> entry : alternatives.entrySet()) {
+            for (char c : entry.getValue().toCharArray()) {
+                // The input holds what was typed or read; the candidate what was meant
+                CONFUSABLE[entry.getKey()][c] = true;
+                CONFUSABLE[c][entry.getKey()] = true;
+            }
+        }
+    }
+
+    /** @return The inverse of w mod p, by Fermat's little theorem */
+    private static long inverse(long w) {
+        long result = 1;
+        long b = w % PRIME;
+        for (int e = PRIME - 2; e > 0; e >>= 1) {
+            if ((e & 1) != 0) {
+                result = result * b % PRIME;
+            }
+            b = b * b % PRIME;
+        }
+        return result;
+    }
+}
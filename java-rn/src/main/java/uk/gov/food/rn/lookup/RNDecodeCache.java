@@ -0,0 +1,257 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.lookup;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import uk.gov.food.rn.PackedRN;
+import uk.gov.food.rn.RN;
+import uk.gov.food.rn.RNException;
+
+/**
+ * A bounded cache of decoded RNs, for services that decode the same popular
+ * encoded RNs over and over. RNs are immutable, so one instance can be shared
+ * by every caller that decodes the same encoded form.
+ *
+ * Entries are keyed by the encoded form with its grouping hyphens and ASCII
+ * whitespace removed, just as {@link RN#RN(String)} removes them, so
+ * "ABCDEF-GHJKLM-NPQRST" and "ABCDEFGHJKLMNPQRST" share one. Inputs that fail
+ * to decode are not cached, and raise the same {@link RNException} as
+ * {@link RN#RN(String)}.
+ *
+ * Eviction is segmented LRU: a new entry goes into a probationary segment,
+ * and moves to a protected segment, of up to 80% of the capacity, when it is
+ * used again. When the cache is full the least recently used probationary
+ * entry is evicted; probation may use whatever the protected segment does
+ * not. An entry leaves the protected segment, back to probation, only when
+ * crowded out by more recently reused entries. So a burst of RNs seen once,
+ * such as a bulk import, passes through probation without displacing the
+ * popular RNs.
+ *
+ * The cache is split into shards by the hash of the key, each with its own
+ * lock, so that threads looking up different RNs rarely wait for each other.
+ * Decoding a miss is done outside the lock.
+ */
+public class RNDecodeCache {
+    /** The capacity of a cache created without one */
+    public static final int DEFAULT_CAPACITY = 10_000;
+
+    /** Most shards a cache is split into */
+    private static final int MAX_SHARDS = 16;
+
+    /** Fewest entries per shard, below which there are fewer shards */
+    private static final int MIN_SHARD_CAPACITY = 64;
+
+    /** The share of each shard's capacity given to the protected segment */
+    private static final double PROTECTED_SHARE = 0.8;
+
+    private final int capacity;
+    private final Shard[] shards;
+    private final int mask;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public RNDecodeCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity The largest number of RNs to hold
+     */
+    public RNDecodeCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be at least one, not " + capacity);
+        }
+        this.capacity = capacity;
+        int n = Integer.highestOneBit(Math.max(1, Math.min(MAX_SHARDS, capacity / MIN_SHARD_CAPACITY)));
+        shards = new Shard[n];
+        for (int k = 0; k < n; k++) {
+            // Spread the capacity so that the shards add up to it exactly
+            shards[k] = new Shard(capacity / n + (k < capacity % n ? 1 : 0));
+        }
+        mask = n - 1;
+    }
+
+    /**
+     * Decode an encoded RN, or return the instance already decoded from it.
+     *
+     * @param encoded An encoded reference number, optionally grouped with '-' or ASCII whitespace
+     * @return The RN
+     * @throws RNException if the encoded form is not that of a valid RN
+     */
+    public RN decode(String encoded) {
+        String key = normalise(encoded);
+        Shard shard = shardOf(key);
+        RN rn = shard.get(key);
+        if (rn != null) {
+            hits.increment();
+            return rn;
+        }
+        misses.increment();
+        try {
+            rn = new RN(key);
+        } catch (RNException e) {
+            rejected.increment();
+            throw e;
+        }
+        return shard.put(key, rn);
+    }
+
+    /** @return The number of RNs held */
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    /** @return The largest number of RNs held */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** Remove every RN, keeping the statistics */
+    public void clear() {
+        for (Shard shard : shards) {
+            shard.clear();
+        }
+    }
+
+    /** @return The number of lookups answered from the cache */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /** @return The number of lookups that had to decode, including those that failed */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /** @return The number of lookups of inputs that are not valid RNs */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /** @return The number of RNs evicted to keep within capacity */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /** @return The share of lookups answered from the cache, or 0 before any lookup */
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    private Shard shardOf(String key) {
+        int h = key.hashCode();
+        return shards[(h ^ (h >>> 16)) & mask];
+    }
+
+    /** @return The encoded form without separators, which is the same string if it has none */
+    static String normalise(String encoded) {
+        int n = encoded.length();
+        int k = 0;
+        while (k < n && !PackedRN.isSeparator(encoded.charAt(k))) {
+            k++;
+        }
+        if (k == n) {
+            return encoded;
+        }
+        StringBuilder key = new StringBuilder(n).append(encoded, 0, k);
+        for (; k < n; k++) {
+            char c = encoded.charAt(k);
+            if (!PackedRN.isSeparator(c)) {
+                key.append(c);
+            }
+        }
+        return key.toString();
+    }
+
+    /** One shard of the cache, a segmented LRU guarded by its own monitor */
+    private final class Shard {
+        private final int capacity;
+        private final int protectedCapacity;
+
+        /** Both in access order, least recently used first */
+        private final LinkedHashMap<String, RN> probation = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<String, RN> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+
+        Shard(int capacity) {
+            this.capacity = capacity;
+            protectedCapacity = capacity > 1 ? (int) (capacity * PROTECTED_SHARE) : 0;
+        }
+
+        synchronized RN get(String key) {
+            RN rn = protectedSegment.get(key);
+            if (rn != null) {
+                return rn;
+            }
+            rn = probation.remove(key);
+            if (rn != null) {
+                promote(key, rn);
+            }
+            return rn;
+        }
+
+        /** Add a newly decoded RN, or return the one another thread added meanwhile */
+        synchronized RN put(String key, RN rn) {
+            RN existing = protectedSegment.get(key);
+            if (existing == null) {
+                existing = probation.putIfAbsent(key, rn);
+            }
+            if (existing != null) {
+                return existing;
+            }
+            evictIfFull();
+            return rn;
+        }
+
+        /** Move an entry that has been used again into the protected segment */
+        private void promote(String key, RN rn) {
+            if (protectedCapacity == 0) {
+                probation.put(key, rn);
+                return;
+            }
+            protectedSegment.put(key, rn);
+            if (protectedSegment.size() > protectedCapacity) {
+                Map.Entry<String, RN> demoted = removeEldest(protectedSegment);
+                probation.put(demoted.getKey(), demoted.getValue());
+            }
+        }
+
+        /** Evict the least recently used probationary entry if the shard is over capacity */
+        private void evictIfFull() {
+            if (probation.size() + protectedSegment.size() > capacity) {
+                removeEldest(probation);
+                evictions.increment();
+            }
+        }
+
+        private Map.Entry<String, RN> removeEldest(LinkedHashMap<String, RN> segment) {
+            Iterator<Map.Entry<String, RN>> eldest = segment.entrySet().iterator();
+            Map.Entry<String, RN> entry = eldest.next();
+            eldest.remove();
+            return entry;
+        }
+
+        synchronized int size() {
+            return probation.size() + protectedSegment.size();
+        }
+
+        synchronized void clear() {
+            probation.clear();
+            protectedSegment.clear();
+        }
+    }
+}
@@ -0,0 +1,368 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.lookup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import uk.gov.food.rn.PackedRN;
+import uk.gov.food.rn.RN;
+import uk.gov.food.rn.Representation;
+
+/**
+ * In-memory index of a population of RNs for near-match queries: given a partly
+ * wrong encoded RN, find the RNs within a small Hamming or edit distance of it.
+ *
+ * The index uses the pigeonhole principle rather than a metric tree. The 18
+ * digits of an encoded RN form three groups of six (as printed, see
+ * {@link Representation#GROUP_SIZE}), and at most two errors can touch at most
+ * two of the groups, so every match within distance two shares at least one
+ * whole group with the query. For each group the index holds the entries sorted
+ * by that group's value, and a query looks each of its groups up by binary
+ * search and checks the distance of just the entries found. For edit distance
+ * the query's groups are also looked up shifted by up to the distance, to allow
+ * for inserted and dropped characters.
+ *
+ * Each entry takes 26 bytes: its three group values, its position in the
+ * three sorted orders and its authority, which restricted queries filter on.
+ * The index is immutable once built, and may be queried from many threads.
+ */
+public class RNNeighbourIndex {
+    /** Largest distance supported; beyond this a match need not share a whole group with the query */
+    public static final int MAX_DISTANCE = 2;
+
+    /** Queries may be restricted to this authority to search every authority */
+    public static final int ANY_AUTHORITY = -1;
+
+    /** Ways of measuring the distance between encoded forms */
+    public enum Metric {
+        /** The number of positions at which the digits differ; the query must have the full number of digits */
+        HAMMING,
+        /** The number of substitutions, insertions and deletions that turn one into the other */
+        EDIT
+    }
+
+    private static final int GROUP = Representation.GROUP_SIZE;
+    private static final int LENGTH = PackedRN.DEFAULT_LENGTH;
+    private static final int GROUPS = LENGTH / GROUP;
+    private static final int BASE = Representation.ALPHABET.length();
+
+    /** Entries built by each parallel task */
+    private static final int CHUNK_SIZE = 4096;
+
+    private final int size;
+
+    /** groups[i * GROUPS + g] is the value of group g of entry i, as a six digit base 33 number */
+    private final int[] groups;
+
+    /** The authority of each entry */
+    private final short[] authorities;
+
+    /** orders[g] lists the entries sorted by the value of group g */
+    private final int[][] orders;
+
+    /** A match found by a query */
+    public static final class Match {
+        private final long high;
+        private final long low;
+        private final int distance;
+
+        Match(long high, long low, int distance) {
+            this.high = high;
+            this.low = low;
+            this.distance = distance;
+        }
+
+        /** @return The high half of the packed form of the matching RN */
+        public long getHigh() {
+            return high;
+        }
+
+        /** @return The low half of the packed form of the matching RN */
+        public long getLow() {
+            return low;
+        }
+
+        /** @return The matching RN */
+        public RN toRN() {
+            return PackedRN.toRN(high, low);
+        }
+
+        /** @return The grouped encoded form of the matching RN */
+        public String getEncodedForm() {
+            return PackedRN.encode(high, low);
+        }
+
+        /** @return The distance from the query */
+        public int getDistance() {
+            return distance;
+        }
+
+        @Override
+        public String toString() {
+            return getEncodedForm() + " (distance " + distance + ")";
+        }
+    }
+
+    /** Nearest first, then in packed order */
+    static final Comparator<Match> RANKING =
+        Comparator.comparingInt(Match::getDistance)
+                  .thenComparing((a, b) -> PackedRN.compare(a.high, a.low, b.high, b.low));
+
+    /**
+     * Build an index over packed RNs held in parallel arrays of high and low halves.
+     */
+    public RNNeighbourIndex(long[] high, long[] low) {
+        if (high.length != low.length) {
+            throw new IllegalArgumentException(String.format("Mismatched key arrays: %d high and %d low", high.length, low.length));
+        }
+        size = high.length;
+        groups = new int[size * GROUPS];
+        authorities = new short[size];
+
+        int chunks = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        IntStream.range(0, chunks).parallel().forEach(chunk -> {
+            char[] chars = new char[PackedRN.ENCODED_LENGTH];
+            int[] digits = new int[LENGTH];
+            for (int i = chunk * CHUNK_SIZE, end = Math.min(size, i + CHUNK_SIZE); i < end; i++) {
+                PackedRN.encode(high[i], low[i], chars, 0);
+                digitsOf(chars, digits);
+                for (int g = 0; g < GROUPS; g++) {
+                    groups[i * GROUPS + g] = groupValue(digits, g * GROUP);
+                }
+                authorities[i] = (short) PackedRN.authority(high[i]);
+            }
+        });
+
+        orders = new int[GROUPS][];
+        for (int g = 0; g < GROUPS; g++) {
+            // Sort (value, entry) pairs packed into longs, then keep the entries
+            long[] keyed = new long[size];
+            for (int i = 0; i < size; i++) {
+                keyed[i] = ((long) groups[i * GROUPS + g] << 32) | i;
+            }
+            Arrays.parallelSort(keyed);
+            int[] order = new int[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = (int) keyed[i];
+            }
+            orders[g] = order;
+        }
+    }
+
+    /** @return An index over a collection of RNs */
+    public static RNNeighbourIndex of(Collection<RN> rns) {
+        long[] high = new long[rns.size()];
+        long[] low = new long[rns.size()];
+        int i = 0;
+        for (RN rn : rns) {
+            high[i] = PackedRN.high(rn);
+            low[i++] = PackedRN.low(rn);
+        }
+        return new RNNeighbourIndex(high, low);
+    }
+
+    /** @return The number of RNs in the index */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Find the indexed RNs nearest to a query, of any authority.
+     *
+     * @see #search(CharSequence, Metric, int, int, int)
+     */
+    public List<Match> search(CharSequence query, Metric metric, int maxDistance, int limit) {
+        return search(query, metric, maxDistance, ANY_AUTHORITY, limit);
+    }
+
+    /**
+     * Find the indexed RNs nearest to a query.
+     *
+     * The query may be grouped with '-' or ASCII whitespace, as {@link Representation} allows.
+     * Other characters outside the alphabet match nothing, so each counts as one substitution.
+     *
+     * @param query       A partly wrong encoded RN
+     * @param metric      How to measure distance
+     * @param maxDistance The greatest distance to report, no more than {@link #MAX_DISTANCE}
+     * @param authority   The authority that issued the RN, or {@link #ANY_AUTHORITY}
+     * @param limit       The largest number of matches to return
+     * @return The matches, nearest first
+     */
+    public List<Match> search(CharSequence query, Metric metric, int maxDistance, int authority, int limit) {
+        if (maxDistance < 0 || maxDistance > MAX_DISTANCE) {
+            throw new IllegalArgumentException(String.format("Distance %d is outside [0, %d]", maxDistance, MAX_DISTANCE));
+        }
+        int[] digits = new int[LENGTH + MAX_DISTANCE + 1];
+        int length = parse(query, query.length(), digits);
+        if (length < 0 || (metric == Metric.HAMMING && length != LENGTH)
+                || Math.abs(length - LENGTH) > maxDistance) {
+            return Collections.emptyList();
+        }
+
+        int maxShift = metric == Metric.EDIT ? maxDistance : 0;
+        Set<Integer> seen = new HashSet<>();
+        List<Match> matches = new ArrayList<>();
+        int[] candidate = new int[LENGTH];
+        long[] packed = new long[2];
+        char[] chars = new char[LENGTH];
+
+        for (int g = 0; g < GROUPS; g++) {
+            for (int shift = -maxShift; shift <= maxShift; shift++) {
+                int start = g * GROUP + shift;
+                if (start < 0 || start + GROUP > length) {
+                    continue;
+                }
+                int value = groupValue(digits, start);
+                if (value < 0) {
+                    continue;
+                }
+
+                int[] order = orders[g];
+                for (int k = lowerBound(g, value); k < size && groups[order[k] * GROUPS + g] == value; k++) {
+                    int entry = order[k];
+                    if ((authority != ANY_AUTHORITY && authorities[entry] != authority) || !seen.add(entry)) {
+                        continue;
+                    }
+                    expand(entry, candidate);
+                    int distance = metric == Metric.HAMMING ?
+                            hamming(digits, candidate, maxDistance) :
+                            edit(digits, length, candidate, maxDistance);
+                    if (distance <= maxDistance) {
+                        for (int j = 0; j < LENGTH; j++) {
+                            chars[j] = Representation.ALPHABET.charAt(candidate[j]);
+                        }
+                        PackedRN.probe(new String(chars), packed, 0);
+                        matches.add(new Match(packed[0], packed[1], distance));
+                    }
+                }
+            }
+        }
+
+        Collections.sort(matches, RANKING);
+        return matches.size() > limit ? new ArrayList<>(matches.subList(0, limit)) : matches;
+    }
+
+    /** @return The first position in the order for group g whose value is not less than the given value */
+    private int lowerBound(int g, int value) {
+        int[] order = orders[g];
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (groups[order[mid] * GROUPS + g] < value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Unpack the digits of an entry */
+    private void expand(int entry, int[] digits) {
+        for (int g = 0; g < GROUPS; g++) {
+            int value = groups[entry * GROUPS + g];
+            for (int j = g * GROUP + GROUP - 1; j >= g * GROUP; j--) {
+                digits[j] = value % BASE;
+                value /= BASE;
+            }
+        }
+    }
+
+    /**
+     * Read the digit values of an encoded form, skipping the separators that {@link Representation}
+     * ignores; other characters outside the alphabet are given the value -1.
+     *
+     * @return The number of digits, or -1 if there are too many for the digits array
+     */
+    private static int parse(CharSequence encoded, int n, int[] digits) {
+        int count = 0;
+        for (int k = 0; k < n; k++) {
+            char c = encoded.charAt(k);
+            if (PackedRN.isSeparator(c)) {
+                continue;
+            }
+            if (count == digits.length) {
+                return -1;
+            }
+            digits[count++] = PackedRN.digitValue(c);
+        }
+        return count;
+    }
+
+    /** Read the digit values of a grouped encoded form written by {@link PackedRN#encode(long, long, char[], int)} */
+    private static void digitsOf(char[] encoded, int[] digits) {
+        int count = 0;
+        for (char c : encoded) {
+            if (c != '-') {
+                digits[count++] = PackedRN.digitValue(c);
+            }
+        }
+    }
+
+    /** @return The value of the six digits from start, or -1 if any is outside the alphabet */
+    private static int groupValue(int[] digits, int start) {
+        int value = 0;
+        for (int j = start; j < start + GROUP; j++) {
+            if (digits[j] < 0) {
+                return -1;
+            }
+            value = value * BASE + digits[j];
+        }
+        return value;
+    }
+
+    /** @return The Hamming distance, or any value above max once it is exceeded */
+    private static int hamming(int[] a, int[] b, int max) {
+        int distance = 0;
+        for (int j = 0; j < LENGTH && distance <= max; j++) {
+            if (a[j] != b[j]) {
+                distance++;
+            }
+        }
+        return distance;
+    }
+
+    /**
+     * @return The Levenshtein distance between a[0, length) and b, or any value above max
+     *         once it is exceeded; only the diagonal band of width 2.max + 1 is computed
+     */
+    private static int edit(int[] a, int length, int[] b, int max) {
+        int infinity = max + 1;
+        int[] previous = new int[LENGTH + 1];
+        int[] current = new int[LENGTH + 1];
+        for (int j = 0; j <= LENGTH; j++) {
+            previous[j] = j <= max ? j : infinity;
+        }
+        for (int i = 1; i <= length; i++) {
+            Arrays.fill(current, infinity);
+            if (i <= max) {
+                current[0] = i;
+            }
+            int rowMin = current[0];
+            for (int j = Math.max(1, i - max); j <= Math.min(LENGTH, i + max); j++) {
+                int cost = a[i - 1] == b[j - 1] ? 0 : 1;
+                int d = Math.min(previous[j - 1] + cost, Math.min(previous[j], current[j - 1]) + 1);
+                current[j] = Math.min(d, infinity);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > max) {
+                return infinity;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[LENGTH];
+    }
+}
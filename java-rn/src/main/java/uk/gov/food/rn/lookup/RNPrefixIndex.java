@@ -0,0 +1,331 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.lookup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import uk.gov.food.rn.PackedRN;
+import uk.gov.food.rn.RN;
+import uk.gov.food.rn.Representation;
+import uk.gov.food.rn.collection.RNSort;
+
+/**
+ * Compact in-memory index of encoded RNs for prefix (autocomplete) queries.
+ *
+ * An encoded RN is 18 base 33 digits, so it is held as two longs: the values
+ * of its first nine and last nine digits. Sorting these pairs sorts the encoded
+ * forms in alphabet order (that of {@link Representation#ALPHABET}, in which the
+ * digits follow the letters), and the RNs whose encoded forms start with a given
+ * prefix then occupy a contiguous range, found by two binary searches. Each RN
+ * takes 16 bytes.
+ *
+ * A {@link Cursor} narrows its range as characters are typed and widens it
+ * again as they are deleted, and pages through its matches. Hyphens and ASCII
+ * whitespace in prefixes are ignored, and lower case letters are taken as
+ * upper case.
+ *
+ * The index is built and updated in bulk: {@link #addAll(Stream)} sorts the new
+ * RNs and merges them into a new copy of the arrays, which then replaces the
+ * old one. Queries and cursors read an immutable snapshot, so they need no
+ * locks and are never disturbed by updates.
+ */
+public class RNPrefixIndex {
+    private static final int LENGTH = PackedRN.DEFAULT_LENGTH;
+    private static final int HALF = LENGTH / 2;
+    private static final int BASE = Representation.ALPHABET.length();
+
+    /** The index in the grouped encoded form of the first character of the last nine digits */
+    private static final int SPLIT = HALF + HALF / Representation.GROUP_SIZE;
+
+    /** POWERS[k] = 33^k */
+    private static final long[] POWERS = new long[HALF + 1];
+
+    static {
+        POWERS[0] = 1;
+        for (int k = 1; k <= HALF; k++) {
+            POWERS[k] = POWERS[k - 1] * BASE;
+        }
+    }
+
+    /** The sorted, distinct keys of the indexed RNs */
+    private static final class Snapshot {
+        final long[] first;
+        final long[] last;
+
+        Snapshot(long[] first, long[] last) {
+            this.first = first;
+            this.last = last;
+        }
+
+        int size() {
+            return first.length;
+        }
+
+        /** @return The first position in [from, to) whose key is not less than (f, l) */
+        int lowerBound(int from, int to, long f, long l) {
+            while (from < to) {
+                int mid = (from + to) >>> 1;
+                if (first[mid] < f || (first[mid] == f && last[mid] < l)) {
+                    from = mid + 1;
+                } else {
+                    to = mid;
+                }
+            }
+            return from;
+        }
+    }
+
+    private volatile Snapshot snapshot = new Snapshot(new long[0], new long[0]);
+
+    /** @return An index over a stream of RNs */
+    public static RNPrefixIndex of(Stream<RN> rns) {
+        RNPrefixIndex index = new RNPrefixIndex();
+        index.addAll(rns);
+        return index;
+    }
+
+    /** @return The number of RNs in the index */
+    public int size() {
+        return snapshot.size();
+    }
+
+    /**
+     * Add a stream of RNs to the index; RNs already present are ignored.
+     */
+    public void addAll(Stream<RN> rns) {
+        long[] packed = rns.flatMapToLong(rn -> LongStream.of(PackedRN.high(rn), PackedRN.low(rn)))
+                           .toArray();
+        addAll(packed);
+    }
+
+    /**
+     * Add packed RNs, held as consecutive (high, low) pairs, to the index; RNs already present are ignored.
+     */
+    public synchronized void addAll(long[] packed) {
+        int n = packed.length / 2;
+        long[] first = new long[n];
+        long[] last = new long[n];
+        char[] chars = new char[PackedRN.ENCODED_LENGTH];
+        for (int i = 0; i < n; i++) {
+            PackedRN.encode(packed[2 * i], packed[2 * i + 1], chars, 0);
+            first[i] = value(chars, 0, SPLIT);
+            last[i] = value(chars, SPLIT, chars.length);
+        }
+        // Both halves are non-negative, which is all the radix sort of key pairs needs
+        RNSort.parallelSort(first, last);
+
+        Snapshot old = snapshot;
+        long[] mergedFirst = new long[old.size() + n];
+        long[] mergedLast = new long[old.size() + n];
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < old.size() || j < n) {
+            long f;
+            long l;
+            if (j == n || (i < old.size() && compare(old.first[i], old.last[i], first[j], last[j]) <= 0)) {
+                f = old.first[i];
+                l = old.last[i++];
+            } else {
+                f = first[j];
+                l = last[j++];
+            }
+            if (k == 0 || mergedFirst[k - 1] != f || mergedLast[k - 1] != l) {
+                mergedFirst[k] = f;
+                mergedLast[k++] = l;
+            }
+        }
+        snapshot = new Snapshot(Arrays.copyOf(mergedFirst, k), Arrays.copyOf(mergedLast, k));
+    }
+
+    /** @return A cursor over every RN in the index, to be narrowed by typing a prefix */
+    public Cursor cursor() {
+        return new Cursor(snapshot);
+    }
+
+    /** @return A cursor over the RNs whose encoded forms start with the given prefix */
+    public Cursor cursor(CharSequence prefix) {
+        Cursor cursor = cursor();
+        cursor.type(prefix);
+        return cursor;
+    }
+
+    /**
+     * An incremental prefix query. Typing a character narrows the range of matches
+     * with a binary search within the current range; deleting one returns to the
+     * range before it was typed. A cursor reads the snapshot of the index taken when
+     * it was created, and is not safe for use by more than one thread.
+     */
+    public static final class Cursor {
+        private final Snapshot snapshot;
+        private final int[] from = new int[LENGTH + 1];
+        private final int[] to = new int[LENGTH + 1];
+        private final int[] digits = new int[LENGTH];
+        private int length;
+
+        /** Characters typed after a character that matches nothing */
+        private int excess;
+
+        Cursor(Snapshot snapshot) {
+            this.snapshot = snapshot;
+            to[0] = snapshot.size();
+        }
+
+        /**
+         * Type one character of the prefix. Hyphens and ASCII whitespace are ignored; a
+         * character outside the alphabet, or beyond the last digit, matches nothing
+         * until it is deleted.
+         *
+         * @return The number of matches
+         */
+        public int type(char c) {
+            if (PackedRN.isSeparator(c)) {
+                return count();
+            }
+            int d = PackedRN.digitValue(c >= 'a' && c <= 'z' ? (char) (c - 'a' + 'A') : c);
+            if (excess > 0 || d < 0 || length == LENGTH) {
+                excess++;
+                return 0;
+            }
+
+            digits[length++] = d;
+            long[] lower = bound(0);
+            long[] upper = bound(1);
+            int lo = snapshot.lowerBound(from[length - 1], to[length - 1], lower[0], lower[1]);
+            int hi = snapshot.lowerBound(lo, to[length - 1], upper[0], upper[1]);
+            from[length] = lo;
+            to[length] = hi;
+            return count();
+        }
+
+        /**
+         * Type several characters of the prefix.
+         *
+         * @return The number of matches
+         */
+        public int type(CharSequence chars) {
+            for (int k = 0; k < chars.length(); k++) {
+                type(chars.charAt(k));
+            }
+            return count();
+        }
+
+        /**
+         * Delete the last digit typed.
+         *
+         * @return The number of matches
+         */
+        public int delete() {
+            if (excess > 0) {
+                excess--;
+            } else if (length > 0) {
+                length--;
+            }
+            return count();
+        }
+
+        /** @return The number of characters typed, ignoring separators */
+        public int length() {
+            return length + excess;
+        }
+
+        /** @return The number of RNs whose encoded forms start with the prefix */
+        public int count() {
+            return excess > 0 ? 0 : to[length] - from[length];
+        }
+
+        /**
+         * @param offset The number of matches to skip
+         * @param limit  The largest number of matches to return
+         * @return The grouped encoded forms of a page of the matches, in order
+         */
+        public List<String> page(int offset, int limit) {
+            List<String> page = new ArrayList<>();
+            char[] chars = new char[PackedRN.ENCODED_LENGTH];
+            int start = from[length] + Math.max(0, offset);
+            int end = (int) Math.min(from[length] + count(), (long) start + Math.max(0, limit));
+            for (int i = start; i < end; i++) {
+                toChars(snapshot.first[i], snapshot.last[i], chars);
+                page.add(new String(chars));
+            }
+            return page;
+        }
+
+        /**
+         * @return The RNs on a page of the matches, in order
+         * @see #page(int, int)
+         */
+        public List<RN> pageOfRNs(int offset, int limit) {
+            List<RN> rns = new ArrayList<>();
+            long[] packed = new long[2];
+            for (String encoded : page(offset, limit)) {
+                PackedRN.probe(encoded, packed, 0);
+                rns.add(PackedRN.toRN(packed[0], packed[1]));
+            }
+            return rns;
+        }
+
+        /**
+         * @param upper 0 for the smallest key with the typed prefix, 1 for the smallest key after them
+         * @return The key as (first nine digits, last nine digits)
+         */
+        private long[] bound(int upper) {
+            long f = 0;
+            long l = 0;
+            for (int k = 0; k < LENGTH; k++) {
+                int d = k < length ? digits[k] + (k == length - 1 ? upper : 0) : 0;
+                if (k < HALF) {
+                    f = f * BASE + d;
+                } else {
+                    l = l * BASE + d;
+                }
+            }
+            // A carry out of the last digit of the first half moves into the first half
+            if (l >= POWERS[HALF]) {
+                f += l / POWERS[HALF];
+                l %= POWERS[HALF];
+            }
+            return new long[] { f, l };
+        }
+    }
+
+    /** @return The value of the digits in chars[from, to), skipping separators */
+    private static long value(char[] chars, int from, int to) {
+        long v = 0;
+        for (int k = from; k < to; k++) {
+            if (chars[k] != '-') {
+                v = v * BASE + PackedRN.digitValue(chars[k]);
+            }
+        }
+        return v;
+    }
+
+    /** Write the grouped encoded form with the given halves into chars */
+    private static void toChars(long first, long last, char[] chars) {
+        for (int k = LENGTH - 1; k >= 0; k--) {
+            long digit;
+            if (k >= HALF) {
+                digit = last % BASE;
+                last /= BASE;
+            } else {
+                digit = first % BASE;
+                first /= BASE;
+            }
+            chars[k + k / Representation.GROUP_SIZE] = Representation.ALPHABET.charAt((int) digit);
+        }
+        for (int g = 1; g < LENGTH / Representation.GROUP_SIZE; g++) {
+            chars[g * (Representation.GROUP_SIZE + 1) - 1] = '-';
+        }
+    }
+
+    private static int compare(long f1, long l1, long f2, long l2) {
+        int comparison = Long.compare(f1, f2);
+        return comparison != 0 ? comparison : Long.compare(l1, l2);
+    }
+}
@@ -0,0 +1,80 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import uk.gov.food.rn.DecodeCounters;
+
+/**
+ * Publishes the outcomes of decoding RNs through JMX, under {@link #OBJECT_NAME}.
+ * The same figures can be read without JMX from {@link DecodeCounters}.
+ */
+public class DecodeMetrics implements DecodeMetricsMXBean {
+    /** The name under which the metrics are registered */
+    public static final ObjectName OBJECT_NAME = MBeans.objectName("uk.gov.food.rn:type=DecodeMetrics");
+
+    /**
+     * Register the metrics with the platform MBean server, if they are not registered already.
+     *
+     * @throws JMException if the registration fails
+     */
+    public static void register() throws JMException {
+        register(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    /**
+     * Register the metrics with an MBean server, if they are not registered already.
+     *
+     * @throws JMException if the registration fails
+     */
+    public static void register(MBeanServer server) throws JMException {
+        MBeans.register(server, OBJECT_NAME, new DecodeMetrics());
+    }
+
+    /**
+     * Remove the metrics from an MBean server, if they are registered.
+     *
+     * @throws JMException if the removal fails
+     */
+    public static void unregister(MBeanServer server) throws JMException {
+        MBeans.unregister(server, OBJECT_NAME);
+    }
+
+    @Override
+    public DecodeSnapshot getOutcomes() {
+        return DecodeCounters.snapshot();
+    }
+
+    @Override
+    public long getDecoded() {
+        return DecodeCounters.snapshot().getDecoded();
+    }
+
+    @Override
+    public long getRejected() {
+        return DecodeCounters.snapshot().getRejected();
+    }
+
+    @Override
+    public List<RejectedSample> getRejectedSamples() {
+        return DecodeCounters.getRejectedSamples();
+    }
+
+    @Override
+    public void sampleRejected(int capacity, int oneIn) {
+        DecodeCounters.sampleRejected(capacity, oneIn);
+    }
+
+    @Override
+    public void stopSampling() {
+        DecodeCounters.stopSampling();
+    }
+}
@@ -0,0 +1,36 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.metrics;
+
+import java.util.List;
+
+/**
+ * Management interface over the outcomes of decoding encoded RNs, as counted by
+ * {@link uk.gov.food.rn.DecodeCounters}.
+ */
+public interface DecodeMetricsMXBean {
+    /** @return The counts of every outcome, and of RNs decoded by authority */
+    DecodeSnapshot getOutcomes();
+
+    /** @return The number of inputs decoded */
+    long getDecoded();
+
+    /** @return The number of inputs rejected, for any reason */
+    long getRejected();
+
+    /** @return The sampled rejected inputs, oldest first, or none if sampling is off */
+    List<RejectedSample> getRejectedSamples();
+
+    /**
+     * Sample rejected inputs, replacing any earlier samples.
+     *
+     * @param capacity The number of most recent samples kept
+     * @param oneIn    Sample one in this many rejections
+     */
+    void sampleRejected(int capacity, int oneIn);
+
+    /** Stop sampling rejected inputs */
+    void stopSampling();
+}
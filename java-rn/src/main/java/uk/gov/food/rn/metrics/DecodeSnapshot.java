@@ -0,0 +1,108 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import uk.gov.food.rn.PackedRN;
+
+/**
+ * The outcomes of decoding encoded RNs at a moment in time: the number decoded,
+ * the number rejected for each kind of failure, and the number decoded for each
+ * authority.
+ *
+ * @see uk.gov.food.rn.DecodeCounters
+ */
+public final class DecodeSnapshot {
+    private static final String[] REASONS = {
+        "decoded", "illegal character", "too many digits", "bad check digits",
+        "bad decimal form", "bad authority", "bad timestamp"
+    };
+
+    private final long[] outcomes;
+    private final Map<Integer, Long> authorities;
+
+    /**
+     * @param outcomes    The count of each outcome, indexed by {@link PackedRN} status code
+     * @param authorities The number of RNs decoded for each authority seen
+     */
+    public DecodeSnapshot(long[] outcomes, Map<Integer, Long> authorities) {
+        if (outcomes.length != REASONS.length) {
+            throw new IllegalArgumentException("Expected a count for each of " + REASONS.length + " outcomes");
+        }
+        this.outcomes = outcomes.clone();
+        this.authorities = Collections.unmodifiableMap(new TreeMap<>(authorities));
+    }
+
+    /** @return A short description of a {@link PackedRN} status code */
+    public static String describe(int status) {
+        return status >= 0 && status < REASONS.length ? REASONS[status] : "unknown status " + status;
+    }
+
+    /** @return The count of an outcome, given by its {@link PackedRN} status code */
+    public long getOutcome(int status) {
+        return outcomes[status];
+    }
+
+    /** @return The number of inputs decoded */
+    public long getDecoded() {
+        return outcomes[PackedRN.DECODED];
+    }
+
+    /** @return The number of inputs rejected, for any reason */
+    public long getRejected() {
+        long rejected = 0;
+        for (int status = PackedRN.DECODED + 1; status < outcomes.length; status++) {
+            rejected += outcomes[status];
+        }
+        return rejected;
+    }
+
+    /** @return The number of inputs with a character outside the alphabet */
+    public long getIllegalCharacter() {
+        return outcomes[PackedRN.ILLEGAL_CHARACTER];
+    }
+
+    /** @return The number of inputs with too many digits */
+    public long getTooManyDigits() {
+        return outcomes[PackedRN.TOO_MANY_DIGITS];
+    }
+
+    /** @return The number of inputs whose check digits fail */
+    public long getBadCheckDigits() {
+        return outcomes[PackedRN.BAD_CHECK_DIGITS];
+    }
+
+    /** @return The number of inputs whose value is too large for the decimal form */
+    public long getBadDecimalForm() {
+        return outcomes[PackedRN.BAD_DECIMAL_FORM];
+    }
+
+    /** @return The number of inputs with an authority out of range */
+    public long getBadAuthority() {
+        return outcomes[PackedRN.BAD_AUTHORITY];
+    }
+
+    /** @return The number of inputs with a timestamp out of range */
+    public long getBadTimestamp() {
+        return outcomes[PackedRN.BAD_TIMESTAMP];
+    }
+
+    /** @return The number of RNs decoded for each authority seen, in authority order */
+    public Map<Integer, Long> getAuthorities() {
+        return authorities;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder("RN decoding:");
+        for (int status = 0; status < outcomes.length; status++) {
+            buf.append(String.format(" %s=%d", describe(status), outcomes[status]));
+        }
+        return buf.toString();
+    }
+}
@@ -0,0 +1,121 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.metrics;
+
+import java.util.Arrays;
+
+/**
+ * The issuance metrics of one {@link uk.gov.food.rn.RNFactory} at a moment in time.
+ *
+ * Counts accumulate from when the factory was created. The wait histogram
+ * counts calls that waited for the clock by how long they waited: bucket 0
+ * holds waits under 1 microsecond, bucket k waits of [2^(k-1), 2^k) microseconds, and the last
+ * bucket every longer wait.
+ */
+public final class FactorySnapshot {
+    /** The number of buckets in the wait histogram */
+    public static final int WAIT_BUCKETS = 16;
+
+    private final int authority;
+    private final int instance;
+    private final int type;
+    private final long issued;
+    private final long waits;
+    private final long waitNanos;
+    private final long contended;
+    private final long clockRegressions;
+    private final long guardSkips;
+    private final long[] waitHistogram;
+
+    public FactorySnapshot(int authority, int instance, int type, long issued, long waits, long waitNanos,
+                           long contended, long clockRegressions, long guardSkips, long[] waitHistogram) {
+        if (waitHistogram.length != WAIT_BUCKETS) {
+            throw new IllegalArgumentException("A wait histogram has " + WAIT_BUCKETS + " buckets");
+        }
+        this.authority = authority;
+        this.instance = instance;
+        this.type = type;
+        this.issued = issued;
+        this.waits = waits;
+        this.waitNanos = waitNanos;
+        this.contended = contended;
+        this.clockRegressions = clockRegressions;
+        this.guardSkips = guardSkips;
+        this.waitHistogram = waitHistogram.clone();
+    }
+
+    /** @return The histogram bucket for a wait of the given length */
+    public static int bucketOf(long nanos) {
+        long micros = nanos / 1000;
+        return Math.min(WAIT_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(Math.max(0, micros)));
+    }
+
+    /** @return The exclusive upper bound in microseconds of the waits in a bucket, or Long.MAX_VALUE for the last */
+    public static long bucketLimitMicros(int bucket) {
+        return bucket < WAIT_BUCKETS - 1 ? 1L << bucket : Long.MAX_VALUE;
+    }
+
+    /** @return The authority identifier of the factory */
+    public int getAuthority() {
+        return authority;
+    }
+
+    /** @return The instance identifier of the factory */
+    public int getInstance() {
+        return instance;
+    }
+
+    /** @return The type identifier of the factory */
+    public int getType() {
+        return type;
+    }
+
+    /** @return The number of RNs issued */
+    public long getIssued() {
+        return issued;
+    }
+
+    /** @return The number of calls that waited for the clock to pass the time of the previous RN */
+    public long getWaits() {
+        return waits;
+    }
+
+    /** @return The total time spent waiting for the clock, in nanoseconds */
+    public long getWaitNanos() {
+        return waitNanos;
+    }
+
+    /** @return The mean time spent by a call that waited, in nanoseconds, or 0 if none did */
+    public long getMeanWaitNanos() {
+        return waits == 0 ? 0 : waitNanos / waits;
+    }
+
+    /** @return The number of calls that found another thread issuing from the factory */
+    public long getContended() {
+        return contended;
+    }
+
+    /** @return The number of times the clock read earlier than the time of the previous RN */
+    public long getClockRegressions() {
+        return clockRegressions;
+    }
+
+    /** @return The number of times passed over because the duplicate guard may already hold them */
+    public long getGuardSkips() {
+        return guardSkips;
+    }
+
+    /** @return The number of calls that waited, by wait length */
+    public long[] getWaitHistogram() {
+        return waitHistogram.clone();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RNFactory(%d, %d, %d): issued=%d waits=%d meanWait=%dns contended=%d clockRegressions=%d guardSkips=%d %s",
+                             authority, instance, type, issued, waits, getMeanWaitNanos(), contended,
+                             clockRegressions, guardSkips, Arrays.toString(waitHistogram));
+    }
+}
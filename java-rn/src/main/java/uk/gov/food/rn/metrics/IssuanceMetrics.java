@@ -0,0 +1,94 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import uk.gov.food.rn.RNFactory;
+
+/**
+ * Publishes the issuance metrics of {@link RNFactory} through JMX, under
+ * {@link #OBJECT_NAME}. Every attribute is read from the factories when it is
+ * requested; nothing is collected in the background.
+ *
+ * The same figures can be read without JMX from {@link RNFactory#getMetrics()}
+ * and {@link RNFactory#getRegistryMetrics()}.
+ */
+public class IssuanceMetrics implements IssuanceMetricsMXBean {
+    /** The name under which the metrics are registered */
+    public static final ObjectName OBJECT_NAME = MBeans.objectName("uk.gov.food.rn:type=IssuanceMetrics");
+
+    /**
+     * Register the metrics with the platform MBean server, if they are not registered already.
+     *
+     * @throws JMException if the registration fails
+     */
+    public static void register() throws JMException {
+        register(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    /**
+     * Register the metrics with an MBean server, if they are not registered already.
+     *
+     * @throws JMException if the registration fails
+     */
+    public static void register(MBeanServer server) throws JMException {
+        MBeans.register(server, OBJECT_NAME, new IssuanceMetrics());
+    }
+
+    /**
+     * Remove the metrics from an MBean server, if they are registered.
+     *
+     * @throws JMException if the removal fails
+     */
+    public static void unregister(MBeanServer server) throws JMException {
+        MBeans.unregister(server, OBJECT_NAME);
+    }
+
+    @Override
+    public RegistrySnapshot getRegistry() {
+        return RNFactory.getRegistryMetrics();
+    }
+
+    @Override
+    public List<FactorySnapshot> getFactories() {
+        return RNFactory.getFactoryMetrics();
+    }
+
+    @Override
+    public long getIssued() {
+        return total(FactorySnapshot::getIssued);
+    }
+
+    @Override
+    public long getWaits() {
+        return total(FactorySnapshot::getWaits);
+    }
+
+    @Override
+    public long getContended() {
+        return total(FactorySnapshot::getContended);
+    }
+
+    @Override
+    public long getClockRegressions() {
+        return total(FactorySnapshot::getClockRegressions);
+    }
+
+    @Override
+    public long getGuardSkips() {
+        return total(FactorySnapshot::getGuardSkips);
+    }
+
+    private static long total(ToLongFunction<FactorySnapshot> counter) {
+        return RNFactory.getFactoryMetrics().stream().mapToLong(counter).sum();
+    }
+}
@@ -0,0 +1,34 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.metrics;
+
+import java.util.List;
+
+/**
+ * Management interface over the issuance metrics of every registered
+ * {@link uk.gov.food.rn.RNFactory}. Snapshots appear as composite data.
+ */
+public interface IssuanceMetricsMXBean {
+    /** @return The metrics of the registry of factories */
+    RegistrySnapshot getRegistry();
+
+    /** @return The metrics of each registered factory */
+    List<FactorySnapshot> getFactories();
+
+    /** @return The number of RNs issued by the registered factories */
+    long getIssued();
+
+    /** @return The number of calls to the registered factories that waited for the clock */
+    long getWaits();
+
+    /** @return The number of calls to the registered factories that found another thread issuing */
+    long getContended();
+
+    /** @return The number of times a registered factory read the clock earlier than its previous RN */
+    long getClockRegressions();
+
+    /** @return The number of times a registered factory passed over a time held by its duplicate guard */
+    long getGuardSkips();
+}
@@ -0,0 +1,59 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.metrics;
+
+/**
+ * The metrics of the registry of {@link uk.gov.food.rn.RNFactory} instances at a
+ * moment in time, counted from when the class was loaded.
+ */
+public final class RegistrySnapshot {
+    private final int size;
+    private final int capacity;
+    private final long lookups;
+    private final long created;
+    private final long evictions;
+
+    public RegistrySnapshot(int size, int capacity, long lookups, long created, long evictions) {
+        this.size = size;
+        this.capacity = capacity;
+        this.lookups = lookups;
+        this.created = created;
+        this.evictions = evictions;
+    }
+
+    /** @return The number of factories registered */
+    public int getSize() {
+        return size;
+    }
+
+    /** @return The largest number of factories registered before the least recently used is evicted */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** @return The number of calls to getFactory */
+    public long getLookups() {
+        return lookups;
+    }
+
+    /** @return The number of factories created and registered */
+    public long getCreated() {
+        return created;
+    }
+
+    /**
+     * @return The number of factories evicted to make room for others. A factory that is
+     * evicted and then looked up again is recreated, forgetting the time of its last RN.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RNFactory registry: size=%d/%d lookups=%d created=%d evictions=%d",
+                             size, capacity, lookups, created, evictions);
+    }
+}
@@ -0,0 +1,49 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.metrics;
+
+import java.time.Instant;
+
+/**
+ * An input rejected by an RN decoder, kept by {@link uk.gov.food.rn.DecodeCounters}
+ * when sampling is on. Long inputs are truncated to
+ * {@link uk.gov.food.rn.DecodeCounters#MAX_SAMPLE_LENGTH} characters.
+ */
+public final class RejectedSample {
+    private final String input;
+    private final int status;
+    private final long epochMilli;
+
+    public RejectedSample(String input, int status, long epochMilli) {
+        this.input = input;
+        this.status = status;
+        this.epochMilli = epochMilli;
+    }
+
+    /** @return The input, possibly truncated */
+    public String getInput() {
+        return input;
+    }
+
+    /** @return The {@link uk.gov.food.rn.PackedRN} status code of the failure */
+    public int getStatus() {
+        return status;
+    }
+
+    /** @return A short description of the failure */
+    public String getReason() {
+        return DecodeSnapshot.describe(status);
+    }
+
+    /** @return When the input was rejected, in milliseconds since the epoch */
+    public long getEpochMilli() {
+        return epochMilli;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s '%s': %s", Instant.ofEpochMilli(epochMilli), input, getReason());
+    }
+}
@@ -0,0 +1,37 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Decoding a chunk of a batch of encoded RNs into columns.
+ */
+@Name("uk.gov.food.rn.BatchDecode")
+@Label("RN Batch Decode")
+@Category({ "FSA", "Reference Numbers" })
+@Description("Decoding a chunk of a batch of encoded RNs into columns")
+@StackTrace(false)
+final class BatchDecodeEvent extends Event {
+    @Label("Batch Size")
+    int batchSize;
+
+    @Label("From")
+    @Description("The first entry in the chunk")
+    int from;
+
+    @Label("To")
+    @Description("The entry after the last in the chunk")
+    int to;
+
+    @Label("Decoded")
+    @Description("The number of entries in the chunk that decoded")
+    int decoded;
+}
@@ -0,0 +1,40 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timestamp;
+
+/**
+ * An RNFactory reading its clock as earlier than its previous RN.
+ */
+@Name("uk.gov.food.rn.ClockRegression")
+@Label("RN Clock Regression")
+@Category({ "FSA", "Reference Numbers" })
+@Description("An RNFactory reading its clock as earlier than the time of its previous RN")
+@StackTrace(false)
+final class ClockRegressionEvent extends Event {
+    @Label("Authority")
+    int authority;
+
+    @Label("Instance")
+    int instance;
+
+    @Label("Type")
+    int type;
+
+    @Label("Previous RN")
+    @Timestamp(Timestamp.MILLISECONDS_SINCE_EPOCH)
+    long previousMillis;
+
+    @Label("Clock")
+    @Timestamp(Timestamp.MILLISECONDS_SINCE_EPOCH)
+    long clockMillis;
+}
@@ -0,0 +1,30 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * Decoding an encoded RN into an object.
+ */
+@Name("uk.gov.food.rn.Decode")
+@Label("RN Decode")
+@Category({ "FSA", "Reference Numbers" })
+@Description("Decoding an encoded RN into an object, through Representation")
+@Threshold("1 ms")
+final class DecodeEvent extends Event {
+    @Label("Input")
+    @Description("The encoded RN, truncated to 64 characters")
+    String input;
+
+    @Label("Status")
+    @Description("The PackedRN status code of the outcome, 0 if the RN decoded")
+    int status;
+}
@@ -0,0 +1,103 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.jfr;
+
+import jdk.jfr.EventType;
+
+/**
+ * Creates and commits the events. {@link RNEvents} loads this class by name,
+ * and only once JFR is known to be available.
+ */
+final class Emitter implements EventSink {
+    /** Longest part of an input kept in a decode event */
+    static final int MAX_INPUT_LENGTH = 64;
+
+    private static final EventType FACTORY_WAIT = EventType.getEventType(FactoryWaitEvent.class);
+    private static final EventType CLOCK_REGRESSION = EventType.getEventType(ClockRegressionEvent.class);
+    private static final EventType DECODE = EventType.getEventType(DecodeEvent.class);
+    private static final EventType BATCH_DECODE = EventType.getEventType(BatchDecodeEvent.class);
+
+    Emitter() {
+    }
+
+    @Override
+    public Object beginFactoryWait() {
+        if (!FACTORY_WAIT.isEnabled()) {
+            return null;
+        }
+        FactoryWaitEvent event = new FactoryWaitEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endFactoryWait(Object started, int authority, int instance, int type) {
+        FactoryWaitEvent event = (FactoryWaitEvent) started;
+        event.end();
+        if (event.shouldCommit()) {
+            event.authority = authority;
+            event.instance = instance;
+            event.type = type;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void clockRegression(int authority, int instance, int type, long previousMillis, long clockMillis) {
+        if (CLOCK_REGRESSION.isEnabled()) {
+            ClockRegressionEvent event = new ClockRegressionEvent();
+            event.authority = authority;
+            event.instance = instance;
+            event.type = type;
+            event.previousMillis = previousMillis;
+            event.clockMillis = clockMillis;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginDecode() {
+        if (!DECODE.isEnabled()) {
+            return null;
+        }
+        DecodeEvent event = new DecodeEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endDecode(Object started, CharSequence input, int status) {
+        DecodeEvent event = (DecodeEvent) started;
+        event.end();
+        if (event.shouldCommit()) {
+            event.input = input.subSequence(0, Math.min(input.length(), MAX_INPUT_LENGTH)).toString();
+            event.status = status;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginBatchDecode() {
+        if (!BATCH_DECODE.isEnabled()) {
+            return null;
+        }
+        BatchDecodeEvent event = new BatchDecodeEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endBatchDecode(Object started, int batchSize, int from, int to, int decoded) {
+        BatchDecodeEvent event = (BatchDecodeEvent) started;
+        event.end();
+        if (event.shouldCommit()) {
+            event.batchSize = batchSize;
+            event.from = from;
+            event.to = to;
+            event.decoded = decoded;
+            event.commit();
+        }
+    }
+}
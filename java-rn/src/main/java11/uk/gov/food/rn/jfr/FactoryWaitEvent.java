@@ -0,0 +1,33 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * An RNFactory waiting for its clock to pass the time of its previous RN.
+ */
+@Name("uk.gov.food.rn.FactoryWait")
+@Label("RN Factory Wait")
+@Category({ "FSA", "Reference Numbers" })
+@Description("An RNFactory waiting for its clock to pass the time of its previous RN")
+@Threshold("2 ms")
+@StackTrace(false)
+final class FactoryWaitEvent extends Event {
+    @Label("Authority")
+    int authority;
+
+    @Label("Instance")
+    int instance;
+
+    @Label("Type")
+    int type;
+}
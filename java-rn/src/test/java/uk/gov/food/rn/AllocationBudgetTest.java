@@ -0,0 +1,122 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.function.IntFunction;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Allocation budgets for the hot paths, so that a change, or an upgraded
+ * dependency, that multiplies the garbage made per call fails the build.
+ *
+ * Each path is warmed up, then the bytes allocated by this thread over a run
+ * of calls are measured with {@link com.sun.management.ThreadMXBean}, and the
+ * least per call over a few runs is compared with the budget. Budgets are
+ * roughly twice what was measured when they were set, on a 64-bit JVM with
+ * compressed oops; raise one only with a reason. Paths that should allocate
+ * nothing get a few bytes per call, to allow for the odd allocation by the JIT
+ * or the test itself.
+ */
+public class AllocationBudgetTest {
+    /** Measured 6.5KB */
+    private static final long ENCODE_BUDGET = 12_000;
+    /** Measured 120B, the String and its char array */
+    private static final long PACKED_ENCODE_BUDGET = 256;
+    private static final long ZERO_BUDGET = 8;
+    /** Measured 15.5KB */
+    private static final long DECODE_BUDGET = 32_000;
+    /** Measured 32B, the long array */
+    private static final long VALIDATE_BUDGET = 64;
+    /** Measured 2.2KB, including whatever the clock and the pause between RNs allocate */
+    private static final long GENERATE_BUDGET = 4_096;
+
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 3;
+
+    private static Object sink;
+
+    private com.sun.management.ThreadMXBean threads;
+    private RN rn;
+    private String encoded;
+    private long high;
+    private long low;
+
+    @Before
+    public void setUp() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue("Thread allocation accounting is not available",
+                   bean instanceof com.sun.management.ThreadMXBean
+                   && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported());
+        threads = (com.sun.management.ThreadMXBean) bean;
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        rn = new RN(new Authority(1234), new Instance(5), new Type(6),
+                    ZonedDateTime.of(2020, 1, 2, 3, 4, 5, 678_000_000, ZoneOffset.UTC), new Version(0));
+        encoded = rn.getEncodedForm();
+        high = PackedRN.high(rn);
+        low = PackedRN.low(rn);
+    }
+
+    @Test
+    public void encodingShouldStayWithinBudget() {
+        assertWithinBudget("Representation.getEncodedForm", ENCODE_BUDGET, 10_000, i -> rn.getEncodedForm());
+        assertWithinBudget("PackedRN.encode", PACKED_ENCODE_BUDGET, 10_000, i -> PackedRN.encode(high, low));
+
+        char[] chars = new char[PackedRN.ENCODED_LENGTH];
+        assertWithinBudget("PackedRN.encode into a buffer", ZERO_BUDGET, 10_000,
+                           i -> PackedRN.encode(high, low, chars, 0));
+    }
+
+    @Test
+    public void decodingShouldStayWithinBudget() {
+        assertWithinBudget("new RN(String)", DECODE_BUDGET, 10_000, i -> new RN(encoded));
+
+        long[] packed = new long[2];
+        assertWithinBudget("PackedRN.decode", ZERO_BUDGET, 10_000, i -> PackedRN.decode(encoded, packed, 0));
+    }
+
+    @Test
+    public void validationShouldStayWithinBudget() {
+        assertWithinBudget("PackedRN.isValid", VALIDATE_BUDGET, 10_000, i -> PackedRN.isValid(encoded));
+    }
+
+    @Test
+    public void generationShouldStayWithinBudget() {
+        // A factory issues at most one RN per millisecond, so keep the runs short
+        RNFactory factory = RNFactory.getFactory(new Authority(9876), new Instance(54), new Type(321));
+        assertWithinBudget("RNFactory.generateReferenceNumber", GENERATE_BUDGET, 100,
+                           i -> factory.generateReferenceNumber());
+    }
+
+    /** Fail if the least bytes allocated per call, over several runs of n calls, exceeds the budget */
+    private void assertWithinBudget(String name, long budget, int n, IntFunction<Object> call) {
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            bytesPerCall(n, call);
+        }
+        long least = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            least = Math.min(least, bytesPerCall(n, call));
+        }
+        assertTrue(String.format("%s allocated %d bytes per call, over its budget of %d", name, least, budget),
+                   least <= budget);
+    }
+
+    private long bytesPerCall(int n, IntFunction<Object> call) {
+        long id = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(id);
+        for (int i = 0; i < n; i++) {
+            sink = call.apply(i);
+        }
+        return (threads.getThreadAllocatedBytes(id) - before) / n;
+    }
+}
@@ -90,4 +90,13 @@ public class AuthorityTest {
             fail("should not raise");
         }
     }
+
+    @Test
+    public void shouldBeEqualAsAnObject() {
+        Object same = new Authority(1001);
+        assertEquals(new Authority(1001), same);
+        assertEquals(new Authority(1001).hashCode(), same.hashCode());
+        assertNotEquals(new Authority(1002), same);
+        assertNotEquals(new Authority(1001), null);
+    }
 }
@@ -0,0 +1,133 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Unit tests on {@link BinaryForm}
+ */
+public class BinaryFormTest {
+
+    @Test
+    public void itShouldWriteTheDecimalValueInTenBytes() {
+        RN rn = fixture();
+        byte[] bytes = BinaryForm.toBytes(rn);
+
+        assertEquals(BinaryForm.BYTES, bytes.length);
+        assertEquals(rn.getValue(), new BigInteger(1, bytes));
+    }
+
+    @Test
+    public void itShouldRoundTripAnRN() {
+        RN rn = fixture();
+        RN rn1 = BinaryForm.fromBytes(BinaryForm.toBytes(rn));
+
+        assertEquals(rn, rn1);
+        assertEquals(rn.getValue(), rn1.getValue());
+        assertEquals(rn.getEncodedForm(), rn1.getEncodedForm());
+    }
+
+    @Test
+    public void itShouldIgnoreTheBufferByteOrder() {
+        RN rn = fixture();
+        ByteBuffer buf = ByteBuffer.allocate(BinaryForm.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        BinaryForm.write(rn, buf);
+
+        assertArrayEquals(BinaryForm.toBytes(rn), buf.array());
+        buf.flip();
+        assertEquals(rn, BinaryForm.read(buf));
+    }
+
+    @Test
+    public void itShouldRoundTripThroughDataStreams() throws IOException {
+        RN rn = fixture();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryForm.write(rn, new DataOutputStream(bytes));
+
+        assertEquals(BinaryForm.BYTES, bytes.size());
+        assertEquals(rn, BinaryForm.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+    }
+
+    @Test
+    public void itShouldSortInTheSameOrderAsTheDecimalValue() {
+        Random random = new Random(33);
+        for (int n = 0; n < 1000; n++) {
+            RN a = PackedRNTest.randomRN(random);
+            RN b = PackedRNTest.randomRN(random);
+
+            assertEquals(Integer.signum(a.getValue().compareTo(b.getValue())),
+                         Integer.signum(compareUnsigned(BinaryForm.toBytes(a), BinaryForm.toBytes(b))));
+        }
+    }
+
+    @Test
+    public void itShouldRoundTripArrays() {
+        Random random = new Random(1089);
+        RN[] rns = new RN[100];
+        long[] packed = new long[rns.length * 2];
+        for (int i = 0; i < rns.length; i++) {
+            rns[i] = PackedRNTest.randomRN(random);
+            packed[2 * i] = PackedRN.high(rns[i]);
+            packed[2 * i + 1] = PackedRN.low(rns[i]);
+        }
+
+        byte[] bytes = BinaryForm.toBytes(rns);
+        assertArrayEquals(rns, BinaryForm.fromBytesAll(bytes));
+
+        long[] read = new long[packed.length];
+        assertEquals(0, BinaryForm.readAll(ByteBuffer.wrap(bytes), read));
+        assertArrayEquals(packed, read);
+
+        ByteBuffer buf = ByteBuffer.allocate(bytes.length);
+        BinaryForm.writeAll(packed, buf);
+        assertArrayEquals(bytes, buf.array());
+    }
+
+    @Test
+    public void itShouldRejectBadBinaryForms() {
+        byte[] bytes = new byte[BinaryForm.BYTES];
+        try {
+            BinaryForm.fromBytes(bytes);
+            fail("Should be rejected");
+        }
+        catch (RNException e) {
+            assertEquals("Bad binary form (status 5)", e.getMessage());
+        }
+
+        java.util.Arrays.fill(bytes, (byte) 0xFF);
+        long[] packed = new long[2];
+        assertEquals(PackedRN.BAD_DECIMAL_FORM, BinaryForm.read(ByteBuffer.wrap(bytes), packed, 0));
+    }
+
+    private static int compareUnsigned(byte[] a, byte[] b) {
+        for (int i = 0; i < a.length; i++) {
+            int c = Integer.compare(a[i] & 0xFF, b[i] & 0xFF);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    protected RN fixture() {
+        ZonedDateTime instant = ZonedDateTime.of(2018, 04, 12, 12, 34, 51, 468*1000000, ZoneOffset.UTC);
+        return new RN(new Authority(1234), new Instance(5), new Type(6), instant, new Version(0));
+    }
+}
@@ -0,0 +1,174 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import uk.gov.food.rn.metrics.DecodeSnapshot;
+import uk.gov.food.rn.metrics.RejectedSample;
+
+/**
+ * Unit tests on {@link DecodeCounters}
+ */
+public class DecodeCountersTest {
+    private static final String VALID = fixture().getEncodedForm();
+
+    @After
+    public void tearDown() {
+        DecodeCounters.stopSampling();
+    }
+
+    @Test
+    public void itShouldCountPackedDecodesByOutcomeAndAuthority() {
+        DecodeSnapshot before = DecodeCounters.snapshot();
+        long[] packed = new long[2];
+        PackedRN.decode(VALID, packed, 0);
+        PackedRN.decode(VALID, packed, 0);
+        PackedRN.decode("AB!", packed, 0);
+        PackedRN.decode(VALID + "A", packed, 0);
+        PackedRN.decode(mistyped(VALID), packed, 0);
+        DecodeSnapshot after = DecodeCounters.snapshot();
+
+        assertEquals(2, after.getDecoded() - before.getDecoded());
+        assertEquals(1, after.getIllegalCharacter() - before.getIllegalCharacter());
+        assertEquals(1, after.getTooManyDigits() - before.getTooManyDigits());
+        assertEquals(1, after.getBadCheckDigits() - before.getBadCheckDigits());
+        assertEquals(3, after.getRejected() - before.getRejected());
+        assertEquals(2, after.getAuthorities().get(7654) - before.getAuthorities().getOrDefault(7654, 0L));
+    }
+
+    @Test
+    public void itShouldCountEachObjectDecodeOnceByKind() {
+        DecodeSnapshot before = DecodeCounters.snapshot();
+        new RN(VALID);
+        try {
+            new RN(mistyped(VALID));
+            fail("Expected the check digits to fail");
+        } catch (RNException e) {
+            // Expected
+        }
+        try {
+            PackedRN.decodeOrThrow("AB!", new long[2], 0);
+            fail("Expected an illegal character");
+        } catch (RNException e) {
+            // Expected
+        }
+        DecodeSnapshot after = DecodeCounters.snapshot();
+
+        assertEquals(1, after.getDecoded() - before.getDecoded());
+        assertEquals(1, after.getBadCheckDigits() - before.getBadCheckDigits());
+        assertEquals(1, after.getIllegalCharacter() - before.getIllegalCharacter());
+        assertEquals(2, after.getRejected() - before.getRejected());
+    }
+
+    @Test
+    public void itShouldNotCountProbes() {
+        DecodeSnapshot before = DecodeCounters.snapshot();
+        long[] packed = new long[2];
+        assertEquals(PackedRN.DECODED, PackedRN.probe(VALID, packed, 0));
+        assertEquals(PackedRN.BAD_CHECK_DIGITS, PackedRN.probe(mistyped(VALID), packed, 0));
+        DecodeSnapshot after = DecodeCounters.snapshot();
+
+        assertEquals(before.getDecoded(), after.getDecoded());
+        assertEquals(before.getRejected(), after.getRejected());
+    }
+
+    @Test
+    public void itShouldCountDecimalDecodesOnce() {
+        BigInteger value = fixture().getValue();
+        DecodeSnapshot before = DecodeCounters.snapshot();
+        new RN(value);
+        try {
+            new RN(BigInteger.valueOf(-1));
+            fail("Expected a bad decimal form");
+        } catch (RNException e) {
+            // Expected
+        }
+        try {
+            new RN(BigInteger.TEN.pow(23));
+            fail("Expected a bad authority");
+        } catch (RNException e) {
+            // Expected
+        }
+        DecodeSnapshot after = DecodeCounters.snapshot();
+
+        assertEquals(1, after.getDecoded() - before.getDecoded());
+        assertEquals(1, after.getBadDecimalForm() - before.getBadDecimalForm());
+        assertEquals(1, after.getBadAuthority() - before.getBadAuthority());
+        assertEquals(2, after.getRejected() - before.getRejected());
+        assertEquals(1, after.getAuthorities().get(7654) - before.getAuthorities().getOrDefault(7654, 0L));
+    }
+
+    @Test
+    public void itShouldCountBinaryDecodesButNotBinaryProbes() {
+        DecodeCounters.sampleRejected(1, 1);
+        byte[] bad = new byte[BinaryForm.BYTES];
+        bad[0] = (byte) 0xFF;
+        long[] packed = new long[2];
+        DecodeSnapshot before = DecodeCounters.snapshot();
+        assertEquals(PackedRN.DECODED, BinaryForm.read(ByteBuffer.wrap(BinaryForm.toBytes(fixture())), packed, 0));
+        assertNotEquals(PackedRN.DECODED, BinaryForm.read(ByteBuffer.wrap(bad), packed, 0));
+        BinaryForm.probe(ByteBuffer.wrap(BinaryForm.toBytes(fixture())), packed, 0);
+        BinaryForm.probe(ByteBuffer.wrap(bad), packed, 0);
+        DecodeSnapshot after = DecodeCounters.snapshot();
+
+        assertEquals(1, after.getDecoded() - before.getDecoded());
+        assertEquals(1, after.getRejected() - before.getRejected());
+        assertEquals("ff000000000000000000", DecodeCounters.getRejectedSamples().get(0).getInput());
+    }
+
+    @Test
+    public void itShouldSampleRejectedInputsIntoABoundedBuffer() {
+        assertTrue(DecodeCounters.getRejectedSamples().isEmpty());
+        DecodeCounters.sampleRejected(3, 1);
+        long[] packed = new long[2];
+        for (int k = 0; k < 5; k++) {
+            PackedRN.decode("BAD" + k + "!", packed, 0);
+        }
+        PackedRN.decode(VALID, packed, 0);
+        StringBuilder longInput = new StringBuilder();
+        for (int k = 0; k < 100; k++) {
+            longInput.append('A');
+        }
+        PackedRN.decode(longInput, packed, 0);
+
+        List<RejectedSample> samples = DecodeCounters.getRejectedSamples();
+        assertEquals(3, samples.size());
+        assertEquals("BAD3!", samples.get(0).getInput());
+        assertEquals("BAD4!", samples.get(1).getInput());
+        assertEquals(PackedRN.ILLEGAL_CHARACTER, samples.get(1).getStatus());
+        assertEquals("illegal character", samples.get(1).getReason());
+        assertEquals(DecodeCounters.MAX_SAMPLE_LENGTH, samples.get(2).getInput().length());
+        assertEquals("too many digits", samples.get(2).getReason());
+
+        DecodeCounters.stopSampling();
+        assertTrue(DecodeCounters.getRejectedSamples().isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void itShouldRejectAnEmptySampleBuffer() {
+        DecodeCounters.sampleRejected(0, 1);
+    }
+
+    private static RN fixture() {
+        return new RN(new Authority(7654), new Instance(3), new Type(2),
+                      ZonedDateTime.of(2021, 6, 7, 8, 9, 10, 11_000_000, ZoneOffset.UTC), new Version(0));
+    }
+
+    /** @return The encoded form with its first digit changed, which the check digits always detect */
+    private static String mistyped(String encoded) {
+        char c = encoded.charAt(0) == 'A' ? 'B' : 'A';
+        return c + encoded.substring(1);
+    }
+}
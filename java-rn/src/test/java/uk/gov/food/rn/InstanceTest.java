@@ -75,4 +75,13 @@ public class InstanceTest {
             fail("should not raise");
         }
     }
+
+    @Test
+    public void shouldBeEqualAsAnObject() {
+        Object same = new Instance(1);
+        assertEquals(new Instance(1), same);
+        assertEquals(new Instance(1).hashCode(), same.hashCode());
+        assertNotEquals(new Instance(2), same);
+        assertNotEquals(new Instance(1), null);
+    }
 }
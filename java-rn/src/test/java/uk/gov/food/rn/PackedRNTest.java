@@ -0,0 +1,144 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Unit tests on {@link PackedRN}
+ */
+public class PackedRNTest {
+
+    @Test
+    public void itShouldPackAndUnpackFields() {
+        long hi = PackedRN.high(9999, 999, 998);
+        long lo = PackedRN.low(9999999999999L, 9);
+
+        assertEquals(9999, PackedRN.authority(hi));
+        assertEquals(999, PackedRN.instance(hi));
+        assertEquals(998, PackedRN.type(hi));
+        assertEquals(9999999999999L, PackedRN.epochMilli(lo));
+        assertEquals(9, PackedRN.version(lo));
+    }
+
+    @Test
+    public void itShouldPackAnRN() {
+        RN rn = new RN(new Authority(1234), new Instance(5), new Type(6), timestampFixture(), new Version(3));
+
+        assertEquals(PackedRN.high(1234, 5, 6), PackedRN.high(rn));
+        assertEquals(PackedRN.low(timestampFixture().toInstant().toEpochMilli(), 3), PackedRN.low(rn));
+    }
+
+    @Test
+    public void itShouldDecodeAnEncodedNumber() {
+        long[] packed = new long[2];
+
+        assertEquals(PackedRN.DECODED, PackedRN.decode("H31DDZ-TFSV8C-KELK2B", packed, 0));
+        assertEquals(1234, PackedRN.authority(packed[0]));
+        assertEquals(5, PackedRN.instance(packed[0]));
+        assertEquals(6, PackedRN.type(packed[0]));
+        assertEquals(timestampFixture().toInstant().toEpochMilli(), PackedRN.epochMilli(packed[1]));
+        assertEquals(0, PackedRN.version(packed[1]));
+    }
+
+    @Test
+    public void itShouldReportEachKindOfFailure() {
+        long[] packed = new long[2];
+
+        assertEquals(PackedRN.ILLEGAL_CHARACTER, PackedRN.decode("AI0", packed, 0));
+        assertEquals(PackedRN.TOO_MANY_DIGITS, PackedRN.decode("H31DDZ-TFSV8C-KELK2BA", packed, 0));
+        assertEquals(PackedRN.BAD_CHECK_DIGITS, PackedRN.decode("7SS34N-8221TH-LMDNYG", packed, 0));
+        assertEquals(PackedRN.BAD_AUTHORITY, PackedRN.decode("", packed, 0));
+        assertEquals(PackedRN.BAD_DECIMAL_FORM, PackedRN.decode(withCheckDigits(BigInteger.TEN.pow(24)), packed, 0));
+        assertEquals(PackedRN.BAD_TIMESTAMP, PackedRN.decode(withCheckDigits(new BigInteger("000123400500600000000000")), packed, 0));
+    }
+
+    @Test
+    public void itShouldAgreeWithRepresentation() {
+        Random random = new Random(1087);
+        long[] packed = new long[2];
+
+        for (int n = 0; n < 2000; n++) {
+            String encoded = randomRN(random).getEncodedForm();
+            if (n % 2 == 1) {
+                // Damage one digit, which the check digits will usually catch
+                char[] chars = encoded.toCharArray();
+                int pos = random.nextInt(chars.length);
+                if (chars[pos] != '-') {
+                    chars[pos] = Representation.ALPHABET.charAt(random.nextInt(Representation.ALPHABET.length()));
+                }
+                encoded = new String(chars);
+            }
+
+            RN expected = null;
+            try {
+                expected = new RN(encoded);
+            } catch (RNException e) {
+                // Leave expected as null
+            }
+
+            int status = PackedRN.decode(encoded, packed, 0);
+            if (expected == null) {
+                assertNotEquals(encoded, PackedRN.DECODED, status);
+            } else {
+                assertEquals(encoded, PackedRN.DECODED, status);
+                assertEquals(encoded, PackedRN.high(expected), packed[0]);
+                assertEquals(encoded, PackedRN.low(expected), packed[1]);
+            }
+        }
+    }
+
+    @Test
+    public void itShouldEncodeLikeRepresentation() {
+        Random random = new Random(33);
+        for (int n = 0; n < 1000; n++) {
+            RN rn = randomRN(random);
+            assertEquals(rn.getEncodedForm(), PackedRN.encode(PackedRN.high(rn), PackedRN.low(rn)));
+        }
+        assertEquals("H31DDZ-TFSV8C-KELK2B", PackedRN.encode(PackedRN.high(1234, 5, 6), PackedRN.low(1523536491468L, 0)));
+    }
+
+    @Test
+    public void itShouldValidateEncodedForms() {
+        assertTrue(PackedRN.isValid("H31DDZ-TFSV8C-KELK2B"));
+        assertTrue(PackedRN.isValid("H31DDZTFSV8CKELK2B"));
+        assertFalse(PackedRN.isValid("H31DDZ-TFSV8C-KELK2C"));
+    }
+
+    @Test
+    public void itShouldClassifyCharactersLikeRepresentation() {
+        for (char c = 0; c < Character.MAX_VALUE; c++) {
+            String s = String.valueOf(c);
+            assertEquals(s, s.matches("[\\s-]"), PackedRN.isSeparator(c));
+            assertEquals(s, Representation.ALPHABET.indexOf(c), PackedRN.digitValue(c));
+        }
+    }
+
+    static RN randomRN(Random random) {
+        long millis = 946684800000L + (long) (random.nextDouble() * 4000000000000L);
+        return new RN(new Authority(1000 + random.nextInt(9000)),
+                      new Instance(random.nextInt(1000)),
+                      new Type(random.nextInt(1000)),
+                      ZonedDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC),
+                      new Version(random.nextInt(10)));
+    }
+
+    private String withCheckDigits(BigInteger nn) {
+        Representation r = new Representation(new RN(new Authority(1234), new Instance(5), new Type(6), timestampFixture(), new Version(0)));
+        return r.alphabetEncode(r.withCheckDigits(nn));
+    }
+
+    protected ZonedDateTime timestampFixture() {
+        return ZonedDateTime.of(2018, 04, 12, 12, 34, 51, 468*1000000, ZoneOffset.UTC);
+    }
+}
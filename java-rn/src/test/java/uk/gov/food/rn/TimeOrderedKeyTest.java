@@ -0,0 +1,136 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Unit tests on {@link TimeOrderedKey}
+ */
+public class TimeOrderedKeyTest {
+
+    @Test
+    public void itShouldHoldTheFieldsOfAnRN() {
+        TimeOrderedKey key = TimeOrderedKey.of(fixture());
+
+        assertEquals(1234, key.getAuthority());
+        assertEquals(6, key.getType());
+        assertEquals(1523536491468L, key.getEpochMilli());
+        assertEquals(5, key.getInstance());
+        assertEquals(7, key.getVersion());
+    }
+
+    @Test
+    public void itShouldRoundTripAnRN() {
+        Random random = new Random(1087);
+        for (int n = 0; n < 500; n++) {
+            RN rn = PackedRNTest.randomRN(random);
+            TimeOrderedKey key = TimeOrderedKey.of(rn);
+
+            assertEquals(rn, key.toRN());
+            assertEquals(rn.getVersion().getId(), key.toRN().getVersion().getId());
+            assertEquals(key, TimeOrderedKey.fromBytes(key.toBytes()));
+        }
+    }
+
+    @Test
+    public void itShouldSortByAuthorityTypeThenTime() {
+        Random random = new Random(33);
+        for (int n = 0; n < 1000; n++) {
+            RN a = PackedRNTest.randomRN(random);
+            RN b = PackedRNTest.randomRN(random);
+            TimeOrderedKey ka = TimeOrderedKey.of(a);
+            TimeOrderedKey kb = TimeOrderedKey.of(b);
+
+            int expected = Integer.compare(a.getAuthority().getId(), b.getAuthority().getId());
+            if (expected == 0) {
+                expected = Integer.compare(a.getType().getId(), b.getType().getId());
+            }
+            if (expected == 0) {
+                expected = a.getInstant().getInstant().compareTo(b.getInstant().getInstant());
+            }
+            assertEquals(Integer.signum(expected), Integer.signum(ka.compareTo(kb)));
+            assertEquals(Integer.signum(expected), Integer.signum(compareUnsigned(ka.toBytes(), kb.toBytes())));
+        }
+    }
+
+    @Test
+    public void itShouldIgnoreTheBufferByteOrder() {
+        TimeOrderedKey key = TimeOrderedKey.of(fixture());
+        ByteBuffer buf = ByteBuffer.allocate(TimeOrderedKey.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        key.write(buf);
+
+        assertArrayEquals(key.toBytes(), buf.array());
+        buf.flip();
+        assertEquals(key, TimeOrderedKey.read(buf));
+    }
+
+    @Test
+    public void itShouldComputeRangeBounds() {
+        ZonedDateTime t = fixture().getInstant().getInstant();
+        TimeOrderedKey.Range range = TimeOrderedKey.range(new Authority(1234), new Type(6), t, t.plusSeconds(1));
+
+        assertTrue(range.contains(TimeOrderedKey.of(fixture())));
+        assertTrue(range.contains(TimeOrderedKey.of(1234, 6, t.toInstant().toEpochMilli() + 999, 999, 9)));
+        assertFalse(range.contains(TimeOrderedKey.of(1234, 6, t.toInstant().toEpochMilli() + 1000, 0, 0)));
+        assertFalse(range.contains(TimeOrderedKey.of(1234, 6, t.toInstant().toEpochMilli() - 1, 999, 9)));
+        assertFalse(range.contains(TimeOrderedKey.of(1234, 7, t.toInstant().toEpochMilli(), 5, 0)));
+        assertFalse(range.contains(TimeOrderedKey.of(1235, 6, t.toInstant().toEpochMilli(), 5, 0)));
+    }
+
+    @Test
+    public void itShouldRejectBadKeys() {
+        byte[] bytes = TimeOrderedKey.of(fixture()).toBytes();
+        bytes[15] = 1;
+        try {
+            TimeOrderedKey.fromBytes(bytes);
+            fail("Should be rejected");
+        }
+        catch (RNException e) {
+            // Expected outcome
+        }
+    }
+
+    @Test
+    public void itShouldRejectKeysOutsideTheRangeOfIssueTimes() {
+        long first = TimeStamp.MIN_EPOCH_SECONDS * 1000;
+        long last = TimeStamp.MAX_EPOCH_SECONDS * 1000 + 999;
+        assertEquals(first, TimeOrderedKey.fromBytes(TimeOrderedKey.of(1234, 6, first, 5, 0).toBytes()).getEpochMilli());
+        assertEquals(last, TimeOrderedKey.fromBytes(TimeOrderedKey.of(1234, 6, last, 5, 0).toBytes()).getEpochMilli());
+
+        for (long millis : new long[] { 0, first - 1, last + 1, -1 }) {
+            try {
+                TimeOrderedKey.fromBytes(TimeOrderedKey.of(1234, 6, millis, 5, 0).toBytes());
+                fail("Should be rejected: " + millis);
+            }
+            catch (RNException e) {
+                // Expected outcome
+            }
+        }
+    }
+
+    private static int compareUnsigned(byte[] a, byte[] b) {
+        for (int i = 0; i < a.length; i++) {
+            int c = Integer.compare(a[i] & 0xFF, b[i] & 0xFF);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    protected RN fixture() {
+        ZonedDateTime instant = ZonedDateTime.of(2018, 04, 12, 12, 34, 51, 468*1000000, ZoneOffset.UTC);
+        return new RN(new Authority(1234), new Instance(5), new Type(6), instant, new Version(7));
+    }
+}
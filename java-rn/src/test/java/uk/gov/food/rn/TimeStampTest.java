@@ -9,6 +9,8 @@ import static org.junit.Assert.*;
 import java.time.DateTimeException;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.HashSet;
 
 import org.junit.Test;
 
@@ -67,4 +69,14 @@ public class TimeStampTest {
             fail("should not raise");
         }
     }
+
+    @Test
+    public void shouldBeEqualAsAnObject() {
+        Object same = new TimeStamp(ZonedDateTime.of(2018,01,01,00,00,00,0,ZoneOffset.UTC));
+        TimeStamp inParis = new TimeStamp(ZonedDateTime.of(2018,01,01,01,00,00,0,ZoneOffset.ofHours(1)));
+        assertEquals(inParis, same);
+        assertEquals(inParis.hashCode(), same.hashCode());
+        assertTrue(new HashSet<>(Arrays.asList(inParis)).contains(same));
+        assertNotEquals(new TimeStamp(ZonedDateTime.of(2018,01,01,00,00,00,1_000_000,ZoneOffset.UTC)), same);
+    }
 }
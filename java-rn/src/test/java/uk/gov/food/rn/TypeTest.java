@@ -80,4 +80,13 @@ public class TypeTest {
             fail("should not raise");
         }
     }
+
+    @Test
+    public void shouldBeEqualAsAnObject() {
+        Object same = new Type(1);
+        assertEquals(new Type(1), same);
+        assertEquals(new Type(1).hashCode(), same.hashCode());
+        assertNotEquals(new Type(2), same);
+        assertNotEquals(new Type(1), null);
+    }
 }
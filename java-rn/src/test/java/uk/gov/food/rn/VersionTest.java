@@ -76,4 +76,13 @@ public class VersionTest {
             fail("should not raise");
         }
     }
+
+    @Test
+    public void shouldBeEqualAsAnObject() {
+        Object same = new Version(1);
+        assertEquals(new Version(1), same);
+        assertEquals(new Version(1).hashCode(), same.hashCode());
+        assertNotEquals(new Version(2), same);
+        assertNotEquals(new Version(1), null);
+    }
 }
@@ -0,0 +1,144 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.analysis;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Unit tests on {@link ErrorAnalysis}, against the results of the original
+ * sequential {@link Transposition} analysis of the FSA-RN scheme.
+ */
+public class ErrorAnalysisTest {
+    private final ErrorAnalysis analysis = new ErrorAnalysis(CheckDigitScheme.FSA_RN);
+
+    @Test
+    public void itShouldComputeTheWeights() {
+        assertArrayEquals(new int[] { 1, 33, 2, 66, 4, 132, 8, 264, 16, 528, 32, 1056, 64, 1025, 128, 963, 256, 839 },
+                          CheckDigitScheme.FSA_RN.getWeights());
+    }
+
+    @Test
+    public void itShouldCountDoubleTranscriptionErrors() {
+        DetectionRate rate = analysis.independentDoubleTranscriptions();
+
+        assertEquals(170222760L, rate.getDetected());
+        assertEquals(393048L, rate.getUndetected());
+        assertEquals(170615808L, rate.getTrials());
+    }
+
+    @Test
+    public void itShouldDetectAllDedEdeTranspositions() {
+        assertTrue(analysis.detectsAllDedEdeTranspositions());
+    }
+
+    @Test
+    public void itShouldFindZeroSumPositionSets() {
+        ZeroSumSubsets subsets = analysis.multiSingleDigitTranscriptions(2);
+
+        assertEquals((1L << 18) - 1, subsets.getTrials());
+        assertEquals(232, subsets.getCount());
+        assertEquals(6, subsets.getMinSize());
+        assertFalse(subsets.hasContiguous());
+        long[] expected = { 0, 0, 0, 0, 0, 0, 16, 51, 52, 26, 22, 25, 20, 16, 4, 0, 0, 0, 0 };
+        for (int size = 0; size < expected.length; size++) {
+            assertEquals(expected[size], subsets.getCount(size));
+        }
+
+        List<int[]> samples = subsets.getSamples(6);
+        assertEquals(2, samples.size());
+        for (int[] positions : samples) {
+            int sum = 0;
+            for (int p : positions) {
+                sum += CheckDigitScheme.FSA_RN.weight(p);
+            }
+            assertEquals(0, sum % 1087);
+        }
+    }
+
+    @Test
+    public void itShouldAgreeWithBruteForceOnShortSchemes() {
+        CheckDigitScheme scheme = new CheckDigitScheme(5, 7, 10);
+        ZeroSumSubsets subsets = new ErrorAnalysis(scheme).multiSingleDigitTranscriptions(0);
+
+        long expected = 0;
+        for (long mask = 1; mask < (1L << 10); mask++) {
+            int sum = 0;
+            for (int k = 0; k < 10; k++) {
+                if ((mask & (1L << k)) != 0) {
+                    sum += scheme.weight(k);
+                }
+            }
+            if (sum % 7 == 0) {
+                expected++;
+            }
+        }
+        assertEquals(expected, subsets.getCount());
+    }
+
+    @Test
+    public void itShouldCountZeroSumPositionSetsWithoutEnumerating() {
+        ZeroSumSubsets subsets = analysis.multiSingleDigitTranscriptions(0);
+        long[] counts = analysis.zeroSumSubsetCounts();
+
+        assertEquals(19, counts.length);
+        for (int size = 0; size < counts.length; size++) {
+            assertEquals(subsets.getCount(size), counts[size]);
+        }
+    }
+
+    @Test
+    public void itShouldMatchExhaustiveCountsOfSubstitutionErrors() {
+        double[] undetected = analysis.substitutionUndetectedProbabilities(2);
+
+        assertEquals(0, analysis.singleSubstitutions().getUndetected());
+        assertEquals(0.0, undetected[1], 1e-15);
+        DetectionRate doubles = analysis.independentDoubleTranscriptions();
+        assertEquals((double) doubles.getUndetected() / doubles.getTrials(), undetected[2], 1e-12);
+    }
+
+    @Test
+    public void itShouldMatchBruteForceOnASmallScheme() {
+        // Every value of 4 base 5 digits, and every change to it
+        CheckDigitScheme small = new CheckDigitScheme(5, 7, 4);
+        double[] undetected = new ErrorAnalysis(small).substitutionUndetectedProbabilities(4);
+
+        long[] errors = new long[5];
+        long[] missed = new long[5];
+        for (int original = 0; original < 625; original++) {
+            for (int changed = 0; changed < 625; changed++) {
+                int k = 0;
+                long sum = 0;
+                for (int i = 0, a = original, b = changed; i < 4; i++, a /= 5, b /= 5) {
+                    if (a % 5 != b % 5) {
+                        k++;
+                        sum += (long) (b % 5 - a % 5) * small.weight(i);
+                    }
+                }
+                errors[k]++;
+                if (small.mod(sum) == 0) {
+                    missed[k]++;
+                }
+            }
+        }
+        for (int k = 1; k <= 4; k++) {
+            assertEquals((double) missed[k] / errors[k], undetected[k], 1e-12);
+        }
+    }
+
+    @Test
+    public void itShouldEvaluateLongRepresentations() {
+        ErrorAnalysis longer = new ErrorAnalysis(new CheckDigitScheme(33, 1087, 40));
+        double[] undetected = longer.substitutionUndetectedProbabilities(40);
+
+        assertEquals(41, undetected.length);
+        assertEquals(0.0, undetected[1], 1e-15);
+        // Many random changes leave the residue close to uniform
+        assertEquals(1.0 / 1087, undetected[40], 1e-5);
+    }
+}
@@ -0,0 +1,87 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.analysis;
+
+import static org.junit.Assert.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import uk.gov.food.rn.PackedRN;
+
+/**
+ * Unit tests on {@link ErrorSimulation} and {@link ErrorModels}
+ */
+public class ErrorSimulationTest {
+    private static final long TRIALS = 200_000;
+
+    @Test
+    public void itShouldDetectEverySingleSubstitution() {
+        ErrorSimulation.Result result = new ErrorSimulation(ErrorModels.randomSubstitution(), 1).run(TRIALS);
+
+        assertEquals(TRIALS, result.getTrials());
+        assertEquals(0, result.getHarmless());
+        assertEquals(0, result.getUndetected());
+        assertEquals(TRIALS, result.getDetected());
+    }
+
+    @Test
+    public void itShouldDetectEveryAdjacentTransposition() {
+        ErrorSimulation.Result result = new ErrorSimulation(ErrorModels.adjacentTransposition(), 2).run(TRIALS);
+
+        assertEquals(0, result.getUndetected());
+        assertTrue(result.getHarmless() > 0);
+        assertTrue(result.getDetected(PackedRN.BAD_CHECK_DIGITS) > 0);
+    }
+
+    @Test
+    public void itShouldTreatSeparatorSlipsAsHarmless() {
+        ErrorSimulation.Result dropped = new ErrorSimulation(ErrorModels.droppedCharacter(), 3).run(TRIALS);
+        ErrorSimulation.Result duplicated = new ErrorSimulation(ErrorModels.duplicatedCharacter(), 3).run(TRIALS);
+
+        // Two of the twenty characters are separators
+        assertEquals(0.1, (double) dropped.getHarmless() / TRIALS, 0.01);
+        assertTrue(duplicated.getHarmless() >= dropped.getHarmless() * 0.9);
+        assertEquals(TRIALS, dropped.getHarmless() + dropped.getDetected() + dropped.getUndetected());
+    }
+
+    @Test
+    public void itShouldGiveTheSameResultsOnAnyNumberOfThreads() {
+        ForkJoinPool single = new ForkJoinPool(1);
+        try {
+            ErrorSimulation.Result a = new ErrorSimulation(ErrorModels.ocrConfusion(), 42, single).run(TRIALS);
+            ErrorSimulation.Result b = new ErrorSimulation(ErrorModels.ocrConfusion(), 42).run(TRIALS);
+
+            assertEquals(a.getHarmless(), b.getHarmless());
+            assertEquals(a.getUndetected(), b.getUndetected());
+            for (int status = PackedRN.ILLEGAL_CHARACTER; status <= PackedRN.BAD_TIMESTAMP; status++) {
+                assertEquals(a.getDetected(status), b.getDetected(status));
+            }
+        } finally {
+            single.shutdown();
+        }
+    }
+
+    @Test
+    public void itShouldSubstituteOcrConfusions() {
+        char[] chars = "B".toCharArray();
+        int length = ErrorModels.ocrConfusion().corrupt(chars, 1, new SplittableRandom(0));
+
+        assertEquals(1, length);
+        assertTrue("8E".indexOf(chars[0]) >= 0);
+    }
+
+    @Test
+    public void itShouldSubstituteKeyboardNeighbours() {
+        SplittableRandom random = new SplittableRandom(0);
+        for (int n = 0; n < 100; n++) {
+            char[] chars = "S".toCharArray();
+            ErrorModels.keyboardAdjacency().corrupt(chars, 1, random);
+            assertTrue(String.valueOf(chars[0]), "ADWEZX".indexOf(chars[0]) >= 0);
+        }
+    }
+}
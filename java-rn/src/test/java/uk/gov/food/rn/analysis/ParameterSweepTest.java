@@ -0,0 +1,57 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.analysis;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Unit tests on {@link ParameterSweep}
+ */
+public class ParameterSweepTest {
+
+    @Test
+    public void itShouldConsiderPrimesBetweenBaseAndBaseSquared() {
+        List<Integer> primes = new ParameterSweep(33, 18, 18).candidatePrimes();
+
+        assertEquals(Integer.valueOf(37), primes.get(0));
+        assertEquals(Integer.valueOf(1087), primes.get(primes.size() - 1));
+    }
+
+    @Test
+    public void itShouldScoreAndRankEveryScheme() {
+        List<ParameterSweep.Score> scores = new ParameterSweep(33, 18, 19).run();
+
+        assertEquals(new ParameterSweep(33, 18, 18).candidatePrimes().size() * 2, scores.size());
+        for (int i = 1; i < scores.size(); i++) {
+            assertTrue(ParameterSweep.RANKING.compare(scores.get(i - 1), scores.get(i)) <= 0);
+        }
+
+        ParameterSweep.Score fsa = null;
+        for (ParameterSweep.Score score : scores) {
+            if (score.getScheme().getPrime() == 1087 && score.getScheme().getLength() == 18) {
+                fsa = score;
+            }
+        }
+        assertNotNull(fsa);
+        assertEquals(0, fsa.getSingleSubstitutions().getUndetected());
+        assertEquals(0, fsa.getAdjacentTranspositions().getUndetected());
+        assertEquals(393048L, fsa.getDoubleTranscriptions().getUndetected());
+        assertEquals(170615808L, fsa.getDoubleTranscriptions().getTrials());
+    }
+
+    @Test
+    public void itShouldCountTranspositionsThatTheSchemeMisses() {
+        // With base = 1 mod p, every weight is 1 and no transposition is detected
+        ErrorAnalysis analysis = new ErrorAnalysis(new CheckDigitScheme(12, 11, 6));
+
+        assertEquals(0, analysis.adjacentTranspositions().getDetected());
+        assertEquals(0, analysis.jumpTranspositions().getDetected());
+        assertEquals(12 * 11 * 5, analysis.adjacentTranspositions().getUndetected());
+    }
+}
@@ -0,0 +1,111 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.bulk;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import uk.gov.food.rn.PackedRN;
+import uk.gov.food.rn.RN;
+import uk.gov.food.rn.collection.RNHashSet;
+
+/**
+ * Unit tests on {@link HistoricalImport}
+ */
+public class HistoricalImportTest {
+    private static final long START = 1514764800000L;
+    private static final long NOW = 1600000000000L;
+
+    /** Records clustered into few factories and milliseconds, so that many collide */
+    private static void records(Random random, long[] highs, long[] millis) {
+        for (int i = 0; i < highs.length; i++) {
+            highs[i] = PackedRN.high(1000 + random.nextInt(20), random.nextInt(3), 1);
+            millis[i] = START + random.nextInt(50_000) * 10L;
+        }
+    }
+
+    @Test
+    public void itShouldAssignUniqueRNsNearTheirRegistrationTimes() {
+        int n = 200_000;
+        long[] highs = new long[n];
+        long[] millis = new long[n];
+        records(new Random(5), highs, millis);
+
+        HistoricalImport bulk = new HistoricalImport(NOW);
+        long[] lows = bulk.assign(highs, millis);
+
+        RNHashSet seen = new RNHashSet(n, false);
+        for (int i = 0; i < n; i++) {
+            assertTrue("Duplicate RN for record " + i, seen.add(highs[i], lows[i]));
+            assertEquals(0, PackedRN.version(lows[i]));
+        }
+        assertEquals(n, bulk.getAssigned());
+        assertTrue(bulk.getDisplaced() > 0);
+        for (int i = 0; i < n; i++) {
+            assertTrue(Math.abs(PackedRN.epochMilli(lows[i]) - millis[i]) <= bulk.getMaxDisplacementMillis());
+        }
+        // Each factory has a few thousand records over 500 seconds, so none should move far
+        assertTrue(bulk.getMaxDisplacementMillis() < 100);
+    }
+
+    @Test
+    public void itShouldGiveTheSameResultEveryTime() {
+        int n = 100_000;
+        long[] highs = new long[n];
+        long[] millis = new long[n];
+        records(new Random(6), highs, millis);
+        long[] first = new HistoricalImport(NOW).assign(highs, millis);
+        for (int k = 0; k < 3; k++) {
+            assertArrayEquals(first, new HistoricalImport(NOW).assign(highs, millis));
+        }
+    }
+
+    @Test
+    public void itShouldKeepClearOfReservedTimes() {
+        long high = PackedRN.high(1234, 5, 6);
+        HistoricalImport bulk = new HistoricalImport(NOW);
+        assertTrue(bulk.reserve(high, PackedRN.low(START, 0)));
+        assertFalse(bulk.reserve(high, PackedRN.low(START, 3)));
+        assertTrue(bulk.reserve(high, PackedRN.low(START + 1, 0)));
+
+        long[] lows = bulk.assign(new long[] { high, high, high }, new long[] { START, START, START });
+        assertEquals(START - 1, PackedRN.epochMilli(lows[0]));
+        // Equally near: the later wins
+        assertEquals(START + 2, PackedRN.epochMilli(lows[1]));
+        assertEquals(START - 2, PackedRN.epochMilli(lows[2]));
+
+        // A later batch sees the earlier one
+        long[] more = bulk.assign(new long[] { high }, new long[] { START + 2 });
+        assertEquals(START + 3, PackedRN.epochMilli(more[0]));
+        assertEquals(6, bulk.getTaken(high).cardinality());
+    }
+
+    @Test
+    public void itShouldKeepWithinTheRangeRNsCanHold() {
+        long high = PackedRN.high(1234, 5, 6);
+        HistoricalImport bulk = new HistoricalImport(NOW);
+        RN[] rns = bulk.assignRNs(new long[] { high, high, high },
+                                  new long[] { 0, HistoricalImport.MIN_EPOCH_MILLI, NOW + 1_000_000 });
+        // Records registered in the same millisecond are assigned in their original order
+        assertEquals(HistoricalImport.MIN_EPOCH_MILLI, PackedRN.epochMilli(PackedRN.low(rns[0])));
+        assertEquals(HistoricalImport.MIN_EPOCH_MILLI + 1, PackedRN.epochMilli(PackedRN.low(rns[1])));
+        assertEquals(NOW, PackedRN.epochMilli(PackedRN.low(rns[2])));
+
+        Set<String> encoded = new HashSet<>();
+        Arrays.stream(rns).forEach(rn -> encoded.add(rn.getEncodedForm()));
+        assertEquals(3, encoded.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void itShouldRefuseMismatchedColumns() {
+        new HistoricalImport(NOW).assign(new long[2], new long[3]);
+    }
+}
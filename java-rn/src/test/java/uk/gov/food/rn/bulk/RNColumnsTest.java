@@ -0,0 +1,85 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.bulk;
+
+import static org.junit.Assert.*;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Test;
+
+import uk.gov.food.rn.Authority;
+import uk.gov.food.rn.Instance;
+import uk.gov.food.rn.RN;
+import uk.gov.food.rn.Type;
+import uk.gov.food.rn.Version;
+
+/**
+ * Unit tests on {@link RNColumns}
+ */
+public class RNColumnsTest {
+
+    @Test
+    public void itShouldDecodeIntoColumns() {
+        RNColumns columns = RNColumns.decode(new String[] { "H31DDZ-TFSV8C-KELK2B", "AI0", null });
+
+        assertEquals(3, columns.size());
+        assertEquals(1, columns.validCount());
+        assertTrue(columns.isValid(0));
+        assertFalse(columns.isValid(1));
+        assertFalse(columns.isValid(2));
+
+        assertEquals(1234, columns.getAuthority()[0]);
+        assertEquals(5, columns.getInstance()[0]);
+        assertEquals(6, columns.getType()[0]);
+        assertEquals(1523536491468L, columns.getEpochMillis()[0]);
+        assertEquals(0, columns.getVersion()[0]);
+        assertEquals(0, columns.getAuthority()[1]);
+    }
+
+    @Test
+    public void itShouldDecodeLargeBatchesInParallel() {
+        int n = RNColumns.PARALLEL_THRESHOLD * 3 + 17;
+        List<String> encoded = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            encoded.add(i % 5 == 0 ? "H31DDZ-TFSV8C-KELK2C" : fixture(i).getEncodedForm());
+        }
+
+        RNColumns columns = RNColumns.decode(encoded);
+
+        assertEquals(n - (n + 4) / 5, columns.validCount());
+        for (int i = 0; i < n; i++) {
+            if (i % 5 == 0) {
+                assertFalse(columns.isValid(i));
+            } else {
+                assertTrue(columns.isValid(i));
+                assertEquals(1000 + i % 9000, columns.getAuthority()[i]);
+                assertEquals(i % 1000, columns.getType()[i]);
+                assertEquals(1523540718486L + i, columns.getEpochMillis()[i]);
+            }
+        }
+    }
+
+    @Test
+    public void itShouldDecodeSequentialLists() {
+        List<String> encoded = new LinkedList<>(Arrays.asList(fixture(1).getEncodedForm(), fixture(2).getEncodedForm()));
+
+        RNColumns columns = RNColumns.decode(encoded);
+
+        assertEquals(2, columns.validCount());
+        assertEquals(1002, columns.getAuthority()[1]);
+    }
+
+    private RN fixture(int i) {
+        ZonedDateTime instant = ZonedDateTime.ofInstant(Instant.ofEpochMilli(1523540718486L + i), ZoneOffset.UTC);
+        return new RN(new Authority(1000 + i % 9000), new Instance(5), new Type(i % 1000), instant, new Version(0));
+    }
+}
@@ -0,0 +1,191 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.bulk;
+
+import static org.junit.Assert.*;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import uk.gov.food.rn.PackedRN;
+
+/**
+ * Unit tests on {@link RNScanner}
+ */
+public class RNScannerTest {
+    private static final String RN = "H31DDZ-TFSV8C-KELK2B";
+
+    @Test
+    public void itShouldFindRNsInText() {
+        String text = "Ref: " + RN + ", also H31DDZTFSV8CKELK2B; not H31DDZ-TFSV8C-KELK2C.";
+        List<RNScanner.Match> matches = RNScanner.findAll(text);
+
+        assertEquals(2, matches.size());
+        assertEquals(5, matches.get(0).getStart());
+        assertEquals(5 + RN.length(), matches.get(0).getEnd());
+        assertEquals(RN, matches.get(0).toRN().getEncodedForm());
+        assertEquals(1234, PackedRN.authority(matches.get(0).getHigh()));
+        assertEquals(1523536491468L, PackedRN.epochMilli(matches.get(0).getLow()));
+        assertEquals(text.indexOf("H31DDZTF"), matches.get(1).getStart());
+    }
+
+    @Test
+    public void itShouldOnlyFindRNsThatStandAlone() {
+        assertTrue(RNScanner.findAll("x" + RN).isEmpty());
+        assertTrue(RNScanner.findAll(RN + "x").isEmpty());
+        assertTrue(RNScanner.findAll("A" + RN).isEmpty());
+        assertTrue(RNScanner.findAll(RN + "7").isEmpty());
+        assertTrue(RNScanner.findAll("H31DDZ--TFSV8C-KELK2B").isEmpty());
+        assertEquals(1, RNScanner.findAll("(" + RN + ")").size());
+        assertEquals(1, RNScanner.findAll("id=" + RN + "-").size());
+        assertEquals(1, RNScanner.findAll(RN).size());
+    }
+
+    @Test
+    public void itShouldClassOnlyLettersAndDigitsBeyondAsciiAsWordCharacters() throws IOException {
+        // No-break spaces, curly quotes, an em dash and an emoji separate words
+        for (String[] around : new String[][] { { "\u00A0", "\u00A0" }, { "\u201C", "\u201D" },
+                                                 { "\u2014", "\u2026" }, { "\uD83D\uDE00", "\uD83D\uDE00" } }) {
+            assertEquals(1, count(around[0] + RN + around[1]));
+        }
+        // Accented letters, a non-ASCII digit and a letter outside the BMP do not
+        for (String word : new String[] { "\u00E9", "\u0416", "\u0663", "\uD835\uDC00" }) {
+            assertEquals(0, count(word + RN));
+            assertEquals(0, count(RN + word));
+        }
+    }
+
+    /** @return The number of RNs found in some text, which must agree across text, a reader and UTF-8 bytes */
+    private static int count(String text) throws IOException {
+        int found = RNScanner.findAll(text).size();
+
+        RNScanner scanner = new RNScanner((start, end, high, low) -> { });
+        scanner.scan(new FilterReader(new StringReader(text)) {
+            @Override
+            public int read(char[] buf, int off, int len) throws IOException {
+                return super.read(buf, off, Math.min(len, 1));
+            }
+        });
+        assertEquals(text, found, scanner.getFound());
+
+        ByteBuffer bytes = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        for (int chunk : new int[] { 1, 2, 3, bytes.limit() }) {
+            scanner = new RNScanner((start, end, high, low) -> { });
+            for (int from = 0; from < bytes.limit(); from += chunk) {
+                scanner.scan(bytes, from, Math.min(bytes.limit(), from + chunk));
+            }
+            assertEquals(text + " in chunks of " + chunk, found, scanner.getFound());
+        }
+        return found;
+    }
+
+    @Test
+    public void itShouldNotFindRNsJoinedToAWordByAHyphen() throws IOException {
+        // Words of letters outside the alphabet, of alphabet letters, and too long to be an RN
+        for (String word : new String[] { "foo", "UK", "ABC", "ABCDEFGHJKLMNPQRSTVW", "x_1" }) {
+            assertEquals(word, 0, count(word + "-" + RN));
+            assertEquals(word, 0, count(RN + "-" + word));
+            assertEquals(word, 1, count(word + " - " + RN));
+            assertEquals(word, 1, count(RN + " -" + word));
+        }
+        assertEquals(1, count("-" + RN + "-"));
+        assertEquals(1, count(RN + "--"));
+    }
+
+    @Test
+    public void itShouldCountCandidates() {
+        List<RNScanner.Match> matches = new ArrayList<>();
+        RNScanner scanner = new RNScanner((start, end, high, low) -> matches.add(new RNScanner.Match(start, end, high, low)));
+        scanner.scan("H31DDZ-TFSV8C-KELK2C " + RN + " ABC");
+
+        assertEquals(2, scanner.getCandidates());
+        assertEquals(1, scanner.getFound());
+        assertEquals(1, matches.size());
+    }
+
+    @Test
+    public void itShouldScanReadersAndBuffers() throws IOException {
+        String text = sampleText(new Random(1), 2000);
+        List<RNScanner.Match> expected = RNScanner.findAll(text);
+
+        List<RNScanner.Match> fromReader = new ArrayList<>();
+        new RNScanner((start, end, high, low) -> fromReader.add(new RNScanner.Match(start, end, high, low)))
+            .scan(new StringReader(text));
+        assertSame(expected, fromReader);
+
+        List<RNScanner.Match> fromBytes = new ArrayList<>();
+        new RNScanner((start, end, high, low) -> fromBytes.add(new RNScanner.Match(start, end, high, low)))
+            .scan(ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII)));
+        assertSame(expected, fromBytes);
+        assertTrue(expected.size() > 100);
+    }
+
+    @Test
+    public void itShouldFindEachRNOnceAcrossChunks() {
+        String text = sampleText(new Random(2), 500);
+        ByteBuffer bytes = ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+        List<RNScanner.Match> expected = RNScanner.findAll(text);
+
+        for (int chunk : new int[] { 1, 7, 19, 20, 21, 64, 1000 }) {
+            List<RNScanner.Match> found = new ArrayList<>();
+            for (int from = 0; from < text.length(); from += chunk) {
+                new RNScanner((start, end, high, low) -> found.add(new RNScanner.Match(start, end, high, low)))
+                    .scan(bytes, from, Math.min(text.length(), from + chunk));
+            }
+            assertSame(expected, found);
+        }
+    }
+
+    @Test
+    public void itShouldScanFiles() throws IOException {
+        String text = sampleText(new Random(3), 1000);
+        Path file = Files.createTempFile("rn-scan", ".txt");
+        try {
+            Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+            assertSame(RNScanner.findAll(text), RNScanner.findAll(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /** Log-like lines, some holding valid RNs and some near misses */
+    private static String sampleText(Random random, int lines) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            String encoded = PackedRN.encode(PackedRN.high(1000 + random.nextInt(9000), random.nextInt(1000), random.nextInt(1000)),
+                                             PackedRN.low(1514764800000L + random.nextInt(Integer.MAX_VALUE), 0));
+            switch (random.nextInt(4)) {
+            case 0:
+                encoded = encoded.replace("-", "");
+                break;
+            case 1:
+                encoded = encoded.substring(0, 5) + "QQ" + encoded.substring(7);
+                break;
+            default:
+                break;
+            }
+            text.append("2018-04-12 INFO request ").append(i).append(" for ").append(encoded)
+                .append(random.nextBoolean() ? " ok\n" : ", RETRY-AFTER 10\n");
+        }
+        return text.toString();
+    }
+
+    private static void assertSame(List<RNScanner.Match> expected, List<RNScanner.Match> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).toString(), actual.get(i).toString());
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.collection;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+/**
+ * Unit tests on {@link MillisecondBitmap}
+ */
+public class MillisecondBitmapTest {
+    private static final long START = 1514764800000L;
+
+    @Test
+    public void itShouldAgreeWithATreeSet() {
+        Random random = new Random(11);
+        MillisecondBitmap bitmap = new MillisecondBitmap();
+        TreeSet<Long> expected = new TreeSet<>();
+        for (int k = 0; k < 20_000; k++) {
+            // Dense enough around START for some containers to become bitmaps
+            long millis = START + (k % 2 == 0 ? random.nextInt(10_000) : random.nextInt(1 << 24));
+            assertEquals(expected.add(millis), bitmap.add(millis));
+        }
+        assertEquals(expected.size(), bitmap.cardinality());
+        for (int k = 0; k < 20_000; k++) {
+            long millis = START - 1000 + random.nextInt(1 << 24);
+            assertEquals(expected.contains(millis), bitmap.contains(millis));
+            assertEquals(nextAbsent(expected, millis), bitmap.nextAbsent(millis));
+            assertEquals(previousAbsent(expected, millis), bitmap.previousAbsent(millis));
+        }
+        assertTrue(bitmap.toString().contains("bitmap containers"));
+    }
+
+    @Test
+    public void itShouldSkipFullContainers() {
+        MillisecondBitmap bitmap = new MillisecondBitmap();
+        long base = START & ~0xFFFFL;
+        for (long t = base - 10; t < base + 3 * 65536 + 10; t++) {
+            bitmap.add(t);
+        }
+        assertEquals(base + 3 * 65536 + 10, bitmap.nextAbsent(base + 5));
+        assertEquals(base - 11, bitmap.previousAbsent(base + 3 * 65536));
+        assertTrue(bitmap.sizeInBytes() >= 3 * 8192);
+    }
+
+    @Test
+    public void itShouldFindTheNearestAbsentTime() {
+        MillisecondBitmap bitmap = new MillisecondBitmap();
+        assertEquals(START, bitmap.nearestAbsent(START, 0, Long.MAX_VALUE));
+        for (long t = START - 2; t <= START + 3; t++) {
+            bitmap.add(t);
+        }
+        assertEquals(START - 3, bitmap.nearestAbsent(START - 1, 0, Long.MAX_VALUE));
+        assertEquals(START + 4, bitmap.nearestAbsent(START + 1, 0, Long.MAX_VALUE));
+        // Equally near: the later wins
+        bitmap.add(START + 4);
+        bitmap.add(START - 3);
+        assertEquals(START + 5, bitmap.nearestAbsent(START + 1, 0, Long.MAX_VALUE));
+        // Limited by the range
+        assertEquals(START - 4, bitmap.nearestAbsent(START, 0, START + 4));
+        assertEquals(-1, bitmap.nearestAbsent(START, START - 3, START + 4));
+        // Moved into the range first
+        assertEquals(START + 5, bitmap.nearestAbsent(START + 100, 0, START + 5));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void itShouldRefuseTimesBeforeTheEpoch() {
+        new MillisecondBitmap().add(-1);
+    }
+
+    private static long nextAbsent(TreeSet<Long> set, long millis) {
+        while (set.contains(millis)) {
+            millis++;
+        }
+        return millis;
+    }
+
+    private static long previousAbsent(TreeSet<Long> set, long millis) {
+        while (set.contains(millis)) {
+            millis--;
+        }
+        return millis;
+    }
+}
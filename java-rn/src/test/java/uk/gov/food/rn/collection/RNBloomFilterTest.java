@@ -0,0 +1,179 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.collection;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import uk.gov.food.rn.Authority;
+import uk.gov.food.rn.Instance;
+import uk.gov.food.rn.PackedRN;
+import uk.gov.food.rn.RN;
+import uk.gov.food.rn.RNException;
+import uk.gov.food.rn.RNFactory;
+import uk.gov.food.rn.Type;
+
+/**
+ * Unit tests on {@link RNBloomFilter}
+ */
+public class RNBloomFilterTest {
+    /**
+     * RNs from one generator, as a duplicate guard sees them, share their high half and differ
+     * only a little in the low half, which the filter's hashes must still spread
+     */
+    private static final long HIGH = PackedRN.high(6544, 7, 4);
+    private static final long START = 1514764800000L;
+
+    /** @return The low half of the k'th RN, with ten versions in each millisecond */
+    private static long low(int k) {
+        return PackedRN.low(START + k / 10, k % 10);
+    }
+
+    @Test
+    public void itShouldHaveNoFalseNegatives() {
+        RNBloomFilter filter = RNBloomFilter.create(10_000, 0.01);
+        for (int k = 0; k < 10_000; k++) {
+            filter.add(HIGH, low(k));
+        }
+        for (int k = 0; k < 10_000; k++) {
+            assertTrue(filter.mightContain(HIGH, low(k)));
+        }
+    }
+
+    @Test
+    public void itShouldKeepToItsFalsePositiveRate() {
+        RNBloomFilter filter = RNBloomFilter.create(10_000, 0.01);
+        for (int k = 0; k < 10_000; k++) {
+            filter.add(HIGH, low(k));
+        }
+        int positives = 0;
+        for (int k = 10_000; k < 110_000; k++) {
+            if (filter.mightContain(HIGH, low(k))) {
+                positives++;
+            }
+        }
+        assertTrue("False positive rate " + positives / 100_000.0, positives < 1_000);
+        assertTrue(filter.expectedFalsePositiveRate() < 0.01);
+    }
+
+    @Test
+    public void itShouldTellVersionsApart() {
+        RNBloomFilter filter = RNBloomFilter.create(100, 0.001);
+        assertTrue(filter.add(HIGH, low(0)));
+        assertFalse(filter.add(HIGH, low(0)));
+        assertFalse(filter.mightContain(HIGH, low(1)));
+    }
+
+    @Test
+    public void itShouldAddFromSeveralThreads() throws InterruptedException {
+        RNBloomFilter filter = RNBloomFilter.create(40_000, 0.01);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int from = t * 10_000;
+            Thread thread = new Thread(() -> {
+                for (int k = from; k < from + 10_000; k++) {
+                    filter.add(HIGH, low(k));
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int k = 0; k < 40_000; k++) {
+            assertTrue(filter.mightContain(HIGH, low(k)));
+        }
+    }
+
+    @Test
+    public void itShouldMergeSnapshotsFromOtherNodes() throws IOException {
+        RNBloomFilter mine = RNBloomFilter.create(1_000, 0.01);
+        RNBloomFilter theirs = RNBloomFilter.create(1_000, 0.01);
+        for (int k = 0; k < 500; k++) {
+            mine.add(HIGH, low(k));
+            theirs.add(HIGH, low(k + 500));
+        }
+
+        Path file = Files.createTempFile("rn-bloom", ".snapshot");
+        try {
+            theirs.writeSnapshot(file);
+            RNBloomFilter copy = RNBloomFilter.readSnapshot(file);
+            assertEquals(theirs.getBlocks(), copy.getBlocks());
+            assertEquals(theirs.getHashes(), copy.getHashes());
+            assertEquals(theirs.bitCount(), copy.bitCount());
+
+            mine.merge(file);
+        } finally {
+            Files.delete(file);
+        }
+        for (int k = 0; k < 1_000; k++) {
+            assertTrue(mine.mightContain(HIGH, low(k)));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void itShouldRefuseToMergeAFilterOfAnotherShape() {
+        RNBloomFilter.create(1_000, 0.01).merge(RNBloomFilter.create(100_000, 0.01));
+    }
+
+    @Test(expected = IOException.class)
+    public void itShouldRefuseAFileThatIsNotASnapshot() throws IOException {
+        Path file = Files.createTempFile("rn-bloom", ".snapshot");
+        try {
+            Files.write(file, new byte[64]);
+            RNBloomFilter.readSnapshot(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void factoriesShouldPassOverTimesTheGuardHolds() {
+        RNFactory factory = RNFactory.getFactory(new Authority(6543), new Instance(21), new Type(9));
+        RNBloomFilter guard = RNBloomFilter.create(1_000, 0.001);
+        long high = PackedRN.high(6543, 21, 9);
+        long now = System.currentTimeMillis();
+        for (long t = now; t <= now + 50; t++) {
+            guard.add(high, PackedRN.low(t, 0));
+        }
+        long skipped = factory.getMetrics().getGuardSkips();
+        factory.setDuplicateGuard(guard);
+        try {
+            RN rn = factory.generateReferenceNumber();
+            long issued = PackedRN.epochMilli(PackedRN.low(rn));
+            assertTrue(issued > now + 50);
+            assertTrue(factory.getMetrics().getGuardSkips() > skipped);
+            assertTrue(guard.mightContain(rn));
+        } finally {
+            factory.setDuplicateGuard(null);
+        }
+    }
+
+    @Test
+    public void factoriesShouldGiveUpOnASaturatedGuard() {
+        RNFactory factory = RNFactory.getFactory(new Authority(6543), new Instance(22), new Type(9));
+        RNBloomFilter guard = new RNBloomFilter(1, 1);
+        for (int k = 0; guard.bitCount() < RNBloomFilter.BLOCK_WORDS * Long.SIZE; k++) {
+            guard.add(HIGH, low(k));
+        }
+        factory.setDuplicateGuard(guard);
+        try {
+            factory.generateReferenceNumber();
+            fail("Expected the guard to be reported as saturated");
+        } catch (RNException e) {
+            assertTrue(e.getMessage().contains("saturated"));
+        } finally {
+            factory.setDuplicateGuard(null);
+        }
+    }
+}
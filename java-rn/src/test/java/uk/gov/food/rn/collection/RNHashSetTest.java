@@ -0,0 +1,132 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.collection;
+
+import static org.junit.Assert.*;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import uk.gov.food.rn.Authority;
+import uk.gov.food.rn.Instance;
+import uk.gov.food.rn.PackedRN;
+import uk.gov.food.rn.RN;
+import uk.gov.food.rn.RNException;
+import uk.gov.food.rn.Type;
+import uk.gov.food.rn.Version;
+
+/**
+ * Unit tests on {@link RNHashSet}
+ */
+public class RNHashSetTest {
+
+    @Test
+    public void itShouldAddAndFindMembers() {
+        RNHashSet set = new RNHashSet();
+        RN rn = fixture(0);
+
+        assertTrue(set.add(rn));
+        assertFalse(set.add(rn));
+        assertTrue(set.contains(rn));
+        assertTrue(set.contains(rn.getEncodedForm()));
+        assertFalse(set.contains(fixture(1)));
+        assertFalse(set.contains("AI0"));
+        assertEquals(1, set.size());
+    }
+
+    @Test
+    public void itShouldAddEncodedForms() {
+        RNHashSet set = new RNHashSet();
+
+        assertTrue(set.add("H31DDZ-TFSV8C-KELK2B"));
+        assertTrue(set.contains("H31DDZTFSV8CKELK2B"));
+        try {
+            set.add("H31DDZ-TFSV8C-KELK2C");
+            fail("Should be rejected");
+        }
+        catch (RNException e) {
+            assertEquals("Value 'H31DDZ-TFSV8C-KELK2C' does not have intact check digits", e.getMessage());
+        }
+    }
+
+    @Test
+    public void itShouldRejectAZeroHighHalf() {
+        RNHashSet set = new RNHashSet();
+        try {
+            set.add(0, 42);
+            fail("Expected a zero high half to be rejected");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        assertTrue(set.isEmpty());
+        assertFalse(set.contains(0, 42));
+    }
+
+    @Test
+    public void itShouldAgreeWithHashSetThroughGrowthAndRemoval() {
+        for (boolean offHeap : new boolean[] { false, true }) {
+            RNHashSet set = new RNHashSet(4, offHeap);
+            Set<RN> expected = new HashSet<>();
+            Random random = new Random(1087);
+
+            for (int n = 0; n < 20000; n++) {
+                RN rn = fixture(random.nextInt(5000));
+                if (random.nextInt(4) == 0) {
+                    assertEquals(expected.remove(rn), set.remove(rn));
+                } else {
+                    assertEquals(expected.add(rn), set.add(rn));
+                }
+            }
+
+            assertEquals(offHeap, set.isOffHeap());
+            assertEquals(expected.size(), set.size());
+            for (int i = 0; i < 5000; i++) {
+                assertEquals(expected.contains(fixture(i)), set.contains(fixture(i)));
+            }
+
+            AtomicLong visited = new AtomicLong();
+            set.forEach((high, low) -> {
+                assertTrue(expected.contains(PackedRN.toRN(high, low)));
+                visited.incrementAndGet();
+            });
+            assertEquals(expected.size(), visited.get());
+
+            set.clear();
+            assertTrue(set.isEmpty());
+        }
+    }
+
+    @Test
+    public void itShouldAllowConcurrentReadersAndWriters() throws InterruptedException {
+        RNHashSet set = new RNHashSet();
+        Thread[] writers = new Thread[4];
+        for (int w = 0; w < writers.length; w++) {
+            final int from = w * 10000;
+            writers[w] = new Thread(() -> {
+                for (int i = from; i < from + 10000; i++) {
+                    set.add(PackedRN.high(1000 + i % 9000, i / 9000, 1), PackedRN.low(1523540718486L, 0));
+                    assertTrue(set.contains(PackedRN.high(1000 + from % 9000, from / 9000, 1), PackedRN.low(1523540718486L, 0)));
+                }
+            });
+            writers[w].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        assertEquals(40000, set.size());
+    }
+
+    static RN fixture(int i) {
+        ZonedDateTime instant = ZonedDateTime.ofInstant(Instant.ofEpochMilli(1523540718486L + i / 7), ZoneOffset.UTC);
+        return new RN(new Authority(1000 + i % 7), new Instance(5), new Type(6), instant, new Version(0));
+    }
+}
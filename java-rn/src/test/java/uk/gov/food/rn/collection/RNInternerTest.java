@@ -0,0 +1,113 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.collection;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import uk.gov.food.rn.PackedRN;
+import uk.gov.food.rn.RN;
+
+/**
+ * Unit tests on {@link RNInterner}
+ */
+public class RNInternerTest {
+    private static final long START = 1514764800000L;
+
+    private static long high(int k) {
+        return PackedRN.high(1000 + k % 9000, k % 1000, 3);
+    }
+
+    private static long low(int k) {
+        return PackedRN.low(START + k, 0);
+    }
+
+    @Test
+    public void itShouldReturnOneInstancePerPackedValue() {
+        RNInterner interner = new RNInterner(1024);
+        RN first = interner.intern(high(1), low(1));
+        assertSame(first, interner.intern(high(1), low(1)));
+        assertSame(first, interner.intern(new RN(first.getEncodedForm())));
+        assertNotSame(first, interner.intern(high(2), low(2)));
+        assertEquals(2, interner.size());
+        assertEquals(2, interner.getHits());
+        assertEquals(2, interner.getMisses());
+    }
+
+    @Test
+    public void itShouldPoolTheFirstInstanceGiven() {
+        RNInterner interner = new RNInterner(16);
+        RN given = PackedRN.toRN(high(5), low(5));
+        assertSame(given, interner.intern(given));
+        assertSame(given, interner.intern(PackedRN.toRN(high(5), low(5))));
+    }
+
+    @Test
+    public void itShouldKeepVersionsApart() {
+        RNInterner interner = new RNInterner(16);
+        RN v0 = interner.intern(high(1), PackedRN.low(START, 0));
+        RN v1 = interner.intern(high(1), PackedRN.low(START, 1));
+        assertNotSame(v0, v1);
+        assertEquals(0, v0.getVersion().getId());
+        assertEquals(1, v1.getVersion().getId());
+    }
+
+    @Test
+    public void itShouldStayWithinCapacity() {
+        RNInterner interner = new RNInterner(64);
+        assertEquals(64, interner.capacity());
+        for (int k = 0; k < 1000; k++) {
+            interner.intern(high(k), low(k));
+        }
+        assertTrue(interner.size() <= 64);
+        assertTrue(interner.getReplaced() >= 1000 - 64);
+    }
+
+    @Test
+    public void itShouldAgreeBetweenThreads() throws InterruptedException {
+        RNInterner interner = new RNInterner(1 << 16);
+        int n = 1000;
+        RN[][] seen = new RN[4][n];
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < seen.length; t++) {
+            RN[] mine = seen[t];
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int k = 0; k < n; k++) {
+                    mine[k] = interner.intern(high(k), low(k));
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, interner.getReplaced());
+        for (int k = 0; k < n; k++) {
+            for (int t = 1; t < seen.length; t++) {
+                assertSame(seen[0][k], seen[t][k]);
+            }
+        }
+    }
+
+    @Test
+    public void itShouldCacheTheHashOfAnRN() {
+        RN rn = PackedRN.toRN(high(7), low(7));
+        assertEquals(PackedRN.hash(high(7), low(7)), rn.hashCode());
+        assertEquals(rn.hashCode(), rn.hashCode());
+    }
+}
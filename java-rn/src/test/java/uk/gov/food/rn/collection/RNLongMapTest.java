@@ -0,0 +1,66 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.collection;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import uk.gov.food.rn.RN;
+
+/**
+ * Unit tests on {@link RNLongMap}
+ */
+public class RNLongMapTest {
+
+    @Test
+    public void itShouldPutAndGetValues() {
+        RNLongMap map = new RNLongMap(16, true, -1);
+        RN rn = RNHashSetTest.fixture(0);
+
+        assertEquals(-1, map.put(rn, 42));
+        assertEquals(42, map.put(rn.getEncodedForm(), 43));
+        assertEquals(43, map.get(rn));
+        assertEquals(43, map.get(rn.getEncodedForm()));
+        assertEquals(-1, map.get("AI0"));
+        assertTrue(map.containsKey(rn));
+        assertEquals(43, map.remove(rn));
+        assertFalse(map.containsKey(rn.getEncodedForm()));
+        assertEquals(-1, map.get(rn));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void itShouldRejectAZeroHighHalf() {
+        new RNLongMap().put(0, 42, 1);
+    }
+
+    @Test
+    public void itShouldAgreeWithHashMap() {
+        RNLongMap map = new RNLongMap();
+        Map<RN, Long> expected = new HashMap<>();
+        Random random = new Random(33);
+
+        for (int n = 0; n < 20000; n++) {
+            RN rn = RNHashSetTest.fixture(random.nextInt(3000));
+            if (random.nextInt(5) == 0) {
+                Long previous = expected.remove(rn);
+                assertEquals(previous == null ? Long.MIN_VALUE : previous, map.remove(rn));
+            } else {
+                Long previous = expected.put(rn, (long) n);
+                assertEquals(previous == null ? Long.MIN_VALUE : previous, map.put(rn, n));
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<RN, Long> entry : expected.entrySet()) {
+            assertEquals((long) entry.getValue(), map.get(entry.getKey()));
+        }
+        map.forEach((high, low, value) -> assertEquals(value, map.get(high, low)));
+    }
+}
@@ -0,0 +1,114 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.collection;
+
+import static org.junit.Assert.*;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import uk.gov.food.rn.Authority;
+import uk.gov.food.rn.Instance;
+import uk.gov.food.rn.PackedRN;
+import uk.gov.food.rn.RN;
+import uk.gov.food.rn.Type;
+import uk.gov.food.rn.Version;
+
+/**
+ * Unit tests on {@link RNSort}
+ */
+public class RNSortTest {
+
+    @Test
+    public void itShouldCompareLikeCompareTo() {
+        Random random = new Random(1087);
+        for (int n = 0; n < 1000; n++) {
+            RN a = fixture(random);
+            RN b = fixture(random);
+            assertEquals(Integer.signum(a.compareTo(b)), Integer.signum(RNSort.PACKED_ORDER.compare(a, b)));
+        }
+    }
+
+    @Test
+    public void itShouldSortLikeArraysSort() {
+        for (int n : new int[] { 0, 1, 10, RNSort.RADIX_THRESHOLD, 5000 }) {
+            RN[] rns = fixtures(n, new Random(n));
+            RN[] expected = rns.clone();
+            Arrays.sort(expected);
+
+            RNSort.sort(rns);
+            assertSameElements(expected, rns);
+        }
+    }
+
+    @Test
+    public void itShouldSortLargeArraysInParallel() {
+        RN[] rns = fixtures(RNSort.PARALLEL_THRESHOLD * 2 + 3, new Random(33));
+        RN[] expected = rns.clone();
+        Arrays.sort(expected);
+
+        RNSort.parallelSort(rns);
+        assertSameElements(expected, rns);
+    }
+
+    @Test
+    public void itShouldSortPackedKeys() {
+        for (boolean parallel : new boolean[] { false, true }) {
+            Random random = new Random(1089);
+            int n = RNSort.PARALLEL_THRESHOLD + 7;
+            long[] high = new long[n];
+            long[] low = new long[n];
+            long[][] expected = new long[n][];
+            for (int i = 0; i < n; i++) {
+                RN rn = fixture(random);
+                high[i] = PackedRN.high(rn);
+                low[i] = PackedRN.low(rn);
+                expected[i] = new long[] { high[i], low[i] };
+            }
+            Arrays.sort(expected, (x, y) -> x[0] != y[0] ? Long.compare(x[0], y[0]) : Long.compare(x[1], y[1]));
+
+            if (parallel) {
+                RNSort.parallelSort(high, low);
+            } else {
+                RNSort.sort(high, low);
+            }
+            for (int i = 0; i < n; i++) {
+                assertEquals(expected[i][0], high[i]);
+                assertEquals(expected[i][1], low[i]);
+            }
+        }
+    }
+
+    /** Arrays.sort is stable, so equal RNs should appear in the same order by identity */
+    private void assertSameElements(RN[] expected, RN[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertSame(expected[i], actual[i]);
+        }
+    }
+
+    private RN[] fixtures(int n, Random random) {
+        RN[] rns = new RN[n];
+        for (int i = 0; i < n; i++) {
+            rns[i] = fixture(random);
+        }
+        return rns;
+    }
+
+    private RN fixture(Random random) {
+        // A narrow spread of fields, so that there are ties and shared digits
+        long millis = 1523540718486L + random.nextInt(86400000);
+        return new RN(new Authority(1000 + random.nextInt(20)),
+                      new Instance(random.nextInt(3)),
+                      new Type(random.nextInt(3)),
+                      ZonedDateTime.ofInstant(Instant.ofEpochMilli(millis - millis % (1 + random.nextInt(100000))), ZoneOffset.UTC),
+                      new Version(random.nextInt(2)));
+    }
+}
@@ -0,0 +1,185 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.issuance;
+
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import uk.gov.food.rn.Authority;
+import uk.gov.food.rn.Instance;
+import uk.gov.food.rn.PackedRN;
+import uk.gov.food.rn.RN;
+import uk.gov.food.rn.RNFactory;
+import uk.gov.food.rn.Type;
+
+/**
+ * Unit tests on {@link IdempotentIssuer}
+ */
+public class IdempotentIssuerTest {
+    private final RNFactory factory = RNFactory.getFactory(new Authority(7654), new Instance(32), new Type(10));
+
+    @Test
+    public void itShouldReturnTheSameRNForARetry() {
+        IdempotentIssuer issuer = new IdempotentIssuer(factory, 100, Duration.ofMinutes(5));
+        RN first = issuer.issue("request-1");
+        RN second = issuer.issue("request-2");
+        assertNotEquals(first.getEncodedForm(), second.getEncodedForm());
+        assertSame(first, issuer.issue("request-1"));
+        assertSame(second, issuer.issue("request-2"));
+        assertEquals(2, issuer.getIssued());
+        assertEquals(2, issuer.getHits());
+    }
+
+    @Test
+    public void itShouldIssueOnceForConcurrentRetries() throws InterruptedException {
+        IdempotentIssuer issuer = new IdempotentIssuer(factory, 100, Duration.ofMinutes(5));
+        List<RN> results = new ArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                RN rn = issuer.issue("retried");
+                synchronized (results) {
+                    results.add(rn);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(8, results.size());
+        for (RN rn : results) {
+            assertSame(results.get(0), rn);
+        }
+        assertEquals(1, issuer.getIssued());
+    }
+
+    @Test
+    public void itShouldForgetKeysOnceTheirTimeToLivePasses() {
+        AtomicLong now = new AtomicLong();
+        IdempotentIssuer issuer = new IdempotentIssuer(factory, 100, Duration.ofSeconds(10), null, now::get);
+        RN first = issuer.issue("request");
+        now.addAndGet(Duration.ofSeconds(9).toMillis());
+        assertSame(first, issuer.issue("request"));
+
+        now.addAndGet(Duration.ofSeconds(1).toMillis());
+        RN second = issuer.issue("request");
+        assertNotEquals(first.getEncodedForm(), second.getEncodedForm());
+        assertEquals(1, issuer.getExpirations());
+        assertEquals(1, issuer.size());
+    }
+
+    /** A spill kept in a map */
+    private static class MapSpill implements IdempotencySpill {
+        final Map<String, long[]> store = new ConcurrentHashMap<>();
+
+        @Override
+        public void spill(String key, long high, long low, long issuedAt) {
+            store.put(key, new long[] { high, low, issuedAt });
+        }
+
+        @Override
+        public boolean recall(String key, long[] packed) {
+            long[] found = store.get(key);
+            if (found == null) {
+                return false;
+            }
+            System.arraycopy(found, 0, packed, 0, 3);
+            return true;
+        }
+    }
+
+    @Test
+    public void itShouldSpillAndRecallKeysBeyondCapacity() {
+        MapSpill spill = new MapSpill();
+        Map<String, long[]> store = spill.store;
+        IdempotentIssuer issuer = new IdempotentIssuer(factory, 4, Duration.ofMinutes(5), spill);
+        List<RN> rns = new ArrayList<>();
+        for (int k = 0; k < 10; k++) {
+            rns.add(issuer.issue("request-" + k));
+        }
+        assertEquals(4, issuer.size());
+        assertEquals(6, issuer.getEvictions());
+        assertEquals(6, store.size());
+        assertTrue(store.containsKey("request-0"));
+
+        assertEquals(rns.get(0).getEncodedForm(), issuer.issue("request-0").getEncodedForm());
+        assertEquals(1, issuer.getRecalled());
+        assertEquals(10, issuer.getIssued());
+    }
+
+    @Test
+    public void itShouldKeepAKeyInMemoryUntilItHasBeenSpilled() {
+        IdempotentIssuer[] issuer = new IdempotentIssuer[1];
+        List<String> retried = new ArrayList<>();
+        MapSpill spill = new MapSpill() {
+            @Override
+            public void spill(String key, long high, long low, long issuedAt) {
+                // A retry that arrives while the key is being spilled still finds its RN
+                RN again = issuer[0].issue(key);
+                assertEquals(PackedRN.toRN(high, low).getEncodedForm(), again.getEncodedForm());
+                retried.add(key);
+                super.spill(key, high, low, issuedAt);
+            }
+        };
+        issuer[0] = new IdempotentIssuer(factory, 1, Duration.ofMinutes(5), spill);
+        issuer[0].issue("a");
+        issuer[0].issue("b");
+        assertEquals(1, retried.size());
+        assertEquals(2, issuer[0].getIssued());
+    }
+
+    @Test
+    public void itShouldIgnoreSpilledKeysOnceTheirTimeToLivePasses() {
+        AtomicLong now = new AtomicLong(1_600_000_000_000L);
+        MapSpill spill = new MapSpill();
+        IdempotentIssuer issuer = new IdempotentIssuer(factory, 1, Duration.ofSeconds(10), spill, now::get);
+        RN first = issuer.issue("a");
+        issuer.issue("b");
+        assertEquals(now.get(), spill.store.get("a")[2]);
+
+        // Recalled within its time to live, which still runs from when it was first issued
+        now.addAndGet(Duration.ofSeconds(6).toMillis());
+        assertEquals(first.getEncodedForm(), issuer.issue("a").getEncodedForm());
+        assertEquals(1, issuer.getRecalled());
+        issuer.issue("c");
+        now.addAndGet(Duration.ofSeconds(4).toMillis());
+        assertNotEquals(first.getEncodedForm(), issuer.issue("a").getEncodedForm());
+        assertEquals(1, issuer.getRecalled());
+        assertTrue(issuer.getExpirations() > 0);
+    }
+
+    @Test
+    public void itShouldForgetEvictedKeysWithoutASpill() {
+        IdempotentIssuer issuer = new IdempotentIssuer(factory, 2, Duration.ofMinutes(5));
+        RN first = issuer.issue("a");
+        issuer.issue("b");
+        issuer.issue("c");
+        assertEquals(2, issuer.size());
+        assertNotEquals(first.getEncodedForm(), issuer.issue("a").getEncodedForm());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void itShouldRequireAKey() {
+        new IdempotentIssuer(factory, 10, Duration.ofMinutes(5)).issue(null);
+    }
+}
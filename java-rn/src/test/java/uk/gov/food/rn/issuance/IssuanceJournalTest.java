@@ -0,0 +1,405 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.issuance;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.gov.food.rn.Authority;
+import uk.gov.food.rn.Instance;
+import uk.gov.food.rn.PackedRN;
+import uk.gov.food.rn.RN;
+import uk.gov.food.rn.RNFactory;
+import uk.gov.food.rn.Type;
+
+/**
+ * Unit tests on {@link IssuanceJournal}
+ */
+public class IssuanceJournalTest {
+    private static final long START = 1514764800000L;
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("rn-journal");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void itShouldReplayEveryRNInOrderAcrossSegments() throws IOException {
+        try (IssuanceJournal journal = IssuanceJournal.open(dir, 100, (high, low) -> fail())) {
+            for (int k = 0; k < 250; k++) {
+                journal.append(PackedRN.high(1000 + k % 3, 1, 2), PackedRN.low(START + k, 0));
+            }
+            journal.flush();
+            assertEquals(250, journal.getDurable());
+        }
+        assertEquals(3, segments().size());
+
+        List<Long> replayed = new ArrayList<>();
+        try (IssuanceJournal journal = IssuanceJournal.open(dir, 100, (high, low) -> replayed.add(low))) {
+            assertEquals(250, journal.getAppended());
+            assertEquals(3, journal.getHighWaterMarks().size());
+            assertEquals(START + 249, (long) journal.getHighWaterMarks().get(PackedRN.high(1000, 1, 2)));
+            assertEquals(START + 248, (long) journal.getHighWaterMarks().get(PackedRN.high(1002, 1, 2)));
+
+            // The last segment has room, so it is reopened rather than a new one started
+            journal.append(PackedRN.high(1000, 1, 2), PackedRN.low(START + 250, 0));
+            journal.flush();
+        }
+        assertEquals(250, replayed.size());
+        for (int k = 0; k < 250; k++) {
+            assertEquals(PackedRN.low(START + k, 0), (long) replayed.get(k));
+        }
+        assertEquals(3, segments().size());
+        assertEquals(251, IssuanceJournal.replay(dir, (high, low) -> { }));
+    }
+
+    @Test
+    public void itShouldCutOffAHalfWrittenRecord() throws IOException {
+        try (IssuanceJournal journal = IssuanceJournal.open(dir, 100, (high, low) -> { })) {
+            for (int k = 0; k < 150; k++) {
+                journal.append(PackedRN.high(1000, 1, 2), PackedRN.low(START + k, 0));
+            }
+        }
+        Path last = segments().get(1);
+        try (RandomAccessFile file = new RandomAccessFile(last.toFile(), "rw")) {
+            file.setLength(file.length() - 3);
+        }
+        assertEquals(149, IssuanceJournal.replay(dir, (high, low) -> { }));
+
+        try (IssuanceJournal journal = IssuanceJournal.open(dir, 100, (high, low) -> { })) {
+            assertEquals(149, journal.getAppended());
+            journal.append(PackedRN.high(1000, 1, 2), PackedRN.low(START + 1000, 0));
+        }
+        List<Long> replayed = new ArrayList<>();
+        assertEquals(150, IssuanceJournal.replay(dir, (high, low) -> replayed.add(low)));
+        assertEquals(PackedRN.low(START + 148, 0), (long) replayed.get(148));
+        assertEquals(PackedRN.low(START + 1000, 0), (long) replayed.get(149));
+    }
+
+    @Test
+    public void itShouldRefuseADamagedRecordBeforeTheEnd() throws IOException {
+        try (IssuanceJournal journal = IssuanceJournal.open(dir, 100, (high, low) -> { })) {
+            for (int k = 0; k < 250; k++) {
+                journal.append(PackedRN.high(1000, 1, 2), PackedRN.low(START + k, 0));
+            }
+        }
+        try (RandomAccessFile file = new RandomAccessFile(segments().get(1).toFile(), "rw")) {
+            file.seek(4 + 10 * IssuanceJournal.RECORD_BYTES + 5);
+            file.write(file.read() ^ 0x10);
+        }
+        try {
+            IssuanceJournal.open(dir, 100, (high, low) -> { }).close();
+            fail("Expected the damaged record to be refused");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void itShouldShareSyncsBetweenConcurrentAppenders() throws Exception {
+        int threads = 8;
+        int each = 200;
+        CountDownLatch go = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        try (IssuanceJournal journal = IssuanceJournal.open(dir)) {
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int authority = 1000 + t;
+                Thread worker = new Thread(() -> {
+                    try {
+                        go.await();
+                        for (int k = 0; k < each; k++) {
+                            long high = PackedRN.high(authority, 1, 2);
+                            long low = PackedRN.low(START + k, 0);
+                            journal.issued(high, low);
+                            journal.afterIssued(high, low);
+                            if (journal.getDurable() < k + 1) {
+                                throw new AssertionError("Returned before its RN was durable");
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                });
+                workers.add(worker);
+                worker.start();
+            }
+            go.countDown();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            assertNull(failure.get());
+            assertEquals(threads * each, journal.getDurable());
+            // Threads that appended while a sync was in progress share the next one
+            assertTrue("Syncs " + journal.getSyncs(), journal.getSyncs() < threads * each);
+        }
+        assertEquals(threads * each, IssuanceJournal.replay(dir, (high, low) -> { }));
+    }
+
+    @Test
+    public void itShouldRestoreFactoryHighWaterMarks() throws IOException {
+        RNFactory factory = RNFactory.getFactory(new Authority(8765), new Instance(43), new Type(21));
+        RN rn;
+        try (IssuanceJournal journal = IssuanceJournal.open(dir)) {
+            factory.addListener(journal);
+            try {
+                factory.generateReferenceNumber();
+                rn = factory.generateReferenceNumber();
+            } finally {
+                factory.removeListener(journal);
+            }
+            assertEquals(2, journal.getDurable());
+        }
+
+        long millis = PackedRN.epochMilli(PackedRN.low(rn));
+        try (IssuanceJournal journal = IssuanceJournal.open(dir)) {
+            assertEquals(millis, (long) journal.getHighWaterMarks().get(PackedRN.high(rn)));
+            journal.restoreFactories();
+        }
+
+        // Push the factory out of the registry, so that a fresh one is made in its place
+        evictFactories();
+        RNFactory fresh = RNFactory.getFactory(new Authority(8765), new Instance(43), new Type(21));
+        assertNotSame(factory, fresh);
+        assertEquals(millis, fresh.getHighWaterMark());
+    }
+
+    @Test
+    public void itShouldRestoreMoreFactoriesThanTheRegistryHolds() throws IOException {
+        int factories = RNFactory.getRegistryMetrics().getCapacity() + 50;
+        try (IssuanceJournal journal = IssuanceJournal.open(dir)) {
+            for (int k = 0; k < factories; k++) {
+                journal.append(PackedRN.high(8766, k, 22), PackedRN.low(START + k, 0));
+            }
+        }
+        try (IssuanceJournal journal = IssuanceJournal.open(dir)) {
+            journal.restoreFactories();
+        }
+        evictFactories();
+        for (int k = 0; k < factories; k++) {
+            RNFactory factory = RNFactory.getFactory(new Authority(8766), new Instance(k), new Type(22));
+            assertEquals(START + k, factory.getHighWaterMark());
+        }
+    }
+
+    @Test
+    public void itShouldStopAtTheFirstFailedWrite() throws IOException {
+        // Writes fail part way through the second batch, leaving a torn record
+        AtomicLong budget = new AtomicLong(Long.MAX_VALUE);
+        IssuanceJournal journal = IssuanceJournal.open(dir, 100, (high, low) -> { },
+                                                       (file, options) -> new FailingChannel(FileChannel.open(file, options), budget));
+        for (int k = 0; k < 5; k++) {
+            journal.append(PackedRN.high(1000, 1, 2), PackedRN.low(START + k, 0));
+        }
+        journal.flush();
+        assertEquals(5, journal.getDurable());
+
+        budget.set(IssuanceJournal.RECORD_BYTES + 5);
+        for (int k = 5; k < 8; k++) {
+            journal.append(PackedRN.high(1000, 1, 2), PackedRN.low(START + k, 0));
+        }
+        IOException first = null;
+        try {
+            journal.awaitDurable(6);
+            fail("Expected the write to fail");
+        } catch (IOException e) {
+            first = e;
+        }
+        budget.set(Long.MAX_VALUE);
+        // Later waiters see the same failure, and the lost RNs are never reported durable
+        try {
+            journal.awaitDurable(8);
+            fail("Expected the failure to be raised again");
+        } catch (IOException e) {
+            assertSame(first, e.getCause());
+        }
+        assertEquals(5, journal.getDurable());
+        assertSame(first, journal.getFailure());
+        try {
+            journal.append(PackedRN.high(1000, 1, 2), PackedRN.low(START + 8, 0));
+            fail("Expected a failed journal to refuse RNs");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            journal.close();
+            fail("Expected closing a failed journal to report it");
+        } catch (IOException e) {
+            // expected
+        }
+
+        assertEquals(5, IssuanceJournal.replay(dir, (high, low) -> { }));
+        try (IssuanceJournal reopened = IssuanceJournal.open(dir, 100, (high, low) -> { })) {
+            assertEquals(5, reopened.getAppended());
+            reopened.append(PackedRN.high(1000, 1, 2), PackedRN.low(START + 9, 0));
+        }
+        assertEquals(6, IssuanceJournal.replay(dir, (high, low) -> { }));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void itShouldRefuseRNsOnceClosed() throws IOException {
+        IssuanceJournal journal = IssuanceJournal.open(dir);
+        journal.close();
+        journal.append(PackedRN.high(1000, 1, 2), PackedRN.low(START, 0));
+    }
+
+    private static void evictFactories() {
+        int capacity = RNFactory.getRegistryMetrics().getCapacity();
+        for (int i = 0; i <= capacity; i++) {
+            RNFactory.getFactory(new Authority(8767), new Instance(i), new Type(21));
+        }
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+
+    /** A channel that writes no more than a budget of bytes, then fails */
+    private static class FailingChannel extends FileChannel {
+        private final FileChannel channel;
+        private final AtomicLong budget;
+
+        FailingChannel(FileChannel channel, AtomicLong budget) {
+            this.channel = channel;
+            this.budget = budget;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            long left = budget.get();
+            if (left <= 0) {
+                throw new IOException("No space left on device");
+            }
+            if (src.remaining() > left) {
+                ByteBuffer part = src.duplicate();
+                part.limit(part.position() + (int) left);
+                int n = channel.write(part);
+                src.position(src.position() + n);
+                budget.addAndGet(-n);
+                return n;
+            }
+            int n = channel.write(src);
+            budget.addAndGet(-n);
+            return n;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return channel.read(dsts, offset, length);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            channel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            channel.force(metaData);
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return channel.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return channel.read(dst, position);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return channel.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return channel.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return channel.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            channel.close();
+        }
+    }
+}
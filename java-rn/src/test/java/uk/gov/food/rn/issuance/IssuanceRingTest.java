@@ -0,0 +1,329 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.issuance;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import uk.gov.food.rn.Authority;
+import uk.gov.food.rn.Instance;
+import uk.gov.food.rn.IssuanceListener;
+import uk.gov.food.rn.PackedRN;
+import uk.gov.food.rn.RN;
+import uk.gov.food.rn.RNException;
+import uk.gov.food.rn.RNFactory;
+import uk.gov.food.rn.Type;
+
+/**
+ * Unit tests on {@link IssuanceRing}
+ */
+public class IssuanceRingTest {
+
+    @Test
+    public void itShouldDeliverEveryRNInOrderToEveryConsumer() throws InterruptedException {
+        IssuanceRing ring = new IssuanceRing(64, BackPressure.BLOCK);
+        List<Long> first = Collections.synchronizedList(new ArrayList<>());
+        List<Long> second = Collections.synchronizedList(new ArrayList<>());
+        int[] largestBatch = new int[1];
+        ring.addConsumer("first", batch -> {
+            for (int i = 0; i < batch.size(); i++) {
+                first.add(batch.getLow(i));
+            }
+        }, 16);
+        ring.addConsumer("second", batch -> {
+            largestBatch[0] = Math.max(largestBatch[0], batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                assertEquals(batch.getFirstSequence() + i, batch.getLow(i));
+                second.add(batch.getLow(i));
+            }
+        }, 8);
+        ring.start();
+
+        for (long k = 0; k < 10_000; k++) {
+            ring.publish(1000L << 20, k);
+        }
+        ring.close();
+
+        assertEquals(10_000, ring.getPublished());
+        assertEquals(0, ring.getLag());
+        assertEquals(0, ring.getFailedBatches());
+        assertEquals(10_000, first.size());
+        assertEquals(10_000, second.size());
+        assertTrue(largestBatch[0] <= 8);
+        for (int k = 0; k < 10_000; k++) {
+            assertEquals(k, (long) first.get(k));
+            assertEquals(k, (long) second.get(k));
+        }
+    }
+
+    @Test
+    public void itShouldDeliverEveryRNFromSeveralWriters() throws InterruptedException {
+        IssuanceRing ring = new IssuanceRing(16, BackPressure.BLOCK);
+        long[] sum = new long[1];
+        ring.addConsumer("sum", batch -> {
+            for (int i = 0; i < batch.size(); i++) {
+                sum[0] += batch.getLow(i);
+            }
+        });
+        ring.start();
+
+        Thread[] writers = new Thread[3];
+        for (int w = 0; w < writers.length; w++) {
+            writers[w] = new Thread(() -> {
+                for (long k = 1; k <= 2000; k++) {
+                    ring.publish(1000L << 20, k);
+                }
+            });
+            writers[w].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        ring.close();
+
+        assertEquals(3 * 2000 * 2001 / 2, sum[0]);
+    }
+
+    @Test
+    public void itShouldFailWhenFullIfAskedTo() throws InterruptedException {
+        IssuanceRing ring = new IssuanceRing(4, BackPressure.FAIL);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Long> received = Collections.synchronizedList(new ArrayList<>());
+        ring.addConsumer("stuck", batch -> {
+            release.await();
+            for (int i = 0; i < batch.size(); i++) {
+                received.add(batch.getLow(i));
+            }
+        }, 1);
+        ring.start();
+
+        // The consumer takes the first RN and waits, leaving the ring to fill
+        ring.publish(1000L << 20, 0);
+        while (ring.getLag() > 0) {
+            Thread.sleep(1);
+        }
+        for (long k = 1; k <= 4; k++) {
+            ring.publish(1000L << 20, k);
+        }
+        try {
+            ring.publish(1000L << 20, 5);
+            fail("Expected the ring to be full");
+        } catch (RNException e) {
+            // Expected
+        }
+        assertEquals(1, ring.getRejected());
+
+        release.countDown();
+        ring.close();
+        assertEquals(5, received.size());
+    }
+
+    @Test
+    public void itShouldBlockWhenFull() throws InterruptedException {
+        IssuanceRing ring = new IssuanceRing(4, BackPressure.BLOCK);
+        List<Long> received = Collections.synchronizedList(new ArrayList<>());
+        ring.addConsumer("slow", batch -> {
+            Thread.sleep(1);
+            for (int i = 0; i < batch.size(); i++) {
+                received.add(batch.getLow(i));
+            }
+        }, 2);
+        ring.start();
+
+        for (long k = 0; k < 100; k++) {
+            ring.publish(1000L << 20, k);
+        }
+        ring.close();
+
+        assertEquals(100, received.size());
+        assertTrue(ring.getBlocked() > 0);
+    }
+
+    @Test
+    public void itShouldCarryOnAfterAConsumerFails() throws InterruptedException {
+        IssuanceRing ring = new IssuanceRing(8, BackPressure.BLOCK);
+        List<Long> received = Collections.synchronizedList(new ArrayList<>());
+        ring.addConsumer("flaky", batch -> {
+            received.add(batch.getLow(0));
+            if (batch.getLow(0) == 2) {
+                throw new IllegalStateException("Audit store unavailable");
+            }
+        }, 1);
+        ring.start();
+
+        for (long k = 0; k < 5; k++) {
+            ring.publish(1000L << 20, k);
+        }
+        ring.close();
+
+        assertEquals(5, received.size());
+        assertEquals(1, ring.getFailedBatches());
+    }
+
+    @Test
+    public void itShouldCarryOnAfterAConsumerRaisesAnError() throws InterruptedException {
+        IssuanceRing ring = new IssuanceRing(4, BackPressure.BLOCK);
+        List<Long> received = Collections.synchronizedList(new ArrayList<>());
+        ring.addConsumer("asserting", batch -> {
+            received.add(batch.getLow(0));
+            if (batch.getLow(0) == 1) {
+                throw new AssertionError("Unexpected RN");
+            }
+        }, 1);
+        ring.start();
+
+        // Many times the capacity, so writers would block for ever on a dead consumer
+        for (long k = 0; k < 40; k++) {
+            ring.publish(1000L << 20, k);
+        }
+        ring.close();
+
+        assertEquals(40, received.size());
+        assertEquals(1, ring.getFailedBatches());
+    }
+
+    @Test
+    public void itShouldReceiveRNsIssuedByAFactory() throws InterruptedException {
+        RNFactory factory = RNFactory.getFactory(new Authority(6543), new Instance(1), new Type(1));
+        IssuanceRing ring = new IssuanceRing(8, BackPressure.BLOCK);
+        List<RN> received = Collections.synchronizedList(new ArrayList<>());
+        ring.addConsumer("audit", batch -> {
+            for (int i = 0; i < batch.size(); i++) {
+                received.add(batch.toRN(i));
+            }
+        });
+        ring.start();
+
+        factory.addListener(ring);
+        List<RN> issued = new ArrayList<>();
+        for (int k = 0; k < 10; k++) {
+            issued.add(factory.generateReferenceNumber());
+        }
+        assertTrue(factory.removeListener(ring));
+        assertFalse(factory.removeListener(ring));
+        factory.generateReferenceNumber();
+        ring.close();
+
+        assertEquals(issued, received);
+        assertEquals(PackedRN.low(issued.get(0)), PackedRN.low(received.get(0)));
+    }
+
+    @Test
+    public void itShouldKeepReceivingRNsOnceTheRegistryHasMovedOn() throws InterruptedException {
+        RNFactory factory = RNFactory.getFactory(new Authority(6543), new Instance(2), new Type(1));
+        IssuanceRing ring = new IssuanceRing(8, BackPressure.BLOCK);
+        List<RN> received = Collections.synchronizedList(new ArrayList<>());
+        ring.addConsumer("audit", batch -> {
+            for (int i = 0; i < batch.size(); i++) {
+                received.add(batch.toRN(i));
+            }
+        });
+        ring.start();
+
+        factory.addListener(ring);
+        try {
+            // Enough other factories to push this one out of the registry, were it not kept
+            int capacity = RNFactory.getRegistryMetrics().getCapacity();
+            for (int i = 0; i <= capacity; i++) {
+                RNFactory.getFactory(new Authority(6544), new Instance(i), new Type(1));
+            }
+            assertSame(factory, RNFactory.getFactory(new Authority(6543), new Instance(2), new Type(1)));
+            RN rn = RNFactory.generateReferenceNumber(new Authority(6543), new Instance(2), new Type(1));
+            ring.close();
+            assertEquals(Collections.singletonList(rn), received);
+        } finally {
+            factory.removeListener(ring);
+        }
+    }
+
+    @Test
+    public void itShouldNotHandOutAKeptFactoryForAnotherType() {
+        // The same hash code, 31 * (31 * (31 + 6545) + 1) + 0 = 31 * (31 * (31 + 6545) + 0) + 31
+        RNFactory factory = RNFactory.getFactory(new Authority(6545), new Instance(1), new Type(0));
+        IssuanceListener listener = (high, low) -> { };
+        factory.addListener(listener);
+        try {
+            RNFactory other = RNFactory.getFactory(new Authority(6545), new Instance(0), new Type(31));
+            assertNotSame(factory, other);
+            assertEquals(31, other.getType().getId());
+            RN rn = RNFactory.generateReferenceNumber(new Authority(6545), new Instance(0), new Type(31));
+            assertEquals(0, rn.getInstance().getId());
+            assertEquals(31, rn.getType().getId());
+            assertSame(factory, RNFactory.getFactory(new Authority(6545), new Instance(1), new Type(0)));
+        } finally {
+            factory.removeListener(listener);
+        }
+    }
+
+    @Test
+    public void itShouldParkIdleConsumersUntilAnRNIsPublished() throws InterruptedException {
+        IssuanceRing ring = new IssuanceRing(8, BackPressure.BLOCK);
+        CountDownLatch received = new CountDownLatch(1);
+        ring.addConsumer("sleepy", batch -> received.countDown());
+        ring.start();
+
+        Thread reader = null;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("sleepy")) {
+                reader = thread;
+            }
+        }
+        assertNotNull(reader);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (reader.getState() != Thread.State.TIMED_WAITING && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(Thread.State.TIMED_WAITING, reader.getState());
+
+        ring.publish(1000L << 20, 0);
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+        ring.close();
+        assertFalse(reader.isAlive());
+    }
+
+    @Test
+    public void itShouldEnforceItsLifecycle() throws InterruptedException {
+        IssuanceRing ring = new IssuanceRing(8, BackPressure.BLOCK);
+        try {
+            ring.start();
+            fail("Expected a ring with no consumers not to start");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        try {
+            ring.publish(1000L << 20, 0);
+            fail("Expected a ring that has not started to refuse RNs");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        ring.addConsumer("idle", batch -> { });
+        ring.start();
+        try {
+            ring.addConsumer("late", batch -> { });
+            fail("Expected a started ring to refuse consumers");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        ring.close();
+        try {
+            ring.publish(1000L << 20, 0);
+            fail("Expected a closed ring to refuse RNs");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void itShouldRequireAPowerOfTwoCapacity() {
+        new IssuanceRing(12, BackPressure.BLOCK);
+    }
+}
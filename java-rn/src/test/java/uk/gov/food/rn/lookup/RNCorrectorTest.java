@@ -0,0 +1,128 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.lookup;
+
+import static org.junit.Assert.*;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import uk.gov.food.rn.PackedRN;
+import uk.gov.food.rn.Representation;
+
+/**
+ * Unit tests on {@link RNCorrector}
+ */
+public class RNCorrectorTest {
+    /** Issued 2018-04-12T12:34:51.468Z */
+    private static final String ENCODED = "H31DDZ-TFSV8C-KELK2B";
+    private static final long ISSUED = 1523536491468L;
+
+    private final RNCorrector corrector =
+        new RNCorrector(RNCorrector.DEFAULT_NOT_BEFORE, RNCorrector.DEFAULT_FUTURE_TOLERANCE,
+                        Clock.fixed(Instant.ofEpochMilli(ISSUED + 60_000), ZoneOffset.UTC));
+
+    @Test
+    public void itShouldSuggestNothingForAValidRN() {
+        assertTrue(corrector.suggest(ENCODED).isEmpty());
+    }
+
+    @Test
+    public void itShouldSuggestNothingForTheWrongNumberOfDigits() {
+        assertTrue(corrector.suggest("H31DDZ-TFSV8C-KELK2").isEmpty());
+        assertTrue(corrector.suggest("H31DDZ-TFSV8C-KELK2BB").isEmpty());
+    }
+
+    @Test
+    public void itShouldCorrectAnOcrConfusion() {
+        // S read as 5
+        List<RNCorrector.Suggestion> suggestions = corrector.suggest("H31DDZ-TF5V8C-KELK2B");
+
+        assertFalse(suggestions.isEmpty());
+        RNCorrector.Suggestion best = suggestions.get(0);
+        assertEquals(ENCODED, best.getEncodedForm());
+        assertEquals(RNCorrector.Kind.SUBSTITUTION, best.getKind());
+        assertEquals(8, best.getPosition());
+        assertEquals(RNCorrector.LIKELY_COST, best.getCost());
+        assertEquals(ENCODED, best.toRN().getEncodedForm());
+    }
+
+    @Test
+    public void itShouldCorrectATransposition() {
+        List<RNCorrector.Suggestion> suggestions = corrector.suggest("H31DDZ-TFSV8C-KEKL2B");
+
+        assertEquals(ENCODED, suggestions.get(0).getEncodedForm());
+        assertEquals(RNCorrector.Kind.TRANSPOSITION, suggestions.get(0).getKind());
+        assertEquals(14, suggestions.get(0).getPosition());
+    }
+
+    @Test
+    public void itShouldCorrectACharacterOutsideTheAlphabet() {
+        // 1 typed as I, which is not in the alphabet
+        List<RNCorrector.Suggestion> suggestions = corrector.suggest("H3IDDZ-TFSV8C-KELK2B");
+
+        assertEquals(1, suggestions.size());
+        assertEquals(ENCODED, suggestions.get(0).getEncodedForm());
+        assertEquals(RNCorrector.LIKELY_COST, suggestions.get(0).getCost());
+    }
+
+    @Test
+    public void itShouldIgnoreOnlyTheSeparatorsThatRepresentationIgnores() {
+        assertEquals(ENCODED, corrector.suggest("H31DDZ\tTF5V8C\r\nKELK2B").get(0).getEncodedForm());
+        // Whitespace to Character.isWhitespace, but not to [\s-], so one character too many
+        assertTrue(corrector.suggest("H31DDZ\u001CTF5V8C-KELK2B").isEmpty());
+        assertTrue(corrector.suggest("H31DDZ\u2000TF5V8C-KELK2B").isEmpty());
+    }
+
+    @Test
+    public void itShouldRejectImplausibleIssueTimes() {
+        RNCorrector early = new RNCorrector(RNCorrector.DEFAULT_NOT_BEFORE, 0,
+                                            Clock.fixed(Instant.ofEpochMilli(ISSUED - 1), ZoneOffset.UTC));
+
+        for (RNCorrector.Suggestion suggestion : early.suggest("H31DDZ-TF5V8C-KELK2B")) {
+            assertNotEquals(ENCODED, suggestion.getEncodedForm());
+        }
+    }
+
+    @Test
+    public void itShouldAlwaysIncludeTheOriginalOfASingleSlip() {
+        Random random = new Random(1087);
+        RNCorrector anyTime = new RNCorrector(0, Long.MAX_VALUE / 2, Clock.systemUTC());
+        long[] packed = new long[2];
+        for (int n = 0; n < 2000; n++) {
+            String encoded = PackedRN.encode(PackedRN.high(1000 + random.nextInt(9000), random.nextInt(1000), random.nextInt(1000)),
+                                             PackedRN.low(946684800000L + (long) (random.nextDouble() * 9.0e12), 0));
+            char[] chars = encoded.toCharArray();
+            int pos = random.nextInt(chars.length);
+            if (chars[pos] == '-') {
+                continue;
+            }
+            if (n % 2 == 0) {
+                chars[pos] = Representation.ALPHABET.charAt(random.nextInt(Representation.ALPHABET.length()));
+            } else if (pos + 1 < chars.length && chars[pos + 1] != '-') {
+                char c = chars[pos];
+                chars[pos] = chars[pos + 1];
+                chars[pos + 1] = c;
+            }
+            String typed = new String(chars);
+            if (typed.equals(encoded)) {
+                continue;
+            }
+
+            assertNotEquals(PackedRN.DECODED, PackedRN.decode(typed, packed, 0));
+            boolean found = false;
+            for (RNCorrector.Suggestion suggestion : anyTime.suggest(typed)) {
+                assertEquals(PackedRN.DECODED, PackedRN.decode(suggestion.getEncodedForm(), packed, 0));
+                found |= suggestion.getEncodedForm().equals(encoded);
+            }
+            assertTrue(typed, found);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.lookup;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import uk.gov.food.rn.PackedRN;
+import uk.gov.food.rn.RN;
+import uk.gov.food.rn.RNException;
+
+/**
+ * Unit tests on {@link RNDecodeCache}
+ */
+public class RNDecodeCacheTest {
+    private static final long START = 1514764800000L;
+
+    private static String encoded(int k) {
+        return PackedRN.encode(PackedRN.high(1000 + k % 9000, k % 1000, 7), PackedRN.low(START + k, 0));
+    }
+
+    @Test
+    public void itShouldShareOneRNBetweenSpellings() {
+        RNDecodeCache cache = new RNDecodeCache(100);
+        String grouped = encoded(1);
+        RN first = cache.decode(grouped);
+        assertEquals(new RN(grouped).getEncodedForm(), first.getEncodedForm());
+        assertSame(first, cache.decode(grouped));
+        assertSame(first, cache.decode(grouped.replace("-", "")));
+        assertSame(first, cache.decode(grouped.replace("-", " ")));
+        assertEquals(1, cache.size());
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0.75, cache.getHitRate(), 1e-9);
+    }
+
+    @Test
+    public void itShouldNotCacheInvalidInputs() {
+        RNDecodeCache cache = new RNDecodeCache(100);
+        String bad = encoded(2).replace('-', 'Q').substring(0, 12);
+        for (int k = 0; k < 2; k++) {
+            try {
+                cache.decode(bad);
+                fail("Expected an RNException");
+            } catch (RNException e) {
+                // expected
+            }
+        }
+        assertEquals(0, cache.size());
+        assertEquals(2, cache.getRejected());
+    }
+
+    @Test
+    public void itShouldRejectWhatTheDecoderRejectsWhenTheRNIsCached() {
+        RNDecodeCache cache = new RNDecodeCache(100);
+        String grouped = encoded(3);
+        cache.decode(grouped);
+        // Whitespace to Character.isWhitespace, but not to [\s-]
+        for (char c : new char[] { '\u001C', '\u2000' }) {
+            String spelling = grouped.replace('-', c);
+            try {
+                cache.decode(spelling);
+                fail("Expected an RNException for U+" + Integer.toHexString(c));
+            } catch (RNException e) {
+                // expected
+            }
+        }
+        assertEquals(2, cache.getRejected());
+        assertEquals("ABCDEF\u2000GHJKLMNPQRST", RNDecodeCache.normalise("ABCDEF\u2000GHJKLM-NPQRST"));
+    }
+
+    @Test
+    public void itShouldStayWithinCapacity() {
+        RNDecodeCache cache = new RNDecodeCache(200);
+        for (int k = 0; k < 1000; k++) {
+            cache.decode(encoded(k));
+        }
+        assertEquals(200, cache.size());
+        assertEquals(800, cache.getEvictions());
+    }
+
+    @Test
+    public void itShouldKeepPopularRNsThroughAScan() {
+        RNDecodeCache cache = new RNDecodeCache(100);
+        RN[] popular = new RN[20];
+        for (int k = 0; k < popular.length; k++) {
+            popular[k] = cache.decode(encoded(k));
+            cache.decode(encoded(k));
+        }
+        // Many RNs seen once each pass through probation
+        for (int k = 1000; k < 3000; k++) {
+            cache.decode(encoded(k));
+        }
+        long hits = cache.getHits();
+        for (int k = 0; k < popular.length; k++) {
+            assertSame(popular[k], cache.decode(encoded(k)));
+        }
+        assertEquals(hits + popular.length, cache.getHits());
+    }
+
+    @Test
+    public void itShouldNormaliseOnlyWhenNeeded() {
+        String plain = "ABCDEFGHJKLMNPQRST";
+        assertSame(plain, RNDecodeCache.normalise(plain));
+        assertEquals(plain, RNDecodeCache.normalise("ABCDEF-GHJKLM NPQRST"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void itShouldRequireACapacity() {
+        new RNDecodeCache(0);
+    }
+}
@@ -0,0 +1,141 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.lookup;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import uk.gov.food.rn.PackedRN;
+import uk.gov.food.rn.Representation;
+import uk.gov.food.rn.lookup.RNNeighbourIndex.Match;
+import uk.gov.food.rn.lookup.RNNeighbourIndex.Metric;
+
+/**
+ * Unit tests on {@link RNNeighbourIndex}
+ */
+public class RNNeighbourIndexTest {
+    private static final int POPULATION = 20_000;
+
+    private final long[] high = new long[POPULATION];
+    private final long[] low = new long[POPULATION];
+    private final RNNeighbourIndex index;
+
+    public RNNeighbourIndexTest() {
+        Random random = new Random(1087);
+        for (int i = 0; i < POPULATION; i++) {
+            high[i] = PackedRN.high(1000 + random.nextInt(20), random.nextInt(1000), random.nextInt(1000));
+            low[i] = PackedRN.low(1514764800000L + (long) (random.nextDouble() * 3.0e11), 0);
+        }
+        index = new RNNeighbourIndex(high, low);
+    }
+
+    @Test
+    public void itShouldFindAnExactMatch() {
+        String encoded = PackedRN.encode(high[7], low[7]);
+        List<Match> matches = index.search(encoded, Metric.HAMMING, 0, 10);
+
+        assertEquals(POPULATION, index.size());
+        assertEquals(1, matches.size());
+        assertEquals(encoded, matches.get(0).getEncodedForm());
+        assertEquals(0, matches.get(0).getDistance());
+        assertEquals(high[7], matches.get(0).getHigh());
+        assertEquals(low[7], matches.get(0).getLow());
+    }
+
+    @Test
+    public void itShouldFindMatchesWithTwoSubstitutions() {
+        Random random = new Random(33);
+        for (int n = 0; n < 200; n++) {
+            int i = random.nextInt(POPULATION);
+            String encoded = PackedRN.encode(high[i], low[i]);
+            char[] chars = encoded.toCharArray();
+            chars[random.nextInt(6)] = 'O';
+            chars[14 + random.nextInt(6)] = Representation.ALPHABET.charAt(random.nextInt(33));
+
+            List<Match> matches = index.search(new String(chars), Metric.HAMMING, 2, 5);
+            assertTrue(new String(chars), contains(matches, encoded));
+            assertEquals(bruteForceHamming(new String(chars), 2), index.search(new String(chars), Metric.HAMMING, 2, POPULATION).size());
+        }
+    }
+
+    @Test
+    public void itShouldFindMatchesWithDroppedAndInsertedCharacters() {
+        String encoded = PackedRN.encode(high[11], low[11]);
+        String dropped = encoded.substring(0, 3) + encoded.substring(4);
+        String inserted = encoded.substring(0, 16) + "X" + encoded.substring(16);
+
+        assertTrue(index.search(dropped, Metric.HAMMING, 2, 5).isEmpty());
+        List<Match> matches = index.search(dropped, Metric.EDIT, 1, 5);
+        assertEquals(encoded, matches.get(0).getEncodedForm());
+        assertEquals(1, matches.get(0).getDistance());
+        assertTrue(contains(index.search(inserted, Metric.EDIT, 1, 5), encoded));
+
+        String both = encoded.substring(0, 8) + encoded.substring(9, 17) + "A" + encoded.substring(17);
+        assertTrue(contains(index.search(both, Metric.EDIT, 2, 5), encoded));
+    }
+
+    @Test
+    public void itShouldSkipOnlyTheSeparatorsThatRepresentationSkips() {
+        String encoded = PackedRN.encode(high[5], low[5]);
+        List<Match> matches = index.search(encoded.replace('-', '\t'), Metric.HAMMING, 0, 5);
+        assertEquals(encoded, matches.get(0).getEncodedForm());
+
+        // Whitespace to Character.isWhitespace, but not to [\s-], so an inserted character
+        matches = index.search(encoded.replace('-', '\u2000'), Metric.EDIT, 2, 5);
+        assertEquals(encoded, matches.get(0).getEncodedForm());
+        assertEquals(2, matches.get(0).getDistance());
+    }
+
+    @Test
+    public void itShouldRestrictMatchesToAnAuthority() {
+        String encoded = PackedRN.encode(high[3], low[3]);
+        int authority = PackedRN.authority(high[3]);
+        String query = "A" + encoded.substring(1);
+
+        for (Match match : index.search(query, Metric.HAMMING, 2, authority, 100)) {
+            assertEquals(authority, PackedRN.authority(match.getHigh()));
+        }
+        assertTrue(contains(index.search(query, Metric.HAMMING, 2, authority, 100), encoded) ||
+                   encoded.charAt(0) == 'A');
+        int other = authority == 1000 ? 1001 : 1000;
+        assertFalse(contains(index.search(query, Metric.HAMMING, 2, other, 100), encoded));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void itShouldRejectLargeDistances() {
+        index.search(PackedRN.encode(high[0], low[0]), Metric.HAMMING, 3, 10);
+    }
+
+    private static boolean contains(List<Match> matches, String encoded) {
+        for (Match match : matches) {
+            if (match.getEncodedForm().equals(encoded)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int bruteForceHamming(String query, int max) {
+        String q = query.replace("-", "");
+        int count = 0;
+        for (int i = 0; i < POPULATION; i++) {
+            String e = PackedRN.encode(high[i], low[i]).replace("-", "");
+            int distance = 0;
+            for (int j = 0; j < q.length(); j++) {
+                if (q.charAt(j) != e.charAt(j)) {
+                    distance++;
+                }
+            }
+            if (distance <= max) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
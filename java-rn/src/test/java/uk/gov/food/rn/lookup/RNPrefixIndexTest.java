@@ -0,0 +1,157 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.lookup;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import uk.gov.food.rn.PackedRN;
+import uk.gov.food.rn.RN;
+import uk.gov.food.rn.Representation;
+
+/**
+ * Unit tests on {@link RNPrefixIndex}
+ */
+public class RNPrefixIndexTest {
+    private static final int POPULATION = 5000;
+
+    /** Encoded forms in alphabet order, in which the digits follow the letters */
+    private final TreeSet<String> expected = new TreeSet<>((a, b) -> {
+        for (int k = 0; k < a.length(); k++) {
+            int comparison = Integer.compare(Representation.ALPHABET.indexOf(a.charAt(k)),
+                                             Representation.ALPHABET.indexOf(b.charAt(k)));
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return 0;
+    });
+    private final long[] packed = new long[POPULATION * 2];
+
+    public RNPrefixIndexTest() {
+        Random random = new Random(1087);
+        for (int i = 0; i < POPULATION; i++) {
+            // A few authorities and a narrow time range, so encoded forms share prefixes
+            packed[2 * i] = PackedRN.high(1000 + random.nextInt(3), random.nextInt(10), random.nextInt(10));
+            packed[2 * i + 1] = PackedRN.low(1523536491468L + random.nextInt(1_000_000), 0);
+            expected.add(PackedRN.encode(packed[2 * i], packed[2 * i + 1]));
+        }
+    }
+
+    private RNPrefixIndex index() {
+        RNPrefixIndex index = new RNPrefixIndex();
+        index.addAll(packed);
+        return index;
+    }
+
+    @Test
+    public void itShouldHoldEachRNOnceInOrder() {
+        RNPrefixIndex index = index();
+        index.addAll(packed);
+
+        assertEquals(expected.size(), index.size());
+        assertEquals(new ArrayList<>(expected), index.cursor().page(0, POPULATION));
+    }
+
+    @Test
+    public void itShouldFindEveryPrefixMatch() {
+        RNPrefixIndex index = index();
+        List<String> samples = new ArrayList<>(expected);
+        for (int i = 0; i < samples.size(); i += 250) {
+            String encoded = samples.get(i);
+            for (int length = 0; length <= encoded.length(); length++) {
+                String prefix = encoded.substring(0, length);
+                List<String> matches = new ArrayList<>();
+                for (String e : expected) {
+                    if (e.startsWith(prefix)) {
+                        matches.add(e);
+                    }
+                }
+                RNPrefixIndex.Cursor cursor = index.cursor(prefix.replace("-", ""));
+                assertEquals(prefix, matches.size(), cursor.count());
+                assertEquals(prefix, matches, cursor.page(0, POPULATION));
+            }
+        }
+    }
+
+    @Test
+    public void itShouldNarrowAndWidenIncrementally() {
+        RNPrefixIndex index = index();
+        String target = expected.ceiling("H");
+        RNPrefixIndex.Cursor cursor = index.cursor();
+
+        int previous = cursor.count();
+        assertEquals(expected.size(), previous);
+        for (char c : target.toLowerCase().toCharArray()) {
+            int count = cursor.type(c);
+            assertTrue(count <= previous);
+            previous = count;
+        }
+        assertEquals(1, cursor.count());
+        assertEquals(target, cursor.page(0, 10).get(0));
+        assertEquals(target, cursor.pageOfRNs(0, 10).get(0).getEncodedForm());
+
+        assertEquals(0, cursor.type('O'));
+        assertEquals(0, cursor.type('A'));
+        assertEquals(0, cursor.delete());
+        assertEquals(1, cursor.delete());
+        assertEquals(18, cursor.length());
+        for (int k = 0; k < 18; k++) {
+            cursor.delete();
+        }
+        assertEquals(expected.size(), cursor.count());
+    }
+
+    @Test
+    public void itShouldIgnoreOnlyTheSeparatorsThatRepresentationIgnores() {
+        RNPrefixIndex index = index();
+        String prefix = expected.first().substring(0, 3);
+        int count = index.cursor(prefix).count();
+
+        assertEquals(count, index.cursor(" \t" + prefix + "-").count());
+        // Whitespace to Character.isWhitespace, but not to [\s-], so it matches nothing
+        assertEquals(0, index.cursor("\u2000" + prefix).count());
+        assertEquals(0, index.cursor(prefix + "\u001C").count());
+    }
+
+    @Test
+    public void itShouldPageThroughMatches() {
+        RNPrefixIndex index = index();
+        String prefix = expected.first().substring(0, 3);
+        RNPrefixIndex.Cursor cursor = index.cursor(prefix);
+
+        List<String> all = new ArrayList<>();
+        for (int offset = 0; offset < cursor.count(); offset += 7) {
+            List<String> page = cursor.page(offset, 7);
+            assertTrue(page.size() <= 7);
+            all.addAll(page);
+        }
+        assertEquals(cursor.page(0, cursor.count()), all);
+        assertTrue(cursor.page(cursor.count(), 7).isEmpty());
+    }
+
+    @Test
+    public void itShouldMergeBulkUpdates() {
+        RNPrefixIndex index = new RNPrefixIndex();
+        List<RN> rns = new ArrayList<>();
+        for (int i = 0; i < POPULATION; i++) {
+            rns.add(PackedRN.toRN(packed[2 * i], packed[2 * i + 1]));
+        }
+        RNPrefixIndex.Cursor before = index.cursor();
+        index.addAll(rns.subList(0, POPULATION / 2).stream());
+        index.addAll(rns.subList(POPULATION / 3, POPULATION).stream());
+
+        assertEquals(0, before.count());
+        assertEquals(new ArrayList<>(expected), index.cursor().page(0, POPULATION));
+        assertEquals(expected.size(), RNPrefixIndex.of(Stream.concat(rns.stream(), rns.stream())).size());
+    }
+}
@@ -0,0 +1,50 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.metrics;
+
+import static org.junit.Assert.*;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.Test;
+
+import uk.gov.food.rn.PackedRN;
+
+/**
+ * Unit tests on {@link DecodeMetrics}
+ */
+public class DecodeMetricsTest {
+
+    @Test
+    public void itShouldPublishOutcomesAndSamplesThroughJmx() throws Exception {
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        DecodeMetrics.register(server);
+        try {
+            server.invoke(DecodeMetrics.OBJECT_NAME, "sampleRejected", new Object[] { 10, 1 },
+                          new String[] { "int", "int" });
+            long before = (Long) server.getAttribute(DecodeMetrics.OBJECT_NAME, "Rejected");
+            PackedRN.decode("NOT AN RN!", new long[2], 0);
+
+            assertEquals(before + 1, (long) (Long) server.getAttribute(DecodeMetrics.OBJECT_NAME, "Rejected"));
+            CompositeData outcomes = (CompositeData) server.getAttribute(DecodeMetrics.OBJECT_NAME, "Outcomes");
+            assertTrue((Long) outcomes.get("illegalCharacter") >= 1);
+            CompositeData[] samples = (CompositeData[]) server.getAttribute(DecodeMetrics.OBJECT_NAME, "RejectedSamples");
+            assertEquals("NOT AN RN!", samples[samples.length - 1].get("input"));
+        } finally {
+            server.invoke(DecodeMetrics.OBJECT_NAME, "stopSampling", new Object[0], new String[0]);
+            DecodeMetrics.unregister(server);
+        }
+    }
+
+    @Test
+    public void itShouldDescribeEachStatus() {
+        assertEquals("decoded", DecodeSnapshot.describe(PackedRN.DECODED));
+        assertEquals("bad check digits", DecodeSnapshot.describe(PackedRN.BAD_CHECK_DIGITS));
+        assertEquals("bad timestamp", DecodeSnapshot.describe(PackedRN.BAD_TIMESTAMP));
+        assertEquals("unknown status 99", DecodeSnapshot.describe(99));
+    }
+}
@@ -0,0 +1,123 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.metrics;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.Test;
+
+import uk.gov.food.rn.Authority;
+import uk.gov.food.rn.Instance;
+import uk.gov.food.rn.RNFactory;
+import uk.gov.food.rn.Type;
+
+/**
+ * Unit tests on {@link IssuanceMetrics} and the metrics of {@link RNFactory}
+ */
+public class IssuanceMetricsTest {
+
+    @Test
+    public void itShouldCountRNsIssuedAndWaits() {
+        RNFactory factory = RNFactory.getFactory(new Authority(4321), new Instance(1), new Type(1));
+        FactorySnapshot before = factory.getMetrics();
+        for (int i = 0; i < 20; i++) {
+            assertNotNull(factory.generateReferenceNumber());
+        }
+        FactorySnapshot after = factory.getMetrics();
+
+        assertEquals(4321, after.getAuthority());
+        assertEquals(20, after.getIssued() - before.getIssued());
+        // Calls in quick succession wait for the clock to tick
+        assertTrue(after.getWaits() > before.getWaits());
+        assertTrue(after.getWaitNanos() > before.getWaitNanos());
+        long histogram = 0;
+        for (long count : after.getWaitHistogram()) {
+            histogram += count;
+        }
+        assertEquals(after.getWaits(), histogram);
+    }
+
+    @Test
+    public void itShouldCountContention() throws InterruptedException {
+        RNFactory factory = RNFactory.getFactory(new Authority(4321), new Instance(2), new Type(1));
+        CountDownLatch start = new CountDownLatch(1);
+        Runnable issue = () -> {
+            try {
+                start.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+            for (int i = 0; i < 50; i++) {
+                factory.generateReferenceNumber();
+            }
+        };
+        Thread[] threads = { new Thread(issue), new Thread(issue), new Thread(issue) };
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        FactorySnapshot metrics = factory.getMetrics();
+        assertEquals(150, metrics.getIssued());
+        // A thread waiting for the clock holds the factory, so the others find it busy
+        assertTrue(metrics.getContended() > 0);
+    }
+
+    @Test
+    public void itShouldCountRegistryLookupsAndEvictions() {
+        RegistrySnapshot before = RNFactory.getRegistryMetrics();
+        for (int i = 0; i <= before.getCapacity(); i++) {
+            RNFactory.getFactory(new Authority(4322), new Instance(i), new Type(2));
+        }
+        RegistrySnapshot after = RNFactory.getRegistryMetrics();
+
+        assertEquals(before.getCapacity() + 1, after.getLookups() - before.getLookups());
+        assertEquals(before.getCapacity() + 1, after.getCreated() - before.getCreated());
+        assertTrue(after.getEvictions() > before.getEvictions());
+        assertEquals(after.getCapacity(), after.getSize());
+    }
+
+    @Test
+    public void itShouldBucketWaitsByPowersOfTwoMicroseconds() {
+        assertEquals(0, FactorySnapshot.bucketOf(999));
+        assertEquals(1, FactorySnapshot.bucketOf(1_000));
+        assertEquals(2, FactorySnapshot.bucketOf(3_999));
+        assertEquals(11, FactorySnapshot.bucketOf(1_100_000));
+        assertEquals(FactorySnapshot.WAIT_BUCKETS - 1, FactorySnapshot.bucketOf(Long.MAX_VALUE));
+        for (int k = 0; k < FactorySnapshot.WAIT_BUCKETS - 1; k++) {
+            assertEquals(k + 1, FactorySnapshot.bucketOf(FactorySnapshot.bucketLimitMicros(k) * 1000));
+        }
+    }
+
+    @Test
+    public void itShouldPublishMetricsThroughJmx() throws Exception {
+        RNFactory factory = RNFactory.getFactory(new Authority(4321), new Instance(3), new Type(1));
+        factory.generateReferenceNumber();
+
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        IssuanceMetrics.register(server);
+        IssuanceMetrics.register(server);
+        try {
+            assertTrue((Long) server.getAttribute(IssuanceMetrics.OBJECT_NAME, "Issued") >= 1);
+            CompositeData registry = (CompositeData) server.getAttribute(IssuanceMetrics.OBJECT_NAME, "Registry");
+            assertTrue((Integer) registry.get("size") >= 1);
+            CompositeData[] factories = (CompositeData[]) server.getAttribute(IssuanceMetrics.OBJECT_NAME, "Factories");
+            assertTrue(factories.length >= 1);
+            assertTrue(factories[0].containsKey("waitHistogram"));
+        } finally {
+            IssuanceMetrics.unregister(server);
+        }
+        assertFalse(server.isRegistered(IssuanceMetrics.OBJECT_NAME));
+    }
+}
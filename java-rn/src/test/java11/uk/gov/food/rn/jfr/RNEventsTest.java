@@ -0,0 +1,118 @@
+/*****************************************************************************
+ * Copyright (c) 2018 Crown Copyright (Food Standards Agency)
+ * See LICENCE
+******************************************************************************/
+package uk.gov.food.rn.jfr;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import uk.gov.food.rn.Authority;
+import uk.gov.food.rn.Instance;
+import uk.gov.food.rn.PackedRN;
+import uk.gov.food.rn.RN;
+import uk.gov.food.rn.RNException;
+import uk.gov.food.rn.RNFactory;
+import uk.gov.food.rn.Type;
+import uk.gov.food.rn.bulk.RNColumns;
+
+/**
+ * Unit tests on {@link RNEvents}
+ */
+public class RNEventsTest {
+
+    @Before
+    public void setUp() {
+        assumeTrue("JFR is not available", RNEvents.isAvailable());
+    }
+
+    @Test
+    public void itShouldNotBeginEventsOutsideARecording() {
+        assertNull(RNEvents.beginDecode());
+        assertNull(RNEvents.beginFactoryWait());
+        assertNull(RNEvents.beginBatchDecode());
+        // Ending an event that was not begun does nothing
+        RNEvents.endDecode(null, "", PackedRN.DECODED);
+    }
+
+    @Test
+    public void itShouldRecordEvents() throws IOException {
+        RNFactory factory = RNFactory.getFactory(new Authority(5432), new Instance(1), new Type(1));
+        String valid = factory.generateReferenceNumber().getEncodedForm();
+
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            recording.enable("uk.gov.food.rn.FactoryWait").withThreshold(Duration.ZERO);
+            recording.enable("uk.gov.food.rn.Decode").withThreshold(Duration.ZERO);
+            recording.enable("uk.gov.food.rn.BatchDecode");
+            recording.enable("uk.gov.food.rn.ClockRegression");
+            recording.start();
+
+            for (int i = 0; i < 5; i++) {
+                factory.generateReferenceNumber();
+            }
+            new RN(valid);
+            try {
+                new RN("AB!");
+                fail("Expected an illegal character");
+            } catch (RNException e) {
+                // Expected
+            }
+            RNColumns.decode(new String[] { valid, "AB!", valid });
+            RNEvents.clockRegression(5432, 1, 1, 2000L, 1000L);
+
+            recording.stop();
+            Path file = Files.createTempFile("rn-events", ".jfr");
+            try {
+                recording.dump(file);
+                events = RecordingFile.readAllEvents(file);
+            } finally {
+                Files.delete(file);
+            }
+        }
+
+        List<RecordedEvent> waits = named(events, "uk.gov.food.rn.FactoryWait");
+        assertFalse(waits.isEmpty());
+        assertEquals(5432, waits.get(0).getInt("authority"));
+        assertTrue(waits.get(0).getDuration().toNanos() > 0);
+
+        List<RecordedEvent> decodes = named(events, "uk.gov.food.rn.Decode");
+        assertEquals(2, decodes.size());
+        assertEquals(PackedRN.DECODED, decodes.get(0).getInt("status"));
+        assertEquals("AB!", decodes.get(1).getString("input"));
+        assertEquals(PackedRN.ILLEGAL_CHARACTER, decodes.get(1).getInt("status"));
+
+        List<RecordedEvent> batches = named(events, "uk.gov.food.rn.BatchDecode");
+        assertEquals(1, batches.size());
+        assertEquals(3, batches.get(0).getInt("batchSize"));
+        assertEquals(2, batches.get(0).getInt("decoded"));
+
+        List<RecordedEvent> regressions = named(events, "uk.gov.food.rn.ClockRegression");
+        assertEquals(1, regressions.size());
+        assertEquals(1000L, regressions.get(0).getInstant("clockMillis").toEpochMilli());
+    }
+
+    private static List<RecordedEvent> named(List<RecordedEvent> events, String name) {
+        List<RecordedEvent> named = new ArrayList<>();
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals(name)) {
+                named.add(event);
+            }
+        }
+        named.sort((a, b) -> a.getStartTime().compareTo(b.getStartTime()));
+        return named;
+    }
+}